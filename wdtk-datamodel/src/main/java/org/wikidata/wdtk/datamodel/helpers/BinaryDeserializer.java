@@ -0,0 +1,489 @@
+package org.wikidata.wdtk.datamodel.helpers;
+
+/*
+ * #%L
+ * Wikidata Toolkit Data Model
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.wikidata.wdtk.datamodel.implementation.DataObjectFactoryImpl;
+import org.wikidata.wdtk.datamodel.implementation.ReferenceImpl;
+import org.wikidata.wdtk.datamodel.implementation.ValueImpl;
+import org.wikidata.wdtk.datamodel.implementation.ValueSnakImpl;
+import org.wikidata.wdtk.datamodel.interfaces.DataObjectFactory;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+import org.wikidata.wdtk.datamodel.interfaces.EntityIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.FormDocument;
+import org.wikidata.wdtk.datamodel.interfaces.FormIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.ItemIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.LexemeIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.MediaInfoIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.MonolingualTextValue;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.Reference;
+import org.wikidata.wdtk.datamodel.interfaces.SenseDocument;
+import org.wikidata.wdtk.datamodel.interfaces.SenseIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.SiteLink;
+import org.wikidata.wdtk.datamodel.interfaces.Snak;
+import org.wikidata.wdtk.datamodel.interfaces.SnakGroup;
+import org.wikidata.wdtk.datamodel.interfaces.Statement;
+import org.wikidata.wdtk.datamodel.interfaces.StatementGroup;
+import org.wikidata.wdtk.datamodel.interfaces.StatementRank;
+import org.wikidata.wdtk.datamodel.interfaces.Value;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * Reads {@link EntityDocument} objects from the binary format that is written
+ * by {@link BinarySerializer}. The documents of a stream have to be read in
+ * order, since repeated strings are only stored at their first occurrence.
+ *
+ * @see BinarySerializer
+ */
+public class BinaryDeserializer implements Closeable {
+
+	private static final StatementRank[] RANKS = StatementRank.values();
+
+	private final DataInputStream in;
+
+	private final String siteIri;
+
+	private final DataObjectFactory factory = new DataObjectFactoryImpl();
+
+	/**
+	 * Strings of the dictionary, in the order in which they were first read.
+	 */
+	private final List<String> dictionary = new ArrayList<>();
+
+	/**
+	 * Reader for values that are embedded as JSON. Only initialized when
+	 * needed.
+	 */
+	private ObjectReader valueReader;
+
+	/**
+	 * Creates a deserializer that reads from the given stream. The header of
+	 * the stream is read immediately. The stream will be closed when
+	 * {@link #close()} is called.
+	 *
+	 * @param inputStream
+	 *            the stream to read from
+	 * @throws IOException
+	 *             if the stream could not be read or does not start with a
+	 *             header of the expected format
+	 */
+	public BinaryDeserializer(InputStream inputStream) throws IOException {
+		this.in = new DataInputStream(new BufferedInputStream(inputStream));
+		byte[] magic = new byte[BinarySerializer.MAGIC.length];
+		this.in.readFully(magic);
+		if (!Arrays.equals(magic, BinarySerializer.MAGIC)) {
+			throw new IOException(
+					"Stream does not contain WDTK binary data of a supported version.");
+		}
+		this.siteIri = readString();
+	}
+
+	/**
+	 * Deserializes a document from the given bytes, as created by
+	 * {@link BinarySerializer#getBytes(EntityDocument)}.
+	 *
+	 * @param bytes
+	 *            the binary serialization
+	 * @return the document
+	 * @throws IOException
+	 *             if the bytes do not contain a valid document
+	 */
+	public static EntityDocument deserializeEntityDocument(byte[] bytes)
+			throws IOException {
+		try (BinaryDeserializer deserializer = new BinaryDeserializer(
+				new ByteArrayInputStream(bytes))) {
+			EntityDocument document = deserializer.nextEntityDocument();
+			if (document == null) {
+				throw new IOException("Binary data contains no document.");
+			}
+			return document;
+		}
+	}
+
+	/**
+	 * Returns the site IRI that was stored in the header of the stream.
+	 *
+	 * @return the site IRI
+	 */
+	public String getSiteIri() {
+		return this.siteIri;
+	}
+
+	/**
+	 * Reads the next document from the stream.
+	 *
+	 * @return the next document, or null if the end of the stream was reached
+	 * @throws IOException
+	 *             if the stream could not be read or contained invalid data
+	 */
+	public EntityDocument nextEntityDocument() throws IOException {
+		int documentType = this.in.read();
+		switch (documentType) {
+		case -1:
+		case BinarySerializer.DOC_END:
+			return null;
+		case BinarySerializer.DOC_ITEM:
+			return readItemDocument();
+		case BinarySerializer.DOC_PROPERTY:
+			return readPropertyDocument();
+		case BinarySerializer.DOC_LEXEME:
+			return readLexemeDocument();
+		case BinarySerializer.DOC_MEDIA_INFO:
+			return readMediaInfoDocument();
+		default:
+			throw new IOException("Unknown document type " + documentType);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.in.close();
+	}
+
+	private EntityDocument readItemDocument() throws IOException {
+		ItemIdValue itemId = (ItemIdValue) readEntityId();
+		long revisionId = readVarLong();
+		List<MonolingualTextValue> labels = readTerms();
+		List<MonolingualTextValue> descriptions = readTerms();
+		List<MonolingualTextValue> aliases = readAliases();
+		List<StatementGroup> statementGroups = readStatementGroups(itemId);
+		int siteLinkCount = readCount();
+		Map<String, SiteLink> siteLinks = new HashMap<>(siteLinkCount);
+		for (int i = 0; i < siteLinkCount; i++) {
+			String siteKey = readDictionaryString();
+			String title = readString();
+			int badgeCount = readCount();
+			List<ItemIdValue> badges = new ArrayList<>(badgeCount);
+			for (int j = 0; j < badgeCount; j++) {
+				badges.add((ItemIdValue) readEntityId());
+			}
+			siteLinks.put(siteKey,
+					this.factory.getSiteLink(title, siteKey, badges));
+		}
+		return this.factory.getItemDocument(itemId, labels, descriptions,
+				aliases, statementGroups, siteLinks, revisionId);
+	}
+
+	private EntityDocument readPropertyDocument() throws IOException {
+		PropertyIdValue propertyId = (PropertyIdValue) readEntityId();
+		long revisionId = readVarLong();
+		List<MonolingualTextValue> labels = readTerms();
+		List<MonolingualTextValue> descriptions = readTerms();
+		List<MonolingualTextValue> aliases = readAliases();
+		List<StatementGroup> statementGroups = readStatementGroups(propertyId);
+		String datatype = readDictionaryString();
+		return this.factory.getPropertyDocument(propertyId, labels,
+				descriptions, aliases, statementGroups,
+				this.factory.getDatatypeIdValue(datatype), revisionId);
+	}
+
+	private EntityDocument readLexemeDocument() throws IOException {
+		LexemeIdValue lexemeId = (LexemeIdValue) readEntityId();
+		long revisionId = readVarLong();
+		ItemIdValue lexicalCategory = (ItemIdValue) readEntityId();
+		ItemIdValue language = (ItemIdValue) readEntityId();
+		List<MonolingualTextValue> lemmas = readTerms();
+		List<StatementGroup> statementGroups = readStatementGroups(lexemeId);
+		int formCount = readCount();
+		List<FormDocument> forms = new ArrayList<>(formCount);
+		for (int i = 0; i < formCount; i++) {
+			FormIdValue formId = (FormIdValue) readEntityId();
+			long formRevisionId = readVarLong();
+			List<MonolingualTextValue> representations = readTerms();
+			int featureCount = readCount();
+			List<ItemIdValue> features = new ArrayList<>(featureCount);
+			for (int j = 0; j < featureCount; j++) {
+				features.add((ItemIdValue) readEntityId());
+			}
+			forms.add(this.factory.getFormDocument(formId, representations,
+					features, readStatementGroups(formId), formRevisionId));
+		}
+		int senseCount = readCount();
+		List<SenseDocument> senses = new ArrayList<>(senseCount);
+		for (int i = 0; i < senseCount; i++) {
+			SenseIdValue senseId = (SenseIdValue) readEntityId();
+			long senseRevisionId = readVarLong();
+			List<MonolingualTextValue> glosses = readTerms();
+			senses.add(this.factory.getSenseDocument(senseId, glosses,
+					readStatementGroups(senseId), senseRevisionId));
+		}
+		return this.factory.getLexemeDocument(lexemeId, lexicalCategory,
+				language, lemmas, statementGroups, forms, senses, revisionId);
+	}
+
+	private EntityDocument readMediaInfoDocument() throws IOException {
+		MediaInfoIdValue mediaInfoId = (MediaInfoIdValue) readEntityId();
+		long revisionId = readVarLong();
+		List<MonolingualTextValue> labels = readTerms();
+		List<StatementGroup> statementGroups = readStatementGroups(mediaInfoId);
+		return this.factory.getMediaInfoDocument(mediaInfoId, labels,
+				statementGroups, revisionId);
+	}
+
+	private List<MonolingualTextValue> readTerms() throws IOException {
+		int count = readCount();
+		if (count == 0) {
+			return Collections.emptyList();
+		}
+		List<MonolingualTextValue> terms = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			String languageCode = readDictionaryString();
+			terms.add(this.factory.getMonolingualTextValue(readString(),
+					languageCode));
+		}
+		return terms;
+	}
+
+	private List<MonolingualTextValue> readAliases() throws IOException {
+		int languageCount = readCount();
+		if (languageCount == 0) {
+			return Collections.emptyList();
+		}
+		List<MonolingualTextValue> aliases = new ArrayList<>();
+		for (int i = 0; i < languageCount; i++) {
+			String languageCode = readDictionaryString();
+			int count = readCount();
+			for (int j = 0; j < count; j++) {
+				aliases.add(this.factory.getMonolingualTextValue(readString(),
+						languageCode));
+			}
+		}
+		return aliases;
+	}
+
+	private List<StatementGroup> readStatementGroups(EntityIdValue subject)
+			throws IOException {
+		int groupCount = readCount();
+		if (groupCount == 0) {
+			return Collections.emptyList();
+		}
+		String statementIdPrefix = subject.getId() + "$";
+		List<StatementGroup> statementGroups = new ArrayList<>(groupCount);
+		for (int i = 0; i < groupCount; i++) {
+			int statementCount = readCount();
+			List<Statement> statements = new ArrayList<>(statementCount);
+			for (int j = 0; j < statementCount; j++) {
+				Snak mainSnak = readSnak();
+				List<SnakGroup> qualifiers = readSnakGroups();
+				int referenceCount = readCount();
+				List<Reference> references = new ArrayList<>(referenceCount);
+				for (int k = 0; k < referenceCount; k++) {
+					String hash = readNullableString();
+					references.add(new ReferenceImpl(readSnakGroups(), hash));
+				}
+				StatementRank rank = RANKS[this.in.readUnsignedByte()];
+				String statementId = this.in.readBoolean() ? statementIdPrefix
+						+ readString() : readString();
+				statements.add(this.factory.getStatement(subject, mainSnak,
+						qualifiers, references, rank, statementId));
+			}
+			statementGroups.add(this.factory.getStatementGroup(statements));
+		}
+		return statementGroups;
+	}
+
+	private List<SnakGroup> readSnakGroups() throws IOException {
+		int groupCount = readCount();
+		if (groupCount == 0) {
+			return Collections.emptyList();
+		}
+		List<SnakGroup> snakGroups = new ArrayList<>(groupCount);
+		for (int i = 0; i < groupCount; i++) {
+			int snakCount = readCount();
+			List<Snak> snaks = new ArrayList<>(snakCount);
+			for (int j = 0; j < snakCount; j++) {
+				snaks.add(readSnak());
+			}
+			snakGroups.add(this.factory.getSnakGroup(snaks));
+		}
+		return snakGroups;
+	}
+
+	private Snak readSnak() throws IOException {
+		int snakType = this.in.readUnsignedByte();
+		String propertySiteIri = readDictionaryString();
+		PropertyIdValue propertyId = this.factory.getPropertyIdValue("P"
+				+ readVarLong(), propertySiteIri);
+		switch (snakType) {
+		case BinarySerializer.SNAK_VALUE:
+			String datatype = readDictionaryString();
+			return new ValueSnakImpl(propertyId, readValue(), datatype);
+		case BinarySerializer.SNAK_SOME_VALUE:
+			return this.factory.getSomeValueSnak(propertyId);
+		case BinarySerializer.SNAK_NO_VALUE:
+			return this.factory.getNoValueSnak(propertyId);
+		default:
+			throw new IOException("Unknown snak type " + snakType);
+		}
+	}
+
+	private Value readValue() throws IOException {
+		int valueType = this.in.readUnsignedByte();
+		switch (valueType) {
+		case BinarySerializer.VALUE_ENTITY_ID:
+			return readEntityId();
+		case BinarySerializer.VALUE_STRING:
+			return this.factory.getStringValue(readString());
+		case BinarySerializer.VALUE_MONOLINGUAL_TEXT:
+			String languageCode = readDictionaryString();
+			return this.factory.getMonolingualTextValue(readString(),
+					languageCode);
+		case BinarySerializer.VALUE_TIME:
+			long year = unZigZag(readVarLong());
+			byte month = this.in.readByte();
+			byte day = this.in.readByte();
+			byte hour = this.in.readByte();
+			byte minute = this.in.readByte();
+			byte second = this.in.readByte();
+			byte precision = this.in.readByte();
+			int beforeTolerance = (int) unZigZag(readVarLong());
+			int afterTolerance = (int) unZigZag(readVarLong());
+			int timezoneOffset = (int) unZigZag(readVarLong());
+			return this.factory.getTimeValue(year, month, day, hour, minute,
+					second, precision, beforeTolerance, afterTolerance,
+					timezoneOffset, readDictionaryString());
+		case BinarySerializer.VALUE_GLOBE_COORDINATES:
+			double latitude = this.in.readDouble();
+			double longitude = this.in.readDouble();
+			double coordinatePrecision = this.in.readDouble();
+			return this.factory.getGlobeCoordinatesValue(latitude, longitude,
+					coordinatePrecision, readDictionaryString());
+		case BinarySerializer.VALUE_QUANTITY:
+			BigDecimal amount = readDecimal();
+			BigDecimal lowerBound = this.in.readBoolean() ? readDecimal()
+					: null;
+			BigDecimal upperBound = this.in.readBoolean() ? readDecimal()
+					: null;
+			return this.factory.getQuantityValue(amount, lowerBound,
+					upperBound, readDictionaryString());
+		case BinarySerializer.VALUE_JSON:
+			if (this.valueReader == null) {
+				this.valueReader = new DatamodelMapper(this.siteIri)
+						.readerFor(ValueImpl.class);
+			}
+			return this.valueReader.readValue(readString());
+		default:
+			throw new IOException("Unknown value type " + valueType);
+		}
+	}
+
+	private EntityIdValue readEntityId() throws IOException {
+		int idType = this.in.readUnsignedByte();
+		String idSiteIri = readDictionaryString();
+		switch (idType) {
+		case BinarySerializer.ID_ITEM:
+			return this.factory.getItemIdValue("Q" + readVarLong(), idSiteIri);
+		case BinarySerializer.ID_PROPERTY:
+			return this.factory.getPropertyIdValue("P" + readVarLong(),
+					idSiteIri);
+		case BinarySerializer.ID_LEXEME:
+			return this.factory.getLexemeIdValue("L" + readVarLong(),
+					idSiteIri);
+		case BinarySerializer.ID_MEDIA_INFO:
+			return this.factory.getMediaInfoIdValue("M" + readVarLong(),
+					idSiteIri);
+		case BinarySerializer.ID_FORM:
+			return this.factory.getFormIdValue("L" + readVarLong() + "-F"
+					+ readVarLong(), idSiteIri);
+		case BinarySerializer.ID_SENSE:
+			return this.factory.getSenseIdValue("L" + readVarLong() + "-S"
+					+ readVarLong(), idSiteIri);
+		default:
+			throw new IOException("Unknown entity id type " + idType);
+		}
+	}
+
+	private BigDecimal readDecimal() throws IOException {
+		int scale = (int) unZigZag(readVarLong());
+		byte[] unscaled = new byte[readCount()];
+		this.in.readFully(unscaled);
+		return new BigDecimal(new BigInteger(unscaled), scale);
+	}
+
+	private String readDictionaryString() throws IOException {
+		long reference = readVarLong();
+		if (reference == 0) {
+			return null;
+		} else if (reference == 1) {
+			String string = readString();
+			this.dictionary.add(string);
+			return string;
+		} else {
+			return this.dictionary.get((int) (reference - 2));
+		}
+	}
+
+	private String readNullableString() throws IOException {
+		int length = readCount();
+		if (length == 0) {
+			return null;
+		}
+		return readString(length - 1);
+	}
+
+	private String readString() throws IOException {
+		return readString(readCount());
+	}
+
+	private String readString(int length) throws IOException {
+		byte[] bytes = new byte[length];
+		this.in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private int readCount() throws IOException {
+		return (int) readVarLong();
+	}
+
+	private long readVarLong() throws IOException {
+		long result = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = this.in.readUnsignedByte();
+			result |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return result;
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+}
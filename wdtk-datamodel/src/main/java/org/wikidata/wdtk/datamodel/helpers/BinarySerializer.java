@@ -0,0 +1,588 @@
+package org.wikidata.wdtk.datamodel.helpers;
+
+/*
+ * #%L
+ * Wikidata Toolkit Data Model
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wikidata.wdtk.datamodel.implementation.ValueSnakImpl;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocumentDumpProcessor;
+import org.wikidata.wdtk.datamodel.interfaces.EntityIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.FormDocument;
+import org.wikidata.wdtk.datamodel.interfaces.FormIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.GlobeCoordinatesValue;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.ItemIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.LexemeDocument;
+import org.wikidata.wdtk.datamodel.interfaces.LexemeIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.MediaInfoDocument;
+import org.wikidata.wdtk.datamodel.interfaces.MediaInfoIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.MonolingualTextValue;
+import org.wikidata.wdtk.datamodel.interfaces.NoValueSnak;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyDocument;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.QuantityValue;
+import org.wikidata.wdtk.datamodel.interfaces.Reference;
+import org.wikidata.wdtk.datamodel.interfaces.SenseDocument;
+import org.wikidata.wdtk.datamodel.interfaces.SenseIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.SiteLink;
+import org.wikidata.wdtk.datamodel.interfaces.Snak;
+import org.wikidata.wdtk.datamodel.interfaces.SnakGroup;
+import org.wikidata.wdtk.datamodel.interfaces.SomeValueSnak;
+import org.wikidata.wdtk.datamodel.interfaces.Statement;
+import org.wikidata.wdtk.datamodel.interfaces.StatementGroup;
+import org.wikidata.wdtk.datamodel.interfaces.StringValue;
+import org.wikidata.wdtk.datamodel.interfaces.TimeValue;
+import org.wikidata.wdtk.datamodel.interfaces.UnsupportedEntityIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.Value;
+import org.wikidata.wdtk.datamodel.interfaces.ValueSnak;
+
+/**
+ * This class implements {@link EntityDocumentDumpProcessor} to provide a
+ * serializer for {@link EntityDocument} objects in a compact binary format.
+ * The format is meant for caching data locally, e.g., to process the same dump
+ * many times without having to parse its JSON each time. It can be read with
+ * {@link BinaryDeserializer}.
+ * <p>
+ * Entity ids are stored as numbers, and repeated strings such as language
+ * codes, site keys, datatypes, units or calendar models are stored only once
+ * per stream and referred to by their index afterwards. All integers are
+ * written as variable-length integers. Values that are not supported by this
+ * format are embedded as JSON.
+ * <p>
+ * The implementation does not check if {@link #open()} has been called before
+ * the first document is serialized. It is the responsibility of the caller to
+ * do this.
+ */
+public class BinarySerializer implements EntityDocumentDumpProcessor {
+
+	private static final Logger logger = LoggerFactory.getLogger(BinarySerializer.class);
+
+	/**
+	 * Bytes that start every binary stream. The last byte is the version of
+	 * the format.
+	 */
+	static final byte[] MAGIC = { 'W', 'D', 'T', 'K', 'B', 'I', 'N', 1 };
+
+	static final int DOC_END = 0;
+	static final int DOC_ITEM = 1;
+	static final int DOC_PROPERTY = 2;
+	static final int DOC_LEXEME = 3;
+	static final int DOC_MEDIA_INFO = 4;
+
+	static final int ID_ITEM = 0;
+	static final int ID_PROPERTY = 1;
+	static final int ID_LEXEME = 2;
+	static final int ID_MEDIA_INFO = 3;
+	static final int ID_FORM = 4;
+	static final int ID_SENSE = 5;
+
+	static final int SNAK_VALUE = 0;
+	static final int SNAK_SOME_VALUE = 1;
+	static final int SNAK_NO_VALUE = 2;
+
+	static final int VALUE_ENTITY_ID = 0;
+	static final int VALUE_STRING = 1;
+	static final int VALUE_MONOLINGUAL_TEXT = 2;
+	static final int VALUE_TIME = 3;
+	static final int VALUE_GLOBE_COORDINATES = 4;
+	static final int VALUE_QUANTITY = 5;
+	static final int VALUE_JSON = 6;
+
+	/**
+	 * The stream that the binary data is written to.
+	 */
+	private final DataOutputStream out;
+
+	/**
+	 * The site IRI of all documents in this stream. Stored in the header.
+	 */
+	private final String siteIri;
+
+	/**
+	 * Dictionary of the strings that have been written so far, mapped to their
+	 * index.
+	 */
+	private final Map<String, Integer> dictionary = new HashMap<>();
+
+	/**
+	 * Counter for the number of documents serialized so far.
+	 */
+	private int entityDocumentCount;
+
+	/**
+	 * Creates a new binary serializer that writes its output to the given
+	 * stream. The output stream will be managed by the object, i.e., it will
+	 * be closed when {@link #close()} is called.
+	 *
+	 * @param outputStream
+	 *            the output stream to write to
+	 * @param siteIri
+	 *            the IRI of the site that the serialized documents come from
+	 */
+	public BinarySerializer(OutputStream outputStream, String siteIri) {
+		this.out = new DataOutputStream(new BufferedOutputStream(outputStream));
+		this.siteIri = siteIri;
+	}
+
+	/**
+	 * Serializes the given document into a self-contained byte array, which
+	 * can be read with
+	 * {@link BinaryDeserializer#deserializeEntityDocument(byte[])}.
+	 *
+	 * @param entityDocument
+	 *            the document to serialize
+	 * @return the binary serialization
+	 */
+	public static byte[] getBytes(EntityDocument entityDocument) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinarySerializer serializer = new BinarySerializer(bytes,
+				entityDocument.getEntityId().getSiteIri());
+		serializer.open();
+		serializer.serializeEntityDocument(entityDocument);
+		serializer.close();
+		return bytes.toByteArray();
+	}
+
+	@Override
+	public void open() {
+		this.entityDocumentCount = 0;
+		try {
+			this.out.write(MAGIC);
+			writeString(this.siteIri);
+		} catch (IOException e) {
+			reportException(e);
+		}
+	}
+
+	@Override
+	public void processItemDocument(ItemDocument itemDocument) {
+		serializeEntityDocument(itemDocument);
+	}
+
+	@Override
+	public void processPropertyDocument(PropertyDocument propertyDocument) {
+		serializeEntityDocument(propertyDocument);
+	}
+
+	@Override
+	public void processLexemeDocument(LexemeDocument lexemeDocument) {
+		serializeEntityDocument(lexemeDocument);
+	}
+
+	@Override
+	public void processMediaInfoDocument(MediaInfoDocument mediaInfoDocument) {
+		serializeEntityDocument(mediaInfoDocument);
+	}
+
+	@Override
+	public void close() {
+		try {
+			this.out.writeByte(DOC_END);
+			this.out.close();
+		} catch (IOException e) {
+			reportException(e);
+		}
+	}
+
+	/**
+	 * Returns the number of entity documents serialized so far.
+	 *
+	 * @return number of serialized entity documents
+	 */
+	public int getEntityDocumentCount() {
+		return this.entityDocumentCount;
+	}
+
+	/**
+	 * Reports a given exception as a RuntimeException, since the interface does
+	 * not allow us to throw checked exceptions directly.
+	 *
+	 * @param e
+	 *            the exception to report
+	 * @throws RuntimeException
+	 *             in all cases
+	 */
+	private void reportException(Exception e) {
+		logger.error("Failed to write binary export: " + e.toString());
+		throw new RuntimeException(e.toString(), e);
+	}
+
+	/**
+	 * Writes the binary serialization of the given {@link EntityDocument}.
+	 * Documents of other types than items, properties, lexemes and media
+	 * info are ignored.
+	 *
+	 * @param entityDocument
+	 *            the document to serialize
+	 */
+	private void serializeEntityDocument(EntityDocument entityDocument) {
+		try {
+			if (entityDocument instanceof ItemDocument) {
+				writeItemDocument((ItemDocument) entityDocument);
+			} else if (entityDocument instanceof PropertyDocument) {
+				writePropertyDocument((PropertyDocument) entityDocument);
+			} else if (entityDocument instanceof LexemeDocument) {
+				writeLexemeDocument((LexemeDocument) entityDocument);
+			} else if (entityDocument instanceof MediaInfoDocument) {
+				writeMediaInfoDocument((MediaInfoDocument) entityDocument);
+			} else {
+				logger.warn("Cannot serialize document of type "
+						+ entityDocument.getClass() + " in binary format.");
+				return;
+			}
+		} catch (IOException e) {
+			reportException(e);
+		}
+		this.entityDocumentCount++;
+	}
+
+	private void writeItemDocument(ItemDocument document) throws IOException {
+		this.out.writeByte(DOC_ITEM);
+		writeEntityId(document.getEntityId());
+		writeVarLong(document.getRevisionId());
+		writeTerms(document.getLabels());
+		writeTerms(document.getDescriptions());
+		writeAliases(document.getAliases());
+		writeStatementGroups(document.getStatementGroups(), document
+				.getEntityId().getId());
+		writeVarLong(document.getSiteLinks().size());
+		for (SiteLink siteLink : document.getSiteLinks().values()) {
+			writeDictionaryString(siteLink.getSiteKey());
+			writeString(siteLink.getPageTitle());
+			writeVarLong(siteLink.getBadges().size());
+			for (ItemIdValue badge : siteLink.getBadges()) {
+				writeEntityId(badge);
+			}
+		}
+	}
+
+	private void writePropertyDocument(PropertyDocument document)
+			throws IOException {
+		this.out.writeByte(DOC_PROPERTY);
+		writeEntityId(document.getEntityId());
+		writeVarLong(document.getRevisionId());
+		writeTerms(document.getLabels());
+		writeTerms(document.getDescriptions());
+		writeAliases(document.getAliases());
+		writeStatementGroups(document.getStatementGroups(), document
+				.getEntityId().getId());
+		writeDictionaryString(document.getDatatype().getIri());
+	}
+
+	private void writeLexemeDocument(LexemeDocument document)
+			throws IOException {
+		this.out.writeByte(DOC_LEXEME);
+		writeEntityId(document.getEntityId());
+		writeVarLong(document.getRevisionId());
+		writeEntityId(document.getLexicalCategory());
+		writeEntityId(document.getLanguage());
+		writeTerms(document.getLemmas());
+		writeStatementGroups(document.getStatementGroups(), document
+				.getEntityId().getId());
+		writeVarLong(document.getForms().size());
+		for (FormDocument form : document.getForms()) {
+			writeEntityId(form.getEntityId());
+			writeVarLong(form.getRevisionId());
+			writeTerms(form.getRepresentations());
+			writeVarLong(form.getGrammaticalFeatures().size());
+			for (ItemIdValue feature : form.getGrammaticalFeatures()) {
+				writeEntityId(feature);
+			}
+			writeStatementGroups(form.getStatementGroups(), form.getEntityId()
+					.getId());
+		}
+		writeVarLong(document.getSenses().size());
+		for (SenseDocument sense : document.getSenses()) {
+			writeEntityId(sense.getEntityId());
+			writeVarLong(sense.getRevisionId());
+			writeTerms(sense.getGlosses());
+			writeStatementGroups(sense.getStatementGroups(), sense
+					.getEntityId().getId());
+		}
+	}
+
+	private void writeMediaInfoDocument(MediaInfoDocument document)
+			throws IOException {
+		this.out.writeByte(DOC_MEDIA_INFO);
+		writeEntityId(document.getEntityId());
+		writeVarLong(document.getRevisionId());
+		writeTerms(document.getLabels());
+		writeStatementGroups(document.getStatementGroups(), document
+				.getEntityId().getId());
+	}
+
+	private void writeTerms(Map<String, MonolingualTextValue> terms)
+			throws IOException {
+		writeVarLong(terms.size());
+		for (MonolingualTextValue term : terms.values()) {
+			writeDictionaryString(term.getLanguageCode());
+			writeString(term.getText());
+		}
+	}
+
+	private void writeAliases(Map<String, List<MonolingualTextValue>> aliases)
+			throws IOException {
+		writeVarLong(aliases.size());
+		for (Map.Entry<String, List<MonolingualTextValue>> entry : aliases
+				.entrySet()) {
+			writeDictionaryString(entry.getKey());
+			writeVarLong(entry.getValue().size());
+			for (MonolingualTextValue alias : entry.getValue()) {
+				writeString(alias.getText());
+			}
+		}
+	}
+
+	private void writeStatementGroups(List<StatementGroup> statementGroups,
+			String subjectId) throws IOException {
+		String statementIdPrefix = subjectId + "$";
+		writeVarLong(statementGroups.size());
+		for (StatementGroup statementGroup : statementGroups) {
+			writeVarLong(statementGroup.size());
+			for (Statement statement : statementGroup) {
+				writeSnak(statement.getMainSnak());
+				writeSnakGroups(statement.getQualifiers());
+				writeVarLong(statement.getReferences().size());
+				for (Reference reference : statement.getReferences()) {
+					writeNullableString(reference.getHash());
+					writeSnakGroups(reference.getSnakGroups());
+				}
+				this.out.writeByte(statement.getRank().ordinal());
+				// Statement ids usually start with the subject id, which we
+				// know already:
+				String statementId = statement.getStatementId();
+				if (statementId.startsWith(statementIdPrefix)) {
+					this.out.writeBoolean(true);
+					writeString(statementId.substring(statementIdPrefix
+							.length()));
+				} else {
+					this.out.writeBoolean(false);
+					writeString(statementId);
+				}
+			}
+		}
+	}
+
+	private void writeSnakGroups(List<SnakGroup> snakGroups)
+			throws IOException {
+		writeVarLong(snakGroups.size());
+		for (SnakGroup snakGroup : snakGroups) {
+			writeVarLong(snakGroup.size());
+			for (Snak snak : snakGroup) {
+				writeSnak(snak);
+			}
+		}
+	}
+
+	private void writeSnak(Snak snak) throws IOException {
+		if (snak instanceof NoValueSnak) {
+			this.out.writeByte(SNAK_NO_VALUE);
+		} else if (snak instanceof SomeValueSnak) {
+			this.out.writeByte(SNAK_SOME_VALUE);
+		} else {
+			this.out.writeByte(SNAK_VALUE);
+		}
+		writeDictionaryString(snak.getPropertyId().getSiteIri());
+		writeEntityNumber(snak.getPropertyId());
+		if (snak instanceof ValueSnak) {
+			if (snak instanceof ValueSnakImpl) {
+				writeDictionaryString(((ValueSnakImpl) snak).getDatatype());
+			} else {
+				writeDictionaryString(null);
+			}
+			writeValue(((ValueSnak) snak).getValue());
+		}
+	}
+
+	private void writeValue(Value value) throws IOException {
+		if (value instanceof EntityIdValue
+				&& !(value instanceof UnsupportedEntityIdValue)) {
+			this.out.writeByte(VALUE_ENTITY_ID);
+			writeEntityId((EntityIdValue) value);
+		} else if (value instanceof StringValue) {
+			this.out.writeByte(VALUE_STRING);
+			writeString(((StringValue) value).getString());
+		} else if (value instanceof MonolingualTextValue) {
+			MonolingualTextValue text = (MonolingualTextValue) value;
+			this.out.writeByte(VALUE_MONOLINGUAL_TEXT);
+			writeDictionaryString(text.getLanguageCode());
+			writeString(text.getText());
+		} else if (value instanceof TimeValue) {
+			TimeValue time = (TimeValue) value;
+			this.out.writeByte(VALUE_TIME);
+			writeVarLong(zigZag(time.getYear()));
+			this.out.writeByte(time.getMonth());
+			this.out.writeByte(time.getDay());
+			this.out.writeByte(time.getHour());
+			this.out.writeByte(time.getMinute());
+			this.out.writeByte(time.getSecond());
+			this.out.writeByte(time.getPrecision());
+			writeVarLong(zigZag(time.getBeforeTolerance()));
+			writeVarLong(zigZag(time.getAfterTolerance()));
+			writeVarLong(zigZag(time.getTimezoneOffset()));
+			writeDictionaryString(time.getPreferredCalendarModel());
+		} else if (value instanceof GlobeCoordinatesValue) {
+			GlobeCoordinatesValue coordinates = (GlobeCoordinatesValue) value;
+			this.out.writeByte(VALUE_GLOBE_COORDINATES);
+			this.out.writeDouble(coordinates.getLatitude());
+			this.out.writeDouble(coordinates.getLongitude());
+			this.out.writeDouble(coordinates.getPrecision());
+			writeDictionaryString(coordinates.getGlobe());
+		} else if (value instanceof QuantityValue) {
+			QuantityValue quantity = (QuantityValue) value;
+			this.out.writeByte(VALUE_QUANTITY);
+			writeDecimal(quantity.getNumericValue());
+			this.out.writeBoolean(quantity.getLowerBound() != null);
+			if (quantity.getLowerBound() != null) {
+				writeDecimal(quantity.getLowerBound());
+			}
+			this.out.writeBoolean(quantity.getUpperBound() != null);
+			if (quantity.getUpperBound() != null) {
+				writeDecimal(quantity.getUpperBound());
+			}
+			writeDictionaryString(quantity.getUnit());
+		} else {
+			String json = JsonSerializer.jacksonObjectToString(value);
+			if (json == null) {
+				throw new IOException("Cannot serialize value " + value);
+			}
+			this.out.writeByte(VALUE_JSON);
+			writeString(json);
+		}
+	}
+
+	/**
+	 * Writes an entity id of one of the types whose ids are a letter followed
+	 * by a number, or that are forms or senses of such lexemes.
+	 */
+	private void writeEntityId(EntityIdValue entityId) throws IOException {
+		if (entityId instanceof ItemIdValue) {
+			this.out.writeByte(ID_ITEM);
+		} else if (entityId instanceof PropertyIdValue) {
+			this.out.writeByte(ID_PROPERTY);
+		} else if (entityId instanceof LexemeIdValue) {
+			this.out.writeByte(ID_LEXEME);
+		} else if (entityId instanceof MediaInfoIdValue) {
+			this.out.writeByte(ID_MEDIA_INFO);
+		} else if (entityId instanceof FormIdValue) {
+			this.out.writeByte(ID_FORM);
+		} else if (entityId instanceof SenseIdValue) {
+			this.out.writeByte(ID_SENSE);
+		} else {
+			throw new IOException("Unsupported entity id type "
+					+ entityId.getClass());
+		}
+		writeDictionaryString(entityId.getSiteIri());
+		if (entityId instanceof FormIdValue || entityId instanceof SenseIdValue) {
+			// ids of the form L123-F4 and L123-S4
+			String id = entityId.getId();
+			int separator = id.indexOf('-');
+			writeVarLong(Long.parseLong(id.substring(1, separator)));
+			writeVarLong(Long.parseLong(id.substring(separator + 2)));
+		} else {
+			writeEntityNumber(entityId);
+		}
+	}
+
+	/**
+	 * Writes the number of an entity id that consists of one letter followed
+	 * by a number.
+	 */
+	private void writeEntityNumber(EntityIdValue entityId) throws IOException {
+		writeVarLong(Long.parseLong(entityId.getId().substring(1)));
+	}
+
+	private void writeDecimal(BigDecimal decimal) throws IOException {
+		writeVarLong(zigZag(decimal.scale()));
+		byte[] unscaled = decimal.unscaledValue().toByteArray();
+		writeVarLong(unscaled.length);
+		this.out.write(unscaled);
+	}
+
+	/**
+	 * Writes a string that is likely to occur many times in the stream. The
+	 * first occurrence is written in full and added to the dictionary, later
+	 * occurrences only refer to the index in the dictionary. Null is allowed.
+	 */
+	private void writeDictionaryString(String string) throws IOException {
+		if (string == null) {
+			writeVarLong(0);
+			return;
+		}
+		Integer index = this.dictionary.get(string);
+		if (index == null) {
+			this.dictionary.put(string, this.dictionary.size());
+			writeVarLong(1);
+			writeString(string);
+		} else {
+			writeVarLong(index + 2L);
+		}
+	}
+
+	private void writeNullableString(String string) throws IOException {
+		if (string == null) {
+			writeVarLong(0);
+		} else {
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			writeVarLong(bytes.length + 1L);
+			this.out.write(bytes);
+		}
+	}
+
+	private void writeString(String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		writeVarLong(bytes.length);
+		this.out.write(bytes);
+	}
+
+	/**
+	 * Writes a non-negative number using seven bits per byte, with the highest
+	 * bit of each byte marking that more bytes follow.
+	 */
+	private void writeVarLong(long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			this.out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		this.out.writeByte((int) value);
+	}
+
+	/**
+	 * Maps signed numbers to unsigned ones so that numbers with a small
+	 * absolute value get a short variable-length encoding.
+	 */
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+}
@@ -34,6 +34,13 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 public class DatamodelMapper extends ObjectMapper {
 
 	private static final long serialVersionUID = -236841297410109272L;
+
+	/**
+	 * Name of the injected value that tells if the input is trusted. Custom
+	 * mappers that set their own injectable values have to provide a
+	 * {@link Boolean} for this name, in addition to the "siteIri".
+	 */
+	public static final String TRUSTED_INPUT = "trustedInput";
 	
 	/**
 	 * Constructs a mapper with the given siteIri. This IRI
@@ -44,9 +51,30 @@ public class DatamodelMapper extends ObjectMapper {
 	 * 		the ambient IRI of the Wikibase site
 	 */
 	public DatamodelMapper(String siteIri) {
+		this(siteIri, false);
+	}
+
+	/**
+	 * Constructs a mapper with the given siteIri, possibly for
+	 * trusted input. If the input is trusted, checks that
+	 * well-formed data from Wikibase always passes are skipped
+	 * during deserialization, such as the syntax of form and sense
+	 * ids or the consistency of string and numeric entity ids.
+	 * This is useful for large amounts of data from a reliable
+	 * source, such as the official dumps. Malformed input may then
+	 * lead to invalid objects instead of exceptions. Objects built
+	 * with the builders or {@link Datamodel} are always validated.
+	 * 
+	 * @param siteIri
+	 * 		the ambient IRI of the Wikibase site
+	 * @param trustedInput
+	 * 		true if redundant validation should be skipped
+	 */
+	public DatamodelMapper(String siteIri, boolean trustedInput) {
 		super();
 		InjectableValues injection = new InjectableValues.Std()
-				.addValue("siteIri", siteIri);
+				.addValue("siteIri", siteIri)
+				.addValue(TRUSTED_INPUT, trustedInput);
 		this.setInjectableValues(injection);
 	}
 }
@@ -62,7 +62,22 @@ public class JsonDeserializer {
 	 * 		Root IRI of the site to deserialize for
 	 */
 	public JsonDeserializer(String siteIri) {
-		DatamodelMapper mapper = new DatamodelMapper(siteIri);
+		this(siteIri, false);
+	}
+
+	/**
+	 * Constructs a new JSON deserializer for the
+	 * designated site, possibly skipping redundant validation.
+	 *
+	 * @param siteIri
+	 * 		Root IRI of the site to deserialize for
+	 * @param trustedInput
+	 * 		true if the JSON comes from a reliable source, so that
+	 * 		checks that it always passes can be skipped
+	 * @see DatamodelMapper#DatamodelMapper(String, boolean)
+	 */
+	public JsonDeserializer(String siteIri, boolean trustedInput) {
+		DatamodelMapper mapper = new DatamodelMapper(siteIri, trustedInput);
 		entityDocumentReader = mapper.readerFor(EntityDocumentImpl.class)
 				.with(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT);
 		itemReader = mapper.readerFor(ItemDocumentImpl.class)
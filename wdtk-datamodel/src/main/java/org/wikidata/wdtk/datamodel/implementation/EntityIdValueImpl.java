@@ -2,6 +2,7 @@ package org.wikidata.wdtk.datamodel.implementation;
 
 import com.fasterxml.jackson.annotation.*;
 import org.apache.commons.lang3.Validate;
+import org.wikidata.wdtk.datamodel.helpers.DatamodelMapper;
 import org.wikidata.wdtk.datamodel.interfaces.DatatypeIdValue;
 import org.wikidata.wdtk.datamodel.interfaces.EntityIdValue;
 
@@ -247,13 +248,15 @@ public abstract class EntityIdValueImpl extends ValueImpl implements
 
 		/**
 		 * Creates an object that can be populated during JSON deserialization.
-		 * Should only be used by Jackson for this very purpose.
+		 * Should only be used by Jackson for this very purpose. For trusted
+		 * input, string ids are not compared to their numeric ids.
 		 */
 		@JsonCreator
 		JacksonInnerEntityId(
 				@JsonProperty("id") String id,
 				@JsonProperty("numeric-id") int numericId,
-				@JsonProperty("entity-type") String entityType
+				@JsonProperty("entity-type") String entityType,
+				@JacksonInject(DatamodelMapper.TRUSTED_INPUT) boolean trustedInput
 			) {
 			if(id == null) {
 				if(entityType == null || numericId == 0) {
@@ -268,7 +271,7 @@ public abstract class EntityIdValueImpl extends ValueImpl implements
 				if(entityType == null || numericId == 0) {
 					this.entityType = guessEntityTypeFromId(id, true);
 					this.numericId = buildNumericId(id);
-				} else if(!id.equals(buildIdFromNumericId(entityType, numericId))) {
+				} else if(!trustedInput && !id.equals(buildIdFromNumericId(entityType, numericId))) {
 					throw new IllegalArgumentException("Numerical id is different from the string id");
 				} else {
 					this.entityType = entityType;
@@ -3,6 +3,7 @@ package org.wikidata.wdtk.datamodel.implementation;
 import com.fasterxml.jackson.annotation.*;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import org.apache.commons.lang3.Validate;
+import org.wikidata.wdtk.datamodel.helpers.DatamodelMapper;
 import org.wikidata.wdtk.datamodel.helpers.Equality;
 import org.wikidata.wdtk.datamodel.helpers.Hash;
 import org.wikidata.wdtk.datamodel.helpers.ToString;
@@ -60,23 +61,32 @@ public class FormIdValueImpl extends ValueImpl implements FormIdValue {
 	FormIdValueImpl(
 			String id,
 			String siteIri) {
-		super(JSON_VALUE_TYPE_ENTITY_ID);
-		if(id == null || !PATTERN.matcher(id).matches()) {
-			throw new IllegalArgumentException("The string " + id + " is not a valid form id");
-		}
-		this.id = id;
-		Validate.notNull(siteIri);
-		this.siteIri = siteIri;
+		this(id, siteIri, false);
 	}
 
 	/**
-	 * Constructor used for deserialization with Jackson.
+	 * Constructor used for deserialization with Jackson. For trusted input,
+	 * the syntax of the id is not checked.
 	 */
 	@JsonCreator
 	FormIdValueImpl(
 			@JsonProperty("value") JacksonInnerEntityId value,
-			@JacksonInject("siteIri") String siteIri) {
-		this(value.getStringId(), siteIri);
+			@JacksonInject("siteIri") String siteIri,
+			@JacksonInject(DatamodelMapper.TRUSTED_INPUT) boolean trustedInput) {
+		this(value.getStringId(), siteIri, trustedInput);
+	}
+
+	private FormIdValueImpl(
+			String id,
+			String siteIri,
+			boolean trustedInput) {
+		super(JSON_VALUE_TYPE_ENTITY_ID);
+		if(id == null || (!trustedInput && !PATTERN.matcher(id).matches())) {
+			throw new IllegalArgumentException("The string " + id + " is not a valid form id");
+		}
+		this.id = id;
+		Validate.notNull(siteIri);
+		this.siteIri = siteIri;
 	}
 
 	@JsonIgnore
@@ -0,0 +1,134 @@
+package org.wikidata.wdtk.datamodel.implementation;
+
+/*
+ * #%L
+ * Wikidata Toolkit Data Model
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.wikidata.wdtk.datamodel.helpers.Equality;
+import org.wikidata.wdtk.datamodel.helpers.Hash;
+import org.wikidata.wdtk.datamodel.helpers.ToString;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.ItemIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.MonolingualTextValue;
+import org.wikidata.wdtk.datamodel.interfaces.SiteLink;
+import org.wikidata.wdtk.datamodel.interfaces.Statement;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+/**
+ * Lazily decoded implementation of {@link ItemDocument}, as created by
+ * {@link LazyJsonDocumentReader}.
+ */
+@JsonSerialize(using = LazyTermedStatementDocumentImpl.LazyDocumentSerializer.class)
+class LazyItemDocumentImpl extends LazyTermedStatementDocumentImpl
+		implements ItemDocument {
+
+	private final ItemIdValue itemId;
+
+	private volatile Map<String, SiteLink> siteLinks;
+
+	LazyItemDocumentImpl(LazyJsonDocumentReader reader, byte[] json,
+			int[] sectionBounds, ItemIdValue itemId, long revisionId) {
+		super(reader, json, sectionBounds, revisionId);
+		this.itemId = itemId;
+	}
+
+	@Override
+	public ItemIdValue getEntityId() {
+		return this.itemId;
+	}
+
+	@Override
+	@Deprecated
+	public ItemIdValue getItemId() {
+		return this.itemId;
+	}
+
+	@Override
+	public Map<String, SiteLink> getSiteLinks() {
+		if (this.siteLinks == null) {
+			try {
+				this.siteLinks = this.reader.readSiteLinks(this.json,
+						sectionStart(LazyJsonDocumentReader.SECTION_SITELINKS),
+						sectionEnd(LazyJsonDocumentReader.SECTION_SITELINKS));
+			} catch (IOException e) {
+				throw decodingError(LazyJsonDocumentReader.SECTION_SITELINKS, e);
+			}
+		}
+		return this.siteLinks;
+	}
+
+	@Override
+	ItemDocumentImpl decode() {
+		return new ItemDocumentImpl(this.itemId, getLabels(),
+				getDescriptions(), getAliases(), getClaims(), getSiteLinks(),
+				this.revisionId);
+	}
+
+	@Override
+	public int hashCode() {
+		return Hash.hashCode(this);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return Equality.equalsItemDocument(this, obj);
+	}
+
+	@Override
+	public String toString() {
+		return ToString.toString(this);
+	}
+
+	@Override
+	public ItemDocument withRevisionId(long newRevisionId) {
+		return decode().withRevisionId(newRevisionId);
+	}
+
+	@Override
+	public ItemDocument withLabel(MonolingualTextValue newLabel) {
+		return decode().withLabel(newLabel);
+	}
+
+	@Override
+	public ItemDocument withDescription(MonolingualTextValue newDescription) {
+		return decode().withDescription(newDescription);
+	}
+
+	@Override
+	public ItemDocument withAliases(String language,
+			List<MonolingualTextValue> aliases) {
+		return decode().withAliases(language, aliases);
+	}
+
+	@Override
+	public ItemDocument withStatement(Statement statement) {
+		return decode().withStatement(statement);
+	}
+
+	@Override
+	public ItemDocument withoutStatementIds(Set<String> statementIds) {
+		return decode().withoutStatementIds(statementIds);
+	}
+}
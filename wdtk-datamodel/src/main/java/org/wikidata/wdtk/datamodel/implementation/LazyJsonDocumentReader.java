@@ -0,0 +1,308 @@
+package org.wikidata.wdtk.datamodel.implementation;
+
+/*
+ * #%L
+ * Wikidata Toolkit Data Model
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.wikidata.wdtk.datamodel.helpers.DatamodelMapper;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+import org.wikidata.wdtk.datamodel.interfaces.EntityIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.MonolingualTextValue;
+import org.wikidata.wdtk.datamodel.interfaces.SiteLink;
+import org.wikidata.wdtk.datamodel.interfaces.Statement;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * Reader for the JSON serialization of entity documents that creates
+ * documents which are decoded lazily. Items and properties read by this class
+ * only keep the UTF-8 bytes of their JSON serialization together with the
+ * positions of their top-level fields. Labels, descriptions, aliases,
+ * statements and site links are only decoded when they are first accessed,
+ * and cached afterwards. This is useful for processors that only look at a
+ * small part of each document.
+ * <p>
+ * Documents of other types are decoded eagerly. The documents returned are
+ * immutable, but decoding a section of a lazy document is not synchronized,
+ * so the same section might be decoded more than once if a document is
+ * shared between threads.
+ */
+public class LazyJsonDocumentReader {
+
+	/**
+	 * Index of the "labels" section in the section bounds of a document.
+	 */
+	static final int SECTION_LABELS = 0;
+	/**
+	 * Index of the "descriptions" section in the section bounds of a document.
+	 */
+	static final int SECTION_DESCRIPTIONS = 1;
+	/**
+	 * Index of the "aliases" section in the section bounds of a document.
+	 */
+	static final int SECTION_ALIASES = 2;
+	/**
+	 * Index of the "claims" section in the section bounds of a document.
+	 */
+	static final int SECTION_CLAIMS = 3;
+	/**
+	 * Index of the "sitelinks" section in the section bounds of a document.
+	 */
+	static final int SECTION_SITELINKS = 4;
+
+	static final String[] SECTION_NAMES = { "labels", "descriptions",
+			"aliases", "claims", "sitelinks" };
+
+	private final String siteIri;
+
+	private final JsonFactory jsonFactory;
+
+	private final ObjectReader documentReader;
+	private final ObjectReader termsReader;
+	private final ObjectReader aliasesReader;
+	private final ObjectReader claimsReader;
+	private final ObjectReader siteLinksReader;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param siteIri
+	 *            the IRI of the site that the documents come from, used for
+	 *            all entity ids in the data
+	 */
+	public LazyJsonDocumentReader(String siteIri) {
+		this(siteIri, false);
+	}
+
+	/**
+	 * Constructor, possibly for trusted input.
+	 *
+	 * @param siteIri
+	 *            the IRI of the site that the documents come from, used for
+	 *            all entity ids in the data
+	 * @param trustedInput
+	 *            true if the JSON comes from a reliable source, so that
+	 *            checks that it always passes can be skipped
+	 * @see DatamodelMapper#DatamodelMapper(String, boolean)
+	 */
+	public LazyJsonDocumentReader(String siteIri, boolean trustedInput) {
+		this.siteIri = siteIri;
+		DatamodelMapper mapper = new DatamodelMapper(siteIri, trustedInput);
+		mapper.enable(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT);
+		this.jsonFactory = mapper.getFactory();
+		this.documentReader = mapper.readerFor(EntityDocumentImpl.class);
+		this.termsReader = mapper
+				.readerFor(new TypeReference<Map<String, TermImpl>>() {});
+		this.aliasesReader = mapper
+				.readerFor(new TypeReference<Map<String, List<TermImpl>>>() {});
+		this.claimsReader = mapper
+				.readerFor(new TypeReference<Map<String, List<StatementImpl.PreStatement>>>() {});
+		this.siteLinksReader = mapper
+				.readerFor(new TypeReference<Map<String, SiteLinkImpl>>() {});
+	}
+
+	/**
+	 * Returns the site IRI used for all entity ids read by this object.
+	 *
+	 * @return site IRI
+	 */
+	public String getSiteIri() {
+		return this.siteIri;
+	}
+
+	/**
+	 * Reads an entity document from the given UTF-8 encoded JSON
+	 * serialization. The array is kept by the document (if it is decoded
+	 * lazily) and must not be modified afterwards.
+	 *
+	 * @param json
+	 *            the JSON serialization of one entity document
+	 * @return the entity document
+	 * @throws IOException
+	 *             if the JSON could not be read
+	 */
+	public EntityDocument readEntityDocument(byte[] json) throws IOException {
+		int[] sectionBounds = new int[2 * SECTION_NAMES.length];
+		Arrays.fill(sectionBounds, -1);
+		String id = null;
+		String type = null;
+		String datatype = null;
+		long revisionId = 0;
+
+		try (JsonParser parser = this.jsonFactory.createParser(json)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				return readEagerly(json);
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String fieldName = parser.getCurrentName();
+				JsonToken token = parser.nextToken();
+				int section = getSectionIndex(fieldName);
+				if (section >= 0 && token.isStructStart()) {
+					sectionBounds[2 * section] = (int) parser
+							.getTokenLocation().getByteOffset();
+					parser.skipChildren();
+					sectionBounds[2 * section + 1] = (int) parser
+							.getCurrentLocation().getByteOffset();
+				} else if ("id".equals(fieldName)) {
+					id = parser.getValueAsString();
+				} else if ("type".equals(fieldName)) {
+					type = parser.getValueAsString();
+				} else if ("datatype".equals(fieldName)) {
+					datatype = parser.getValueAsString();
+				} else if ("lastrevid".equals(fieldName)) {
+					revisionId = parser.getValueAsLong();
+				} else {
+					parser.skipChildren();
+				}
+			}
+		}
+
+		if (id == null) {
+			return readEagerly(json);
+		} else if (EntityDocumentImpl.JSON_TYPE_ITEM.equals(type)) {
+			return new LazyItemDocumentImpl(this, json, sectionBounds,
+					new ItemIdValueImpl(id, this.siteIri), revisionId);
+		} else if (EntityDocumentImpl.JSON_TYPE_PROPERTY.equals(type)
+				&& datatype != null) {
+			return new LazyPropertyDocumentImpl(this, json, sectionBounds,
+					new PropertyIdValueImpl(id, this.siteIri), datatype,
+					revisionId);
+		} else {
+			return readEagerly(json);
+		}
+	}
+
+	/**
+	 * Decodes the labels or descriptions stored in the given part of the
+	 * JSON serialization of a document.
+	 */
+	Map<String, MonolingualTextValue> readTerms(byte[] json, int start,
+			int end) throws IOException {
+		if (isEmptySection(json, start)) {
+			return Collections.emptyMap();
+		}
+		Map<String, TermImpl> terms = this.termsReader.readValue(json, start,
+				end - start);
+		return terms == null ? Collections.emptyMap()
+				: Collections.unmodifiableMap(terms);
+	}
+
+	/**
+	 * Decodes the aliases stored in the given part of the JSON serialization
+	 * of a document.
+	 */
+	Map<String, List<MonolingualTextValue>> readAliases(byte[] json,
+			int start, int end) throws IOException {
+		if (isEmptySection(json, start)) {
+			return Collections.emptyMap();
+		}
+		Map<String, List<TermImpl>> aliases = this.aliasesReader.readValue(
+				json, start, end - start);
+		if (aliases == null) {
+			return Collections.emptyMap();
+		}
+		Map<String, List<MonolingualTextValue>> result = new HashMap<>();
+		for (Entry<String, List<TermImpl>> entry : aliases.entrySet()) {
+			result.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+		}
+		return result;
+	}
+
+	/**
+	 * Decodes the statements stored in the given part of the JSON
+	 * serialization of a document. The result is a map from property ids to
+	 * statement lists, built in the same way as for eagerly decoded documents
+	 * so that statement groups are found in the same order.
+	 */
+	Map<String, List<Statement>> readClaims(byte[] json, int start, int end,
+			EntityIdValue subject) throws IOException {
+		if (isEmptySection(json, start)) {
+			return Collections.emptyMap();
+		}
+		Map<String, List<StatementImpl.PreStatement>> claims = this.claimsReader
+				.readValue(json, start, end - start);
+		if (claims == null) {
+			return Collections.emptyMap();
+		}
+		Map<String, List<Statement>> result = new HashMap<>();
+		for (Entry<String, List<StatementImpl.PreStatement>> entry : claims
+				.entrySet()) {
+			List<Statement> statements = new ArrayList<>(entry.getValue()
+					.size());
+			for (StatementImpl.PreStatement statement : entry.getValue()) {
+				statements.add(statement.withSubject(subject));
+			}
+			result.put(entry.getKey(), statements);
+		}
+		return result;
+	}
+
+	/**
+	 * Decodes the site links stored in the given part of the JSON
+	 * serialization of a document.
+	 */
+	Map<String, SiteLink> readSiteLinks(byte[] json, int start, int end)
+			throws IOException {
+		if (isEmptySection(json, start)) {
+			return Collections.emptyMap();
+		}
+		Map<String, SiteLinkImpl> siteLinks = this.siteLinksReader.readValue(
+				json, start, end - start);
+		return siteLinks == null ? Collections.emptyMap()
+				: Collections.unmodifiableMap(siteLinks);
+	}
+
+	/**
+	 * Decodes a complete document in the usual, eager way.
+	 */
+	EntityDocument readEagerly(byte[] json) throws IOException {
+		return this.documentReader.readValue(json);
+	}
+
+	/**
+	 * Checks if a section is missing or represented by an (empty) JSON
+	 * array, which Wikibase uses for empty maps.
+	 */
+	private static boolean isEmptySection(byte[] json, int start) {
+		return start < 0 || json[start] == '[';
+	}
+
+	private static int getSectionIndex(String fieldName) {
+		for (int i = 0; i < SECTION_NAMES.length; i++) {
+			if (SECTION_NAMES[i].equals(fieldName)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
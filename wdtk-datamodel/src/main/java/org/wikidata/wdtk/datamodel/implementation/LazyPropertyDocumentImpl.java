@@ -0,0 +1,126 @@
+package org.wikidata.wdtk.datamodel.implementation;
+
+/*
+ * #%L
+ * Wikidata Toolkit Data Model
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.List;
+import java.util.Set;
+
+import org.wikidata.wdtk.datamodel.helpers.Equality;
+import org.wikidata.wdtk.datamodel.helpers.Hash;
+import org.wikidata.wdtk.datamodel.helpers.ToString;
+import org.wikidata.wdtk.datamodel.interfaces.DatatypeIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.MonolingualTextValue;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyDocument;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.Statement;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+/**
+ * Lazily decoded implementation of {@link PropertyDocument}, as created by
+ * {@link LazyJsonDocumentReader}.
+ */
+@JsonSerialize(using = LazyTermedStatementDocumentImpl.LazyDocumentSerializer.class)
+class LazyPropertyDocumentImpl extends LazyTermedStatementDocumentImpl
+		implements PropertyDocument {
+
+	private final PropertyIdValue propertyId;
+
+	private final DatatypeIdImpl datatype;
+
+	LazyPropertyDocumentImpl(LazyJsonDocumentReader reader, byte[] json,
+			int[] sectionBounds, PropertyIdValue propertyId,
+			String jsonDatatype, long revisionId) {
+		super(reader, json, sectionBounds, revisionId);
+		this.propertyId = propertyId;
+		this.datatype = new DatatypeIdImpl(
+				DatatypeIdImpl.getDatatypeIriFromJsonDatatype(jsonDatatype));
+	}
+
+	@Override
+	public PropertyIdValue getEntityId() {
+		return this.propertyId;
+	}
+
+	@Override
+	@Deprecated
+	public PropertyIdValue getPropertyId() {
+		return this.propertyId;
+	}
+
+	@Override
+	public DatatypeIdValue getDatatype() {
+		return this.datatype;
+	}
+
+	@Override
+	PropertyDocumentImpl decode() {
+		return new PropertyDocumentImpl(this.propertyId, getLabels(),
+				getDescriptions(), getAliases(), getClaims(), this.datatype,
+				this.revisionId);
+	}
+
+	@Override
+	public int hashCode() {
+		return Hash.hashCode(this);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return Equality.equalsPropertyDocument(this, obj);
+	}
+
+	@Override
+	public String toString() {
+		return ToString.toString(this);
+	}
+
+	@Override
+	public PropertyDocument withRevisionId(long newRevisionId) {
+		return decode().withRevisionId(newRevisionId);
+	}
+
+	@Override
+	public PropertyDocument withLabel(MonolingualTextValue newLabel) {
+		return decode().withLabel(newLabel);
+	}
+
+	@Override
+	public PropertyDocument withDescription(MonolingualTextValue newDescription) {
+		return decode().withDescription(newDescription);
+	}
+
+	@Override
+	public PropertyDocument withAliases(String language,
+			List<MonolingualTextValue> aliases) {
+		return decode().withAliases(language, aliases);
+	}
+
+	@Override
+	public PropertyDocument withStatement(Statement statement) {
+		return decode().withStatement(statement);
+	}
+
+	@Override
+	public PropertyDocument withoutStatementIds(Set<String> statementIds) {
+		return decode().withoutStatementIds(statementIds);
+	}
+}
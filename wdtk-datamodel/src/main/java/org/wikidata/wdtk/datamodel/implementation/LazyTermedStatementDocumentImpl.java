@@ -0,0 +1,213 @@
+package org.wikidata.wdtk.datamodel.implementation;
+
+/*
+ * #%L
+ * Wikidata Toolkit Data Model
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.wikidata.wdtk.datamodel.interfaces.MonolingualTextValue;
+import org.wikidata.wdtk.datamodel.interfaces.Statement;
+import org.wikidata.wdtk.datamodel.interfaces.StatementGroup;
+import org.wikidata.wdtk.datamodel.interfaces.TermedStatementDocument;
+import org.wikidata.wdtk.util.NestedIterator;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+/**
+ * Base class for documents created by {@link LazyJsonDocumentReader}. The
+ * entity id and revision id are known right away, while all other parts of
+ * the document are decoded from the stored JSON when they are first used.
+ * Operations that create modified copies of the document decode it completely
+ * and return an ordinary (eager) document.
+ */
+abstract class LazyTermedStatementDocumentImpl implements TermedStatementDocument {
+
+	final LazyJsonDocumentReader reader;
+
+	/**
+	 * UTF-8 encoded JSON serialization of the document.
+	 */
+	final byte[] json;
+
+	/**
+	 * Start and end positions of the lazily decoded sections in
+	 * {@link #json}, indexed like
+	 * {@link LazyJsonDocumentReader#SECTION_NAMES}. Missing sections have
+	 * position -1.
+	 */
+	final int[] sectionBounds;
+
+	final long revisionId;
+
+	private volatile Map<String, MonolingualTextValue> labels;
+	private volatile Map<String, MonolingualTextValue> descriptions;
+	private volatile Map<String, List<MonolingualTextValue>> aliases;
+	private volatile Map<String, List<Statement>> claims;
+	private volatile List<StatementGroup> statementGroups;
+
+	LazyTermedStatementDocumentImpl(LazyJsonDocumentReader reader,
+			byte[] json, int[] sectionBounds, long revisionId) {
+		this.reader = reader;
+		this.json = json;
+		this.sectionBounds = sectionBounds;
+		this.revisionId = revisionId;
+	}
+
+	@Override
+	public long getRevisionId() {
+		return this.revisionId;
+	}
+
+	@Override
+	public Map<String, MonolingualTextValue> getLabels() {
+		if (this.labels == null) {
+			try {
+				this.labels = this.reader.readTerms(this.json,
+						sectionStart(LazyJsonDocumentReader.SECTION_LABELS),
+						sectionEnd(LazyJsonDocumentReader.SECTION_LABELS));
+			} catch (IOException e) {
+				throw decodingError(LazyJsonDocumentReader.SECTION_LABELS, e);
+			}
+		}
+		return this.labels;
+	}
+
+	@Override
+	public Map<String, MonolingualTextValue> getDescriptions() {
+		if (this.descriptions == null) {
+			try {
+				this.descriptions = this.reader.readTerms(this.json,
+						sectionStart(LazyJsonDocumentReader.SECTION_DESCRIPTIONS),
+						sectionEnd(LazyJsonDocumentReader.SECTION_DESCRIPTIONS));
+			} catch (IOException e) {
+				throw decodingError(
+						LazyJsonDocumentReader.SECTION_DESCRIPTIONS, e);
+			}
+		}
+		return this.descriptions;
+	}
+
+	@Override
+	public Map<String, List<MonolingualTextValue>> getAliases() {
+		if (this.aliases == null) {
+			try {
+				this.aliases = this.reader.readAliases(this.json,
+						sectionStart(LazyJsonDocumentReader.SECTION_ALIASES),
+						sectionEnd(LazyJsonDocumentReader.SECTION_ALIASES));
+			} catch (IOException e) {
+				throw decodingError(LazyJsonDocumentReader.SECTION_ALIASES, e);
+			}
+		}
+		return this.aliases;
+	}
+
+	@Override
+	public List<StatementGroup> getStatementGroups() {
+		if (this.statementGroups == null) {
+			Map<String, List<Statement>> claims = getClaims();
+			List<StatementGroup> groups = new ArrayList<>(claims.size());
+			for (List<Statement> statements : claims.values()) {
+				groups.add(new StatementGroupImpl(statements));
+			}
+			this.statementGroups = groups;
+		}
+		return this.statementGroups;
+	}
+
+	/**
+	 * Find a statement group by its property id, without checking for
+	 * equality with the site IRI. More efficient implementation than the
+	 * default one.
+	 */
+	@Override
+	public StatementGroup findStatementGroup(String propertyId) {
+		List<Statement> statements = getClaims().get(propertyId);
+		return statements == null ? null : new StatementGroupImpl(statements);
+	}
+
+	@Override
+	public Iterator<Statement> getAllStatements() {
+		return new NestedIterator<>(getStatementGroups());
+	}
+
+	/**
+	 * Returns the statements of this document as a map from property ids to
+	 * statement lists, decoding them if needed.
+	 *
+	 * @return map of statements
+	 */
+	Map<String, List<Statement>> getClaims() {
+		if (this.claims == null) {
+			try {
+				this.claims = this.reader.readClaims(this.json,
+						sectionStart(LazyJsonDocumentReader.SECTION_CLAIMS),
+						sectionEnd(LazyJsonDocumentReader.SECTION_CLAIMS),
+						getEntityId());
+			} catch (IOException e) {
+				throw decodingError(LazyJsonDocumentReader.SECTION_CLAIMS, e);
+			}
+		}
+		return this.claims;
+	}
+
+	/**
+	 * Returns an eagerly decoded copy of this document.
+	 *
+	 * @return the decoded document
+	 */
+	abstract TermedStatementDocumentImpl decode();
+
+	int sectionStart(int section) {
+		return this.sectionBounds[2 * section];
+	}
+
+	int sectionEnd(int section) {
+		return this.sectionBounds[2 * section + 1];
+	}
+
+	RuntimeException decodingError(int section, IOException cause) {
+		return new RuntimeException("Cannot decode \""
+				+ LazyJsonDocumentReader.SECTION_NAMES[section] + "\" of "
+				+ getEntityId().getId() + ": " + cause.getMessage(), cause);
+	}
+
+	/**
+	 * Serializes lazy documents in the same way as their eagerly decoded
+	 * counterparts.
+	 */
+	static class LazyDocumentSerializer extends
+			JsonSerializer<LazyTermedStatementDocumentImpl> {
+
+		@Override
+		public void serialize(LazyTermedStatementDocumentImpl value,
+				JsonGenerator gen, SerializerProvider serializers)
+				throws IOException {
+			TermedStatementDocumentImpl document = value.decode();
+			serializers.findTypedValueSerializer(document.getClass(), true,
+					null).serialize(document, gen, serializers);
+		}
+	}
+}
@@ -109,10 +109,10 @@ public class PropertyDocumentImpl extends TermedStatementDocumentImpl
     }
 
     /**
-	 * Private constructor, meant to be used to create modified copies
+	 * Protected constructor, meant to be used to create modified copies
 	 * of instances.
 	 */
-	private PropertyDocumentImpl(
+	protected PropertyDocumentImpl(
 			PropertyIdValue id,
 			Map<String, MonolingualTextValue> labels,
 			Map<String, MonolingualTextValue> descriptions,
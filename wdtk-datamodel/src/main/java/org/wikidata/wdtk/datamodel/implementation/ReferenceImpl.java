@@ -80,6 +80,26 @@ public class ReferenceImpl implements Reference {
 		}
 	}
 	
+	/**
+	 * Constructor that also sets the hash of the reference, as known from
+	 * Wikibase.
+	 *
+	 * @param groups
+	 * 		the snaks group which form the reference
+	 * @param hash
+	 * 		the Wikibase hash of the reference, or null if not known
+	 */
+	public ReferenceImpl(List<SnakGroup> groups, String hash) {
+		propertyOrder = new ArrayList<>(groups.size());
+		snaks = new HashMap<>(groups.size());
+		this.hash = hash;
+
+		for(SnakGroup group : groups) {
+			propertyOrder.add(group.getProperty().getId());
+			snaks.put(group.getProperty().getId(), group.getSnaks());
+		}
+	}
+
 	/**
 	 * Constructor for deserialization from JSON.
 	 */
@@ -3,6 +3,7 @@ package org.wikidata.wdtk.datamodel.implementation;
 import com.fasterxml.jackson.annotation.*;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import org.apache.commons.lang3.Validate;
+import org.wikidata.wdtk.datamodel.helpers.DatamodelMapper;
 import org.wikidata.wdtk.datamodel.helpers.Equality;
 import org.wikidata.wdtk.datamodel.helpers.Hash;
 import org.wikidata.wdtk.datamodel.helpers.ToString;
@@ -53,30 +54,39 @@ public class SenseIdValueImpl extends ValueImpl implements SenseIdValue {
 	 * Constructor.
 	 *
 	 * @param id
-	 * 		the identifier of the entity, such as "L42-F43"
+	 * 		the identifier of the entity, such as "L42-S43"
 	 * @param siteIri
 	 *      the siteIRI that this value refers to
 	 */
 	SenseIdValueImpl(
 			String id,
 			String siteIri) {
-		super(JSON_VALUE_TYPE_ENTITY_ID);
-		if(id == null || !PATTERN.matcher(id).matches()) {
-			throw new IllegalArgumentException("The string " + id + " is not a valid form id");
-		}
-		this.id = id;
-		Validate.notNull(siteIri);
-		this.siteIri = siteIri;
+		this(id, siteIri, false);
 	}
 
 	/**
-	 * Constructor used for deserialization with Jackson.
+	 * Constructor used for deserialization with Jackson. For trusted input,
+	 * the syntax of the id is not checked.
 	 */
 	@JsonCreator
 	SenseIdValueImpl(
 			@JsonProperty("value") JacksonInnerEntityId value,
-			@JacksonInject("siteIri") String siteIri) {
-		this(value.getStringId(), siteIri);
+			@JacksonInject("siteIri") String siteIri,
+			@JacksonInject(DatamodelMapper.TRUSTED_INPUT) boolean trustedInput) {
+		this(value.getStringId(), siteIri, trustedInput);
+	}
+
+	private SenseIdValueImpl(
+			String id,
+			String siteIri,
+			boolean trustedInput) {
+		super(JSON_VALUE_TYPE_ENTITY_ID);
+		if(id == null || (!trustedInput && !PATTERN.matcher(id).matches())) {
+			throw new IllegalArgumentException("The string " + id + " is not a valid form id");
+		}
+		this.id = id;
+		Validate.notNull(siteIri);
+		this.siteIri = siteIri;
 	}
 
 	@JsonIgnore
@@ -23,7 +23,6 @@ package org.wikidata.wdtk.datamodel.implementation;
 import com.fasterxml.jackson.annotation.JacksonInject;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import org.apache.commons.lang3.Validate;
 import org.wikidata.wdtk.datamodel.interfaces.EntityIdValue;
 import org.wikidata.wdtk.datamodel.interfaces.Statement;
 import org.wikidata.wdtk.datamodel.interfaces.StatementDocument;
@@ -75,8 +74,9 @@ abstract class StatementDocumentImpl extends EntityDocumentImpl implements State
 		if(claims != null) {
 			for(StatementGroup group : claims) {
 				EntityIdValue otherId = group.getSubject();
-				otherId.getIri();
-				Validate.isTrue(group.getSubject().equals(id), "Subject for the statement group and the document are different: "+otherId.toString()+" vs "+id.toString());
+				if(!otherId.equals(id)) {
+					throw new IllegalArgumentException("Subject for the statement group and the document are different: "+otherId.toString()+" vs "+id.toString());
+				}
 				this.claims.put(group.getProperty().getId(), group.getStatements());
 			}
 		}
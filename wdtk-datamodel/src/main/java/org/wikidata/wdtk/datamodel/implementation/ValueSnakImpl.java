@@ -84,6 +84,25 @@ public class ValueSnakImpl extends SnakImpl implements ValueSnak {
 		this.datatype = getJsonPropertyTypeForValueType(datavalue);
 	}
 
+	/**
+	 * Constructor that keeps a given JSON datatype string instead of inferring
+	 * it from the value. Used by deserializers of formats other than JSON,
+	 * which need to reproduce the original snak exactly.
+	 *
+	 * @param property
+	 * 		the id of the property used in this snak
+	 * @param value
+	 * 		the target value for this snak
+	 * @param datatype
+	 * 		the JSON datatype string, or null if not known
+	 */
+	public ValueSnakImpl(PropertyIdValue property, Value value, String datatype) {
+		super(property);
+		Validate.notNull(value, "A datavalue must be provided to create a value snak.");
+		this.datavalue = value;
+		this.datatype = datatype;
+	}
+
 	/**
 	 * Constructor used to deserialize from JSON with Jackson.
 	 */
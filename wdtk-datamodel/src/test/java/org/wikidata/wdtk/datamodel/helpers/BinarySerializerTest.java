@@ -0,0 +1,156 @@
+package org.wikidata.wdtk.datamodel.helpers;
+
+/*
+ * #%L
+ * Wikidata Toolkit Data Model
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.ItemIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.LexemeDocument;
+import org.wikidata.wdtk.datamodel.interfaces.MediaInfoDocument;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyDocument;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.Statement;
+import org.wikidata.wdtk.datamodel.interfaces.StatementRank;
+import org.wikidata.wdtk.datamodel.interfaces.TimeValue;
+
+public class BinarySerializerTest {
+
+	private final JsonDeserializer jsonDeserializer = new JsonDeserializer(Datamodel.SITE_WIKIDATA);
+	private final JsonDeserializer commonsDeserializer = new JsonDeserializer(Datamodel.SITE_WIKIMEDIA_COMMONS);
+
+	private String loadJson(String filename) throws IOException {
+		InputStream stream = BinarySerializerTest.class.getClassLoader()
+				.getResourceAsStream("JsonDeserializer/" + filename);
+		return IOUtils.toString(stream, StandardCharsets.UTF_8);
+	}
+
+	private EntityDocument roundTrip(EntityDocument document) throws IOException {
+		return BinaryDeserializer.deserializeEntityDocument(BinarySerializer.getBytes(document));
+	}
+
+	@Test
+	public void testItemDocumentRoundTrip() throws IOException {
+		ItemDocument document = jsonDeserializer.deserializeItemDocument(loadJson("item.json"));
+		assertEquals(document, roundTrip(document));
+	}
+
+	@Test
+	public void testPropertyDocumentRoundTrip() throws IOException {
+		PropertyDocument document = jsonDeserializer.deserializePropertyDocument(loadJson("property.json"));
+		assertEquals(document, roundTrip(document));
+	}
+
+	@Test
+	public void testLexemeDocumentRoundTrip() throws IOException {
+		LexemeDocument document = jsonDeserializer.deserializeLexemeDocument(loadJson("lexeme.json"));
+		assertEquals(document, roundTrip(document));
+	}
+
+	@Test
+	public void testMediaInfoDocumentRoundTrip() throws IOException {
+		MediaInfoDocument document = commonsDeserializer.deserializeMediaInfoDocument(loadJson("mediainfo.json"));
+		assertEquals(document, roundTrip(document));
+	}
+
+	@Test
+	public void testValuesRoundTrip() throws IOException {
+		ItemIdValue qid = Datamodel.makeWikidataItemIdValue("Q42");
+		PropertyIdValue pid = Datamodel.makeWikidataPropertyIdValue("P1");
+		ItemDocument document = ItemDocumentBuilder.forItemId(qid)
+				.withLabel("Douglas Adams", "en")
+				.withAlias("DNA", "en")
+				.withStatement(StatementBuilder.forSubjectAndProperty(qid, pid)
+						.withValue(Datamodel.makeQuantityValue(new BigDecimal("-1.50"),
+								new BigDecimal("-2"), new BigDecimal("1E+3"),
+								Datamodel.makeWikidataItemIdValue("Q11573")))
+						.withQualifierValue(pid, Datamodel.makeTimeValue(-13798000000L,
+								(byte) 0, (byte) 0, (byte) 0, (byte) 0, (byte) 0,
+								TimeValue.PREC_100MY, 0, 0, 60, TimeValue.CM_GREGORIAN_PRO))
+						.withReference(ReferenceBuilder.newInstance()
+								.withPropertyValue(pid, Datamodel.makeGlobeCoordinatesValue(
+										51.5, -0.1, 0.001, "http://www.wikidata.org/entity/Q2"))
+								.build())
+						.withRank(StatementRank.PREFERRED)
+						.withId("Q42$8B2A1D2E-1B56-4DAF-9C5E-9F1E0B1BC8C6")
+						.build())
+				.withStatement(StatementBuilder.forSubjectAndProperty(qid, pid)
+						.withValue(Datamodel.makeMonolingualTextValue("text", "de"))
+						.withId("other-id")
+						.build())
+				.withSiteLink("Douglas Adams", "enwiki",
+						Datamodel.makeWikidataItemIdValue("Q17437796"))
+				.withRevisionId(1234)
+				.build();
+		ItemDocument copy = (ItemDocument) roundTrip(document);
+		assertEquals(document, copy);
+		Statement statement = copy.findStatementGroup(pid).getStatements().get(0);
+		assertEquals(document.findStatementGroup(pid).getStatements().get(0).getStatementId(),
+				statement.getStatementId());
+	}
+
+	@Test
+	public void testSerializerStream() throws IOException {
+		ItemDocument item = Datamodel.makeItemDocument(
+				Datamodel.makeWikidataItemIdValue("Q1"),
+				Collections.singletonList(Datamodel.makeMonolingualTextValue("Label1", "lang1")),
+				Collections.singletonList(Datamodel.makeMonolingualTextValue("Description1", "lang1")),
+				Collections.emptyList(), Collections.emptyList(), Collections.emptyMap(), 12);
+		PropertyDocument property = jsonDeserializer.deserializePropertyDocument(loadJson("property.json"));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinarySerializer serializer = new BinarySerializer(out, Datamodel.SITE_WIKIDATA);
+		serializer.open();
+		serializer.processItemDocument(item);
+		serializer.processPropertyDocument(property);
+		serializer.processItemDocument(item);
+		serializer.close();
+		assertEquals(3, serializer.getEntityDocumentCount());
+
+		try (BinaryDeserializer deserializer = new BinaryDeserializer(
+				new ByteArrayInputStream(out.toByteArray()))) {
+			assertEquals(Datamodel.SITE_WIKIDATA, deserializer.getSiteIri());
+			assertEquals(Arrays.asList(item, property, item), Arrays.asList(
+					deserializer.nextEntityDocument(),
+					deserializer.nextEntityDocument(),
+					deserializer.nextEntityDocument()));
+			assertNull(deserializer.nextEntityDocument());
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testInvalidHeader() throws IOException {
+		new BinaryDeserializer(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 }));
+	}
+}
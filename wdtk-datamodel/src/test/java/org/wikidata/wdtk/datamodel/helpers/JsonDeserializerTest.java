@@ -27,17 +27,22 @@ import java.util.Collections;
 import org.apache.commons.io.IOUtils;
 import org.junit.Assert;
 import org.junit.Test;
+import org.wikidata.wdtk.datamodel.implementation.ValueImpl;
 import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+import org.wikidata.wdtk.datamodel.interfaces.EntityIdValue;
 import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
 import org.wikidata.wdtk.datamodel.interfaces.LexemeDocument;
 import org.wikidata.wdtk.datamodel.interfaces.MediaInfoDocument;
 import org.wikidata.wdtk.datamodel.interfaces.PropertyDocument;
 
+import com.fasterxml.jackson.databind.exc.ValueInstantiationException;
+
 
 public class JsonDeserializerTest {
 	
 	public JsonDeserializer SUT = new JsonDeserializer(Datamodel.SITE_WIKIDATA);
 	public JsonDeserializer SUTcommons = new JsonDeserializer(Datamodel.SITE_WIKIMEDIA_COMMONS);
+	public JsonDeserializer SUTtrusted = new JsonDeserializer(Datamodel.SITE_WIKIDATA, true);
 	
 	protected String loadJson(String filename) throws IOException {
 		InputStream stream = JsonDeserializerTest.class.getClassLoader()
@@ -75,4 +80,26 @@ public class JsonDeserializerTest {
 		EntityDocument doc = SUT.deserializeEntityDocument(loadJson("property.json"));
 		Assert.assertEquals(doc.getEntityId(), Datamodel.makeWikidataPropertyIdValue("P3467"));
 	}
+
+	@Test
+	public void testTrustedInputGivesSameDocuments() throws IOException {
+		for (String file : new String[] { "item.json", "property.json", "lexeme.json" }) {
+			Assert.assertEquals(SUT.deserializeEntityDocument(loadJson(file)),
+					SUTtrusted.deserializeEntityDocument(loadJson(file)));
+		}
+	}
+
+	@Test
+	public void testTrustedInputSkipsValidation() throws IOException {
+		String json = "{\"type\":\"wikibase-entityid\",\"value\":{\"id\":\"L1-F01\"}}";
+		DatamodelMapper trustedMapper = new DatamodelMapper(Datamodel.SITE_WIKIDATA, true);
+		Assert.assertEquals("L1-F01", ((EntityIdValue) trustedMapper.readValue(json,
+				ValueImpl.class)).getId());
+	}
+
+	@Test(expected = ValueInstantiationException.class)
+	public void testUntrustedInputIsValidated() throws IOException {
+		String json = "{\"type\":\"wikibase-entityid\",\"value\":{\"id\":\"L1-F01\"}}";
+		new DatamodelMapper(Datamodel.SITE_WIKIDATA).readValue(json, ValueImpl.class);
+	}
 }
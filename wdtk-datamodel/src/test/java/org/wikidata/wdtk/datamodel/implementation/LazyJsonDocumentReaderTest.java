@@ -0,0 +1,155 @@
+package org.wikidata.wdtk.datamodel.implementation;
+
+/*
+ * #%L
+ * Wikidata Toolkit Data Model
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.helpers.DatamodelMapper;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+import org.wikidata.wdtk.datamodel.interfaces.EntityIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.ItemIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyDocument;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class LazyJsonDocumentReaderTest {
+
+	private final ObjectMapper mapper = new DatamodelMapper(Datamodel.SITE_WIKIDATA)
+			.enable(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT);
+	private final LazyJsonDocumentReader reader = new LazyJsonDocumentReader(Datamodel.SITE_WIKIDATA);
+
+	private byte[] loadJson(String filename) throws IOException {
+		InputStream stream = LazyJsonDocumentReaderTest.class.getClassLoader()
+				.getResourceAsStream("JsonDeserializer/" + filename);
+		return IOUtils.toByteArray(stream);
+	}
+
+	@Test
+	public void testItemDocument() throws IOException {
+		byte[] json = loadJson("item.json");
+		EntityDocument document = reader.readEntityDocument(json);
+		assertTrue(document instanceof LazyItemDocumentImpl);
+		EntityDocument expected = mapper.readValue(json, EntityDocumentImpl.class);
+		assertEquals(expected.getEntityId(), document.getEntityId());
+		assertEquals(expected.getRevisionId(), document.getRevisionId());
+		assertEquals(expected, document);
+		assertEquals(document, expected);
+		assertEquals(expected.hashCode(), document.hashCode());
+		assertEquals(expected.toString(), document.toString());
+	}
+
+	@Test
+	public void testItemDocumentSections() throws IOException {
+		byte[] json = loadJson("item.json");
+		ItemDocument expected = mapper.readValue(json, ItemDocumentImpl.class);
+		ItemDocument document = (ItemDocument) reader.readEntityDocument(json);
+		assertEquals(expected.getSiteLinks(), document.getSiteLinks());
+		assertEquals(expected.getLabels(), document.getLabels());
+		assertEquals(expected.getDescriptions(), document.getDescriptions());
+		assertEquals(expected.getAliases(), document.getAliases());
+		assertEquals(expected.getStatementGroups(), document.getStatementGroups());
+		assertEquals(expected.findStatementGroup("P31"), document.findStatementGroup("P31"));
+		assertNull(document.findStatementGroup("P1"));
+	}
+
+	@Test
+	public void testPropertyDocument() throws IOException {
+		byte[] json = loadJson("property.json");
+		EntityDocument document = reader.readEntityDocument(json);
+		assertTrue(document instanceof LazyPropertyDocumentImpl);
+		PropertyDocument expected = mapper.readValue(json, PropertyDocumentImpl.class);
+		assertEquals(expected.getDatatype(), ((PropertyDocument) document).getDatatype());
+		assertEquals(expected, document);
+		assertEquals(expected.hashCode(), document.hashCode());
+	}
+
+	@Test
+	public void testOtherDocumentsAreDecodedEagerly() throws IOException {
+		EntityDocument document = reader.readEntityDocument(loadJson("lexeme.json"));
+		assertTrue(document instanceof LexemeDocumentImpl);
+	}
+
+	@Test
+	public void testEmptySections() throws IOException {
+		byte[] json = ("{\"type\":\"item\",\"id\":\"Q1\",\"labels\":[],\"descriptions\":{},"
+				+ "\"aliases\":[],\"claims\":[],\"sitelinks\":[],\"lastrevid\":42}")
+				.getBytes(StandardCharsets.UTF_8);
+		ItemDocument document = (ItemDocument) reader.readEntityDocument(json);
+		assertEquals(42, document.getRevisionId());
+		assertTrue(document.getLabels().isEmpty());
+		assertTrue(document.getDescriptions().isEmpty());
+		assertTrue(document.getAliases().isEmpty());
+		assertTrue(document.getStatementGroups().isEmpty());
+		assertTrue(document.getSiteLinks().isEmpty());
+		assertFalse(document.getAllStatements().hasNext());
+	}
+
+	@Test
+	public void testSerialization() throws IOException {
+		byte[] json = loadJson("item.json");
+		EntityDocument expected = mapper.readValue(json, EntityDocumentImpl.class);
+		EntityDocument document = reader.readEntityDocument(json);
+		JsonComparator.compareJsonStrings(mapper.writeValueAsString(expected),
+				mapper.writeValueAsString(document));
+	}
+
+	@Test
+	public void testModifiedCopy() throws IOException {
+		ItemDocument document = (ItemDocument) reader.readEntityDocument(loadJson("item.json"));
+		ItemDocument copy = document.withLabel(Datamodel.makeMonolingualTextValue("new label", "en"));
+		assertTrue(copy instanceof ItemDocumentImpl);
+		ItemIdValue id = document.getEntityId();
+		assertEquals(id, copy.getEntityId());
+		assertEquals("new label", copy.findLabel("en"));
+		assertEquals(document.getStatementGroups(), copy.getStatementGroups());
+	}
+
+	@Test
+	public void testTrustedInput() throws IOException {
+		LazyJsonDocumentReader trustedReader = new LazyJsonDocumentReader(
+				Datamodel.SITE_WIKIDATA, true);
+		byte[] json = loadJson("item.json");
+		assertEquals(reader.readEntityDocument(json),
+				trustedReader.readEntityDocument(json));
+
+		// the form id is not checked when statements are decoded
+		byte[] formJson = ("{\"type\":\"item\",\"id\":\"Q1\",\"claims\":{\"P5\":[{\"mainsnak\":"
+				+ "{\"snaktype\":\"value\",\"property\":\"P5\",\"datavalue\":{\"value\":{\"id\":\"L1-F01\"},"
+				+ "\"type\":\"wikibase-entityid\"},\"datatype\":\"wikibase-form\"},\"type\":\"statement\","
+				+ "\"id\":\"Q1$1\",\"rank\":\"normal\"}]}}").getBytes(StandardCharsets.UTF_8);
+		ItemDocument document = (ItemDocument) trustedReader
+				.readEntityDocument(formJson);
+		assertEquals("L1-F01", ((EntityIdValue) document.getStatementGroups()
+				.get(0).getStatements().get(0).getValue()).getId());
+	}
+}
@@ -0,0 +1,145 @@
+package org.wikidata.wdtk.dumpfiles;
+
+/*
+ * #%L
+ * Wikidata Toolkit Dump File Handling
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wikidata.wdtk.datamodel.helpers.BinaryDeserializer;
+import org.wikidata.wdtk.datamodel.helpers.BinarySerializer;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocumentProcessor;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.LexemeDocument;
+import org.wikidata.wdtk.datamodel.interfaces.MediaInfoDocument;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyDocument;
+
+/**
+ * Processor for binary caches of JSON dumps, as written by
+ * {@link BinarySerializer}. Such caches are created and used by
+ * {@link DumpProcessingController} if
+ * {@link DumpProcessingController#setBinaryCacheEnabled(boolean)} is set.
+ */
+public class BinaryDumpFileProcessor implements MwDumpFileProcessor {
+
+	static final Logger logger = LoggerFactory
+			.getLogger(BinaryDumpFileProcessor.class);
+
+	private final EntityDocumentProcessor entityDocumentProcessor;
+
+	private int entityDocumentCount = 0;
+
+	public BinaryDumpFileProcessor(
+			EntityDocumentProcessor entityDocumentProcessor) {
+		this.entityDocumentProcessor = entityDocumentProcessor;
+	}
+
+	@Override
+	public void processDumpFileContents(InputStream inputStream,
+			MwDumpFile dumpFile) {
+		try {
+			processDocuments(inputStream, dumpFile);
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot read binary input: "
+					+ e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Processes all documents of the given binary input. Errors in reading
+	 * or decoding the input are reported as {@link IOException}, while
+	 * exceptions of the document processor are passed on unchanged.
+	 *
+	 * @param inputStream
+	 *            the binary input
+	 * @param dumpFile
+	 *            the dump file that the input belongs to
+	 * @throws IOException
+	 *             if the input could not be read or is broken
+	 */
+	void processDocuments(InputStream inputStream, MwDumpFile dumpFile)
+			throws IOException {
+		logger.info("Processing binary cache of dump file "
+				+ dumpFile.toString());
+
+		BinaryDeserializer deserializer = new BinaryDeserializer(inputStream);
+		EntityDocument document = nextEntityDocument(deserializer);
+		while (document != null) {
+			this.entityDocumentCount++;
+			handleDocument(document);
+			document = nextEntityDocument(deserializer);
+		}
+	}
+
+	/**
+	 * Returns the number of entity documents that have been passed to the
+	 * document processor so far.
+	 *
+	 * @return number of processed entity documents
+	 */
+	public int getEntityDocumentCount() {
+		return this.entityDocumentCount;
+	}
+
+	/**
+	 * Reads the next document, reporting broken input as
+	 * {@link IOException}.
+	 *
+	 * @param deserializer
+	 *            the deserializer to read from
+	 * @return the next document or null if there are no more documents
+	 * @throws IOException
+	 *             if the input could not be read or is broken
+	 */
+	private EntityDocument nextEntityDocument(BinaryDeserializer deserializer)
+			throws IOException {
+		try {
+			return deserializer.nextEntityDocument();
+		} catch (RuntimeException e) {
+			throw new IOException("Broken binary input: " + e.toString(), e);
+		}
+	}
+
+	/**
+	 * Calls the processing method that matches the type of the given
+	 * document.
+	 *
+	 * @param document
+	 *            the document to process
+	 */
+	private void handleDocument(EntityDocument document) {
+		if (document instanceof ItemDocument) {
+			this.entityDocumentProcessor
+					.processItemDocument((ItemDocument) document);
+		} else if (document instanceof PropertyDocument) {
+			this.entityDocumentProcessor
+					.processPropertyDocument((PropertyDocument) document);
+		} else if (document instanceof LexemeDocument) {
+			this.entityDocumentProcessor
+					.processLexemeDocument((LexemeDocument) document);
+		} else if (document instanceof MediaInfoDocument) {
+			this.entityDocumentProcessor
+					.processMediaInfoDocument((MediaInfoDocument) document);
+		}
+	}
+}
@@ -22,7 +22,10 @@ package org.wikidata.wdtk.dumpfiles;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -32,6 +35,7 @@ import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.wikidata.wdtk.datamodel.helpers.BinarySerializer;
 import org.wikidata.wdtk.datamodel.helpers.Datamodel;
 import org.wikidata.wdtk.datamodel.interfaces.DocumentDataFilter;
 import org.wikidata.wdtk.datamodel.interfaces.EntityDocumentProcessor;
@@ -39,7 +43,9 @@ import org.wikidata.wdtk.datamodel.interfaces.EntityDocumentProcessorBroker;
 import org.wikidata.wdtk.datamodel.interfaces.EntityDocumentProcessorFilter;
 import org.wikidata.wdtk.datamodel.interfaces.PropertyIdValue;
 import org.wikidata.wdtk.datamodel.interfaces.Sites;
+import org.wikidata.wdtk.dumpfiles.wmf.WmfDumpFile;
 import org.wikidata.wdtk.dumpfiles.wmf.WmfDumpFileManager;
+import org.wikidata.wdtk.util.CompressionType;
 import org.wikidata.wdtk.util.DirectoryManager;
 import org.wikidata.wdtk.util.DirectoryManagerFactory;
 import org.wikidata.wdtk.util.WebResourceFetcher;
@@ -83,6 +89,11 @@ import org.wikidata.wdtk.util.WebResourceFetcherImpl;
  * {@link #getWmfDumpFileManager()} to get access to the underlying dump file
  * manager, which can be used to get access to dump file data.
  * <p>
+ * JSON dumps can optionally be converted into a binary cache when they are
+ * first processed, see {@link #setBinaryCacheEnabled(boolean)}. Later runs on
+ * the same dump will read the cache instead, which is much faster than parsing
+ * JSON.
+ * <p>
  * The controller will also catch exceptions that may occur when trying to
  * download and read dump files. They will be turned into logged errors.
  *
@@ -182,6 +193,34 @@ public class DumpProcessingController {
 
 	final DocumentDataFilter filter = new DocumentDataFilter();
 
+	/**
+	 * File name suffix of binary caches of JSON dumps.
+	 */
+	static final String BINARY_CACHE_SUFFIX = ".wdtkbin";
+
+	/**
+	 * File name suffix of the marker file that is created once a binary cache
+	 * has been written completely.
+	 */
+	static final String BINARY_CACHE_DONE_SUFFIX = ".done";
+
+	/**
+	 * Should JSON dumps be converted to binary caches and should such caches
+	 * be used if available?
+	 */
+	boolean binaryCacheEnabled = false;
+
+	/**
+	 * Should entity documents from JSON dumps be decoded lazily?
+	 */
+	boolean lazyDocumentDecoding = false;
+
+	/**
+	 * Should validation that official dumps always pass be skipped when
+	 * decoding entity documents from JSON dumps?
+	 */
+	boolean trustedInput = false;
+
 	/**
 	 * Creates a new DumpFileProcessingController for the project of the given
 	 * name. By default, the dump file directory will be assumed to be in the
@@ -238,6 +277,58 @@ public class DumpProcessingController {
 		}
 	}
 
+	/**
+	 * Enables or disables the use of binary caches for JSON dumps. If enabled,
+	 * the first run over a JSON dump will also store all entity documents in
+	 * a compact binary format, next to the dump file in the download
+	 * directory. Later runs over a JSON dump of the same project and date will
+	 * read the binary cache instead of the JSON dump, which avoids the costs of
+	 * JSON parsing. Since the date of local dump files is only guessed from
+	 * their name, their caches are also tied to the path, size and
+	 * modification time of the file.
+	 * <p>
+	 * The cache always contains the complete data, so it can be used with
+	 * different filters. Dumps for which no date is known are never cached.
+	 *
+	 * @see BinarySerializer
+	 * @param binaryCacheEnabled
+	 *            if true, binary caches will be created and used
+	 */
+	public void setBinaryCacheEnabled(boolean binaryCacheEnabled) {
+		this.binaryCacheEnabled = binaryCacheEnabled;
+	}
+
+	/**
+	 * Enables or disables lazy decoding of items and properties from JSON
+	 * dumps. Lazily decoded documents only parse their labels, descriptions,
+	 * aliases, statements and site links when these are accessed, which is
+	 * faster for processors that only use some of this data. The setting
+	 * has no effect when a binary cache is written or read, and it does not
+	 * help much if filters are set, since filtering needs all data.
+	 *
+	 * @see JsonDumpFileProcessor#JsonDumpFileProcessor(EntityDocumentProcessor, String, boolean)
+	 * @param lazyDocumentDecoding
+	 *            if true, documents will be decoded lazily
+	 */
+	public void setLazyDocumentDecoding(boolean lazyDocumentDecoding) {
+		this.lazyDocumentDecoding = lazyDocumentDecoding;
+	}
+
+	/**
+	 * Enables or disables trusted input mode for JSON dumps. In this mode,
+	 * checks that the data of official dumps always passes, such as the
+	 * syntax of form and sense ids, are skipped when decoding entity
+	 * documents, which makes processing faster. Malformed dumps may then
+	 * lead to invalid objects instead of errors.
+	 *
+	 * @see JsonDumpFileProcessor#JsonDumpFileProcessor(EntityDocumentProcessor, String, boolean, boolean)
+	 * @param trustedInput
+	 *            if true, redundant validation will be skipped
+	 */
+	public void setTrustedInput(boolean trustedInput) {
+		this.trustedInput = trustedInput;
+	}
+
 	/**
 	 * Sets a property filter. If given, all data will be preprocessed to
 	 * contain only statements for the given (main) properties.
@@ -466,6 +557,10 @@ public class DumpProcessingController {
 			dumpFileProcessor = getRevisionDumpFileProcessor();
 			break;
 		case JSON:
+			if (this.binaryCacheEnabled) {
+				processJsonDumpWithBinaryCache(dumpFile);
+				return;
+			}
 			dumpFileProcessor = getJsonDumpFileProcessor();
 			break;
 		case SITES:
@@ -534,11 +629,13 @@ public class DumpProcessingController {
 	 *            the dump file to process
 	 * @param dumpFileProcessor
 	 *            the dump file processor to use
+	 * @return true if the dump file was processed without errors
 	 */
-	void processDumpFile(MwDumpFile dumpFile,
+	boolean processDumpFile(MwDumpFile dumpFile,
 			MwDumpFileProcessor dumpFileProcessor) {
 		try (InputStream inputStream = dumpFile.getDumpFileStream()) {
 			dumpFileProcessor.processDumpFileContents(inputStream, dumpFile);
+			return true;
 		} catch (FileAlreadyExistsException e) {
 			logger.error("Dump file "
 					+ dumpFile.toString()
@@ -549,6 +646,187 @@ public class DumpProcessingController {
 			logger.error("Dump file " + dumpFile.toString()
 					+ " could not be processed: " + e.toString());
 		}
+		return false;
+	}
+
+	/**
+	 * Processes a JSON dump using its binary cache. If the cache does not
+	 * exist yet, the JSON dump is processed and the cache is written at the
+	 * same time. Only completely written caches are used. A cache that
+	 * cannot be read is discarded. If no document has been processed yet,
+	 * the JSON dump is processed instead; otherwise, a RuntimeException is
+	 * thrown, since the documents that were already processed cannot be taken
+	 * back.
+	 *
+	 * @param dumpFile
+	 *            the JSON dump file to process
+	 */
+	void processJsonDumpWithBinaryCache(MwDumpFile dumpFile) {
+		if (!dumpFile.getDateStamp().matches("\\d{8}")) {
+			logger.warn("Not using a binary cache for dump file "
+					+ dumpFile.toString() + " since its date is not known.");
+			processDumpFile(dumpFile, getJsonDumpFileProcessor());
+			return;
+		}
+
+		DirectoryManager cacheDirectoryManager;
+		String cacheFileName;
+		try {
+			cacheDirectoryManager = getBinaryCacheDirectoryManager(dumpFile);
+			cacheFileName = getBinaryCacheFileName(dumpFile);
+		} catch (IOException e) {
+			logger.error("Could not access binary cache: " + e.toString());
+			processDumpFile(dumpFile, getJsonDumpFileProcessor());
+			return;
+		}
+		String doneFileName = cacheFileName + BINARY_CACHE_DONE_SUFFIX;
+
+		if (cacheDirectoryManager.hasFile(doneFileName)) {
+			BinaryDumpFileProcessor binaryDumpFileProcessor = new BinaryDumpFileProcessor(
+					getMasterEntityDocumentProcessor());
+			boolean completed = false;
+			try (InputStream inputStream = cacheDirectoryManager
+					.getInputStreamForFile(cacheFileName, CompressionType.NONE)) {
+				binaryDumpFileProcessor.processDocuments(inputStream, dumpFile);
+				completed = true;
+				return;
+			} catch (IOException e) {
+				if (completed) {
+					logger.warn("Could not close binary cache: " + e.toString());
+					return;
+				}
+				logger.error("Binary cache of dump file " + dumpFile.toString()
+						+ " could not be processed: " + e.toString());
+				boolean deleted = deleteBinaryCacheMarker(
+						cacheDirectoryManager, doneFileName);
+				int count = binaryDumpFileProcessor.getEntityDocumentCount();
+				if (count > 0) {
+					// the processors cannot be reset, so the JSON dump
+					// cannot be processed instead
+					throw new RuntimeException("Binary cache of dump file "
+							+ dumpFile.toString() + " failed after " + count
+							+ " documents: " + e.toString(), e);
+				}
+				if (!deleted) {
+					processDumpFile(dumpFile, getJsonDumpFileProcessor());
+					return;
+				}
+				logger.info("Processing the JSON dump instead.");
+			}
+		}
+
+		logger.info("Creating binary cache of dump file " + dumpFile.toString());
+		BinarySerializer serializer;
+		try {
+			OutputStream outputStream = cacheDirectoryManager
+					.getOutputStreamForFile(cacheFileName);
+			serializer = new BinarySerializer(outputStream,
+					Datamodel.SITE_WIKIDATA);
+		} catch (IOException e) {
+			logger.error("Could not create binary cache: " + e.toString());
+			processDumpFile(dumpFile, getJsonDumpFileProcessor());
+			return;
+		}
+
+		// The cache gets all documents, before any filters are applied:
+		EntityDocumentProcessorBroker broker = new EntityDocumentProcessorBroker();
+		broker.registerEntityDocumentProcessor(serializer);
+		EntityDocumentProcessor masterProcessor = getMasterEntityDocumentProcessor();
+		if (masterProcessor != null) {
+			broker.registerEntityDocumentProcessor(masterProcessor);
+		}
+
+		boolean success = false;
+		try {
+			serializer.open();
+			success = processDumpFile(dumpFile, new JsonDumpFileProcessor(
+					broker, Datamodel.SITE_WIKIDATA, false, this.trustedInput));
+		} finally {
+			try {
+				serializer.close();
+			} catch (RuntimeException e) {
+				// the cache is incomplete, but the dump has been processed
+				success = false;
+				logger.error("Could not close binary cache: " + e.toString());
+			}
+		}
+
+		if (success) {
+			try {
+				cacheDirectoryManager.createFile(doneFileName,
+						Integer.toString(serializer.getEntityDocumentCount()));
+			} catch (IOException e) {
+				logger.error("Could not complete binary cache: " + e.toString());
+			}
+		}
+	}
+
+	/**
+	 * Deletes the marker file of a complete binary cache, so that the cache
+	 * is written anew.
+	 *
+	 * @param cacheDirectoryManager
+	 *            the directory of the cache
+	 * @param doneFileName
+	 *            the name of the marker file
+	 * @return true if the marker file was deleted
+	 */
+	boolean deleteBinaryCacheMarker(DirectoryManager cacheDirectoryManager,
+			String doneFileName) {
+		try {
+			cacheDirectoryManager.deleteFile(doneFileName);
+			return true;
+		} catch (IOException e) {
+			logger.error("Could not delete broken binary cache: "
+					+ e.toString());
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the file name of the binary cache of the given dump file. For
+	 * local dump files, the name also contains a hash of the path, the size
+	 * and the modification time of the file, so that different files with
+	 * the same date do not share a cache, and a changed file is cached anew.
+	 *
+	 * @param dumpFile
+	 *            the dump file to find the cache file name for
+	 * @return the file name
+	 * @throws IOException
+	 *             if the local dump file could not be accessed
+	 */
+	String getBinaryCacheFileName(MwDumpFile dumpFile) throws IOException {
+		if (dumpFile instanceof MwLocalDumpFile) {
+			Path path = ((MwLocalDumpFile) dumpFile).getPath();
+			return dumpFile.getDateStamp() + "-"
+					+ Integer.toHexString(path.toString().hashCode()) + "-"
+					+ Files.size(path) + "-"
+					+ Files.getLastModifiedTime(path).toMillis()
+					+ BINARY_CACHE_SUFFIX;
+		}
+		return dumpFile.getDateStamp() + BINARY_CACHE_SUFFIX;
+	}
+
+	/**
+	 * Returns the directory manager for the directory where the binary cache
+	 * of the given dump file is stored. This is the same directory where
+	 * downloaded JSON dumps of this date are stored.
+	 *
+	 * @param dumpFile
+	 *            the dump file to find the cache directory for
+	 * @return the directory manager
+	 * @throws IOException
+	 *             if the directory could not be accessed or created
+	 */
+	DirectoryManager getBinaryCacheDirectoryManager(MwDumpFile dumpFile)
+			throws IOException {
+		return this.downloadDirectoryManager
+				.getSubdirectoryManager(
+						WmfDumpFileManager.DOWNLOAD_DIRECTORY_NAME)
+				.getSubdirectoryManager(dumpFile.getProjectName())
+				.getSubdirectoryManager(
+						WmfDumpFile.getDumpFileDirectoryName(
+								DumpContentType.JSON, dumpFile.getDateStamp()));
 	}
 
 	/**
@@ -592,7 +870,8 @@ public class DumpProcessingController {
 	 */
 	MwDumpFileProcessor getJsonDumpFileProcessor() {
 		return new JsonDumpFileProcessor(getMasterEntityDocumentProcessor(),
-				Datamodel.SITE_WIKIDATA);
+				Datamodel.SITE_WIKIDATA, this.lazyDocumentDecoding,
+				this.trustedInput);
 	}
 
 	/**
@@ -24,12 +24,15 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.wikidata.wdtk.datamodel.helpers.DatamodelMapper;
 import org.wikidata.wdtk.datamodel.implementation.EntityDocumentImpl;
+import org.wikidata.wdtk.datamodel.implementation.LazyJsonDocumentReader;
 import org.wikidata.wdtk.datamodel.interfaces.*;
 
 import com.fasterxml.jackson.core.JsonParser.Feature;
@@ -52,12 +55,72 @@ public class JsonDumpFileProcessor implements MwDumpFileProcessor {
 
 	private final EntityDocumentProcessor entityDocumentProcessor;
 
+	/**
+	 * Reader for lazily decoded documents, or null if documents should be
+	 * decoded eagerly.
+	 */
+	private final LazyJsonDocumentReader lazyDocumentReader;
+
+	/**
+	 * Initial size of the buffer for reading lines in lazy decoding mode. The
+	 * buffer grows if a line does not fit.
+	 */
+	static final int LAZY_BUFFER_SIZE = 1 << 20;
+
 	public JsonDumpFileProcessor(
 			EntityDocumentProcessor entityDocumentProcessor, String siteIri) {
+		this(entityDocumentProcessor, siteIri, false);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param entityDocumentProcessor
+	 *            the processor that the documents are sent to
+	 * @param siteIri
+	 *            the IRI of the site that the dump comes from
+	 * @param lazyDecoding
+	 *            if true, items and properties are decoded lazily: they only
+	 *            keep the bytes of their JSON serialization and decode
+	 *            labels, descriptions, aliases, statements and site links
+	 *            when these are first accessed; this is faster for
+	 *            processors that only use a small part of each document
+	 * @see LazyJsonDocumentReader
+	 */
+	public JsonDumpFileProcessor(
+			EntityDocumentProcessor entityDocumentProcessor, String siteIri,
+			boolean lazyDecoding) {
+		this(entityDocumentProcessor, siteIri, lazyDecoding, false);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param entityDocumentProcessor
+	 *            the processor that the documents are sent to
+	 * @param siteIri
+	 *            the IRI of the site that the dump comes from
+	 * @param lazyDecoding
+	 *            if true, items and properties are decoded lazily, see
+	 *            {@link #JsonDumpFileProcessor(EntityDocumentProcessor, String, boolean)}
+	 * @param trustedInput
+	 *            if true, checks that the data of official dumps always
+	 *            passes are skipped when decoding documents
+	 * @see DatamodelMapper#DatamodelMapper(String, boolean)
+	 */
+	public JsonDumpFileProcessor(
+			EntityDocumentProcessor entityDocumentProcessor, String siteIri,
+			boolean lazyDecoding, boolean trustedInput) {
 		this.entityDocumentProcessor = entityDocumentProcessor;
-		this.documentReader = new DatamodelMapper(siteIri)
+		this.documentReader = new DatamodelMapper(siteIri, trustedInput)
 				.readerFor(EntityDocumentImpl.class)
 				.with(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT);
+		if (lazyDecoding) {
+			this.lazyDocumentReader = new LazyJsonDocumentReader(siteIri,
+					trustedInput);
+		} else {
+			this.lazyDocumentReader = null;
+		}
 	}
 
 	/**
@@ -77,6 +140,10 @@ public class JsonDumpFileProcessor implements MwDumpFileProcessor {
 
 		try {
 			try {
+				if (this.lazyDocumentReader != null) {
+					processDumpFileContentsLazily(inputStream);
+					return;
+				}
 				MappingIterator<EntityDocument> documentIterator = documentReader.readValues(inputStream);
 				documentIterator.getParser().disable(Feature.AUTO_CLOSE_SOURCE);
 
@@ -96,6 +163,95 @@ public class JsonDumpFileProcessor implements MwDumpFileProcessor {
 
 	}
 
+	/**
+	 * Process dump file data from the given input stream, creating lazily
+	 * decoded documents. The input is assumed to contain one entity per line,
+	 * as in the JSON dumps of Wikimedia. The bytes of each line are handed to
+	 * the {@link LazyJsonDocumentReader} as they are, without parsing them
+	 * before. Entities that cannot be read are logged and skipped.
+	 *
+	 * @param inputStream
+	 *            the stream to read from
+	 * @throws IOException
+	 *             if there is a problem reading the stream
+	 */
+	private void processDumpFileContentsLazily(InputStream inputStream)
+			throws IOException {
+		byte[] buffer = new byte[LAZY_BUFFER_SIZE];
+		int lineStart = 0;
+		int scanned = 0;
+		int filled = 0;
+		while (true) {
+			while (scanned < filled && buffer[scanned] != '\n') {
+				scanned++;
+			}
+			if (scanned < filled) {
+				processLineLazily(buffer, lineStart, scanned);
+				scanned++;
+				lineStart = scanned;
+				continue;
+			}
+
+			// no complete line left in the buffer: read more data
+			if (lineStart > 0) {
+				System.arraycopy(buffer, lineStart, buffer, 0, filled
+						- lineStart);
+				filled -= lineStart;
+				scanned -= lineStart;
+				lineStart = 0;
+			}
+			if (filled == buffer.length) {
+				buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+			}
+			int read = inputStream.read(buffer, filled, buffer.length
+					- filled);
+			if (read < 0) {
+				processLineLazily(buffer, lineStart, filled);
+				return;
+			}
+			filled += read;
+		}
+	}
+
+	/**
+	 * Processes one line of a JSON dump, given by the bytes from start
+	 * (inclusive) to end (exclusive) in the buffer. Lines are expected to
+	 * contain one entity, followed by a comma, or the brackets that start or
+	 * end the dump.
+	 */
+	private void processLineLazily(byte[] buffer, int start, int end) {
+		while (start < end
+				&& (isJsonWhitespace(buffer[start]) || buffer[start] == '[')) {
+			start++;
+		}
+		while (end > start && (isJsonWhitespace(buffer[end - 1])
+				|| buffer[end - 1] == ',' || buffer[end - 1] == ']')) {
+			end--;
+		}
+		if (end - start < 2 || buffer[start] != '{') {
+			return;
+		}
+
+		EntityDocument document;
+		try {
+			document = this.lazyDocumentReader.readEntityDocument(Arrays
+					.copyOfRange(buffer, start, end));
+		} catch (IOException e) {
+			JsonDumpFileProcessor.logger
+					.error("Error when reading JSON for entity: "
+							+ e.getMessage());
+			JsonDumpFileProcessor.logger.error("Problematic line was: "
+					+ new String(buffer, start, Math.min(50, end - start),
+							StandardCharsets.UTF_8) + "...");
+			return;
+		}
+		handleDocument(document);
+	}
+
+	private static boolean isJsonWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+	}
+
 	/**
 	 * Reports the error of a JSON processing exception that was caught when
 	 * trying to read an entity.
@@ -0,0 +1,202 @@
+package org.wikidata.wdtk.dumpfiles.streaming;
+
+/*
+ * #%L
+ * Wikidata Toolkit Dump File Handling
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Growing byte buffer for rows of tab-separated or comma-separated values.
+ * Cells are encoded to UTF-8 directly, without intermediate strings.
+ * <p>
+ * In TSV mode, tabs, line breaks and backslashes in cells are escaped as
+ * "\t", "\n", "\r" and "\\". In CSV mode, cells are quoted as described in
+ * RFC 4180 if they contain commas, quotes or line breaks.
+ */
+class DelimitedTextBuffer {
+
+	private final boolean csv;
+
+	private byte[] bytes = new byte[1 << 16];
+
+	private int size = 0;
+
+	private boolean rowStarted = false;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param csv
+	 *            true for comma-separated values, false for tab-separated
+	 *            values
+	 */
+	DelimitedTextBuffer(boolean csv) {
+		this.csv = csv;
+	}
+
+	/**
+	 * Appends a cell to the current row.
+	 *
+	 * @param text
+	 *            the content of the cell
+	 */
+	void appendCell(CharSequence text) {
+		int length = text.length();
+		// at most 4 bytes per character, plus separator and quotes
+		ensureCapacity(this.size + 4 * length + 3);
+		if (this.rowStarted) {
+			this.bytes[this.size++] = (byte) (this.csv ? ',' : '\t');
+		}
+		this.rowStarted = true;
+
+		if (this.csv) {
+			boolean quote = needsQuotes(text);
+			if (quote) {
+				int quotes = 0;
+				for (int i = 0; i < length; i++) {
+					if (text.charAt(i) == '"') {
+						quotes++;
+					}
+				}
+				ensureCapacity(this.size + 4 * length + 2 + quotes);
+				this.bytes[this.size++] = '"';
+			}
+			for (int i = 0; i < length; i++) {
+				char c = text.charAt(i);
+				if (c == '"') {
+					this.bytes[this.size++] = '"';
+				}
+				i = appendChar(text, i);
+			}
+			if (quote) {
+				this.bytes[this.size++] = '"';
+			}
+		} else {
+			for (int i = 0; i < length; i++) {
+				char c = text.charAt(i);
+				if (c == '\t' || c == '\n' || c == '\r' || c == '\\') {
+					// escapes take two bytes for a one-byte character
+					ensureCapacity(this.size + 4 * (length - i) + 2);
+					this.bytes[this.size++] = '\\';
+					this.bytes[this.size++] = (byte) (c == '\t' ? 't'
+							: c == '\n' ? 'n' : c == '\r' ? 'r' : '\\');
+				} else {
+					i = appendChar(text, i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Ends the current row.
+	 */
+	void endRow() {
+		ensureCapacity(this.size + 1);
+		this.bytes[this.size++] = '\n';
+		this.rowStarted = false;
+	}
+
+	/**
+	 * Returns the number of bytes in the buffer.
+	 *
+	 * @return number of bytes
+	 */
+	int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns a copy of the bytes in the buffer.
+	 *
+	 * @return bytes
+	 */
+	byte[] toByteArray() {
+		return Arrays.copyOf(this.bytes, this.size);
+	}
+
+	/**
+	 * Writes the bytes in the buffer to the given stream.
+	 *
+	 * @param outputStream
+	 *            the stream to write to
+	 * @throws IOException
+	 *             if the stream could not be written to
+	 */
+	void writeTo(OutputStream outputStream) throws IOException {
+		outputStream.write(this.bytes, 0, this.size);
+	}
+
+	/**
+	 * Empties the buffer.
+	 */
+	void reset() {
+		this.size = 0;
+		this.rowStarted = false;
+	}
+
+	private boolean needsQuotes(CharSequence text) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Appends the UTF-8 encoding of the character at the given position.
+	 * Returns the position of the last character consumed, which is
+	 * different from the given position for surrogate pairs.
+	 */
+	private int appendChar(CharSequence text, int i) {
+		char c = text.charAt(i);
+		if (c < 0x80) {
+			this.bytes[this.size++] = (byte) c;
+		} else if (c < 0x800) {
+			this.bytes[this.size++] = (byte) (0xc0 | (c >> 6));
+			this.bytes[this.size++] = (byte) (0x80 | (c & 0x3f));
+		} else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+				&& Character.isLowSurrogate(text.charAt(i + 1))) {
+			int codePoint = Character.toCodePoint(c, text.charAt(i + 1));
+			this.bytes[this.size++] = (byte) (0xf0 | (codePoint >> 18));
+			this.bytes[this.size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+			this.bytes[this.size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+			this.bytes[this.size++] = (byte) (0x80 | (codePoint & 0x3f));
+			return i + 1;
+		} else if (Character.isSurrogate(c)) {
+			this.bytes[this.size++] = '?';
+		} else {
+			this.bytes[this.size++] = (byte) (0xe0 | (c >> 12));
+			this.bytes[this.size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+			this.bytes[this.size++] = (byte) (0x80 | (c & 0x3f));
+		}
+		return i;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > this.bytes.length) {
+			this.bytes = Arrays.copyOf(this.bytes,
+					Math.max(capacity, 2 * this.bytes.length));
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package org.wikidata.wdtk.dumpfiles.streaming;
+
+/*
+ * #%L
+ * Wikidata Toolkit Dump File Handling
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Mutable implementation of {@link StreamedSnak} that is reused for many
+ * snaks.
+ */
+class MutableSnak implements StreamedSnak {
+
+	String propertyId;
+	SnakType snakType;
+	String datatype;
+	final MutableValue value = new MutableValue();
+
+	/**
+	 * Clears all data for reading the next snak.
+	 */
+	void reset() {
+		this.propertyId = null;
+		this.snakType = SnakType.VALUE;
+		this.datatype = null;
+		this.value.reset();
+	}
+
+	@Override
+	public String getPropertyId() {
+		return this.propertyId;
+	}
+
+	@Override
+	public SnakType getSnakType() {
+		return this.snakType;
+	}
+
+	@Override
+	public String getDatatype() {
+		return this.datatype;
+	}
+
+	@Override
+	public StreamedValue getValue() {
+		return this.snakType == SnakType.VALUE ? this.value : null;
+	}
+}
@@ -0,0 +1,104 @@
+package org.wikidata.wdtk.dumpfiles.streaming;
+
+/*
+ * #%L
+ * Wikidata Toolkit Dump File Handling
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.wikidata.wdtk.datamodel.interfaces.StatementRank;
+
+/**
+ * Mutable implementation of {@link StreamedStatement} that is reused for all
+ * statements of a stream. Snak objects for qualifiers are kept in a pool that
+ * grows to the largest number of qualifiers seen in one statement.
+ */
+class MutableStatement implements StreamedStatement {
+
+	String subjectId;
+	String statementId;
+	StatementRank rank;
+	final MutableSnak mainSnak = new MutableSnak();
+
+	private final List<MutableSnak> qualifiers = new ArrayList<>();
+	private int qualifierCount;
+
+	/**
+	 * Clears all data for reading the next statement.
+	 *
+	 * @param subjectId
+	 *            the id of the entity that the statement belongs to
+	 */
+	void reset(String subjectId) {
+		this.subjectId = subjectId;
+		this.statementId = null;
+		this.rank = StatementRank.NORMAL;
+		this.mainSnak.reset();
+		this.qualifierCount = 0;
+	}
+
+	/**
+	 * Returns a cleared snak object for the next qualifier.
+	 *
+	 * @return qualifier snak
+	 */
+	MutableSnak nextQualifier() {
+		if (this.qualifierCount == this.qualifiers.size()) {
+			this.qualifiers.add(new MutableSnak());
+		}
+		MutableSnak qualifier = this.qualifiers.get(this.qualifierCount++);
+		qualifier.reset();
+		return qualifier;
+	}
+
+	@Override
+	public String getSubjectId() {
+		return this.subjectId;
+	}
+
+	@Override
+	public String getStatementId() {
+		return this.statementId;
+	}
+
+	@Override
+	public StatementRank getRank() {
+		return this.rank;
+	}
+
+	@Override
+	public StreamedSnak getMainSnak() {
+		return this.mainSnak;
+	}
+
+	@Override
+	public int getQualifierCount() {
+		return this.qualifierCount;
+	}
+
+	@Override
+	public StreamedSnak getQualifier(int index) {
+		if (index < 0 || index >= this.qualifierCount) {
+			throw new IndexOutOfBoundsException("No qualifier at position "
+					+ index);
+		}
+		return this.qualifiers.get(index);
+	}
+}
@@ -0,0 +1,198 @@
+package org.wikidata.wdtk.dumpfiles.streaming;
+
+/*
+ * #%L
+ * Wikidata Toolkit Dump File Handling
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Mutable implementation of {@link StreamedValue} that is reused for many
+ * values.
+ */
+class MutableValue implements StreamedValue {
+
+	ValueType valueType;
+	String jsonType;
+	String entityType;
+	long numericId;
+	String entityId;
+	String string;
+	String languageCode;
+	String time;
+	int timePrecision;
+	int timezone;
+	int before;
+	int after;
+	String calendarModel;
+	double latitude;
+	double longitude;
+	double coordinatePrecision;
+	String globe;
+	String amount;
+	String lowerBound;
+	String upperBound;
+	String unit;
+
+	/**
+	 * Clears all data for reading the next value.
+	 */
+	void reset() {
+		this.valueType = ValueType.UNSUPPORTED;
+		this.jsonType = null;
+		this.entityType = null;
+		this.numericId = 0;
+		this.entityId = null;
+		this.string = null;
+		this.languageCode = null;
+		this.time = null;
+		this.timePrecision = 0;
+		this.timezone = 0;
+		this.before = 0;
+		this.after = 0;
+		this.calendarModel = null;
+		this.latitude = Double.NaN;
+		this.longitude = Double.NaN;
+		this.coordinatePrecision = Double.NaN;
+		this.globe = null;
+		this.amount = null;
+		this.lowerBound = null;
+		this.upperBound = null;
+		this.unit = null;
+	}
+
+	@Override
+	public ValueType getValueType() {
+		return this.valueType;
+	}
+
+	@Override
+	public String getJsonType() {
+		return this.jsonType;
+	}
+
+	@Override
+	public String getEntityType() {
+		return this.entityType;
+	}
+
+	@Override
+	public long getNumericId() {
+		return this.numericId;
+	}
+
+	@Override
+	public String getEntityId() {
+		if (this.entityId == null && this.numericId > 0
+				&& this.entityType != null) {
+			switch (this.entityType) {
+			case "item":
+				this.entityId = "Q" + this.numericId;
+				break;
+			case "property":
+				this.entityId = "P" + this.numericId;
+				break;
+			case "lexeme":
+				this.entityId = "L" + this.numericId;
+				break;
+			default:
+				// other ids cannot be built from numbers alone
+			}
+		}
+		return this.entityId;
+	}
+
+	@Override
+	public String getString() {
+		return this.string;
+	}
+
+	@Override
+	public String getLanguageCode() {
+		return this.languageCode;
+	}
+
+	@Override
+	public String getTime() {
+		return this.time;
+	}
+
+	@Override
+	public int getTimePrecision() {
+		return this.timePrecision;
+	}
+
+	@Override
+	public int getTimezone() {
+		return this.timezone;
+	}
+
+	@Override
+	public int getBefore() {
+		return this.before;
+	}
+
+	@Override
+	public int getAfter() {
+		return this.after;
+	}
+
+	@Override
+	public String getCalendarModel() {
+		return this.calendarModel;
+	}
+
+	@Override
+	public double getLatitude() {
+		return this.latitude;
+	}
+
+	@Override
+	public double getLongitude() {
+		return this.longitude;
+	}
+
+	@Override
+	public double getCoordinatePrecision() {
+		return this.coordinatePrecision;
+	}
+
+	@Override
+	public String getGlobe() {
+		return this.globe;
+	}
+
+	@Override
+	public String getAmount() {
+		return this.amount;
+	}
+
+	@Override
+	public String getLowerBound() {
+		return this.lowerBound;
+	}
+
+	@Override
+	public String getUpperBound() {
+		return this.upperBound;
+	}
+
+	@Override
+	public String getUnit() {
+		return this.unit;
+	}
+}
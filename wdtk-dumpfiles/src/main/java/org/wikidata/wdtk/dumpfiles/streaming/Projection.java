@@ -0,0 +1,239 @@
+package org.wikidata.wdtk.dumpfiles.streaming;
+
+/*
+ * #%L
+ * Wikidata Toolkit Dump File Handling
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Declarative description of the columns of a table that is extracted from a
+ * dump by a {@link ProjectionExtractor}. Each column is given by a field
+ * path:
+ * <ul>
+ * <li>"id", "type" and "lastrevid" for the entity id, the entity type and
+ * the revision id,</li>
+ * <li>"labels.en", "descriptions.en" and "aliases.en" for the terms in a
+ * language,</li>
+ * <li>"sitelinks.enwiki" for the title of the page linked on a site,</li>
+ * <li>"P31" for the values of the best-ranked statements for a property,
+ * and</li>
+ * <li>"P625.latitude" or "P2048.unit" for one field of these values. The
+ * fields are "id", "string", "text", "language", "time", "precision",
+ * "calendarmodel", "latitude", "longitude", "globe", "amount", "lowerBound",
+ * "upperBound" and "unit".</li>
+ * </ul>
+ * Best-ranked statements are the preferred statements if there are any, and
+ * the statements of normal rank otherwise. Columns with several values, such
+ * as aliases or statements, contain all values separated by
+ * {@link #VALUE_SEPARATOR}. Occurrences of the separator and of
+ * {@link #VALUE_ESCAPE} in text values are preceded by
+ * {@link #VALUE_ESCAPE}, so that values can be split unambiguously. Values
+ * that are not set at all, such as "some value" snaks, are left out.
+ * <p>
+ * The field paths are compiled into lookup tables, so that the extractor can
+ * decide in constant time whether a term or statement is needed.
+ */
+public class Projection {
+
+	/**
+	 * Separator used between several values in one column.
+	 */
+	public static final char VALUE_SEPARATOR = '|';
+
+	/**
+	 * Character used to escape {@link #VALUE_SEPARATOR} and itself within
+	 * values.
+	 */
+	public static final char VALUE_ESCAPE = '\\';
+
+	/**
+	 * Kinds of columns.
+	 */
+	enum ColumnKind {
+		ENTITY_ID, ENTITY_TYPE, REVISION_ID, LABEL, DESCRIPTION, ALIASES, SITE_LINK, STATEMENT
+	}
+
+	/**
+	 * Parts of statement values that can be selected.
+	 */
+	enum ValueField {
+		VALUE, ID, STRING, LANGUAGE, TIME, PRECISION, CALENDAR_MODEL, LATITUDE, LONGITUDE, GLOBE, AMOUNT, LOWER_BOUND, UPPER_BOUND, UNIT
+	}
+
+	/**
+	 * A compiled column of the projection.
+	 */
+	static class Column {
+		final int index;
+		final ColumnKind kind;
+		final ValueField field;
+
+		Column(int index, ColumnKind kind, ValueField field) {
+			this.index = index;
+			this.kind = kind;
+			this.field = field;
+		}
+	}
+
+	static final Pattern PROPERTY_ID_PATTERN = Pattern.compile("^P[1-9][0-9]*$");
+
+	private static final Map<String, ValueField> VALUE_FIELDS = new HashMap<>();
+	static {
+		VALUE_FIELDS.put("id", ValueField.ID);
+		VALUE_FIELDS.put("string", ValueField.STRING);
+		VALUE_FIELDS.put("text", ValueField.STRING);
+		VALUE_FIELDS.put("language", ValueField.LANGUAGE);
+		VALUE_FIELDS.put("time", ValueField.TIME);
+		VALUE_FIELDS.put("precision", ValueField.PRECISION);
+		VALUE_FIELDS.put("calendarmodel", ValueField.CALENDAR_MODEL);
+		VALUE_FIELDS.put("latitude", ValueField.LATITUDE);
+		VALUE_FIELDS.put("longitude", ValueField.LONGITUDE);
+		VALUE_FIELDS.put("globe", ValueField.GLOBE);
+		VALUE_FIELDS.put("amount", ValueField.AMOUNT);
+		VALUE_FIELDS.put("lowerBound", ValueField.LOWER_BOUND);
+		VALUE_FIELDS.put("upperBound", ValueField.UPPER_BOUND);
+		VALUE_FIELDS.put("unit", ValueField.UNIT);
+	}
+
+	private final List<String> columnNames;
+
+	final Column[] columns;
+
+	final Map<String, Column[]> labelColumns = new HashMap<>();
+	final Map<String, Column[]> descriptionColumns = new HashMap<>();
+	final Map<String, Column[]> aliasColumns = new HashMap<>();
+	final Map<String, Column[]> siteLinkColumns = new HashMap<>();
+	final Map<String, Column[]> statementColumns = new HashMap<>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param fieldPaths
+	 *            the field paths of the columns, in the order of the columns
+	 * @throws IllegalArgumentException
+	 *             if one of the field paths is not valid
+	 */
+	public Projection(List<String> fieldPaths) {
+		this.columnNames = Collections
+				.unmodifiableList(new ArrayList<>(fieldPaths));
+		this.columns = new Column[fieldPaths.size()];
+		for (int i = 0; i < fieldPaths.size(); i++) {
+			this.columns[i] = compileColumn(i, fieldPaths.get(i));
+		}
+	}
+
+	/**
+	 * Creates a projection from a comma-separated list of field paths, such
+	 * as "id,labels.en,P31".
+	 *
+	 * @param fieldPaths
+	 *            the comma-separated field paths
+	 * @return the projection
+	 * @throws IllegalArgumentException
+	 *             if one of the field paths is not valid
+	 */
+	public static Projection parse(String fieldPaths) {
+		List<String> paths = new ArrayList<>();
+		for (String path : fieldPaths.split(",")) {
+			paths.add(path.trim());
+		}
+		return new Projection(paths);
+	}
+
+	/**
+	 * Returns the field paths of all columns, which are also used as column
+	 * names.
+	 *
+	 * @return list of field paths
+	 */
+	public List<String> getColumnNames() {
+		return this.columnNames;
+	}
+
+	private Column compileColumn(int index, String path) {
+		switch (path) {
+		case "id":
+			return new Column(index, ColumnKind.ENTITY_ID, null);
+		case "type":
+			return new Column(index, ColumnKind.ENTITY_TYPE, null);
+		case "lastrevid":
+			return new Column(index, ColumnKind.REVISION_ID, null);
+		default:
+		}
+
+		int dot = path.indexOf('.');
+		String head = dot < 0 ? path : path.substring(0, dot);
+		String tail = dot < 0 ? null : path.substring(dot + 1);
+		if (tail != null && tail.isEmpty()) {
+			throw new IllegalArgumentException("Invalid field path: " + path);
+		}
+
+		if (PROPERTY_ID_PATTERN.matcher(head).matches()) {
+			ValueField field = ValueField.VALUE;
+			if (tail != null) {
+				field = VALUE_FIELDS.get(tail);
+				if (field == null) {
+					throw new IllegalArgumentException("Unknown value field \""
+							+ tail + "\" in field path: " + path);
+				}
+			}
+			return register(this.statementColumns, head, new Column(index,
+					ColumnKind.STATEMENT, field));
+		}
+		if (tail == null) {
+			throw new IllegalArgumentException("Invalid field path: " + path);
+		}
+		switch (head) {
+		case "labels":
+			return register(this.labelColumns, tail, new Column(index,
+					ColumnKind.LABEL, null));
+		case "descriptions":
+			return register(this.descriptionColumns, tail, new Column(index,
+					ColumnKind.DESCRIPTION, null));
+		case "aliases":
+			return register(this.aliasColumns, tail, new Column(index,
+					ColumnKind.ALIASES, null));
+		case "sitelinks":
+			return register(this.siteLinkColumns, tail, new Column(index,
+					ColumnKind.SITE_LINK, null));
+		default:
+			throw new IllegalArgumentException("Invalid field path: " + path);
+		}
+	}
+
+	private static Column register(Map<String, Column[]> lookup, String key,
+			Column column) {
+		Column[] existing = lookup.get(key);
+		if (existing == null) {
+			lookup.put(key, new Column[] { column });
+		} else {
+			Column[] extended = Arrays.copyOf(existing, existing.length + 1);
+			extended[existing.length] = column;
+			lookup.put(key, extended);
+		}
+		return column;
+	}
+}
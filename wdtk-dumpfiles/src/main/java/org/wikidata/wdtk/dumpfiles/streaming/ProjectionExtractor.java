@@ -0,0 +1,348 @@
+package org.wikidata.wdtk.dumpfiles.streaming;
+
+/*
+ * #%L
+ * Wikidata Toolkit Dump File Handling
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wikidata.wdtk.dumpfiles.MwDumpFile;
+import org.wikidata.wdtk.dumpfiles.MwDumpFileProcessor;
+
+/**
+ * Processor for JSON dumpfiles that writes a table with selected fields of
+ * each entity, such as the English label or the values of P31, as
+ * tab-separated or comma-separated values. The fields are given as a
+ * {@link Projection}. Each entity becomes one row, and the first row
+ * contains the column names.
+ * <p>
+ * The data is read with {@link StatementStreamDumpFileProcessor}, so that no
+ * entity documents are created, and rows are encoded to UTF-8 directly into
+ * a byte buffer. If more than one thread is used, the input is split into
+ * blocks of lines that are processed in parallel, and the rows are written
+ * in the order of the input. This requires the input to contain one entity
+ * per line, as in the dumps of Wikidata. With any number of threads,
+ * entities that cannot be read are logged and skipped.
+ */
+public class ProjectionExtractor implements MwDumpFileProcessor {
+
+	static final Logger logger = LoggerFactory
+			.getLogger(ProjectionExtractor.class);
+
+	/**
+	 * Output formats supported by this class.
+	 */
+	public enum OutputFormat {
+		/**
+		 * Tab-separated values. Tabs, line breaks and backslashes in values
+		 * are escaped with backslashes.
+		 */
+		TSV,
+		/**
+		 * Comma-separated values, quoted as in RFC 4180.
+		 */
+		CSV
+	}
+
+	private final Projection projection;
+
+	private final OutputStream outputStream;
+
+	private final OutputFormat outputFormat;
+
+	private final int threadCount;
+
+	private String entityTypeFilter = null;
+
+	/**
+	 * Size of the blocks of input that are processed by one thread.
+	 */
+	int blockSize = 1 << 22;
+
+	/**
+	 * Workers that are not in use by any thread. Only used for
+	 * multi-threaded processing.
+	 */
+	private final Queue<Worker> idleWorkers = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Number of rows written by the last extraction, not counting the
+	 * header.
+	 */
+	private long rowCount = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param projection
+	 *            the columns to extract
+	 * @param outputStream
+	 *            the stream to write the table to; it is not closed by this
+	 *            class
+	 * @param outputFormat
+	 *            the format of the table
+	 * @param threadCount
+	 *            the number of threads used to parse the input
+	 */
+	public ProjectionExtractor(Projection projection,
+			OutputStream outputStream, OutputFormat outputFormat,
+			int threadCount) {
+		Validate.notNull(projection, "Projection cannot be null");
+		Validate.notNull(outputStream, "Output stream cannot be null");
+		Validate.notNull(outputFormat, "Output format cannot be null");
+		Validate.isTrue(threadCount > 0, "Thread count must be positive");
+		this.projection = projection;
+		this.outputStream = outputStream;
+		this.outputFormat = outputFormat;
+		this.threadCount = threadCount;
+	}
+
+	/**
+	 * Restricts the output to entities of the given type.
+	 *
+	 * @param entityType
+	 *            the type of entities as used in JSON, such as "item", or
+	 *            null to extract all entities
+	 */
+	public void setEntityTypeFilter(String entityType) {
+		this.entityTypeFilter = entityType;
+	}
+
+	/**
+	 * Returns the number of rows that were written by the last call of
+	 * {@link #processDumpFileContents(InputStream, MwDumpFile)}, not counting
+	 * the header.
+	 *
+	 * @return the number of rows
+	 */
+	long getRowCount() {
+		return this.rowCount;
+	}
+
+	@Override
+	public void processDumpFileContents(InputStream inputStream,
+			MwDumpFile dumpFile) {
+
+		logger.info("Extracting " + this.projection.getColumnNames()
+				+ " from JSON dump file " + dumpFile.toString());
+
+		writeHeader();
+		if (this.threadCount == 1) {
+			ProjectionRowBuilder rowBuilder = createRowBuilder(this.outputStream);
+			new StatementStreamDumpFileProcessor(rowBuilder)
+					.processDumpFileContents(inputStream, dumpFile);
+			rowBuilder.flush();
+			this.rowCount = rowBuilder.getRowCount();
+		} else {
+			this.rowCount = processInParallel(inputStream);
+		}
+		logger.info("Extracted " + this.rowCount + " rows.");
+		try {
+			this.outputStream.flush();
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot write output: "
+					+ e.getMessage(), e);
+		}
+	}
+
+	private void writeHeader() {
+		DelimitedTextBuffer header = new DelimitedTextBuffer(
+				this.outputFormat == OutputFormat.CSV);
+		for (String columnName : this.projection.getColumnNames()) {
+			header.appendCell(columnName);
+		}
+		header.endRow();
+		try {
+			header.writeTo(this.outputStream);
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot write output: "
+					+ e.getMessage(), e);
+		}
+	}
+
+	private ProjectionRowBuilder createRowBuilder(OutputStream sink) {
+		return new ProjectionRowBuilder(this.projection,
+				this.entityTypeFilter, this.outputFormat == OutputFormat.CSV,
+				sink);
+	}
+
+	/**
+	 * Splits the input into blocks of complete lines and processes them with
+	 * several threads. At most two blocks per thread are in progress at any
+	 * time, so that memory use is bounded. Returns the number of rows
+	 * written.
+	 */
+	private long processInParallel(InputStream inputStream) {
+		ExecutorService executor = Executors
+				.newFixedThreadPool(this.threadCount);
+		ArrayDeque<Future<BlockResult>> pending = new ArrayDeque<>();
+		long rowCount = 0;
+		try {
+			byte[] block = new byte[this.blockSize];
+			int filled = 0;
+			while (true) {
+				int read = inputStream.read(block, filled, block.length
+						- filled);
+				if (read < 0) {
+					break;
+				}
+				filled += read;
+				if (filled < block.length) {
+					continue;
+				}
+				int end = lastLineEnd(block, filled);
+				if (end < 0) {
+					// a single line longer than the block: use a larger block
+					block = Arrays.copyOf(block, 2 * block.length);
+					continue;
+				}
+				byte[] next = new byte[block.length];
+				System.arraycopy(block, end, next, 0, filled - end);
+				submit(executor, pending, block, end);
+				block = next;
+				filled = filled - end;
+				rowCount += writeCompleted(pending, 2 * this.threadCount);
+			}
+			submit(executor, pending, block, filled);
+			rowCount += writeCompleted(pending, 0);
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot read JSON input: "
+					+ e.getMessage(), e);
+		} finally {
+			executor.shutdownNow();
+		}
+		return rowCount;
+	}
+
+	private void submit(ExecutorService executor,
+			ArrayDeque<Future<BlockResult>> pending, byte[] block, int length) {
+		pending.add(executor.submit(() -> processBlock(block, length)));
+	}
+
+	/**
+	 * Writes the output of completed blocks, in order, until there are at
+	 * most the given number of pending blocks left. Returns the number of
+	 * rows written.
+	 */
+	private long writeCompleted(ArrayDeque<Future<BlockResult>> pending,
+			int maxPending) throws IOException {
+		long rows = 0;
+		while (pending.size() > maxPending
+				|| (!pending.isEmpty() && pending.peek().isDone())) {
+			BlockResult result;
+			try {
+				result = pending.poll().get();
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Error when extracting data: "
+						+ e.getCause().getMessage(), e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted when extracting data",
+						e);
+			}
+			this.outputStream.write(result.output);
+			rows += result.rowCount;
+		}
+		return rows;
+	}
+
+	/**
+	 * Processes the lines in the given block and returns the resulting
+	 * rows. Rows are counted by the row builder, since quoted values in CSV
+	 * may contain line breaks.
+	 */
+	private BlockResult processBlock(byte[] block, int length)
+			throws IOException {
+		Worker worker = this.idleWorkers.poll();
+		if (worker == null) {
+			worker = new Worker(createRowBuilder(null));
+		}
+		try {
+			long rowCountBefore = worker.rowBuilder.getRowCount();
+			int start = 0;
+			while (start < length) {
+				int end = start;
+				while (end < length && block[end] != '\n') {
+					end++;
+				}
+				worker.processor.processLine(block, start, end);
+				start = end + 1;
+			}
+			BlockResult result = new BlockResult(
+					worker.rowBuilder.buffer.toByteArray(),
+					worker.rowBuilder.getRowCount() - rowCountBefore);
+			worker.rowBuilder.buffer.reset();
+			return result;
+		} finally {
+			this.idleWorkers.add(worker);
+		}
+	}
+
+	private static int lastLineEnd(byte[] block, int length) {
+		for (int i = length - 1; i >= 0; i--) {
+			if (block[i] == '\n') {
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Parser and row builder used by one thread at a time.
+	 */
+	private static class Worker {
+
+		final ProjectionRowBuilder rowBuilder;
+
+		final StatementStreamDumpFileProcessor processor;
+
+		Worker(ProjectionRowBuilder rowBuilder) {
+			this.rowBuilder = rowBuilder;
+			this.processor = new StatementStreamDumpFileProcessor(rowBuilder);
+		}
+	}
+
+	/**
+	 * Rows that were extracted from one block of the input.
+	 */
+	private static class BlockResult {
+
+		final byte[] output;
+
+		final long rowCount;
+
+		BlockResult(byte[] output, long rowCount) {
+			this.output = output;
+			this.rowCount = rowCount;
+		}
+	}
+}
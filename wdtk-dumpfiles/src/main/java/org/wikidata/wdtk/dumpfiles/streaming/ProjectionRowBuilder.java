@@ -0,0 +1,339 @@
+package org.wikidata.wdtk.dumpfiles.streaming;
+
+/*
+ * #%L
+ * Wikidata Toolkit Dump File Handling
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.wikidata.wdtk.datamodel.interfaces.StatementRank;
+import org.wikidata.wdtk.dumpfiles.streaming.Projection.Column;
+
+/**
+ * {@link StatementStreamProcessor} that collects the cells of one row of a
+ * {@link Projection} for each entity and writes the rows to a
+ * {@link DelimitedTextBuffer}. Objects of this class are used by one thread
+ * only.
+ */
+class ProjectionRowBuilder implements StatementStreamProcessor {
+
+	/**
+	 * Buffer size above which rows are written to the output stream, if
+	 * there is one.
+	 */
+	static final int FLUSH_SIZE = 1 << 16;
+
+	private final Projection projection;
+
+	private final String entityTypeFilter;
+
+	/**
+	 * Cells of the current row. For statement columns, this only contains
+	 * the values of preferred statements.
+	 */
+	private final StringBuilder[] cells;
+
+	/**
+	 * Values of normal statements for statement columns.
+	 */
+	private final StringBuilder[] normalRankCells;
+
+	/**
+	 * Tells for each statement column if the entity has a preferred
+	 * statement for its property.
+	 */
+	private final boolean[] hasPreferred;
+
+	final DelimitedTextBuffer buffer;
+
+	private final OutputStream outputStream;
+
+	private boolean skipEntity;
+
+	private long rowCount = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param projection
+	 *            the columns to extract
+	 * @param entityTypeFilter
+	 *            JSON type of the entities to extract, or null for all
+	 * @param csv
+	 *            true to create CSV, false to create TSV
+	 * @param outputStream
+	 *            the stream to write rows to, or null if rows should be kept
+	 *            in {@link #buffer}
+	 */
+	ProjectionRowBuilder(Projection projection, String entityTypeFilter,
+			boolean csv, OutputStream outputStream) {
+		this.projection = projection;
+		this.entityTypeFilter = entityTypeFilter;
+		int columnCount = projection.columns.length;
+		this.cells = new StringBuilder[columnCount];
+		this.normalRankCells = new StringBuilder[columnCount];
+		this.hasPreferred = new boolean[columnCount];
+		for (int i = 0; i < columnCount; i++) {
+			this.cells[i] = new StringBuilder();
+			this.normalRankCells[i] = new StringBuilder();
+		}
+		this.buffer = new DelimitedTextBuffer(csv);
+		this.outputStream = outputStream;
+	}
+
+	/**
+	 * Returns the number of rows created so far.
+	 *
+	 * @return number of rows
+	 */
+	long getRowCount() {
+		return this.rowCount;
+	}
+
+	@Override
+	public void startEntity(String entityId, String entityType) {
+		this.skipEntity = this.entityTypeFilter != null
+				&& !this.entityTypeFilter.equals(entityType);
+		if (this.skipEntity) {
+			return;
+		}
+		for (int i = 0; i < this.cells.length; i++) {
+			this.cells[i].setLength(0);
+			this.normalRankCells[i].setLength(0);
+			this.hasPreferred[i] = false;
+		}
+		for (Column column : this.projection.columns) {
+			if (column.kind == Projection.ColumnKind.ENTITY_ID) {
+				this.cells[column.index].append(entityId);
+			} else if (column.kind == Projection.ColumnKind.ENTITY_TYPE
+					&& entityType != null) {
+				this.cells[column.index].append(entityType);
+			}
+		}
+	}
+
+	@Override
+	public void processTerm(TermType termType, String languageCode,
+			String text) {
+		if (this.skipEntity) {
+			return;
+		}
+		Column[] columns;
+		switch (termType) {
+		case LABEL:
+			columns = this.projection.labelColumns.get(languageCode);
+			break;
+		case DESCRIPTION:
+			columns = this.projection.descriptionColumns.get(languageCode);
+			break;
+		default:
+			columns = this.projection.aliasColumns.get(languageCode);
+		}
+		if (columns != null) {
+			for (Column column : columns) {
+				appendPart(this.cells[column.index], text);
+			}
+		}
+	}
+
+	@Override
+	public void processSiteLink(String siteKey, String title) {
+		if (this.skipEntity) {
+			return;
+		}
+		Column[] columns = this.projection.siteLinkColumns.get(siteKey);
+		if (columns != null) {
+			for (Column column : columns) {
+				appendPart(this.cells[column.index], title);
+			}
+		}
+	}
+
+	@Override
+	public void processStatement(StreamedStatement statement) {
+		if (this.skipEntity
+				|| statement.getRank() == StatementRank.DEPRECATED) {
+			return;
+		}
+		Column[] columns = this.projection.statementColumns.get(statement
+				.getMainSnak().getPropertyId());
+		StreamedValue value = statement.getMainSnak().getValue();
+		if (columns == null || value == null) {
+			return;
+		}
+		boolean preferred = statement.getRank() == StatementRank.PREFERRED;
+		StringBuilder[] target = preferred ? this.cells : this.normalRankCells;
+		for (Column column : columns) {
+			appendValue(target[column.index], value, column.field);
+			if (preferred) {
+				this.hasPreferred[column.index] = true;
+			}
+		}
+	}
+
+	@Override
+	public void endEntity(String entityId, long revisionId) {
+		if (this.skipEntity) {
+			return;
+		}
+		for (Column column : this.projection.columns) {
+			int i = column.index;
+			if (column.kind == Projection.ColumnKind.REVISION_ID) {
+				this.cells[i].append(revisionId);
+			}
+			if (column.kind == Projection.ColumnKind.STATEMENT
+					&& !this.hasPreferred[i]) {
+				this.buffer.appendCell(this.normalRankCells[i]);
+			} else {
+				this.buffer.appendCell(this.cells[i]);
+			}
+		}
+		this.buffer.endRow();
+		this.rowCount++;
+
+		if (this.outputStream != null && this.buffer.size() > FLUSH_SIZE) {
+			flush();
+		}
+	}
+
+	/**
+	 * Writes all buffered rows to the output stream.
+	 */
+	void flush() {
+		try {
+			this.buffer.writeTo(this.outputStream);
+			this.buffer.reset();
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot write output: "
+					+ e.getMessage(), e);
+		}
+	}
+
+	private static void appendValue(StringBuilder cell, StreamedValue value,
+			Projection.ValueField field) {
+		switch (field) {
+		case VALUE:
+			switch (value.getValueType()) {
+			case ENTITY_ID:
+				appendPart(cell, value.getEntityId());
+				break;
+			case STRING:
+			case MONOLINGUAL_TEXT:
+				appendPart(cell, value.getString());
+				break;
+			case TIME:
+				appendPart(cell, value.getTime());
+				break;
+			case GLOBE_COORDINATES:
+				if (startPart(cell, !Double.isNaN(value.getLatitude()))) {
+					cell.append(value.getLatitude()).append(',')
+							.append(value.getLongitude());
+				}
+				break;
+			case QUANTITY:
+				appendPart(cell, value.getAmount());
+				break;
+			default:
+			}
+			break;
+		case ID:
+			appendPart(cell, value.getEntityId());
+			break;
+		case STRING:
+			appendPart(cell, value.getString());
+			break;
+		case LANGUAGE:
+			appendPart(cell, value.getLanguageCode());
+			break;
+		case TIME:
+			appendPart(cell, value.getTime());
+			break;
+		case PRECISION:
+			if (value.getValueType() == StreamedValue.ValueType.TIME) {
+				startPart(cell, true);
+				cell.append(value.getTimePrecision());
+			} else if (startPart(cell,
+					!Double.isNaN(value.getCoordinatePrecision()))) {
+				cell.append(value.getCoordinatePrecision());
+			}
+			break;
+		case CALENDAR_MODEL:
+			appendPart(cell, value.getCalendarModel());
+			break;
+		case LATITUDE:
+			if (startPart(cell, !Double.isNaN(value.getLatitude()))) {
+				cell.append(value.getLatitude());
+			}
+			break;
+		case LONGITUDE:
+			if (startPart(cell, !Double.isNaN(value.getLongitude()))) {
+				cell.append(value.getLongitude());
+			}
+			break;
+		case GLOBE:
+			appendPart(cell, value.getGlobe());
+			break;
+		case AMOUNT:
+			appendPart(cell, value.getAmount());
+			break;
+		case LOWER_BOUND:
+			appendPart(cell, value.getLowerBound());
+			break;
+		case UPPER_BOUND:
+			appendPart(cell, value.getUpperBound());
+			break;
+		case UNIT:
+			appendPart(cell, value.getUnit());
+			break;
+		default:
+		}
+	}
+
+	/**
+	 * Appends a value to a cell, using a separator if the cell already has
+	 * a value. Occurrences of the separator and of the escape character in
+	 * the value are escaped with {@link Projection#VALUE_ESCAPE}. Null values
+	 * are ignored.
+	 */
+	private static void appendPart(StringBuilder cell, String part) {
+		if (!startPart(cell, part != null)) {
+			return;
+		}
+		for (int i = 0; i < part.length(); i++) {
+			char c = part.charAt(i);
+			if (c == Projection.VALUE_SEPARATOR
+					|| c == Projection.VALUE_ESCAPE) {
+				cell.append(Projection.VALUE_ESCAPE);
+			}
+			cell.append(c);
+		}
+	}
+
+	/**
+	 * Prepares a cell for appending a value by adding a separator if needed.
+	 * Returns the given flag that tells if there is a value to append.
+	 */
+	private static boolean startPart(StringBuilder cell, boolean hasValue) {
+		if (hasValue && cell.length() > 0) {
+			cell.append(Projection.VALUE_SEPARATOR);
+		}
+		return hasValue;
+	}
+}
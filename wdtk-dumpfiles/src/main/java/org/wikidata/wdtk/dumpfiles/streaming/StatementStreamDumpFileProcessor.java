@@ -0,0 +1,812 @@
+package org.wikidata.wdtk.dumpfiles.streaming;
+
+/*
+ * #%L
+ * Wikidata Toolkit Dump File Handling
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wikidata.wdtk.datamodel.interfaces.StatementRank;
+import org.wikidata.wdtk.dumpfiles.MwDumpFile;
+import org.wikidata.wdtk.dumpfiles.MwDumpFileProcessor;
+import org.wikidata.wdtk.dumpfiles.streaming.StatementStreamProcessor.TermType;
+import org.wikidata.wdtk.dumpfiles.streaming.StreamedSnak.SnakType;
+import org.wikidata.wdtk.dumpfiles.streaming.StreamedValue.ValueType;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonParser.Feature;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+/**
+ * Processor for JSON dumpfiles that reports statements, terms and site links
+ * to a {@link StatementStreamProcessor}. The data is read directly from the
+ * JSON token stream, and no entity documents or other data objects are
+ * created. Statements, snaks and values are passed on as reusable views, and
+ * frequent strings such as property ids or language codes are shared, so
+ * that processing a statement creates very few objects. References, forms
+ * and senses are skipped.
+ * <p>
+ * The ids of entities should come before their data in the input, as in the
+ * dumps of Wikidata. Other orders are supported, but require the data to be
+ * buffered. Entities that cannot be read are logged and skipped, assuming
+ * that the input has one entity per line after the broken entity, as in the
+ * dumps of Wikidata.
+ * <p>
+ * Example use, for a dump file given as {@link MwDumpFile}:
+ *
+ * <pre>
+ * new StatementStreamDumpFileProcessor(processor).processDumpFileContents(
+ * 		dumpFile.getDumpFileStream(), dumpFile);
+ * </pre>
+ */
+public class StatementStreamDumpFileProcessor implements MwDumpFileProcessor {
+
+	static final Logger logger = LoggerFactory
+			.getLogger(StatementStreamDumpFileProcessor.class);
+
+	private final StatementStreamProcessor statementStreamProcessor;
+
+	private final JsonFactory jsonFactory = new JsonFactory();
+
+	private final StringCache stringCache = new StringCache(12);
+
+	private final MutableStatement statement = new MutableStatement();
+
+	/**
+	 * Sections of the current entity that were found before its id, and
+	 * that will be processed once the id is known.
+	 */
+	private final List<String> deferredSectionNames = new ArrayList<>();
+	private final List<TokenBuffer> deferredSections = new ArrayList<>();
+
+	private String entityId;
+	private String entityType;
+	private boolean entityStarted;
+
+	public StatementStreamDumpFileProcessor(
+			StatementStreamProcessor statementStreamProcessor) {
+		this.statementStreamProcessor = statementStreamProcessor;
+	}
+
+	@Override
+	public void processDumpFileContents(InputStream inputStream,
+			MwDumpFile dumpFile) {
+
+		logger.info("Streaming statements of JSON dump file "
+				+ dumpFile.toString());
+
+		RecordingInputStream recordingStream = new RecordingInputStream(
+				inputStream);
+		try {
+			JsonParser parser = this.jsonFactory.createParser(recordingStream);
+			parser.disable(Feature.AUTO_CLOSE_SOURCE);
+			try {
+				processStream(parser, recordingStream);
+			} catch (JsonProcessingException e) {
+				logger.error("Error when reading JSON for entity: "
+						+ e.getMessage());
+				// the parser may have read ahead beyond the broken entity, so
+				// restart from its first byte with the data that was recorded
+				processStreamRecovery(new SequenceInputStream(
+						new ByteArrayInputStream(
+								recordingStream.getRecordedData()),
+						inputStream));
+			}
+			parser.close();
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot read JSON input: "
+					+ e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Processes the JSON data of the given parser, which can either be a
+	 * single entity or an array of entities.
+	 *
+	 * @param parser
+	 *            the parser to read from
+	 * @param recordingStream
+	 *            the stream that the parser reads from, which is told where
+	 *            each entity starts
+	 * @throws IOException
+	 *             if there was a problem reading the input
+	 */
+	void processStream(JsonParser parser, RecordingInputStream recordingStream)
+			throws IOException {
+		JsonToken token = parser.nextToken();
+		if (token == JsonToken.START_OBJECT) {
+			processEntity(parser);
+		} else if (token == JsonToken.START_ARRAY) {
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				recordingStream.discardBefore(
+						parser.getTokenLocation().getByteOffset());
+				processEntity(parser);
+			}
+		} else if (token != null) {
+			logger.error("JSON dump does not contain entities.");
+		}
+	}
+
+	/**
+	 * Processes the rest of the input after an error. The input is assumed to
+	 * contain one entity per line, as in the JSON dumps of Wikimedia. The
+	 * input starts with the entity that could not be read, so its line is
+	 * skipped.
+	 *
+	 * @param inputStream
+	 *            the stream to read from
+	 * @throws IOException
+	 *             if there is a problem reading the stream
+	 */
+	private void processStreamRecovery(InputStream inputStream)
+			throws IOException {
+		logger.warn("Entering recovery mode to parse rest of file. This might be slightly slower.");
+
+		InputStream in = new BufferedInputStream(inputStream);
+		byte[] line = new byte[1024];
+		int length = 0;
+		boolean skipLine = true;
+		int b;
+		while ((b = in.read()) >= 0) {
+			if (b != '\n') {
+				if (length == line.length) {
+					line = Arrays.copyOf(line, 2 * length);
+				}
+				line[length++] = (byte) b;
+				continue;
+			}
+			if (!skipLine) {
+				processLine(line, 0, length);
+			}
+			skipLine = false;
+			length = 0;
+		}
+		if (!skipLine) {
+			processLine(line, 0, length);
+		}
+	}
+
+	/**
+	 * Processes one line of a JSON dump, given by the bytes from start
+	 * (inclusive) to end (exclusive) in the array. Lines are expected to
+	 * contain one entity, followed by a comma, or the brackets that start or
+	 * end the dump. Entities that cannot be read are logged and skipped; the
+	 * {@link StatementStreamProcessor} does not get an
+	 * {@link StatementStreamProcessor#endEntity(String, long)} call for them.
+	 *
+	 * @param data
+	 *            array with UTF-8 encoded JSON data
+	 * @param start
+	 *            the start of the line
+	 * @param end
+	 *            the end of the line
+	 * @throws IOException
+	 *             if there is a problem reading the data
+	 */
+	void processLine(byte[] data, int start, int end) throws IOException {
+		while (start < end
+				&& (isJsonWhitespace(data[start]) || data[start] == '[')) {
+			start++;
+		}
+		while (end > start && (isJsonWhitespace(data[end - 1])
+				|| data[end - 1] == ',' || data[end - 1] == ']')) {
+			end--;
+		}
+		if (end - start < 2 || data[start] != '{') {
+			return;
+		}
+		try {
+			processEntity(data, start, end - start);
+		} catch (JsonProcessingException e) {
+			logger.error("Error when reading JSON for entity: "
+					+ e.getMessage());
+			logger.error("Problematic line was: "
+					+ new String(data, start, Math.min(50, end - start),
+							StandardCharsets.UTF_8) + "...");
+		}
+	}
+
+	private static boolean isJsonWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+	}
+
+	/**
+	 * Processes one entity that is given as the JSON serialization in part
+	 * of a byte array.
+	 *
+	 * @param data
+	 *            array with UTF-8 encoded JSON data
+	 * @param offset
+	 *            the position of the entity in the array
+	 * @param length
+	 *            the length of the serialization of the entity
+	 * @throws IOException
+	 *             if the JSON could not be read
+	 */
+	void processEntity(byte[] data, int offset, int length)
+			throws IOException {
+		try (JsonParser parser = this.jsonFactory.createParser(data, offset,
+				length)) {
+			if (parser.nextToken() == JsonToken.START_OBJECT) {
+				processEntity(parser);
+			}
+		}
+	}
+
+	/**
+	 * Processes one entity. The parser must be at the start of the entity
+	 * object and will be at its end afterwards.
+	 */
+	private void processEntity(JsonParser parser) throws IOException {
+		this.entityId = null;
+		this.entityType = null;
+		this.entityStarted = false;
+		this.deferredSectionNames.clear();
+		this.deferredSections.clear();
+		long revisionId = 0;
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String fieldName = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			switch (fieldName) {
+			case "id":
+				this.entityId = parser.getText();
+				break;
+			case "type":
+				this.entityType = getCachedText(parser);
+				break;
+			case "lastrevid":
+				revisionId = parser.getValueAsLong();
+				break;
+			case "labels":
+			case "descriptions":
+			case "aliases":
+			case "sitelinks":
+			case "claims":
+			case "statements":
+				if (this.entityStarted) {
+					processSection(fieldName, parser);
+				} else if (token.isStructStart()) {
+					TokenBuffer buffer = new TokenBuffer(parser);
+					buffer.copyCurrentStructure(parser);
+					this.deferredSectionNames.add(fieldName);
+					this.deferredSections.add(buffer);
+				}
+				break;
+			default:
+				parser.skipChildren();
+			}
+			if (!this.entityStarted && this.entityId != null
+					&& this.entityType != null) {
+				startEntity();
+			}
+		}
+
+		if (!this.entityStarted && this.entityId != null) {
+			startEntity();
+		}
+		if (this.entityStarted) {
+			this.statementStreamProcessor.endEntity(this.entityId, revisionId);
+		} else {
+			logger.warn("Skipping entity without id.");
+		}
+	}
+
+	/**
+	 * Reports the start of the current entity and processes all sections
+	 * that have been deferred until now.
+	 */
+	private void startEntity() throws IOException {
+		this.entityStarted = true;
+		this.statementStreamProcessor.startEntity(this.entityId,
+				this.entityType);
+		for (int i = 0; i < this.deferredSections.size(); i++) {
+			JsonParser bufferParser = this.deferredSections.get(i).asParser();
+			bufferParser.nextToken();
+			processSection(this.deferredSectionNames.get(i), bufferParser);
+			bufferParser.close();
+		}
+		this.deferredSectionNames.clear();
+		this.deferredSections.clear();
+	}
+
+	/**
+	 * Processes one top-level section of the current entity. The parser must
+	 * be at the start of the section value and will be at its end
+	 * afterwards. Empty sections may be given as empty arrays.
+	 */
+	private void processSection(String sectionName, JsonParser parser)
+			throws IOException {
+		if (parser.currentToken() != JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			return;
+		}
+		switch (sectionName) {
+		case "labels":
+			processTerms(TermType.LABEL, parser);
+			break;
+		case "descriptions":
+			processTerms(TermType.DESCRIPTION, parser);
+			break;
+		case "aliases":
+			processAliases(parser);
+			break;
+		case "sitelinks":
+			processSiteLinks(parser);
+			break;
+		default: // "claims" or "statements"
+			processStatementGroups(parser);
+		}
+	}
+
+	private void processTerms(TermType termType, JsonParser parser)
+			throws IOException {
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String languageCode = parser.getCurrentName();
+			parser.nextToken();
+			String text = readTermText(parser);
+			if (text != null) {
+				this.statementStreamProcessor.processTerm(termType,
+						languageCode, text);
+			}
+		}
+	}
+
+	private void processAliases(JsonParser parser) throws IOException {
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String languageCode = parser.getCurrentName();
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				parser.skipChildren();
+				continue;
+			}
+			while (parser.nextToken() != JsonToken.END_ARRAY) {
+				String text = readTermText(parser);
+				if (text != null) {
+					this.statementStreamProcessor.processTerm(TermType.ALIAS,
+							languageCode, text);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the "value" of a term object. The parser must be at the start of
+	 * the object and will be at its end afterwards.
+	 */
+	private String readTermText(JsonParser parser) throws IOException {
+		if (parser.currentToken() != JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			return null;
+		}
+		String text = null;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String fieldName = parser.getCurrentName();
+			parser.nextToken();
+			if ("value".equals(fieldName)) {
+				text = parser.getText();
+			} else {
+				parser.skipChildren();
+			}
+		}
+		return text;
+	}
+
+	private void processSiteLinks(JsonParser parser) throws IOException {
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String siteKey = parser.getCurrentName();
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				parser.skipChildren();
+				continue;
+			}
+			String title = null;
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String fieldName = parser.getCurrentName();
+				parser.nextToken();
+				if ("title".equals(fieldName)) {
+					title = parser.getText();
+				} else {
+					parser.skipChildren();
+				}
+			}
+			if (title != null) {
+				this.statementStreamProcessor.processSiteLink(siteKey, title);
+			}
+		}
+	}
+
+	private void processStatementGroups(JsonParser parser) throws IOException {
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				parser.skipChildren();
+				continue;
+			}
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				processStatement(parser);
+			}
+		}
+	}
+
+	/**
+	 * Reads one statement and reports it. The parser must be at the start of
+	 * the statement object and will be at its end afterwards.
+	 */
+	private void processStatement(JsonParser parser) throws IOException {
+		this.statement.reset(this.entityId);
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String fieldName = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			switch (fieldName) {
+			case "id":
+				this.statement.statementId = parser.getText();
+				break;
+			case "rank":
+				this.statement.rank = readRank(parser);
+				break;
+			case "mainsnak":
+				readSnak(parser, this.statement.mainSnak);
+				break;
+			case "qualifiers":
+				if (token == JsonToken.START_OBJECT) {
+					readQualifiers(parser);
+				} else {
+					parser.skipChildren();
+				}
+				break;
+			default: // "references", "qualifiers-order", "type"
+				parser.skipChildren();
+			}
+		}
+		this.statementStreamProcessor.processStatement(this.statement);
+	}
+
+	private StatementRank readRank(JsonParser parser) throws IOException {
+		String rank = getCachedText(parser);
+		if ("preferred".equals(rank)) {
+			return StatementRank.PREFERRED;
+		} else if ("deprecated".equals(rank)) {
+			return StatementRank.DEPRECATED;
+		} else {
+			return StatementRank.NORMAL;
+		}
+	}
+
+	private void readQualifiers(JsonParser parser) throws IOException {
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				parser.skipChildren();
+				continue;
+			}
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				readSnak(parser, this.statement.nextQualifier());
+			}
+		}
+	}
+
+	/**
+	 * Reads a snak into the given object. The parser must be at the start of
+	 * the snak object and will be at its end afterwards.
+	 */
+	private void readSnak(JsonParser parser, MutableSnak snak)
+			throws IOException {
+		snak.reset();
+		if (parser.currentToken() != JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			return;
+		}
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String fieldName = parser.getCurrentName();
+			parser.nextToken();
+			switch (fieldName) {
+			case "snaktype":
+				String snakType = getCachedText(parser);
+				if ("somevalue".equals(snakType)) {
+					snak.snakType = SnakType.SOME_VALUE;
+				} else if ("novalue".equals(snakType)) {
+					snak.snakType = SnakType.NO_VALUE;
+				} else {
+					snak.snakType = SnakType.VALUE;
+				}
+				break;
+			case "property":
+				snak.propertyId = getCachedText(parser);
+				break;
+			case "datatype":
+				snak.datatype = getCachedText(parser);
+				break;
+			case "datavalue":
+				readValue(parser, snak.value);
+				break;
+			default:
+				parser.skipChildren();
+			}
+		}
+	}
+
+	/**
+	 * Reads a value into the given object. The parser must be at the start of
+	 * the value object and will be at its end afterwards.
+	 */
+	private void readValue(JsonParser parser, MutableValue value)
+			throws IOException {
+		value.reset();
+		if (parser.currentToken() != JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			return;
+		}
+		boolean wellFormed = true;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String fieldName = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			if ("type".equals(fieldName)) {
+				value.jsonType = getCachedText(parser);
+			} else if ("value".equals(fieldName)) {
+				if (token == JsonToken.VALUE_STRING) {
+					value.string = parser.getText();
+				} else if (token == JsonToken.START_OBJECT) {
+					wellFormed = readInnerValue(parser, value);
+				} else {
+					parser.skipChildren();
+					wellFormed = false;
+				}
+			} else {
+				parser.skipChildren();
+			}
+		}
+		value.valueType = wellFormed ? getValueType(value.jsonType)
+				: ValueType.UNSUPPORTED;
+		// "precision" was stored for both kinds of values that use it
+		if (value.valueType != ValueType.GLOBE_COORDINATES) {
+			value.coordinatePrecision = Double.NaN;
+		}
+		if (value.valueType != ValueType.TIME) {
+			value.timePrecision = 0;
+		}
+	}
+
+	/**
+	 * Reads the fields of the inner "value" object of a value. Returns false
+	 * if some field did not have the expected form.
+	 */
+	private boolean readInnerValue(JsonParser parser, MutableValue value)
+			throws IOException {
+		boolean wellFormed = true;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String fieldName = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			if (token.isStructStart()) {
+				parser.skipChildren();
+				wellFormed = false;
+				continue;
+			}
+			switch (fieldName) {
+			case "entity-type":
+				value.entityType = getCachedText(parser);
+				break;
+			case "numeric-id":
+				value.numericId = parser.getValueAsLong();
+				break;
+			case "id":
+				value.entityId = getCachedText(parser);
+				break;
+			case "text":
+				value.string = parser.getText();
+				break;
+			case "language":
+				value.languageCode = getCachedText(parser);
+				break;
+			case "time":
+				value.time = getCachedText(parser);
+				break;
+			case "timezone":
+				value.timezone = parser.getValueAsInt();
+				break;
+			case "before":
+				value.before = parser.getValueAsInt();
+				break;
+			case "after":
+				value.after = parser.getValueAsInt();
+				break;
+			case "precision":
+				// used by both time and globe coordinates values
+				if (token == JsonToken.VALUE_NULL) {
+					value.coordinatePrecision = Double.NaN;
+				} else {
+					value.coordinatePrecision = parser.getValueAsDouble();
+					value.timePrecision = parser.getValueAsInt();
+				}
+				break;
+			case "calendarmodel":
+				value.calendarModel = getCachedText(parser);
+				break;
+			case "latitude":
+				value.latitude = parser.getValueAsDouble();
+				break;
+			case "longitude":
+				value.longitude = parser.getValueAsDouble();
+				break;
+			case "globe":
+				value.globe = getCachedText(parser);
+				break;
+			case "amount":
+				value.amount = getCachedText(parser);
+				break;
+			case "lowerBound":
+				value.lowerBound = getCachedText(parser);
+				break;
+			case "upperBound":
+				value.upperBound = getCachedText(parser);
+				break;
+			case "unit":
+				value.unit = getCachedText(parser);
+				break;
+			default:
+				// ignore unknown fields, such as "altitude"
+			}
+		}
+		return wellFormed;
+	}
+
+	private static ValueType getValueType(String jsonType) {
+		if (jsonType == null) {
+			return ValueType.UNSUPPORTED;
+		}
+		switch (jsonType) {
+		case "wikibase-entityid":
+			return ValueType.ENTITY_ID;
+		case "string":
+			return ValueType.STRING;
+		case "monolingualtext":
+			return ValueType.MONOLINGUAL_TEXT;
+		case "time":
+			return ValueType.TIME;
+		case "globecoordinate":
+			return ValueType.GLOBE_COORDINATES;
+		case "quantity":
+			return ValueType.QUANTITY;
+		default:
+			return ValueType.UNSUPPORTED;
+		}
+	}
+
+	/**
+	 * Returns the text of the current token, using the string cache to avoid
+	 * creating new strings. Returns null for null tokens.
+	 */
+	private String getCachedText(JsonParser parser) throws IOException {
+		if (parser.currentToken() == JsonToken.VALUE_NULL) {
+			return null;
+		}
+		return this.stringCache.get(parser.getTextCharacters(),
+				parser.getTextOffset(), parser.getTextLength());
+	}
+
+	/**
+	 * Input stream that keeps the data that was read since the start of the
+	 * current entity, so that processing can be restarted from there if the
+	 * entity is broken. Data before the current entity is only discarded
+	 * when the buffer is full, so that little copying is needed.
+	 */
+	static class RecordingInputStream extends FilterInputStream {
+
+		private byte[] buffer = new byte[1 << 16];
+		/**
+		 * Number of bytes in the buffer.
+		 */
+		private int length = 0;
+		/**
+		 * Position in the stream of the first byte in the buffer.
+		 */
+		private long bufferStart = 0;
+		/**
+		 * Position in the stream of the first byte that must be kept.
+		 */
+		private long keepStart = 0;
+
+		RecordingInputStream(InputStream in) {
+			super(in);
+		}
+
+		/**
+		 * Allows the data before the given position in the stream to be
+		 * discarded.
+		 *
+		 * @param position
+		 *            the position of the first byte that is still needed
+		 */
+		void discardBefore(long position) {
+			if (position > this.keepStart) {
+				this.keepStart = position;
+			}
+		}
+
+		/**
+		 * Returns the data that was read since the position given in the
+		 * last call of {@link #discardBefore(long)}.
+		 */
+		byte[] getRecordedData() {
+			return Arrays.copyOfRange(this.buffer,
+					(int) (this.keepStart - this.bufferStart), this.length);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				ensureCapacity(1);
+				this.buffer[this.length++] = (byte) b;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int count = super.read(b, off, len);
+			if (count > 0) {
+				ensureCapacity(count);
+				System.arraycopy(b, off, this.buffer, this.length, count);
+				this.length += count;
+			}
+			return count;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			// skipped data must be recorded as well
+			byte[] skipped = new byte[(int) Math.min(n, 8192)];
+			int count = read(skipped, 0, skipped.length);
+			return Math.max(count, 0);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		private void ensureCapacity(int count) {
+			if (this.length + count <= this.buffer.length) {
+				return;
+			}
+			int discarded = (int) (this.keepStart - this.bufferStart);
+			if (discarded > 0) {
+				System.arraycopy(this.buffer, discarded, this.buffer, 0,
+						this.length - discarded);
+				this.length -= discarded;
+				this.bufferStart = this.keepStart;
+			}
+			if (this.length + count > this.buffer.length) {
+				this.buffer = Arrays.copyOf(this.buffer,
+						Math.max(2 * this.buffer.length, this.length + count));
+			}
+		}
+	}
+}
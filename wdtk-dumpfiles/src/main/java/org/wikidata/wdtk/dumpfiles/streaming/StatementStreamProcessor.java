@@ -0,0 +1,104 @@
+package org.wikidata.wdtk.dumpfiles.streaming;
+
+/*
+ * #%L
+ * Wikidata Toolkit Dump File Handling
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Interface for classes that process the statements, terms and site links of
+ * entities in a streaming fashion, without ever seeing complete entity
+ * documents. Callbacks are issued in the order in which the data is found in
+ * the input: first {@link #startEntity(String, String)}, then any number of
+ * term, site link and statement callbacks, and finally
+ * {@link #endEntity(String, long)}.
+ * <p>
+ * The {@link StreamedStatement} objects passed to
+ * {@link #processStatement(StreamedStatement)} are reused for all statements.
+ * They, and the snaks and values they give access to, are only valid during
+ * the callback and must not be stored. Implementations that need to keep data
+ * should copy the relevant fields.
+ *
+ * @see StatementStreamDumpFileProcessor
+ */
+public interface StatementStreamProcessor {
+
+	/**
+	 * Kinds of terms that can be reported to
+	 * {@link StatementStreamProcessor#processTerm(TermType, String, String)}.
+	 */
+	enum TermType {
+		LABEL, DESCRIPTION, ALIAS
+	}
+
+	/**
+	 * Called when a new entity starts.
+	 *
+	 * @param entityId
+	 *            the id of the entity, such as "Q42"
+	 * @param entityType
+	 *            the JSON type of the entity, such as "item", or null if it
+	 *            is not given in the input
+	 */
+	void startEntity(String entityId, String entityType);
+
+	/**
+	 * Called for each label, description and alias of the current entity.
+	 *
+	 * @param termType
+	 *            the kind of term
+	 * @param languageCode
+	 *            the language code of the term
+	 * @param text
+	 *            the text of the term
+	 */
+	default void processTerm(TermType termType, String languageCode,
+			String text) {
+	}
+
+	/**
+	 * Called for each site link of the current entity.
+	 *
+	 * @param siteKey
+	 *            the key of the site, such as "enwiki"
+	 * @param title
+	 *            the title of the linked page
+	 */
+	default void processSiteLink(String siteKey, String title) {
+	}
+
+	/**
+	 * Called for each statement of the current entity. The statement object
+	 * is only valid during this call.
+	 *
+	 * @param statement
+	 *            view of the current statement
+	 */
+	void processStatement(StreamedStatement statement);
+
+	/**
+	 * Called when all data of the current entity has been reported.
+	 *
+	 * @param entityId
+	 *            the id of the entity
+	 * @param revisionId
+	 *            the id of the last revision of the entity, or 0 if not known
+	 */
+	default void endEntity(String entityId, long revisionId) {
+	}
+}
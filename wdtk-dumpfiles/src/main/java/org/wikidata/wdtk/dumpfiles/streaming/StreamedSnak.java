@@ -0,0 +1,64 @@
+package org.wikidata.wdtk.dumpfiles.streaming;
+
+/*
+ * #%L
+ * Wikidata Toolkit Dump File Handling
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Reusable view of a snak that is read from a JSON stream. Objects of this
+ * type are only valid during the callback that gave access to them.
+ */
+public interface StreamedSnak {
+
+	/**
+	 * Types of snaks.
+	 */
+	enum SnakType {
+		VALUE, SOME_VALUE, NO_VALUE
+	}
+
+	/**
+	 * Returns the id of the property of the snak.
+	 *
+	 * @return property id, such as "P31"
+	 */
+	String getPropertyId();
+
+	/**
+	 * Returns the type of the snak.
+	 *
+	 * @return snak type
+	 */
+	SnakType getSnakType();
+
+	/**
+	 * Returns the JSON datatype of the property of the snak, if given in the
+	 * input.
+	 *
+	 * @return datatype, such as "wikibase-item", or null
+	 */
+	String getDatatype();
+
+	/**
+	 * Returns the value of the snak.
+	 *
+	 * @return value, or null if this is not a value snak
+	 */
+	StreamedValue getValue();
+}
@@ -0,0 +1,77 @@
+package org.wikidata.wdtk.dumpfiles.streaming;
+
+/*
+ * #%L
+ * Wikidata Toolkit Dump File Handling
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.wikidata.wdtk.datamodel.interfaces.StatementRank;
+
+/**
+ * Reusable view of a statement that is read from a JSON stream. Objects of
+ * this type are only valid during the
+ * {@link StatementStreamProcessor#processStatement(StreamedStatement)}
+ * callback they are passed to. References are not read.
+ */
+public interface StreamedStatement {
+
+	/**
+	 * Returns the id of the entity that the statement belongs to.
+	 *
+	 * @return entity id, such as "Q42"
+	 */
+	String getSubjectId();
+
+	/**
+	 * Returns the id of the statement.
+	 *
+	 * @return statement id, or null if the statement has no id
+	 */
+	String getStatementId();
+
+	/**
+	 * Returns the rank of the statement.
+	 *
+	 * @return rank
+	 */
+	StatementRank getRank();
+
+	/**
+	 * Returns the main snak of the statement.
+	 *
+	 * @return main snak
+	 */
+	StreamedSnak getMainSnak();
+
+	/**
+	 * Returns the number of qualifiers of the statement.
+	 *
+	 * @return number of qualifiers
+	 */
+	int getQualifierCount();
+
+	/**
+	 * Returns the qualifier at the given position. Qualifiers are given in
+	 * the order of the input, grouped by property.
+	 *
+	 * @param index
+	 *            a number between 0 and {@link #getQualifierCount()} - 1
+	 * @return the qualifier snak
+	 */
+	StreamedSnak getQualifier(int index);
+}
@@ -0,0 +1,198 @@
+package org.wikidata.wdtk.dumpfiles.streaming;
+
+/*
+ * #%L
+ * Wikidata Toolkit Dump File Handling
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Reusable view of a value that is read from a JSON stream. Objects of this
+ * type are only valid during the callback that gave access to them.
+ * <p>
+ * The view has one accessor for each field that can occur in the JSON
+ * serialization of values. Fields that do not apply to the type of the
+ * current value are null (for strings), 0 (for integers) or NaN (for
+ * floating point numbers). Numbers of quantities are given as strings in the
+ * JSON format (such as "+1.5"), and times as strings in the format used by
+ * Wikibase (such as "+2001-01-15T00:00:00Z").
+ */
+public interface StreamedValue {
+
+	/**
+	 * Types of values.
+	 */
+	enum ValueType {
+		ENTITY_ID, STRING, MONOLINGUAL_TEXT, TIME, GLOBE_COORDINATES, QUANTITY,
+		/**
+		 * Any type of value that is not known, or that did not have the
+		 * expected structure.
+		 */
+		UNSUPPORTED
+	}
+
+	/**
+	 * Returns the type of the value.
+	 *
+	 * @return value type
+	 */
+	ValueType getValueType();
+
+	/**
+	 * Returns the type of the value as given in JSON.
+	 *
+	 * @return JSON type, such as "wikibase-entityid"
+	 */
+	String getJsonType();
+
+	/**
+	 * Returns the JSON type of the entity of an entity id value.
+	 *
+	 * @return entity type, such as "item"
+	 */
+	String getEntityType();
+
+	/**
+	 * Returns the numeric id of an entity id value. This can be used to
+	 * avoid creating strings for items and properties.
+	 *
+	 * @return numeric id, or 0 if not given
+	 */
+	long getNumericId();
+
+	/**
+	 * Returns the id of an entity id value. If the input only gives the
+	 * numeric id, the id is built from it; this creates a new string.
+	 *
+	 * @return entity id, such as "Q42"
+	 */
+	String getEntityId();
+
+	/**
+	 * Returns the string of a string value, or the text of a monolingual text
+	 * value.
+	 *
+	 * @return the string
+	 */
+	String getString();
+
+	/**
+	 * Returns the language code of a monolingual text value.
+	 *
+	 * @return language code
+	 */
+	String getLanguageCode();
+
+	/**
+	 * Returns the time of a time value.
+	 *
+	 * @return time string
+	 */
+	String getTime();
+
+	/**
+	 * Returns the precision of a time value.
+	 *
+	 * @return precision, as in
+	 *         {@link org.wikidata.wdtk.datamodel.interfaces.TimeValue#getPrecision()}
+	 */
+	int getTimePrecision();
+
+	/**
+	 * Returns the timezone offset of a time value.
+	 *
+	 * @return offset in minutes
+	 */
+	int getTimezone();
+
+	/**
+	 * Returns the "before" tolerance of a time value.
+	 *
+	 * @return tolerance in units of the precision
+	 */
+	int getBefore();
+
+	/**
+	 * Returns the "after" tolerance of a time value.
+	 *
+	 * @return tolerance in units of the precision
+	 */
+	int getAfter();
+
+	/**
+	 * Returns the calendar model of a time value.
+	 *
+	 * @return calendar model IRI
+	 */
+	String getCalendarModel();
+
+	/**
+	 * Returns the latitude of a globe coordinates value.
+	 *
+	 * @return latitude in degrees
+	 */
+	double getLatitude();
+
+	/**
+	 * Returns the longitude of a globe coordinates value.
+	 *
+	 * @return longitude in degrees
+	 */
+	double getLongitude();
+
+	/**
+	 * Returns the precision of a globe coordinates value.
+	 *
+	 * @return precision in degrees, or NaN if not given
+	 */
+	double getCoordinatePrecision();
+
+	/**
+	 * Returns the globe of a globe coordinates value.
+	 *
+	 * @return globe IRI
+	 */
+	String getGlobe();
+
+	/**
+	 * Returns the amount of a quantity value.
+	 *
+	 * @return amount string
+	 */
+	String getAmount();
+
+	/**
+	 * Returns the lower bound of a quantity value.
+	 *
+	 * @return lower bound string, or null if there is none
+	 */
+	String getLowerBound();
+
+	/**
+	 * Returns the upper bound of a quantity value.
+	 *
+	 * @return upper bound string, or null if there is none
+	 */
+	String getUpperBound();
+
+	/**
+	 * Returns the unit of a quantity value.
+	 *
+	 * @return unit IRI, or "1" for quantities without unit
+	 */
+	String getUnit();
+}
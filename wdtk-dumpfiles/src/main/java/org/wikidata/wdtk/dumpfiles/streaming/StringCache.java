@@ -0,0 +1,96 @@
+package org.wikidata.wdtk.dumpfiles.streaming;
+
+/*
+ * #%L
+ * Wikidata Toolkit Dump File Handling
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Small cache for strings that occur very often in JSON dumps, such as
+ * property ids, language codes and IRIs of units. Strings are looked up by
+ * their characters, so that no new string has to be created if the same
+ * string was seen recently. The cache is direct-mapped: each string can only
+ * be stored in one slot, and newer strings replace older ones.
+ * <p>
+ * This class is not thread-safe.
+ */
+class StringCache {
+
+	/**
+	 * Longer strings are never cached.
+	 */
+	static final int MAX_LENGTH = 64;
+
+	private final String[] entries;
+
+	private final int mask;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param sizeBits
+	 *            the binary logarithm of the number of cache slots
+	 */
+	StringCache(int sizeBits) {
+		this.entries = new String[1 << sizeBits];
+		this.mask = (1 << sizeBits) - 1;
+	}
+
+	/**
+	 * Returns a string with the given characters, taken from the cache if
+	 * possible.
+	 *
+	 * @param chars
+	 *            array that contains the characters
+	 * @param offset
+	 *            position of the first character
+	 * @param length
+	 *            number of characters
+	 * @return the string
+	 */
+	String get(char[] chars, int offset, int length) {
+		if (length > MAX_LENGTH) {
+			return new String(chars, offset, length);
+		}
+		int hash = 0;
+		for (int i = offset; i < offset + length; i++) {
+			hash = 31 * hash + chars[i];
+		}
+		int slot = (hash ^ (hash >>> 16)) & this.mask;
+		String entry = this.entries[slot];
+		if (entry != null && matches(entry, chars, offset, length)) {
+			return entry;
+		}
+		entry = new String(chars, offset, length);
+		this.entries[slot] = entry;
+		return entry;
+	}
+
+	private static boolean matches(String string, char[] chars, int offset,
+			int length) {
+		if (string.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (string.charAt(i) != chars[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
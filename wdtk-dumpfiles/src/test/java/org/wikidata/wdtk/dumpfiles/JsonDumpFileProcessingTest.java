@@ -21,24 +21,44 @@ package org.wikidata.wdtk.dumpfiles;
  */
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
 import org.junit.Ignore;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
 import org.wikidata.wdtk.datamodel.interfaces.EntityDocumentProcessor;
 import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyDocument;
 import org.wikidata.wdtk.dumpfiles.wmf.WmfDumpFile;
 import org.wikidata.wdtk.testing.MockDirectoryManager;
 import org.wikidata.wdtk.testing.MockStringContentFactory;
+import org.wikidata.wdtk.util.DirectoryManager;
+import org.wikidata.wdtk.util.DirectoryManagerFactory;
+import org.wikidata.wdtk.util.DirectoryManagerImpl;
 import org.wikidata.wdtk.util.Timer;
 
 public class JsonDumpFileProcessingTest {
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	/**
 	 * Test class that delays processing to provoke a timeout.
 	 *
@@ -89,6 +109,77 @@ public class JsonDumpFileProcessingTest {
 		assertEquals(3, timer.entityCount);
 	}
 
+	@Test
+	public void testLazyJsonProcessing() throws IOException {
+		List<EntityDocument> eagerDocuments = processMockDump(
+				"mock-dump-for-testing.json", false);
+		List<EntityDocument> lazyDocuments = processMockDump(
+				"mock-dump-for-testing.json", true);
+
+		assertEquals(3, lazyDocuments.size());
+		assertEquals(eagerDocuments, lazyDocuments);
+	}
+
+	@Test
+	public void testBuggyLazyJsonProcessing() throws IOException {
+		// the broken entity is skipped, and the others are still lazy
+		List<EntityDocument> lazyDocuments = processMockDump(
+				"mock-dump-with-broken-entity.json", true);
+		List<EntityDocument> eagerDocuments = processMockDump(
+				"mock-dump-for-testing.json", false);
+
+		assertEquals(eagerDocuments, lazyDocuments);
+		for (EntityDocument document : lazyDocuments) {
+			assertTrue(document.getClass().getSimpleName().startsWith("Lazy"));
+		}
+	}
+
+	@Test
+	public void testTrustedJsonProcessing() throws IOException {
+		List<EntityDocument> documents = processMockDump(
+				"mock-dump-for-testing.json", false);
+
+		assertEquals(documents, processMockDump("mock-dump-for-testing.json",
+				false, true));
+		assertEquals(documents, processMockDump("mock-dump-for-testing.json",
+				true, true));
+	}
+
+	private List<EntityDocument> processMockDump(String fileName,
+			boolean lazyDecoding) throws IOException {
+		return processMockDump(fileName, lazyDecoding, false);
+	}
+
+	private List<EntityDocument> processMockDump(String fileName,
+			boolean lazyDecoding, boolean trustedInput) throws IOException {
+		Path dmPath = Paths.get(System.getProperty("user.dir"));
+		MockDirectoryManager dm = new MockDirectoryManager(dmPath, true, true);
+		setLocalJsonDumpFile(fileName, "20150223", dm);
+
+		DumpProcessingController dpc = new DumpProcessingController(
+				"wikidatawiki");
+		dpc.downloadDirectoryManager = dm;
+		dpc.setOfflineMode(true);
+		dpc.setLazyDocumentDecoding(lazyDecoding);
+		dpc.setTrustedInput(trustedInput);
+
+		List<EntityDocument> documents = new ArrayList<>();
+		dpc.registerEntityDocumentProcessor(new EntityDocumentProcessor() {
+			@Override
+			public void processItemDocument(ItemDocument itemDocument) {
+				documents.add(itemDocument);
+			}
+
+			@Override
+			public void processPropertyDocument(
+					PropertyDocument propertyDocument) {
+				documents.add(propertyDocument);
+			}
+		}, null, true);
+		dpc.processMostRecentJsonDump();
+		return documents;
+	}
+
 	@Test
 	public void testBuggyJsonProcessing() throws IOException {
 		Path dmPath = Paths.get(System.getProperty("user.dir"));
@@ -159,6 +250,192 @@ public class JsonDumpFileProcessingTest {
 		assertEquals(101, timer.entityCount);
 	}
 
+	@Test
+	public void testBinaryCacheProcessing() throws IOException {
+		Path dmPath = Paths.get(System.getProperty("user.dir"));
+		MockDirectoryManager dm = new MockDirectoryManager(dmPath, true, false);
+		setLocalJsonDumpFile("mock-dump-for-testing.json", "20150223", dm);
+
+		DumpProcessingController dpc = new DumpProcessingController(
+				"wikidatawiki");
+		dpc.downloadDirectoryManager = dm;
+		dpc.setOfflineMode(true);
+		dpc.setBinaryCacheEnabled(true);
+
+		EntityTimerProcessor timer = new EntityTimerProcessor(0);
+		dpc.registerEntityDocumentProcessor(timer, null, true);
+
+		timer.open();
+		dpc.processMostRecentJsonDump();
+		timer.close();
+		assertEquals(3, timer.entityCount);
+
+		Path cacheDirectory = dmPath.resolve("dumpfiles")
+				.resolve("wikidatawiki").resolve("json-20150223");
+		assertTrue(dm.hasFile(cacheDirectory.resolve(
+				"20150223" + DumpProcessingController.BINARY_CACHE_SUFFIX
+						+ DumpProcessingController.BINARY_CACHE_DONE_SUFFIX)
+				.toString()));
+
+		// The second run must use the cache and not the (now empty) JSON
+		setLocalJsonDumpFile("empty-dump.json", "20150223", dm);
+		timer = new EntityTimerProcessor(0);
+		dpc = new DumpProcessingController("wikidatawiki");
+		dpc.downloadDirectoryManager = dm;
+		dpc.setOfflineMode(true);
+		dpc.setBinaryCacheEnabled(true);
+		dpc.registerEntityDocumentProcessor(timer, null, true);
+
+		timer.open();
+		dpc.processMostRecentJsonDump();
+		timer.close();
+		assertEquals(3, timer.entityCount);
+	}
+
+	@Test
+	public void testBrokenBinaryCache() throws IOException {
+		Path dmPath = Paths.get(System.getProperty("user.dir"));
+		MockDirectoryManager dm = new MockDirectoryManager(dmPath, true, false);
+		setLocalJsonDumpFile("mock-dump-for-testing.json", "20150223", dm);
+		Path cacheFile = dmPath.resolve("dumpfiles").resolve("wikidatawiki")
+				.resolve("json-20150223")
+				.resolve("20150223" + DumpProcessingController.BINARY_CACHE_SUFFIX);
+		String doneFile = cacheFile.toString()
+				+ DumpProcessingController.BINARY_CACHE_DONE_SUFFIX;
+
+		assertEquals(3, processMockDumpWithBinaryCache(dm));
+		assertTrue(dm.hasFile(doneFile));
+
+		// a cache that fails before the first document is replaced
+		MockDirectoryManager.files.put(cacheFile, new byte[] { 1, 2, 3 });
+		assertEquals(3, processMockDumpWithBinaryCache(dm));
+		assertTrue(dm.hasFile(doneFile));
+
+		// a cache that fails later is discarded, and the failure reported
+		byte[] cache = MockDirectoryManager.getMockedFileContents(cacheFile);
+		MockDirectoryManager.files.put(cacheFile,
+				Arrays.copyOf(cache, cache.length - 2));
+		try {
+			processMockDumpWithBinaryCache(dm);
+			fail("Broken binary cache was not reported");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().contains("failed after"));
+		}
+		assertFalse(dm.hasFile(doneFile));
+
+		assertEquals(3, processMockDumpWithBinaryCache(dm));
+		assertTrue(dm.hasFile(doneFile));
+	}
+
+	private int processMockDumpWithBinaryCache(MockDirectoryManager dm) {
+		DumpProcessingController dpc = new DumpProcessingController(
+				"wikidatawiki");
+		dpc.downloadDirectoryManager = dm;
+		dpc.setOfflineMode(true);
+		dpc.setBinaryCacheEnabled(true);
+		EntityTimerProcessor timer = new EntityTimerProcessor(0);
+		dpc.registerEntityDocumentProcessor(timer, null, true);
+
+		timer.open();
+		try {
+			dpc.processMostRecentJsonDump();
+		} finally {
+			timer.close();
+		}
+		return timer.entityCount;
+	}
+
+	@Test
+	public void testBinaryCacheClosedAfterFailure() throws IOException {
+		Path dmPath = Paths.get(System.getProperty("user.dir"));
+		MockDirectoryManager dm = new MockDirectoryManager(dmPath, true, false);
+		setLocalJsonDumpFile("mock-dump-for-testing.json", "20150223", dm);
+
+		DumpProcessingController dpc = new DumpProcessingController(
+				"wikidatawiki");
+		dpc.downloadDirectoryManager = dm;
+		dpc.setOfflineMode(true);
+		dpc.setBinaryCacheEnabled(true);
+		dpc.registerEntityDocumentProcessor(new EntityDocumentProcessor() {
+			@Override
+			public void processItemDocument(ItemDocument itemDocument) {
+				throw new IllegalStateException("Processor failure");
+			}
+		}, null, true);
+
+		try {
+			dpc.processMostRecentJsonDump();
+			fail("Processor failure was not reported");
+		} catch (IllegalStateException e) {
+			assertEquals("Processor failure", e.getMessage());
+		}
+
+		Path cacheFile = dmPath.resolve("dumpfiles").resolve("wikidatawiki")
+				.resolve("json-20150223")
+				.resolve("20150223" + DumpProcessingController.BINARY_CACHE_SUFFIX);
+		// the output stream of the mock file system stores data on closing
+		assertTrue(dm.hasFile(cacheFile.toString()));
+		assertFalse(dm.hasFile(cacheFile.toString()
+				+ DumpProcessingController.BINARY_CACHE_DONE_SUFFIX));
+	}
+
+	@Test
+	public void testBinaryCacheOfLocalDumps() throws IOException {
+		DirectoryManagerFactory
+				.setDirectoryManagerClass(DirectoryManagerImpl.class);
+		// both files have the same date, but must not share a cache
+		Path first = writeGzippedFile("mock-dump-for-testing.json",
+				"first-20150223.json.gz");
+		Path second = writeGzippedFile("empty-dump.json",
+				"second-20150223.json.gz");
+		DirectoryManager dm = new DirectoryManagerImpl(this.folder.getRoot()
+				.toPath(), false);
+
+		assertEquals(3, processLocalDumpWithBinaryCache(first, dm));
+		assertEquals(0, processLocalDumpWithBinaryCache(second, dm));
+		assertEquals(3, processLocalDumpWithBinaryCache(first, dm));
+
+		try (Stream<Path> files = Files.list(this.folder.getRoot().toPath()
+				.resolve("dumpfiles").resolve("LOCAL")
+				.resolve("json-20150223"))) {
+			assertEquals(2, files.filter(file -> file.toString().endsWith(
+					DumpProcessingController.BINARY_CACHE_DONE_SUFFIX))
+					.count());
+		}
+	}
+
+	private int processLocalDumpWithBinaryCache(Path dumpFilePath,
+			DirectoryManager dm) {
+		DumpProcessingController dpc = new DumpProcessingController(
+				"wikidatawiki");
+		dpc.downloadDirectoryManager = dm;
+		dpc.setOfflineMode(true);
+		dpc.setBinaryCacheEnabled(true);
+		EntityTimerProcessor timer = new EntityTimerProcessor(0);
+		dpc.registerEntityDocumentProcessor(timer, null, true);
+
+		timer.open();
+		dpc.processDump(new MwLocalDumpFile(dumpFilePath.toString()));
+		timer.close();
+		return timer.entityCount;
+	}
+
+	private Path writeGzippedFile(String resourceName, String fileName)
+			throws IOException {
+		Path path = this.folder.getRoot().toPath().resolve(fileName);
+		try (InputStream in = JsonDumpFileProcessingTest.class
+				.getResourceAsStream("/" + resourceName);
+				OutputStream out = new GZIPOutputStream(
+						Files.newOutputStream(path))) {
+			byte[] buffer = new byte[4096];
+			int length;
+			while ((length = in.read(buffer)) > 0) {
+				out.write(buffer, 0, length);
+			}
+		}
+		return path;
+	}
+
 	private void setLocalJsonDumpFile(String fileName, String dateStamp,
 			MockDirectoryManager dm) throws IOException {
 
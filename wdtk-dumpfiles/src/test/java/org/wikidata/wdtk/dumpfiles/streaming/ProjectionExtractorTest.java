@@ -0,0 +1,174 @@
+package org.wikidata.wdtk.dumpfiles.streaming;
+
+/*
+ * #%L
+ * Wikidata Toolkit Dump File Handling
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.wikidata.wdtk.dumpfiles.MwLocalDumpFile;
+import org.wikidata.wdtk.dumpfiles.streaming.ProjectionExtractor.OutputFormat;
+
+public class ProjectionExtractorTest {
+
+	private String extract(String resourceName, String fieldPaths,
+			OutputFormat format, int threadCount, int blockSize,
+			String entityType) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ProjectionExtractor extractor = new ProjectionExtractor(
+				Projection.parse(fieldPaths), out, format, threadCount);
+		extractor.blockSize = blockSize;
+		extractor.setEntityTypeFilter(entityType);
+		extractor.processDumpFileContents(ProjectionExtractorTest.class
+				.getResourceAsStream("/" + resourceName), new MwLocalDumpFile(
+				resourceName));
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private long countRows(String dump, int threadCount) {
+		ProjectionExtractor extractor = new ProjectionExtractor(
+				Projection.parse("id,labels.en"), new ByteArrayOutputStream(),
+				OutputFormat.CSV, threadCount);
+		extractor.blockSize = 64;
+		extractor.processDumpFileContents(new ByteArrayInputStream(
+				dump.getBytes(StandardCharsets.UTF_8)), new MwLocalDumpFile(
+				"dump.json"));
+		return extractor.getRowCount();
+	}
+
+	@Test
+	public void testColumnNames() {
+		assertEquals(Arrays.asList("id", "labels.en", "P31"), Projection
+				.parse("id, labels.en ,P31").getColumnNames());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownField() {
+		Projection.parse("id,claims");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownValueField() {
+		Projection.parse("P31.foo");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMissingLanguage() {
+		Projection.parse("labels.");
+	}
+
+	@Test
+	public void testTsv() {
+		String result = extract("mock-dump-for-streaming.json",
+				"id,type,lastrevid,labels.en,descriptions.de,aliases.en,"
+						+ "sitelinks.enwiki,P31,P569,P569.precision,P625,"
+						+ "P2048,P2048.unit,P1559", OutputFormat.TSV, 1,
+				1 << 16, null);
+		assertEquals(
+				"id\ttype\tlastrevid\tlabels.en\tdescriptions.de\taliases.en\t"
+						+ "sitelinks.enwiki\tP31\tP569\tP569.precision\tP625\t"
+						+ "P2048\tP2048.unit\tP1559\n"
+						+ "Q42\titem\t1234\tDouglas Adams\t\tDNA|Douglas Noël Adams\t"
+						+ "Douglas Adams\tQ5\t+1952-03-11T00:00:00Z\t11\t\t"
+						+ "+1.96\thttp://www.wikidata.org/entity/Q11573\tDouglas Adams\n"
+						+ "P31\tproperty\t5\t\t\t\t\t\t\t\t\t\t\t\n", result);
+	}
+
+	@Test
+	public void testEntityTypeFilter() {
+		String result = extract("mock-dump-for-streaming.json", "id",
+				OutputFormat.TSV, 1, 1 << 16, "property");
+		assertEquals("id\nP31\n", result);
+	}
+
+	@Test
+	public void testCsv() {
+		String result = extract("mock-dump-for-streaming.json",
+				"id,aliases.en,P2048.lowerBound", OutputFormat.CSV, 1,
+				1 << 16, "item");
+		assertEquals("id,aliases.en,P2048.lowerBound\nQ42,DNA|Douglas Noël Adams,+1.95\n",
+				result);
+	}
+
+	@Test
+	public void testBestRankAndValueEscaping() {
+		// preferred values whose field is empty or absent hide normal values
+		String result = extract("mock-dump-for-projection.json",
+				"id,aliases.en,P17,P18.id", OutputFormat.CSV, 1, 1 << 16,
+				null);
+		assertEquals("id,aliases.en,P17,P18.id\nQ1,a\\|b|c\\\\d,,\n",
+				result);
+	}
+
+	@Test
+	public void testEscaping() {
+		DelimitedTextBuffer tsv = new DelimitedTextBuffer(false);
+		tsv.appendCell("a\tb\\c");
+		tsv.appendCell("line\nbreak");
+		tsv.endRow();
+		assertEquals("a\\tb\\\\c\tline\\nbreak\n", new String(
+				tsv.toByteArray(), StandardCharsets.UTF_8));
+
+		DelimitedTextBuffer csv = new DelimitedTextBuffer(true);
+		csv.appendCell("a,b");
+		csv.appendCell("say \"hi\"");
+		csv.appendCell("😀");
+		csv.endRow();
+		assertEquals("\"a,b\",\"say \"\"hi\"\"\",😀\n", new String(
+				csv.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testParallelExtraction() {
+		String fieldPaths = "id,labels.en,P31,P31.id,P279";
+		String sequential = extract("mock-dump-for-long-testing.json",
+				fieldPaths, OutputFormat.TSV, 1, 1 << 16, null);
+		String parallel = extract("mock-dump-for-long-testing.json",
+				fieldPaths, OutputFormat.TSV, 4, 1024, null);
+		assertEquals(102, sequential.split("\n").length);
+		assertEquals(sequential, parallel);
+	}
+
+	@Test
+	public void testRowCountWithLineBreaksInValues() {
+		String dump = "[\n"
+				+ "{\"type\":\"item\",\"id\":\"Q1\",\"labels\":{\"en\":{\"language\":\"en\",\"value\":\"two\\nlines\"}}},\n"
+				+ "{\"type\":\"item\",\"id\":\"Q2\",\"labels\":{\"en\":{\"language\":\"en\",\"value\":\"a\\nb\\nc\"}}}\n"
+				+ "]\n";
+		assertEquals(2, countRows(dump, 1));
+		assertEquals(2, countRows(dump, 4));
+	}
+
+	@Test
+	public void testBrokenEntity() {
+		String sequential = extract("mock-dump-with-broken-entity.json",
+				"id,type", OutputFormat.TSV, 1, 1 << 16, null);
+		String parallel = extract("mock-dump-with-broken-entity.json",
+				"id,type", OutputFormat.TSV, 4, 256, null);
+		assertEquals("id\ttype\nQ1\titem\nQ8\titem\nP16\tproperty\n"
+				+ "L1\tlexeme\n", sequential);
+		assertEquals(sequential, parallel);
+	}
+}
@@ -0,0 +1,301 @@
+package org.wikidata.wdtk.dumpfiles.streaming;
+
+/*
+ * #%L
+ * Wikidata Toolkit Dump File Handling
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocumentProcessor;
+import org.wikidata.wdtk.datamodel.interfaces.EntityIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.Statement;
+import org.wikidata.wdtk.datamodel.interfaces.StatementRank;
+import org.wikidata.wdtk.datamodel.interfaces.StringValue;
+import org.wikidata.wdtk.dumpfiles.JsonDumpFileProcessor;
+import org.wikidata.wdtk.dumpfiles.MwDumpFileProcessor;
+import org.wikidata.wdtk.dumpfiles.MwLocalDumpFile;
+import org.wikidata.wdtk.dumpfiles.streaming.StreamedSnak.SnakType;
+import org.wikidata.wdtk.dumpfiles.streaming.StreamedValue.ValueType;
+
+public class StatementStreamDumpFileProcessorTest {
+
+	/**
+	 * Processor that records all callbacks as strings.
+	 */
+	static class RecordingProcessor implements StatementStreamProcessor {
+
+		final List<String> events = new ArrayList<>();
+		final List<StreamedStatement> statementObjects = new ArrayList<>();
+
+		@Override
+		public void startEntity(String entityId, String entityType) {
+			events.add("start " + entityId + " " + entityType);
+		}
+
+		@Override
+		public void processTerm(TermType termType, String languageCode,
+				String text) {
+			events.add(termType + " " + languageCode + " " + text);
+		}
+
+		@Override
+		public void processSiteLink(String siteKey, String title) {
+			events.add("sitelink " + siteKey + " " + title);
+		}
+
+		@Override
+		public void processStatement(StreamedStatement statement) {
+			statementObjects.add(statement);
+			StringBuilder sb = new StringBuilder("statement ")
+					.append(statement.getSubjectId()).append(" ")
+					.append(statement.getStatementId()).append(" ")
+					.append(statement.getRank()).append(" ");
+			appendSnak(sb, statement.getMainSnak());
+			for (int i = 0; i < statement.getQualifierCount(); i++) {
+				sb.append(" | ");
+				appendSnak(sb, statement.getQualifier(i));
+			}
+			events.add(sb.toString());
+		}
+
+		private void appendSnak(StringBuilder sb, StreamedSnak snak) {
+			sb.append(snak.getPropertyId()).append(" ")
+					.append(snak.getSnakType());
+			StreamedValue value = snak.getValue();
+			if (value != null) {
+				sb.append(" ").append(value.getValueType());
+			}
+		}
+
+		@Override
+		public void endEntity(String entityId, long revisionId) {
+			events.add("end " + entityId + " " + revisionId);
+		}
+	}
+
+	private void process(String resourceName, MwDumpFileProcessor processor) {
+		MwLocalDumpFile dumpFile = new MwLocalDumpFile(resourceName);
+		processor.processDumpFileContents(
+				StatementStreamDumpFileProcessorTest.class
+						.getResourceAsStream("/" + resourceName), dumpFile);
+	}
+
+	@Test
+	public void testEvents() {
+		RecordingProcessor processor = new RecordingProcessor();
+		process("mock-dump-for-streaming.json",
+				new StatementStreamDumpFileProcessor(processor));
+
+		assertEquals(Arrays.asList(
+				"start Q42 item",
+				"LABEL en Douglas Adams",
+				"LABEL de Douglas Adams",
+				"DESCRIPTION en English writer",
+				"ALIAS en DNA",
+				"ALIAS en Douglas Noël Adams",
+				"statement Q42 Q42$1 PREFERRED P31 VALUE ENTITY_ID",
+				"statement Q42 Q42$2 NORMAL P569 VALUE TIME | P1480 SOME_VALUE | P580 NO_VALUE | P580 VALUE STRING",
+				"statement Q42 Q42$3 DEPRECATED P625 VALUE GLOBE_COORDINATES",
+				"statement Q42 Q42$4 NORMAL P2048 VALUE QUANTITY",
+				"statement Q42 Q42$5 NORMAL P1559 VALUE MONOLINGUAL_TEXT",
+				"statement Q42 Q42$6 NORMAL P1559 VALUE UNSUPPORTED",
+				"sitelink enwiki Douglas Adams",
+				"end Q42 1234",
+				"start P31 property",
+				"end P31 5"), processor.events);
+		// statement views are reused
+		assertSame(processor.statementObjects.get(0),
+				processor.statementObjects.get(5));
+	}
+
+	@Test
+	public void testBrokenEntity() {
+		RecordingProcessor processor = new RecordingProcessor();
+		process("mock-dump-with-broken-entity.json",
+				new StatementStreamDumpFileProcessor(processor));
+
+		List<String> ends = new ArrayList<>();
+		for (String event : processor.events) {
+			if (event.startsWith("end ")) {
+				ends.add(event.split(" ")[1]);
+			}
+		}
+		assertEquals(Arrays.asList("Q1", "Q8", "P16", "L1"), ends);
+	}
+
+	@Test
+	public void testBrokenEntityInLargeDump() {
+		StringBuilder dump = new StringBuilder("[\n");
+		for (int i = 1; i <= 5000; i++) {
+			dump.append("{\"type\":\"item\",\"id\":\"Q").append(i);
+			if (i == 4000) {
+				dump.append("\",\"labels\":{\"en\":{\n");
+			} else {
+				dump.append("\",\"labels\":{}},\n");
+			}
+		}
+		dump.append("]\n");
+
+		RecordingProcessor processor = new RecordingProcessor();
+		new StatementStreamDumpFileProcessor(processor).processDumpFileContents(
+				new ByteArrayInputStream(
+						dump.toString().getBytes(StandardCharsets.UTF_8)),
+				new MwLocalDumpFile("large-dump.json"));
+
+		List<String> expected = new ArrayList<>();
+		for (int i = 1; i <= 5000; i++) {
+			if (i != 4000) {
+				expected.add("end Q" + i + " 0");
+			}
+		}
+		List<String> ends = new ArrayList<>();
+		for (String event : processor.events) {
+			if (event.startsWith("end ")) {
+				ends.add(event);
+			}
+		}
+		assertEquals(expected, ends);
+	}
+
+	@Test
+	public void testValues() {
+		List<String> results = new ArrayList<>();
+		StatementStreamProcessor processor = new StatementStreamProcessor() {
+			@Override
+			public void startEntity(String entityId, String entityType) {
+			}
+
+			@Override
+			public void processStatement(StreamedStatement statement) {
+				StreamedValue value = statement.getMainSnak().getValue();
+				switch (statement.getStatementId()) {
+				case "Q42$1":
+					assertEquals("Q5", value.getEntityId());
+					assertEquals(5, value.getNumericId());
+					assertEquals("item", value.getEntityType());
+					assertEquals("wikibase-item", statement.getMainSnak().getDatatype());
+					break;
+				case "Q42$2":
+					assertEquals("+1952-03-11T00:00:00Z", value.getTime());
+					assertEquals(11, value.getTimePrecision());
+					assertEquals("http://www.wikidata.org/entity/Q1985727", value.getCalendarModel());
+					assertTrue(Double.isNaN(value.getCoordinatePrecision()));
+					assertNull(statement.getQualifier(0).getValue());
+					assertEquals("text", statement.getQualifier(2).getValue().getString());
+					break;
+				case "Q42$3":
+					assertEquals(51.5, value.getLatitude(), 0);
+					assertEquals(-0.1, value.getLongitude(), 0);
+					assertTrue(Double.isNaN(value.getCoordinatePrecision()));
+					assertEquals("http://www.wikidata.org/entity/Q2", value.getGlobe());
+					break;
+				case "Q42$4":
+					assertEquals("+1.96", value.getAmount());
+					assertEquals("+1.95", value.getLowerBound());
+					assertEquals("+1.97", value.getUpperBound());
+					assertEquals("http://www.wikidata.org/entity/Q11573", value.getUnit());
+					break;
+				case "Q42$5":
+					assertEquals("Douglas Adams", value.getString());
+					assertEquals("en", value.getLanguageCode());
+					break;
+				default:
+				}
+				results.add(statement.getStatementId());
+			}
+		};
+		process("mock-dump-for-streaming.json",
+				new StatementStreamDumpFileProcessor(processor));
+		assertEquals(6, results.size());
+	}
+
+	@Test
+	public void testSameStatementsAsDocuments() {
+		// In this dump, entity ids come after the statements
+		String dumpFile = "mock-dump-for-testing.json";
+
+		List<String> expected = new ArrayList<>();
+		process(dumpFile, new JsonDumpFileProcessor(new EntityDocumentProcessor() {
+			@Override
+			public void processItemDocument(ItemDocument itemDocument) {
+				Iterator<Statement> statements = itemDocument.getAllStatements();
+				while (statements.hasNext()) {
+					expected.add(toString(statements.next()));
+				}
+			}
+
+			private String toString(Statement statement) {
+				String value;
+				if (statement.getValue() instanceof EntityIdValue) {
+					value = ((EntityIdValue) statement.getValue()).getId();
+				} else if (statement.getValue() instanceof StringValue) {
+					value = ((StringValue) statement.getValue()).getString();
+				} else {
+					value = null;
+				}
+				return statement.getSubject().getId() + " "
+						+ statement.getStatementId() + " "
+						+ statement.getMainSnak().getPropertyId().getId() + " "
+						+ value + " " + statement.getRank();
+			}
+		}, Datamodel.SITE_WIKIDATA));
+
+		List<String> actual = new ArrayList<>();
+		process(dumpFile, new StatementStreamDumpFileProcessor(new StatementStreamProcessor() {
+			@Override
+			public void startEntity(String entityId, String entityType) {
+			}
+
+			@Override
+			public void processStatement(StreamedStatement statement) {
+				StreamedValue value = statement.getMainSnak().getValue();
+				String valueString = null;
+				if (value != null && value.getValueType() == ValueType.ENTITY_ID) {
+					valueString = value.getEntityId();
+				} else if (value != null && value.getValueType() == ValueType.STRING) {
+					valueString = value.getString();
+				}
+				actual.add(statement.getSubjectId() + " "
+						+ statement.getStatementId() + " "
+						+ statement.getMainSnak().getPropertyId() + " "
+						+ valueString + " " + statement.getRank());
+				assertEquals(SnakType.VALUE, statement.getMainSnak().getSnakType());
+				assertTrue(statement.getRank() != StatementRank.DEPRECATED);
+			}
+		}));
+
+		assertTrue(expected.size() > 0);
+		expected.sort(null);
+		actual.sort(null);
+		assertEquals(expected, actual);
+	}
+}
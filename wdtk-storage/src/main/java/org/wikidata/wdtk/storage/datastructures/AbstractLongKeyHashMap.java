@@ -0,0 +1,297 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Base class of hash maps with primitive <code>long</code> keys. Keys and
+ * values are stored in two {@link MemoryBlock}s that are used as arrays of
+ * slots, with open addressing and linear probing. Removing a key moves
+ * following entries back, so that no deletion markers are needed. The key 0
+ * marks empty slots, so an entry with this key is stored separately.
+ * <p>
+ * Subclasses determine the type of the values, which are stored in slots of
+ * {@link #valueSize} bytes and handled as <code>long</code> values here.
+ */
+abstract class AbstractLongKeyHashMap {
+
+	static final int MINIMAL_LG_CAPACITY = 4;
+
+	/**
+	 * Largest capacity of a map. Keys use 8 bytes per slot, so the keys of a
+	 * map of maximal capacity need 2<sup>41</sup> bytes.
+	 */
+	static final int MAXIMAL_LG_CAPACITY = 38;
+
+	final MemoryAllocator allocator;
+
+	final int valueSize;
+
+	int lgCapacity;
+
+	long mask;
+
+	/**
+	 * Number of entries after which the map grows.
+	 */
+	long threshold;
+
+	MemoryBlock keys;
+
+	MemoryBlock values;
+
+	/**
+	 * Number of entries in the slots, i.e., without the entry for key 0.
+	 */
+	long slotCount;
+
+	boolean hasZeroKey;
+
+	long zeroKeyValue;
+
+	AbstractLongKeyHashMap(long expectedSize, MemoryAllocator allocator,
+			int valueSize) {
+		Validate.notNull(allocator, "Memory allocator cannot be null.");
+		if (expectedSize < 0) {
+			throw new IllegalArgumentException(
+					"The expected size must not be negative. The received value was: "
+							+ expectedSize + ".");
+		}
+		this.allocator = allocator;
+		this.valueSize = valueSize;
+		int lgCapacity = MINIMAL_LG_CAPACITY;
+		while (lgCapacity < MAXIMAL_LG_CAPACITY
+				&& (3L << lgCapacity) / 4 < expectedSize) {
+			lgCapacity++;
+		}
+		allocate(lgCapacity);
+	}
+
+	/**
+	 * Returns the number of entries.
+	 *
+	 * @return number of keys in the map
+	 */
+	public long size() {
+		return this.slotCount + (this.hasZeroKey ? 1 : 0);
+	}
+
+	/**
+	 * Returns true if the map has no entries.
+	 *
+	 * @return true if the map is empty
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Returns true if there is an entry for the given key.
+	 *
+	 * @param key
+	 *            key
+	 * @return true if the key is in the map
+	 */
+	public boolean containsKey(long key) {
+		if (key == 0) {
+			return this.hasZeroKey;
+		}
+		return this.keys.getLong(findSlot(key) << 3) == key;
+	}
+
+	/**
+	 * Removes the entry for the given key.
+	 *
+	 * @param key
+	 *            key
+	 * @return true if there was an entry for the key
+	 */
+	public boolean remove(long key) {
+		if (key == 0) {
+			boolean result = this.hasZeroKey;
+			this.hasZeroKey = false;
+			return result;
+		}
+		long slot = findSlot(key);
+		if (this.keys.getLong(slot << 3) != key) {
+			return false;
+		}
+		long gap = slot;
+		long current = slot;
+		while (true) {
+			current = (current + 1) & this.mask;
+			long currentKey = this.keys.getLong(current << 3);
+			if (currentKey == 0) {
+				break;
+			}
+			long ideal = hash(currentKey) & this.mask;
+			boolean move = current > gap ? ideal <= gap || ideal > current
+					: ideal <= gap && ideal > current;
+			if (move) {
+				this.keys.putLong(gap << 3, currentKey);
+				setValueInSlot(gap, getValueInSlot(current));
+				gap = current;
+			}
+		}
+		this.keys.putLong(gap << 3, 0);
+		setValueInSlot(gap, 0);
+		this.slotCount--;
+		return true;
+	}
+
+	/**
+	 * Removes all entries. The memory that the map uses does not shrink.
+	 */
+	public void clear() {
+		allocate(this.lgCapacity);
+		this.hasZeroKey = false;
+	}
+
+	/**
+	 * Returns the value for the given key, or the default value if there is
+	 * none.
+	 */
+	long getValue(long key, long defaultValue) {
+		if (key == 0) {
+			return this.hasZeroKey ? this.zeroKeyValue : defaultValue;
+		}
+		long slot = findSlot(key);
+		return this.keys.getLong(slot << 3) == key ? getValueInSlot(slot)
+				: defaultValue;
+	}
+
+	/**
+	 * Sets the value for the given key.
+	 */
+	void putValue(long key, long value) {
+		if (key == 0) {
+			this.hasZeroKey = true;
+			this.zeroKeyValue = value;
+			return;
+		}
+		long slot = findSlot(key);
+		if (this.keys.getLong(slot << 3) != key) {
+			if (this.slotCount >= this.threshold) {
+				grow();
+				slot = findSlot(key);
+			}
+			this.keys.putLong(slot << 3, key);
+			this.slotCount++;
+		}
+		setValueInSlot(slot, value);
+	}
+
+	/**
+	 * Adds the given value to the value of the given key, where a missing
+	 * entry counts as 0, and returns the new value.
+	 */
+	long addToValue(long key, long delta) {
+		long value = getValue(key, 0) + delta;
+		putValue(key, value);
+		return value;
+	}
+
+	/**
+	 * Returns the slot that contains the given key, or the empty slot where
+	 * it should be inserted.
+	 */
+	long findSlot(long key) {
+		long slot = hash(key) & this.mask;
+		while (true) {
+			long slotKey = this.keys.getLong(slot << 3);
+			if (slotKey == key || slotKey == 0) {
+				return slot;
+			}
+			slot = (slot + 1) & this.mask;
+		}
+	}
+
+	long getValueInSlot(long slot) {
+		if (this.valueSize == 8) {
+			return this.values.getLong(slot << 3);
+		} else {
+			return this.values.getInt(slot << 2);
+		}
+	}
+
+	void setValueInSlot(long slot, long value) {
+		if (this.valueSize == 8) {
+			this.values.putLong(slot << 3, value);
+		} else {
+			this.values.putInt(slot << 2, (int) value);
+		}
+	}
+
+	/**
+	 * Returns the number of slots.
+	 */
+	long capacity() {
+		return 1L << this.lgCapacity;
+	}
+
+	private void allocate(int lgCapacity) {
+		this.lgCapacity = lgCapacity;
+		this.mask = (1L << lgCapacity) - 1;
+		this.threshold = (3L << lgCapacity) / 4;
+		this.keys = new MemoryBlock(this.allocator, 8L << lgCapacity);
+		this.values = new MemoryBlock(this.allocator,
+				(long) this.valueSize << lgCapacity);
+		this.slotCount = 0;
+	}
+
+	private void grow() {
+		if (this.lgCapacity >= MAXIMAL_LG_CAPACITY) {
+			throw new IllegalStateException("The map cannot grow beyond "
+					+ capacity() + " slots.");
+		}
+		MemoryBlock oldKeys = this.keys;
+		long oldCapacity = capacity();
+		MemoryBlock oldValues = this.values;
+		int oldValueSize = this.valueSize;
+		allocate(this.lgCapacity + 1);
+		for (long i = 0; i < oldCapacity; i++) {
+			long key = oldKeys.getLong(i << 3);
+			if (key != 0) {
+				long slot = findSlot(key);
+				this.keys.putLong(slot << 3, key);
+				setValueInSlot(slot, oldValueSize == 8 ? oldValues
+						.getLong(i << 3) : oldValues.getInt(i << 2));
+				this.slotCount++;
+			}
+		}
+	}
+
+	/**
+	 * Spreads the bits of a key so that consecutive keys, such as entity
+	 * ids, end up in different parts of the table (finalization step of
+	 * MurmurHash3).
+	 */
+	static long hash(long key) {
+		long h = key;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,253 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Container of a {@link CompressedBitmap} that stores up to
+ * {@link RoaringContainer#MAX_ARRAY_SIZE} values as a sorted array.
+ */
+final class ArrayContainer extends RoaringContainer {
+
+	char[] values;
+
+	int cardinality;
+
+	ArrayContainer() {
+		this.values = new char[4];
+	}
+
+	ArrayContainer(char[] values, int cardinality) {
+		this.values = values;
+		this.cardinality = cardinality;
+	}
+
+	@Override
+	int cardinality() {
+		return this.cardinality;
+	}
+
+	@Override
+	boolean contains(int value) {
+		return Arrays.binarySearch(this.values, 0, this.cardinality,
+				(char) value) >= 0;
+	}
+
+	@Override
+	RoaringContainer add(int value) {
+		int index = Arrays.binarySearch(this.values, 0, this.cardinality,
+				(char) value);
+		if (index >= 0) {
+			return this;
+		}
+		if (this.cardinality >= MAX_ARRAY_SIZE) {
+			return toBitmapContainer().add(value);
+		}
+		index = -index - 1;
+		if (this.cardinality == this.values.length) {
+			this.values = Arrays.copyOf(this.values, Math.min(MAX_ARRAY_SIZE,
+					2 * this.values.length));
+		}
+		System.arraycopy(this.values, index, this.values, index + 1,
+				this.cardinality - index);
+		this.values[index] = (char) value;
+		this.cardinality++;
+		return this;
+	}
+
+	@Override
+	RoaringContainer remove(int value) {
+		int index = Arrays.binarySearch(this.values, 0, this.cardinality,
+				(char) value);
+		if (index >= 0) {
+			System.arraycopy(this.values, index + 1, this.values, index,
+					this.cardinality - index - 1);
+			this.cardinality--;
+		}
+		return this;
+	}
+
+	@Override
+	int nextValue(int from) {
+		if (from >= CONTAINER_SIZE) {
+			return -1;
+		}
+		int index = Arrays.binarySearch(this.values, 0, this.cardinality,
+				(char) from);
+		if (index < 0) {
+			index = -index - 1;
+		}
+		return index < this.cardinality ? this.values[index] : -1;
+	}
+
+	@Override
+	void forEach(IntConsumer consumer) {
+		for (int i = 0; i < this.cardinality; i++) {
+			consumer.accept(this.values[i]);
+		}
+	}
+
+	@Override
+	RoaringContainer or(RoaringContainer other) {
+		if (other instanceof RunContainer) {
+			other = ((RunContainer) other).toEagerContainer();
+		}
+		if (other instanceof BitmapContainer) {
+			return other.or(this);
+		}
+		ArrayContainer array = (ArrayContainer) other;
+		if (this.cardinality + array.cardinality > MAX_ARRAY_SIZE) {
+			BitmapContainer result = new BitmapContainer();
+			forEach(result::set);
+			array.forEach(result::set);
+			return result.normalize();
+		}
+		char[] result = new char[this.cardinality + array.cardinality];
+		int i = 0, j = 0, k = 0;
+		while (i < this.cardinality && j < array.cardinality) {
+			char a = this.values[i];
+			char b = array.values[j];
+			if (a < b) {
+				result[k++] = a;
+				i++;
+			} else if (a > b) {
+				result[k++] = b;
+				j++;
+			} else {
+				result[k++] = a;
+				i++;
+				j++;
+			}
+		}
+		while (i < this.cardinality) {
+			result[k++] = this.values[i++];
+		}
+		while (j < array.cardinality) {
+			result[k++] = array.values[j++];
+		}
+		return new ArrayContainer(result, k);
+	}
+
+	@Override
+	RoaringContainer and(RoaringContainer other) {
+		if (other instanceof RunContainer) {
+			other = ((RunContainer) other).toEagerContainer();
+		}
+		if (other instanceof BitmapContainer) {
+			return filter(other, true);
+		}
+		ArrayContainer array = (ArrayContainer) other;
+		char[] result = new char[Math.min(this.cardinality,
+				array.cardinality)];
+		int i = 0, j = 0, k = 0;
+		while (i < this.cardinality && j < array.cardinality) {
+			char a = this.values[i];
+			char b = array.values[j];
+			if (a < b) {
+				i++;
+			} else if (a > b) {
+				j++;
+			} else {
+				result[k++] = a;
+				i++;
+				j++;
+			}
+		}
+		return new ArrayContainer(result, k);
+	}
+
+	@Override
+	RoaringContainer andNot(RoaringContainer other) {
+		if (other instanceof RunContainer) {
+			other = ((RunContainer) other).toEagerContainer();
+		}
+		return filter(other, false);
+	}
+
+	/**
+	 * Returns a new array container with those values for which containment
+	 * in the other container is as given.
+	 */
+	private ArrayContainer filter(RoaringContainer other, boolean contained) {
+		char[] result = new char[this.cardinality];
+		int k = 0;
+		for (int i = 0; i < this.cardinality; i++) {
+			if (other.contains(this.values[i]) == contained) {
+				result[k++] = this.values[i];
+			}
+		}
+		return new ArrayContainer(result, k);
+	}
+
+	/**
+	 * Returns a bitmap container with the same values.
+	 */
+	BitmapContainer toBitmapContainer() {
+		BitmapContainer result = new BitmapContainer();
+		forEach(result::set);
+		return result;
+	}
+
+	@Override
+	RoaringContainer copy() {
+		return new ArrayContainer(Arrays.copyOf(this.values,
+				Math.max(this.cardinality, 4)), this.cardinality);
+	}
+
+	@Override
+	int getSizeInBytes() {
+		return 2 + 2 * this.cardinality;
+	}
+
+	@Override
+	byte getType() {
+		return TYPE_ARRAY;
+	}
+
+	@Override
+	void writeTo(DataOutput output) throws IOException {
+		output.writeChar(this.cardinality);
+		for (int i = 0; i < this.cardinality; i++) {
+			output.writeChar(this.values[i]);
+		}
+	}
+
+	static ArrayContainer read(DataInput input) throws IOException {
+		int cardinality = input.readChar();
+		if (cardinality > MAX_ARRAY_SIZE) {
+			throw new IOException("Invalid array container of size "
+					+ cardinality + ".");
+		}
+		char[] values = new char[Math.max(cardinality, 4)];
+		for (int i = 0; i < cardinality; i++) {
+			values[i] = input.readChar();
+			if (i > 0 && values[i] <= values[i - 1]) {
+				throw new IOException("Array container is not sorted.");
+			}
+		}
+		return new ArrayContainer(values, cardinality);
+	}
+}
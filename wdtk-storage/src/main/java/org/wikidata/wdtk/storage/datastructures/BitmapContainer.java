@@ -0,0 +1,263 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.function.IntConsumer;
+
+/**
+ * Container of a {@link CompressedBitmap} that stores its values as a bitmap
+ * of 65536 bits. It is used for containers with more than
+ * {@link RoaringContainer#MAX_ARRAY_SIZE} values.
+ */
+final class BitmapContainer extends RoaringContainer {
+
+	static final int NUMBER_OF_WORDS = CONTAINER_SIZE >>> BitVectorImpl.LG_WORD_SIZE;
+
+	final long[] words;
+
+	int cardinality;
+
+	BitmapContainer() {
+		this.words = new long[NUMBER_OF_WORDS];
+	}
+
+	BitmapContainer(long[] words, int cardinality) {
+		this.words = words;
+		this.cardinality = cardinality;
+	}
+
+	@Override
+	int cardinality() {
+		return this.cardinality;
+	}
+
+	@Override
+	boolean contains(int value) {
+		return (this.words[value >>> BitVectorImpl.LG_WORD_SIZE] & (1L << value)) != 0;
+	}
+
+	/**
+	 * Adds a value without changing the type of this container.
+	 */
+	void set(int value) {
+		int index = value >>> BitVectorImpl.LG_WORD_SIZE;
+		long word = this.words[index];
+		long newWord = word | (1L << value);
+		if (word != newWord) {
+			this.words[index] = newWord;
+			this.cardinality++;
+		}
+	}
+
+	/**
+	 * Adds all values from start (inclusive) to end (exclusive).
+	 */
+	void setRange(int start, int end) {
+		if (start >= end) {
+			return;
+		}
+		int first = start >>> BitVectorImpl.LG_WORD_SIZE;
+		int last = (end - 1) >>> BitVectorImpl.LG_WORD_SIZE;
+		for (int i = first; i <= last; i++) {
+			long mask = -1L;
+			if (i == first) {
+				mask &= -1L << start;
+			}
+			if (i == last) {
+				mask &= -1L >>> (-end);
+			}
+			this.cardinality += Long.bitCount(mask & ~this.words[i]);
+			this.words[i] |= mask;
+		}
+	}
+
+	@Override
+	RoaringContainer add(int value) {
+		set(value);
+		return this;
+	}
+
+	@Override
+	RoaringContainer remove(int value) {
+		int index = value >>> BitVectorImpl.LG_WORD_SIZE;
+		long word = this.words[index];
+		long newWord = word & ~(1L << value);
+		if (word != newWord) {
+			this.words[index] = newWord;
+			this.cardinality--;
+			return normalize();
+		}
+		return this;
+	}
+
+	@Override
+	int nextValue(int from) {
+		if (from >= CONTAINER_SIZE) {
+			return -1;
+		}
+		int index = from >>> BitVectorImpl.LG_WORD_SIZE;
+		long word = this.words[index] & (-1L << from);
+		while (word == 0) {
+			index++;
+			if (index == NUMBER_OF_WORDS) {
+				return -1;
+			}
+			word = this.words[index];
+		}
+		return (index << BitVectorImpl.LG_WORD_SIZE)
+				+ Long.numberOfTrailingZeros(word);
+	}
+
+	@Override
+	void forEach(IntConsumer consumer) {
+		for (int i = 0; i < NUMBER_OF_WORDS; i++) {
+			long word = this.words[i];
+			while (word != 0) {
+				consumer.accept((i << BitVectorImpl.LG_WORD_SIZE)
+						+ Long.numberOfTrailingZeros(word));
+				word &= word - 1;
+			}
+		}
+	}
+
+	@Override
+	RoaringContainer or(RoaringContainer other) {
+		if (other instanceof RunContainer) {
+			other = ((RunContainer) other).toEagerContainer();
+		}
+		if (other instanceof ArrayContainer) {
+			BitmapContainer result = (BitmapContainer) copy();
+			other.forEach(result::set);
+			return result;
+		}
+		long[] otherWords = ((BitmapContainer) other).words;
+		long[] result = new long[NUMBER_OF_WORDS];
+		int cardinality = 0;
+		for (int i = 0; i < NUMBER_OF_WORDS; i++) {
+			result[i] = this.words[i] | otherWords[i];
+			cardinality += Long.bitCount(result[i]);
+		}
+		return new BitmapContainer(result, cardinality);
+	}
+
+	@Override
+	RoaringContainer and(RoaringContainer other) {
+		if (other instanceof RunContainer) {
+			other = ((RunContainer) other).toEagerContainer();
+		}
+		if (other instanceof ArrayContainer) {
+			return other.and(this);
+		}
+		long[] otherWords = ((BitmapContainer) other).words;
+		long[] result = new long[NUMBER_OF_WORDS];
+		int cardinality = 0;
+		for (int i = 0; i < NUMBER_OF_WORDS; i++) {
+			result[i] = this.words[i] & otherWords[i];
+			cardinality += Long.bitCount(result[i]);
+		}
+		return new BitmapContainer(result, cardinality).normalize();
+	}
+
+	@Override
+	RoaringContainer andNot(RoaringContainer other) {
+		if (other instanceof RunContainer) {
+			other = ((RunContainer) other).toEagerContainer();
+		}
+		long[] result;
+		if (other instanceof ArrayContainer) {
+			result = this.words.clone();
+			ArrayContainer array = (ArrayContainer) other;
+			for (int i = 0; i < array.cardinality; i++) {
+				char value = array.values[i];
+				result[value >>> BitVectorImpl.LG_WORD_SIZE] &= ~(1L << value);
+			}
+		} else {
+			long[] otherWords = ((BitmapContainer) other).words;
+			result = new long[NUMBER_OF_WORDS];
+			for (int i = 0; i < NUMBER_OF_WORDS; i++) {
+				result[i] = this.words[i] & ~otherWords[i];
+			}
+		}
+		int cardinality = 0;
+		for (int i = 0; i < NUMBER_OF_WORDS; i++) {
+			cardinality += Long.bitCount(result[i]);
+		}
+		return new BitmapContainer(result, cardinality).normalize();
+	}
+
+	/**
+	 * Returns an array container with the same values if there are few
+	 * enough of them, and this container otherwise.
+	 */
+	RoaringContainer normalize() {
+		if (this.cardinality > MAX_ARRAY_SIZE) {
+			return this;
+		}
+		char[] values = new char[Math.max(this.cardinality, 4)];
+		int[] k = new int[1];
+		forEach(value -> values[k[0]++] = (char) value);
+		return new ArrayContainer(values, this.cardinality);
+	}
+
+	@Override
+	int wordHash() {
+		int result = 0;
+		for (int i = 0; i < NUMBER_OF_WORDS; i++) {
+			result += (int) (0x1F * this.words[i]);
+		}
+		return result;
+	}
+
+	@Override
+	RoaringContainer copy() {
+		return new BitmapContainer(this.words.clone(), this.cardinality);
+	}
+
+	@Override
+	int getSizeInBytes() {
+		return 8 * NUMBER_OF_WORDS;
+	}
+
+	@Override
+	byte getType() {
+		return TYPE_BITMAP;
+	}
+
+	@Override
+	void writeTo(DataOutput output) throws IOException {
+		for (long word : this.words) {
+			output.writeLong(word);
+		}
+	}
+
+	static BitmapContainer read(DataInput input) throws IOException {
+		long[] words = new long[NUMBER_OF_WORDS];
+		int cardinality = 0;
+		for (int i = 0; i < NUMBER_OF_WORDS; i++) {
+			words[i] = input.readLong();
+			cardinality += Long.bitCount(words[i]);
+		}
+		return new BitmapContainer(words, cardinality);
+	}
+}
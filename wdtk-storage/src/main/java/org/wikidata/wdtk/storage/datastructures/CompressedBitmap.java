@@ -0,0 +1,596 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Compressed bitmap for sets of non-negative numbers, such as the numeric ids
+ * of entities. The set is split into containers for the numbers that share
+ * the same high bits (all bits but the lowest 16). Each container is stored
+ * as a sorted array if it contains few numbers, as a bitmap of 65536 bits if
+ * it contains many, or as a list of runs of consecutive numbers if that is
+ * smaller (see {@link #runOptimize()}). Containers without any numbers are
+ * not stored at all. This layout is known as a <i>Roaring bitmap</i>. It
+ * needs much less memory than a {@link BitVectorImpl} for sparse sets and
+ * than a set of objects for dense sets: the ids of hundreds of millions of
+ * entities fit in a few megabytes.
+ * <p>
+ * This class is a {@link BitVector} where the bit at a position is
+ * <code>true</code> if the position is in the set. As for
+ * {@link BitVectorImpl}, the bit vector is <i>flexible</i>: setting a bit
+ * after the end extends its size. Positions must be at most
+ * {@link #MAXIMAL_POSITION}. Sets can be combined with
+ * {@link #union(CompressedBitmap)}, {@link #intersection(CompressedBitmap)}
+ * and {@link #difference(CompressedBitmap)}, and they can be stored with
+ * {@link #writeTo(OutputStream)}.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class CompressedBitmap implements BitVector, Iterable<Boolean> {
+
+	/**
+	 * Largest number that can be stored in a compressed bitmap.
+	 */
+	public static final long MAXIMAL_POSITION = (1L << 47) - 1;
+
+	static final int LG_CONTAINER_SIZE = 16;
+	static final int CONTAINER_MASK = RoaringContainer.CONTAINER_SIZE - 1;
+
+	static final int MAGIC = 0x57444342;
+	static final int VERSION = 1;
+
+	/**
+	 * High bits of the numbers in each container, in ascending order.
+	 */
+	int[] keys;
+
+	RoaringContainer[] containers;
+
+	int numberOfContainers;
+
+	long size;
+
+	/**
+	 * Constructs an empty compressed bitmap of size 0.
+	 */
+	public CompressedBitmap() {
+		this.keys = new int[4];
+		this.containers = new RoaringContainer[4];
+	}
+
+	/**
+	 * Constructs a compressed bitmap with the same size and bits as the given
+	 * bit vector.
+	 *
+	 * @param bitVector
+	 *            bit vector
+	 */
+	public CompressedBitmap(BitVector bitVector) {
+		this();
+		Validate.notNull(bitVector, "Bit vector cannot be null.");
+		if (bitVector instanceof BitVectorImpl) {
+			long[] words = ((BitVectorImpl) bitVector).arrayOfBits;
+			for (int i = 0; i < words.length; i++) {
+				long word = words[i];
+				while (word != 0) {
+					add(((long) i << BitVectorImpl.LG_WORD_SIZE)
+							+ Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+		} else {
+			long otherSize = bitVector.size();
+			for (long i = 0; i < otherSize; i++) {
+				if (bitVector.getBit(i)) {
+					add(i);
+				}
+			}
+		}
+		this.size = bitVector.size();
+	}
+
+	@Override
+	public boolean getBit(long position) {
+		assertValidPosition(position);
+		int index = findContainer(high(position));
+		return index >= 0 && this.containers[index].contains(low(position));
+	}
+
+	@Override
+	public void setBit(long position, boolean bit) {
+		if (bit) {
+			add(position);
+		} else {
+			remove(position);
+		}
+		if (position >= this.size) {
+			this.size = position + 1;
+		}
+	}
+
+	@Override
+	public boolean addBit(boolean bit) {
+		setBit(this.size, bit);
+		return true;
+	}
+
+	@Override
+	public long size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the number of positions that are set, i.e., the number of
+	 * elements in the set.
+	 *
+	 * @return number of <code>true</code> values
+	 */
+	public long cardinality() {
+		long result = 0;
+		for (int i = 0; i < this.numberOfContainers; i++) {
+			result += this.containers[i].cardinality();
+		}
+		return result;
+	}
+
+	/**
+	 * Returns true if no position is set.
+	 *
+	 * @return true if the set is empty
+	 */
+	public boolean isEmpty() {
+		return this.numberOfContainers == 0;
+	}
+
+	/**
+	 * Returns the smallest position that is set and greater than or equal to
+	 * the given position.
+	 *
+	 * @param from
+	 *            position to start from
+	 * @return next position that is set, or -1 if there is none
+	 */
+	public long nextSetBit(long from) {
+		assertValidPosition(from);
+		int key = high(from);
+		int index = findContainer(key);
+		int value = -1;
+		if (index >= 0) {
+			value = this.containers[index].nextValue(low(from));
+		} else {
+			index = -index - 2;
+		}
+		while (value < 0) {
+			index++;
+			if (index >= this.numberOfContainers) {
+				return -1;
+			}
+			value = this.containers[index].nextValue(0);
+		}
+		return ((long) this.keys[index] << LG_CONTAINER_SIZE) + value;
+	}
+
+	/**
+	 * Returns an iterator over all positions that are set, in ascending order.
+	 *
+	 * @return iterator over the elements of the set
+	 */
+	public PrimitiveIterator.OfLong positionIterator() {
+		return new PrimitiveIterator.OfLong() {
+
+			int index = 0;
+			int value = nextInContainer(0, 0);
+
+			private int nextInContainer(int start, int from) {
+				this.index = start;
+				while (this.index < CompressedBitmap.this.numberOfContainers) {
+					int result = CompressedBitmap.this.containers[this.index]
+							.nextValue(from);
+					if (result >= 0) {
+						return result;
+					}
+					this.index++;
+					from = 0;
+				}
+				return -1;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return this.value >= 0;
+			}
+
+			@Override
+			public long nextLong() {
+				if (this.value < 0) {
+					throw new NoSuchElementException();
+				}
+				long result = ((long) CompressedBitmap.this.keys[this.index] << LG_CONTAINER_SIZE)
+						+ this.value;
+				this.value = nextInContainer(this.index, this.value + 1);
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * Returns a new compressed bitmap with the positions that are set in this
+	 * or in the given bitmap. Its size is the larger of both sizes.
+	 *
+	 * @param other
+	 *            compressed bitmap
+	 * @return union of both sets
+	 */
+	public CompressedBitmap union(CompressedBitmap other) {
+		Validate.notNull(other, "Bitmap cannot be null.");
+		CompressedBitmap result = new CompressedBitmap(this.numberOfContainers
+				+ other.numberOfContainers);
+		int i = 0, j = 0;
+		while (i < this.numberOfContainers && j < other.numberOfContainers) {
+			int key = this.keys[i];
+			int otherKey = other.keys[j];
+			if (key < otherKey) {
+				result.append(key, this.containers[i++].copy());
+			} else if (key > otherKey) {
+				result.append(otherKey, other.containers[j++].copy());
+			} else {
+				result.append(key,
+						this.containers[i++].or(other.containers[j++]));
+			}
+		}
+		while (i < this.numberOfContainers) {
+			result.append(this.keys[i], this.containers[i++].copy());
+		}
+		while (j < other.numberOfContainers) {
+			result.append(other.keys[j], other.containers[j++].copy());
+		}
+		result.size = Math.max(this.size, other.size);
+		return result;
+	}
+
+	/**
+	 * Returns a new compressed bitmap with the positions that are set in this
+	 * and in the given bitmap. Its size is the size of this bitmap.
+	 *
+	 * @param other
+	 *            compressed bitmap
+	 * @return intersection of both sets
+	 */
+	public CompressedBitmap intersection(CompressedBitmap other) {
+		Validate.notNull(other, "Bitmap cannot be null.");
+		CompressedBitmap result = new CompressedBitmap(Math.min(
+				this.numberOfContainers, other.numberOfContainers));
+		int i = 0, j = 0;
+		while (i < this.numberOfContainers && j < other.numberOfContainers) {
+			int key = this.keys[i];
+			int otherKey = other.keys[j];
+			if (key < otherKey) {
+				i++;
+			} else if (key > otherKey) {
+				j++;
+			} else {
+				result.append(key,
+						this.containers[i++].and(other.containers[j++]));
+			}
+		}
+		result.size = this.size;
+		return result;
+	}
+
+	/**
+	 * Returns a new compressed bitmap with the positions that are set in this
+	 * but not in the given bitmap. Its size is the size of this bitmap.
+	 *
+	 * @param other
+	 *            compressed bitmap
+	 * @return difference of both sets
+	 */
+	public CompressedBitmap difference(CompressedBitmap other) {
+		Validate.notNull(other, "Bitmap cannot be null.");
+		CompressedBitmap result = new CompressedBitmap(this.numberOfContainers);
+		int i = 0, j = 0;
+		while (i < this.numberOfContainers) {
+			int key = this.keys[i];
+			while (j < other.numberOfContainers && other.keys[j] < key) {
+				j++;
+			}
+			if (j < other.numberOfContainers && other.keys[j] == key) {
+				result.append(key,
+						this.containers[i++].andNot(other.containers[j++]));
+			} else {
+				result.append(key, this.containers[i++].copy());
+			}
+		}
+		result.size = this.size;
+		return result;
+	}
+
+	/**
+	 * Converts containers to lists of runs where this saves space. This
+	 * should be called after a bitmap has been built when it contains ranges
+	 * of consecutive positions. Containers that are modified later are
+	 * converted back automatically.
+	 *
+	 * @return true if a container was converted
+	 */
+	public boolean runOptimize() {
+		boolean changed = false;
+		for (int i = 0; i < this.numberOfContainers; i++) {
+			RoaringContainer container = this.containers[i].runOptimize();
+			if (container != this.containers[i]) {
+				this.containers[i] = container;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Returns the number of bytes that {@link #writeTo(OutputStream)} writes.
+	 * This is also a good estimate of the memory used by this bitmap.
+	 *
+	 * @return size of the serialization in bytes
+	 */
+	public long getSizeInBytes() {
+		long result = 20;
+		for (int i = 0; i < this.numberOfContainers; i++) {
+			result += 5 + this.containers[i].getSizeInBytes();
+		}
+		return result;
+	}
+
+	/**
+	 * Writes this bitmap to the given stream. The stream is not closed.
+	 *
+	 * @param outputStream
+	 *            stream to write to
+	 * @throws IOException
+	 *             if the bitmap could not be written
+	 */
+	public void writeTo(OutputStream outputStream) throws IOException {
+		DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(outputStream));
+		output.writeInt(MAGIC);
+		output.writeInt(VERSION);
+		output.writeLong(this.size);
+		output.writeInt(this.numberOfContainers);
+		for (int i = 0; i < this.numberOfContainers; i++) {
+			output.writeInt(this.keys[i]);
+			output.writeByte(this.containers[i].getType());
+			this.containers[i].writeTo(output);
+		}
+		output.flush();
+	}
+
+	/**
+	 * Reads a bitmap that was written by {@link #writeTo(OutputStream)}. The
+	 * stream is not closed, but it might be read beyond the end of the
+	 * bitmap, unless it is a {@link DataInputStream}, which is read exactly
+	 * up to the end of the bitmap. The latter is useful for reading bitmaps
+	 * that are part of a larger file.
+	 *
+	 * @param inputStream
+	 *            stream to read from
+	 * @return the bitmap
+	 * @throws IOException
+	 *             if the stream could not be read or does not contain a
+	 *             valid bitmap
+	 */
+	public static CompressedBitmap readFrom(InputStream inputStream)
+			throws IOException {
+		DataInputStream input = inputStream instanceof DataInputStream ? (DataInputStream) inputStream
+				: new DataInputStream(new BufferedInputStream(inputStream));
+		if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+			throw new IOException("The input is not a compressed bitmap.");
+		}
+		long size = input.readLong();
+		int numberOfContainers = input.readInt();
+		if (size < 0 || size > MAXIMAL_POSITION + 1 || numberOfContainers < 0) {
+			throw new IOException("Invalid header of compressed bitmap.");
+		}
+		CompressedBitmap result = new CompressedBitmap(numberOfContainers);
+		for (int i = 0; i < numberOfContainers; i++) {
+			int key = input.readInt();
+			if (i > 0 && key <= result.keys[i - 1]) {
+				throw new IOException("Containers of compressed bitmap are not sorted.");
+			}
+			RoaringContainer container = RoaringContainer.read(
+					input.readByte(), input);
+			if (container.cardinality() == 0) {
+				throw new IOException("Invalid container in compressed bitmap.");
+			}
+			result.append(key, container);
+		}
+		result.size = size;
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof BitVector)) {
+			return false;
+		}
+		BitVector other = (BitVector) obj;
+		if (this.size != other.size()) {
+			return false;
+		}
+		if (other instanceof CompressedBitmap) {
+			CompressedBitmap bitmap = (CompressedBitmap) other;
+			if (this.numberOfContainers != bitmap.numberOfContainers) {
+				return false;
+			}
+			for (int i = 0; i < this.numberOfContainers; i++) {
+				if (this.keys[i] != bitmap.keys[i]
+						|| !this.containers[i]
+								.hasSameValues(bitmap.containers[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+		for (long i = 0; i < this.size; i++) {
+			if (getBit(i) != other.getBit(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a hash code that is the same as the hash code of a
+	 * {@link BitVectorImpl} with the same bits.
+	 */
+	@Override
+	public int hashCode() {
+		int ret = (int) this.size;
+		for (int i = 0; i < this.numberOfContainers; i++) {
+			ret += this.containers[i].wordHash();
+		}
+		return ret;
+	}
+
+	@Override
+	public Iterator<Boolean> iterator() {
+		return new BitVectorIterator(this);
+	}
+
+	/**
+	 * Returns the positions that are set, for example "{1, 5, 6}". Unlike
+	 * for other bit vectors, the string does not contain a character for
+	 * every bit, since compressed bitmaps are typically very sparse.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+		PrimitiveIterator.OfLong iterator = positionIterator();
+		while (iterator.hasNext()) {
+			sb.append(iterator.nextLong());
+			if (iterator.hasNext()) {
+				sb.append(", ");
+			}
+		}
+		return sb.append("}").toString();
+	}
+
+	private CompressedBitmap(int capacity) {
+		this.keys = new int[Math.max(capacity, 4)];
+		this.containers = new RoaringContainer[Math.max(capacity, 4)];
+	}
+
+	void add(long position) {
+		assertValidPosition(position);
+		int key = high(position);
+		int index = findContainer(key);
+		if (index >= 0) {
+			this.containers[index] = this.containers[index].add(low(position));
+		} else {
+			ArrayContainer container = new ArrayContainer();
+			container.add(low(position));
+			insertContainer(-index - 1, key, container);
+		}
+	}
+
+	void remove(long position) {
+		assertValidPosition(position);
+		int index = findContainer(high(position));
+		if (index >= 0) {
+			RoaringContainer container = this.containers[index]
+					.remove(low(position));
+			if (container.cardinality() == 0) {
+				removeContainer(index);
+			} else {
+				this.containers[index] = container;
+			}
+		}
+	}
+
+	/**
+	 * Returns the index of the container with the given key, or
+	 * <code>-(insertion point) - 1</code> if there is none.
+	 */
+	int findContainer(int key) {
+		return Arrays.binarySearch(this.keys, 0, this.numberOfContainers, key);
+	}
+
+	/**
+	 * Adds a container after all other containers, if it is not empty.
+	 */
+	private void append(int key, RoaringContainer container) {
+		if (container.cardinality() > 0) {
+			insertContainer(this.numberOfContainers, key, container);
+		}
+	}
+
+	private void insertContainer(int index, int key, RoaringContainer container) {
+		if (this.numberOfContainers == this.keys.length) {
+			int capacity = 2 * this.keys.length;
+			this.keys = Arrays.copyOf(this.keys, capacity);
+			this.containers = Arrays.copyOf(this.containers, capacity);
+		}
+		System.arraycopy(this.keys, index, this.keys, index + 1,
+				this.numberOfContainers - index);
+		System.arraycopy(this.containers, index, this.containers, index + 1,
+				this.numberOfContainers - index);
+		this.keys[index] = key;
+		this.containers[index] = container;
+		this.numberOfContainers++;
+	}
+
+	private void removeContainer(int index) {
+		System.arraycopy(this.keys, index + 1, this.keys, index,
+				this.numberOfContainers - index - 1);
+		System.arraycopy(this.containers, index + 1, this.containers, index,
+				this.numberOfContainers - index - 1);
+		this.numberOfContainers--;
+		this.containers[this.numberOfContainers] = null;
+	}
+
+	static int high(long position) {
+		return (int) (position >>> LG_CONTAINER_SIZE);
+	}
+
+	static int low(long position) {
+		return (int) position & CONTAINER_MASK;
+	}
+
+	void assertValidPosition(long position) {
+		if (position < 0 || position > MAXIMAL_POSITION) {
+			throw new IndexOutOfBoundsException("Position " + position
+					+ " is out of bounds.");
+		}
+	}
+}
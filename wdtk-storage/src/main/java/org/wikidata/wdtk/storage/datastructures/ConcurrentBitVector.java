@@ -0,0 +1,350 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Implementation of {@link BitVector} that can be read and modified by many
+ * threads at the same time without locking. This is useful for marking
+ * entities that have been seen when a dump is processed by several threads,
+ * without a separate bit vector for each thread.
+ * <p>
+ * The bits are stored in segments of {@value #WORDS_PER_SEGMENT} words that
+ * are created when they are first needed, and that are never moved, so that
+ * the bit vector can grow while other threads use it. Bits are modified with
+ * compare-and-set operations on whole words. Like {@link BitVectorImpl}, this
+ * bit vector is <i>flexible</i>: bits can be set at any non-negative position
+ * (up to 2<sup>38</sup>), and positions outside the bit vector contain
+ * <code>false</code>.
+ * <p>
+ * The size of the bit vector is the largest position that was set plus one.
+ * Reading the bits while other threads modify them gives a state in which each
+ * single bit is current, but not a consistent snapshot of the whole vector.
+ */
+public class ConcurrentBitVector implements BitVector, Iterable<Boolean> {
+
+	static final int LG_WORDS_PER_SEGMENT = 16;
+	static final int WORDS_PER_SEGMENT = 1 << LG_WORDS_PER_SEGMENT;
+	static final int SEGMENT_MASK = WORDS_PER_SEGMENT - 1;
+	static final int MAXIMAL_NUMBER_OF_SEGMENTS = 1 << 16;
+
+	final AtomicReferenceArray<AtomicLongArray> segments = new AtomicReferenceArray<>(
+			MAXIMAL_NUMBER_OF_SEGMENTS);
+
+	final AtomicLong size = new AtomicLong();
+
+	/**
+	 * Constructor of a bit vector of size 0.
+	 */
+	public ConcurrentBitVector() {
+	}
+
+	/**
+	 * Constructor of a bit vector that contains the same bits as the given
+	 * bit vector.
+	 *
+	 * @param bitVector
+	 *            bit vector
+	 */
+	public ConcurrentBitVector(BitVector bitVector) {
+		Validate.notNull(bitVector, "Bit vector cannot be null.");
+		or(bitVector);
+	}
+
+	@Override
+	public boolean getBit(long position) {
+		assertNonNegativePosition(position);
+		if (position >= this.size.get()) {
+			return false;
+		}
+		long word = getWord(position >>> BitVectorImpl.LG_WORD_SIZE);
+		return ((word >>> (position & BitVectorImpl.WORD_MASK)) & 1) == 1;
+	}
+
+	@Override
+	public void setBit(long position, boolean bit) {
+		getAndSetBit(position, bit);
+	}
+
+	/**
+	 * Sets a bit and returns its previous value, as one atomic operation. For
+	 * example, <code>!getAndSetBit(id, true)</code> is true only for the one
+	 * thread that marks an entity first.
+	 *
+	 * @param position
+	 *            position
+	 * @param bit
+	 *            the new value of the bit
+	 * @return the previous value of the bit
+	 * @throws IndexOutOfBoundsException
+	 *             if the position is negative or too large
+	 */
+	public boolean getAndSetBit(long position, boolean bit) {
+		assertNonNegativePosition(position);
+		long index = position >>> BitVectorImpl.LG_WORD_SIZE;
+		long mask = 1L << (position & BitVectorImpl.WORD_MASK);
+		AtomicLongArray segment = getOrCreateSegment(index);
+		int offset = (int) (index & SEGMENT_MASK);
+		long word;
+		long newWord;
+		do {
+			word = segment.get(offset);
+			newWord = bit ? word | mask : word & ~mask;
+		} while (word != newWord
+				&& !segment.compareAndSet(offset, word, newWord));
+		ensureSize(position + 1);
+		return (word & mask) != 0;
+	}
+
+	@Override
+	public boolean addBit(boolean bit) {
+		long position = this.size.getAndIncrement();
+		if (bit) {
+			setBit(position, true);
+		}
+		return true;
+	}
+
+	@Override
+	public long size() {
+		return this.size.get();
+	}
+
+	/**
+	 * Sets all bits that are set in the given bit vector. This is used to
+	 * combine partial results of several threads, and is much faster than
+	 * setting the bits one by one if the other bit vector is a
+	 * {@link BitVectorImpl} or a {@link ConcurrentBitVector}. The size of this
+	 * bit vector becomes at least the size of the given one.
+	 *
+	 * @param bitVector
+	 *            bit vector
+	 */
+	public void or(BitVector bitVector) {
+		Validate.notNull(bitVector, "Bit vector cannot be null.");
+		long otherSize = bitVector.size();
+		long numberOfWords = (otherSize + BitVectorImpl.WORD_MASK) >>> BitVectorImpl.LG_WORD_SIZE;
+		if (bitVector instanceof BitVectorImpl
+				|| bitVector instanceof ConcurrentBitVector) {
+			for (long i = 0; i < numberOfWords; i++) {
+				long word = getWordOf(bitVector, i);
+				if (word != 0) {
+					AtomicLongArray segment = getOrCreateSegment(i);
+					int offset = (int) (i & SEGMENT_MASK);
+					long old;
+					do {
+						old = segment.get(offset);
+					} while ((old | word) != old
+							&& !segment.compareAndSet(offset, old, old | word));
+				}
+			}
+		} else {
+			for (long i = 0; i < otherSize; i++) {
+				if (bitVector.getBit(i)) {
+					setBit(i, true);
+				}
+			}
+		}
+		if (otherSize > 0) {
+			ensureSize(otherSize);
+		}
+	}
+
+	/**
+	 * Clears all bits that are not set in the given bit vector. Positions
+	 * after the end of the given bit vector count as <code>false</code>. The
+	 * size of this bit vector does not change.
+	 *
+	 * @param bitVector
+	 *            bit vector
+	 */
+	public void and(BitVector bitVector) {
+		Validate.notNull(bitVector, "Bit vector cannot be null.");
+		long numberOfWords = (this.size.get() + BitVectorImpl.WORD_MASK) >>> BitVectorImpl.LG_WORD_SIZE;
+		boolean wordAccess = bitVector instanceof BitVectorImpl
+				|| bitVector instanceof ConcurrentBitVector;
+		for (long i = 0; i < numberOfWords; i++) {
+			AtomicLongArray segment = this.segments.get((int) (i >>> LG_WORDS_PER_SEGMENT));
+			if (segment == null) {
+				i |= SEGMENT_MASK; // skip the missing segment
+				continue;
+			}
+			long mask;
+			if (wordAccess) {
+				mask = getWordOf(bitVector, i);
+			} else {
+				mask = 0;
+				long start = i << BitVectorImpl.LG_WORD_SIZE;
+				for (int j = 0; j < BitVectorImpl.WORD_SIZE; j++) {
+					if (bitVector.getBit(start + j)) {
+						mask |= 1L << j;
+					}
+				}
+			}
+			int offset = (int) (i & SEGMENT_MASK);
+			long old;
+			do {
+				old = segment.get(offset);
+			} while ((old & mask) != old
+					&& !segment.compareAndSet(offset, old, old & mask));
+		}
+	}
+
+	/**
+	 * Returns the number of bits that are set.
+	 *
+	 * @return number of <code>true</code> values
+	 */
+	public long cardinality() {
+		long count = 0;
+		for (int i = 0; i < MAXIMAL_NUMBER_OF_SEGMENTS; i++) {
+			AtomicLongArray segment = this.segments.get(i);
+			if (segment != null) {
+				for (int j = 0; j < WORDS_PER_SEGMENT; j++) {
+					count += Long.bitCount(segment.get(j));
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the word with the given index, or 0 if it is not stored.
+	 */
+	long getWord(long index) {
+		AtomicLongArray segment = this.segments
+				.get((int) (index >>> LG_WORDS_PER_SEGMENT));
+		return segment == null ? 0 : segment.get((int) (index & SEGMENT_MASK));
+	}
+
+	/**
+	 * Returns a word of a bit vector that supports access to words.
+	 */
+	static long getWordOf(BitVector bitVector, long index) {
+		if (bitVector instanceof ConcurrentBitVector) {
+			return ((ConcurrentBitVector) bitVector).getWord(index);
+		}
+		long[] words = ((BitVectorImpl) bitVector).arrayOfBits;
+		return index < words.length ? words[(int) index] : 0;
+	}
+
+	AtomicLongArray getOrCreateSegment(long wordIndex) {
+		long segmentIndex = wordIndex >>> LG_WORDS_PER_SEGMENT;
+		if (segmentIndex >= MAXIMAL_NUMBER_OF_SEGMENTS) {
+			throw new IndexOutOfBoundsException("Position "
+					+ (wordIndex << BitVectorImpl.LG_WORD_SIZE)
+					+ " is too large for a concurrent bit vector.");
+		}
+		AtomicLongArray segment = this.segments.get((int) segmentIndex);
+		if (segment == null) {
+			AtomicLongArray newSegment = new AtomicLongArray(WORDS_PER_SEGMENT);
+			if (this.segments.compareAndSet((int) segmentIndex, null,
+					newSegment)) {
+				segment = newSegment;
+			} else {
+				segment = this.segments.get((int) segmentIndex);
+			}
+		}
+		return segment;
+	}
+
+	void ensureSize(long minimalSize) {
+		long current;
+		do {
+			current = this.size.get();
+		} while (current < minimalSize
+				&& !this.size.compareAndSet(current, minimalSize));
+	}
+
+	void assertNonNegativePosition(long position) {
+		if (position < 0) {
+			throw new IndexOutOfBoundsException("Position " + position
+					+ " is out of bounds.");
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof BitVector)) {
+			return false;
+		}
+		BitVector other = (BitVector) obj;
+		long size = this.size.get();
+		if (size != other.size()) {
+			return false;
+		}
+		if (other instanceof BitVectorImpl
+				|| other instanceof ConcurrentBitVector) {
+			long numberOfWords = (size + BitVectorImpl.WORD_MASK) >>> BitVectorImpl.LG_WORD_SIZE;
+			for (long i = 0; i < numberOfWords; i++) {
+				if (getWord(i) != getWordOf(other, i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		for (long i = 0; i < size; i++) {
+			if (getBit(i) != other.getBit(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a hash code that is the same as the hash code of a
+	 * {@link BitVectorImpl} with the same bits.
+	 */
+	@Override
+	public int hashCode() {
+		long size = this.size.get();
+		int ret = (int) size;
+		long numberOfWords = (size + BitVectorImpl.WORD_MASK) >>> BitVectorImpl.LG_WORD_SIZE;
+		for (long i = 0; i < numberOfWords; i++) {
+			ret += (0x1F * getWord(i));
+		}
+		return ret;
+	}
+
+	@Override
+	public Iterator<Boolean> iterator() {
+		return new BitVectorIterator(this);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		long size = this.size.get();
+		for (long position = 0; position < size; position++) {
+			sb.append(getBit(position) ? "1" : "0");
+		}
+		return sb.toString();
+	}
+}
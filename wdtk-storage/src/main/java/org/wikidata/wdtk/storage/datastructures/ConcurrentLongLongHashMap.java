@@ -0,0 +1,219 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Hash map from primitive <code>long</code> keys to <code>long</code> values
+ * that can be used by several threads at the same time. The map consists of
+ * a number of independent {@link LongLongHashMap}s (segments), and each key
+ * belongs to one segment that is locked while it is accessed. Threads that
+ * access different segments do not block each other, so the number of
+ * segments should be a few times larger than the number of threads.
+ * <p>
+ * Single operations, including {@link #addTo(long, long)} and
+ * {@link #update(long, long, LongUnaryOperator)}, are atomic.
+ */
+public class ConcurrentLongLongHashMap {
+
+	static final int DEFAULT_NUMBER_OF_SEGMENTS = 64;
+
+	final LongLongHashMap[] segments;
+
+	final int segmentMask;
+
+	/**
+	 * Constructs an empty map on the heap with the default number of
+	 * segments.
+	 */
+	public ConcurrentLongLongHashMap() {
+		this(0, MemoryAllocator.onHeap(), DEFAULT_NUMBER_OF_SEGMENTS);
+	}
+
+	/**
+	 * Constructs an empty map that is large enough for the given number of
+	 * entries.
+	 *
+	 * @param expectedSize
+	 *            the number of entries the map should hold without growing
+	 * @param allocator
+	 *            the allocator to take memory from
+	 * @param numberOfSegments
+	 *            the number of independently locked parts of the map, which
+	 *            is rounded up to a power of two
+	 */
+	public ConcurrentLongLongHashMap(long expectedSize,
+			MemoryAllocator allocator, int numberOfSegments) {
+		if (numberOfSegments <= 0 || numberOfSegments > (1 << 16)) {
+			throw new IllegalArgumentException(
+					"The number of segments must be between 1 and 65536. The received value was: "
+							+ numberOfSegments + ".");
+		}
+		int size = Integer.highestOneBit(numberOfSegments);
+		if (size < numberOfSegments) {
+			size <<= 1;
+		}
+		this.segments = new LongLongHashMap[size];
+		this.segmentMask = size - 1;
+		for (int i = 0; i < size; i++) {
+			this.segments[i] = new LongLongHashMap(expectedSize / size,
+					allocator);
+		}
+	}
+
+	/**
+	 * Returns the value for the given key.
+	 *
+	 * @param key
+	 *            key
+	 * @param defaultValue
+	 *            the value to return if there is no entry for the key
+	 * @return the value for the key, or the default value
+	 */
+	public long get(long key, long defaultValue) {
+		LongLongHashMap segment = getSegment(key);
+		synchronized (segment) {
+			return segment.get(key, defaultValue);
+		}
+	}
+
+	/**
+	 * Returns true if there is an entry for the given key.
+	 *
+	 * @param key
+	 *            key
+	 * @return true if the key is in the map
+	 */
+	public boolean containsKey(long key) {
+		LongLongHashMap segment = getSegment(key);
+		synchronized (segment) {
+			return segment.containsKey(key);
+		}
+	}
+
+	/**
+	 * Sets the value for the given key.
+	 *
+	 * @param key
+	 *            key
+	 * @param value
+	 *            new value
+	 */
+	public void put(long key, long value) {
+		LongLongHashMap segment = getSegment(key);
+		synchronized (segment) {
+			segment.put(key, value);
+		}
+	}
+
+	/**
+	 * Adds a number to the value of the given key, where a missing entry
+	 * counts as 0.
+	 *
+	 * @param key
+	 *            key
+	 * @param delta
+	 *            number to add
+	 * @return the new value
+	 */
+	public long addTo(long key, long delta) {
+		LongLongHashMap segment = getSegment(key);
+		synchronized (segment) {
+			return segment.addTo(key, delta);
+		}
+	}
+
+	/**
+	 * Replaces the value of the given key by the result of the given
+	 * function. The function is called while a part of the map is locked, so
+	 * it should be fast and must not access the map.
+	 *
+	 * @param key
+	 *            key
+	 * @param defaultValue
+	 *            the value passed to the function if there is no entry for
+	 *            the key
+	 * @param function
+	 *            function that computes the new value from the old one
+	 * @return the new value
+	 */
+	public long update(long key, long defaultValue, LongUnaryOperator function) {
+		LongLongHashMap segment = getSegment(key);
+		synchronized (segment) {
+			long value = function.applyAsLong(segment.get(key, defaultValue));
+			segment.put(key, value);
+			return value;
+		}
+	}
+
+	/**
+	 * Removes the entry for the given key.
+	 *
+	 * @param key
+	 *            key
+	 * @return true if there was an entry for the key
+	 */
+	public boolean remove(long key) {
+		LongLongHashMap segment = getSegment(key);
+		synchronized (segment) {
+			return segment.remove(key);
+		}
+	}
+
+	/**
+	 * Returns the number of entries. Entries that are added or removed by
+	 * other threads during this call might or might not be counted.
+	 *
+	 * @return number of keys in the map
+	 */
+	public long size() {
+		long result = 0;
+		for (LongLongHashMap segment : this.segments) {
+			synchronized (segment) {
+				result += segment.size();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Calls the given consumer for all entries, in no particular order. Each
+	 * segment is locked while its entries are passed to the consumer, so
+	 * the consumer must not access the map.
+	 *
+	 * @param consumer
+	 *            consumer of entries
+	 */
+	public void forEach(LongLongHashMap.EntryConsumer consumer) {
+		for (LongLongHashMap segment : this.segments) {
+			synchronized (segment) {
+				segment.forEach(consumer);
+			}
+		}
+	}
+
+	LongLongHashMap getSegment(long key) {
+		// the segment maps use the low bits of the hash for their slots
+		return this.segments[(int) (AbstractLongKeyHashMap.hash(key) >>> 48)
+				& this.segmentMask];
+	}
+}
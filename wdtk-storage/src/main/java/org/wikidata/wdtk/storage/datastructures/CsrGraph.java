@@ -0,0 +1,471 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+
+/**
+ * Immutable directed graph with labelled edges, stored in compressed sparse
+ * row (CSR) format. Nodes are numbered from 0 to
+ * {@link #getNumberOfNodes()} - 1. The edges of all nodes are stored in one
+ * array of targets and one array of labels, sorted by their source node, and
+ * the position of the first edge of each node is stored in an array of
+ * offsets. The same is done for the reversed edges, so that both successors
+ * and predecessors of nodes can be found quickly. This needs 16 bytes per
+ * node and 16 bytes per edge, with no objects at all, and the arrays can be
+ * kept outside of the Java heap by using a suitable {@link MemoryAllocator}.
+ * <p>
+ * Graphs are built with {@link CsrGraphBuilder}, for example from the
+ * statements of items in a dump. They can be traversed by several threads
+ * at the same time.
+ */
+public class CsrGraph {
+
+	/**
+	 * Direction in which edges are followed.
+	 */
+	public enum Direction {
+		/**
+		 * From the source of an edge to its target.
+		 */
+		FORWARD,
+		/**
+		 * From the target of an edge to its source.
+		 */
+		BACKWARD
+	}
+
+	/**
+	 * Consumer for the edges of a node.
+	 */
+	@FunctionalInterface
+	public interface EdgeConsumer {
+		/**
+		 * Receives an edge.
+		 *
+		 * @param node
+		 *            the node at the other end of the edge
+		 * @param label
+		 *            the label of the edge
+		 */
+		void accept(int node, int label);
+	}
+
+	/**
+	 * Visitor for the nodes that are reached in a traversal. It must be
+	 * thread-safe if the traversal uses more than one thread.
+	 */
+	@FunctionalInterface
+	public interface NodeVisitor {
+		/**
+		 * Visits a node. Each node is visited at most once per traversal.
+		 *
+		 * @param node
+		 *            the node
+		 * @param depth
+		 *            the number of edges that were followed to reach the
+		 *            node, which is the distance from the closest start node
+		 *            in a breadth-first traversal
+		 * @return true if the edges of the node should be followed
+		 */
+		boolean visit(int node, int depth);
+	}
+
+	/**
+	 * Number of nodes that a thread takes from the current level of a
+	 * parallel breadth-first traversal at once.
+	 */
+	static final int CHUNK_SIZE = 256;
+
+	final int numberOfNodes;
+
+	final long numberOfEdges;
+
+	final MemoryBlock offsets;
+	final MemoryBlock targets;
+	final MemoryBlock labels;
+
+	final MemoryBlock reverseOffsets;
+	final MemoryBlock sources;
+	final MemoryBlock reverseLabels;
+
+	CsrGraph(int numberOfNodes, long numberOfEdges, MemoryBlock offsets,
+			MemoryBlock targets, MemoryBlock labels,
+			MemoryBlock reverseOffsets, MemoryBlock sources,
+			MemoryBlock reverseLabels) {
+		this.numberOfNodes = numberOfNodes;
+		this.numberOfEdges = numberOfEdges;
+		this.offsets = offsets;
+		this.targets = targets;
+		this.labels = labels;
+		this.reverseOffsets = reverseOffsets;
+		this.sources = sources;
+		this.reverseLabels = reverseLabels;
+	}
+
+	/**
+	 * Returns the number of nodes, which is one more than the largest node.
+	 *
+	 * @return number of nodes
+	 */
+	public int getNumberOfNodes() {
+		return this.numberOfNodes;
+	}
+
+	/**
+	 * Returns the number of edges.
+	 *
+	 * @return number of edges
+	 */
+	public long getNumberOfEdges() {
+		return this.numberOfEdges;
+	}
+
+	/**
+	 * Returns the number of edges that start at the given node.
+	 *
+	 * @param node
+	 *            node
+	 * @return out-degree of the node
+	 */
+	public int getOutDegree(int node) {
+		return getDegree(this.offsets, node);
+	}
+
+	/**
+	 * Returns the number of edges that end at the given node.
+	 *
+	 * @param node
+	 *            node
+	 * @return in-degree of the node
+	 */
+	public int getInDegree(int node) {
+		return getDegree(this.reverseOffsets, node);
+	}
+
+	/**
+	 * Passes all edges of the given node in the given direction to the
+	 * consumer, in the order in which they were added.
+	 *
+	 * @param node
+	 *            node
+	 * @param direction
+	 *            direction of the edges
+	 * @param consumer
+	 *            consumer for the edges
+	 */
+	public void forEachEdge(int node, Direction direction,
+			EdgeConsumer consumer) {
+		assertValidNode(node);
+		MemoryBlock offsets = direction == Direction.FORWARD ? this.offsets
+				: this.reverseOffsets;
+		MemoryBlock nodes = direction == Direction.FORWARD ? this.targets
+				: this.sources;
+		MemoryBlock labels = direction == Direction.FORWARD ? this.labels
+				: this.reverseLabels;
+		long end = offsets.getLong(8L * (node + 1));
+		for (long i = offsets.getLong(8L * node); i < end; i++) {
+			consumer.accept(nodes.getInt(4 * i), labels.getInt(4 * i));
+		}
+	}
+
+	/**
+	 * Returns the nodes that are connected to the given node in the given
+	 * direction by edges with a matching label. Nodes that are connected by
+	 * several edges occur several times.
+	 *
+	 * @param node
+	 *            node
+	 * @param direction
+	 *            direction of the edges
+	 * @param labelFilter
+	 *            filter for the labels of edges, or null to use all edges
+	 * @return array of neighbours
+	 */
+	public int[] getNeighbours(int node, Direction direction,
+			IntPredicate labelFilter) {
+		IntList result = new IntList();
+		forEachEdge(node, direction, (other, label) -> {
+			if (labelFilter == null || labelFilter.test(label)) {
+				result.add(other);
+			}
+		});
+		return result.toArray();
+	}
+
+	/**
+	 * Visits all nodes that can be reached from the given start nodes, level
+	 * by level. The nodes of each level are processed by several threads in
+	 * parallel, so the order of the nodes within a level is not
+	 * deterministic.
+	 *
+	 * @param startNodes
+	 *            nodes to start from, which are visited with depth 0
+	 * @param direction
+	 *            direction in which edges are followed
+	 * @param labelFilter
+	 *            filter for the labels of edges that are followed, or null
+	 *            to follow all edges
+	 * @param parallelism
+	 *            number of threads to use
+	 * @param visitor
+	 *            visitor for the nodes that are reached
+	 * @return the nodes that have been visited
+	 */
+	public ConcurrentBitVector traverseBreadthFirst(int[] startNodes,
+			Direction direction, IntPredicate labelFilter, int parallelism,
+			NodeVisitor visitor) {
+		assertValidParallelism(parallelism);
+		ConcurrentBitVector visited = new ConcurrentBitVector();
+		IntList level = new IntList();
+		for (int node : startNodes) {
+			assertValidNode(node);
+			if (!visited.getAndSetBit(node, true) && visitor.visit(node, 0)) {
+				level.add(node);
+			}
+		}
+		ExecutorService executor = parallelism > 1 ? Executors
+				.newFixedThreadPool(parallelism) : null;
+		try {
+			int depth = 0;
+			while (level.size > 0) {
+				depth++;
+				int[] nodes = level.toArray();
+				if (executor == null) {
+					level = expandLevel(nodes, new AtomicInteger(), depth,
+							direction, labelFilter, visited, visitor);
+				} else {
+					level = expandLevelInParallel(nodes, depth, direction,
+							labelFilter, visited, visitor, executor,
+							parallelism);
+				}
+			}
+		} finally {
+			if (executor != null) {
+				executor.shutdown();
+			}
+		}
+		return visited;
+	}
+
+	/**
+	 * Visits all nodes that can be reached from the given start nodes, going
+	 * as deep as possible before going back. With more than one thread, the
+	 * start nodes are distributed among the threads, and each thread
+	 * traverses the graph depth-first from its start nodes, skipping nodes
+	 * that any thread has visited before.
+	 *
+	 * @param startNodes
+	 *            nodes to start from, which are visited with depth 0
+	 * @param direction
+	 *            direction in which edges are followed
+	 * @param labelFilter
+	 *            filter for the labels of edges that are followed, or null
+	 *            to follow all edges
+	 * @param parallelism
+	 *            number of threads to use
+	 * @param visitor
+	 *            visitor for the nodes that are reached; the depth is the
+	 *            length of the path on which the node has been reached
+	 * @return the nodes that have been visited
+	 */
+	public ConcurrentBitVector traverseDepthFirst(int[] startNodes,
+			Direction direction, IntPredicate labelFilter, int parallelism,
+			NodeVisitor visitor) {
+		assertValidParallelism(parallelism);
+		for (int node : startNodes) {
+			assertValidNode(node);
+		}
+		ConcurrentBitVector visited = new ConcurrentBitVector();
+		AtomicInteger nextStartNode = new AtomicInteger();
+		Runnable worker = () -> {
+			IntList stack = new IntList();
+			IntList depths = new IntList();
+			int index;
+			while ((index = nextStartNode.getAndIncrement()) < startNodes.length) {
+				push(startNodes[index], 0, stack, depths, visited, visitor);
+				while (stack.size > 0) {
+					stack.size--;
+					depths.size--;
+					int node = stack.values[stack.size];
+					int depth = depths.values[depths.size] + 1;
+					forEachEdge(node, direction, (other, label) -> {
+						if (labelFilter == null || labelFilter.test(label)) {
+							push(other, depth, stack, depths, visited, visitor);
+						}
+					});
+				}
+			}
+		};
+		if (parallelism == 1) {
+			worker.run();
+		} else {
+			ExecutorService executor = Executors
+					.newFixedThreadPool(parallelism);
+			try {
+				List<Future<?>> futures = new ArrayList<>();
+				for (int i = 0; i < parallelism; i++) {
+					futures.add(executor.submit(worker));
+				}
+				waitFor(futures);
+			} finally {
+				executor.shutdown();
+			}
+		}
+		return visited;
+	}
+
+	private static void push(int node, int depth, IntList stack,
+			IntList depths, ConcurrentBitVector visited, NodeVisitor visitor) {
+		if (!visited.getAndSetBit(node, true) && visitor.visit(node, depth)) {
+			stack.add(node);
+			depths.add(depth);
+		}
+	}
+
+	private IntList expandLevel(int[] nodes, AtomicInteger nextChunk,
+			int depth, Direction direction, IntPredicate labelFilter,
+			ConcurrentBitVector visited, NodeVisitor visitor) {
+		IntList result = new IntList();
+		int start;
+		while ((start = nextChunk.getAndAdd(CHUNK_SIZE)) < nodes.length) {
+			int end = Math.min(start + CHUNK_SIZE, nodes.length);
+			for (int i = start; i < end; i++) {
+				forEachEdge(nodes[i], direction, (other, label) -> {
+					if ((labelFilter == null || labelFilter.test(label))
+							&& !visited.getAndSetBit(other, true)
+							&& visitor.visit(other, depth)) {
+						result.add(other);
+					}
+				});
+			}
+		}
+		return result;
+	}
+
+	private IntList expandLevelInParallel(int[] nodes, int depth,
+			Direction direction, IntPredicate labelFilter,
+			ConcurrentBitVector visited, NodeVisitor visitor,
+			ExecutorService executor, int parallelism) {
+		AtomicInteger nextChunk = new AtomicInteger();
+		List<Future<IntList>> futures = new ArrayList<>();
+		int tasks = Math.min(parallelism, (nodes.length + CHUNK_SIZE - 1)
+				/ CHUNK_SIZE);
+		for (int i = 0; i < tasks; i++) {
+			Callable<IntList> task = () -> expandLevel(nodes, nextChunk,
+					depth, direction, labelFilter, visited, visitor);
+			futures.add(executor.submit(task));
+		}
+		waitFor(futures);
+		IntList result = new IntList();
+		for (Future<IntList> future : futures) {
+			try {
+				result.addAll(future.get());
+			} catch (InterruptedException | ExecutionException e) {
+				// cannot happen after waitFor
+				throw new IllegalStateException(e);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Waits until all tasks are done, and passes on their exceptions.
+	 */
+	private static void waitFor(List<? extends Future<?>> futures) {
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Graph traversal was interrupted.",
+						e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new RuntimeException("Graph traversal failed: "
+						+ e.getCause().getMessage(), e.getCause());
+			}
+		}
+	}
+
+	private int getDegree(MemoryBlock offsets, int node) {
+		assertValidNode(node);
+		return (int) (offsets.getLong(8L * (node + 1)) - offsets
+				.getLong(8L * node));
+	}
+
+	void assertValidNode(int node) {
+		if (node < 0 || node >= this.numberOfNodes) {
+			throw new IndexOutOfBoundsException("Node " + node
+					+ " is out of bounds.");
+		}
+	}
+
+	private static void assertValidParallelism(int parallelism) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException(
+					"The parallelism must be a positive number. The received value was: "
+							+ parallelism + ".");
+		}
+	}
+
+	/**
+	 * Growable array of int values.
+	 */
+	static class IntList {
+
+		int[] values = new int[16];
+
+		int size;
+
+		void add(int value) {
+			if (this.size == this.values.length) {
+				this.values = Arrays.copyOf(this.values, 2 * this.size);
+			}
+			this.values[this.size++] = value;
+		}
+
+		void addAll(IntList other) {
+			if (this.size + other.size > this.values.length) {
+				this.values = Arrays.copyOf(this.values,
+						Math.max(this.size + other.size, 2 * this.size));
+			}
+			System.arraycopy(other.values, 0, this.values, this.size,
+					other.size);
+			this.size += other.size;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(this.values, this.size);
+		}
+	}
+}
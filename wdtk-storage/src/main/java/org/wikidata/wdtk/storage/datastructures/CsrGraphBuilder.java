@@ -0,0 +1,288 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.apache.commons.lang3.Validate;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocumentProcessor;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.ItemIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.Statement;
+import org.wikidata.wdtk.datamodel.interfaces.StatementRank;
+import org.wikidata.wdtk.datamodel.interfaces.Value;
+import org.wikidata.wdtk.storage.entities.EntityIdKeys;
+
+/**
+ * Builder for {@link CsrGraph} objects, which works in two passes over the
+ * same edges: the first pass counts the edges of each node, and the second
+ * pass stores them at their final position. Hence, the edges never need to
+ * be kept in memory in any other form, which makes it possible to build
+ * graphs with billions of edges.
+ * <p>
+ * Edges can be added with {@link #addEdge(int, int, int)}, or extracted from
+ * items by using the builder as an {@link EntityDocumentProcessor} for two
+ * passes over a dump. In the latter case, each non-deprecated statement of
+ * an item whose value is an item becomes an edge from the numeric id of the
+ * subject to the numeric id of the value, labelled with the numeric id of
+ * the property (e.g., 279 for P279). Both passes must see exactly the same
+ * edges:
+ *
+ * <pre>
+ * CsrGraphBuilder builder = new CsrGraphBuilder(MemoryAllocator.onHeap(), subclassOf);
+ * // process dump with builder
+ * builder.startSecondPass();
+ * // process dump with builder again
+ * CsrGraph graph = builder.build();
+ * </pre>
+ *
+ * This class is not thread-safe.
+ */
+public class CsrGraphBuilder implements EntityDocumentProcessor {
+
+	final MemoryAllocator allocator;
+
+	/**
+	 * Numeric ids of the properties whose statements become edges, or null
+	 * for all properties.
+	 */
+	final Set<Integer> labels;
+
+	boolean secondPass;
+
+	/**
+	 * Number of edges of each node in the first pass, and the number of
+	 * edges that have been stored for each node in the second pass.
+	 */
+	MemoryBlock counts;
+
+	int numberOfNodes;
+
+	long numberOfEdges;
+
+	long storedEdges;
+
+	MemoryBlock offsets;
+	MemoryBlock targets;
+	MemoryBlock edgeLabels;
+
+	/**
+	 * Constructs a builder.
+	 *
+	 * @param allocator
+	 *            the allocator for the memory of the graph
+	 * @param properties
+	 *            the properties whose statements become edges when
+	 *            processing items; if none are given, all properties are used
+	 */
+	public CsrGraphBuilder(MemoryAllocator allocator,
+			PropertyIdValue... properties) {
+		Validate.notNull(allocator, "Memory allocator cannot be null.");
+		this.allocator = allocator;
+		if (properties.length == 0) {
+			this.labels = null;
+		} else {
+			this.labels = new HashSet<>();
+			for (PropertyIdValue property : properties) {
+				this.labels.add((int) EntityIdKeys.getNumericId(property));
+			}
+		}
+		this.counts = new MemoryBlock(allocator, 4L << 10);
+	}
+
+	/**
+	 * Adds an edge. In the second pass, the edges of each node must be the
+	 * same as in the first pass.
+	 *
+	 * @param source
+	 *            the source node
+	 * @param target
+	 *            the target node
+	 * @param label
+	 *            the label of the edge
+	 * @throws IllegalStateException
+	 *             in the second pass, if the edge was not added in the first
+	 *             pass
+	 */
+	public void addEdge(int source, int target, int label) {
+		if (source < 0 || target < 0 || source == Integer.MAX_VALUE
+				|| target == Integer.MAX_VALUE) {
+			throw new IndexOutOfBoundsException("Edge from " + source
+					+ " to " + target + " is out of bounds.");
+		}
+		if (!this.secondPass) {
+			int nodes = Math.max(source, target) + 1;
+			if (nodes > this.numberOfNodes) {
+				ensureCapacity(nodes);
+				this.numberOfNodes = nodes;
+			}
+			this.counts.putInt(4L * source, this.counts.getInt(4L * source) + 1);
+			this.numberOfEdges++;
+		} else {
+			if (source >= this.numberOfNodes) {
+				throw new IllegalStateException("Node " + source
+						+ " has more edges in the second pass.");
+			}
+			int stored = this.counts.getInt(4L * source);
+			long position = this.offsets.getLong(8L * source) + stored;
+			if (position >= this.offsets.getLong(8L * (source + 1))) {
+				throw new IllegalStateException("Node " + source
+						+ " has more edges in the second pass.");
+			}
+			this.targets.putInt(4 * position, target);
+			this.edgeLabels.putInt(4 * position, label);
+			this.counts.putInt(4L * source, stored + 1);
+			this.storedEdges++;
+		}
+	}
+
+	@Override
+	public void processItemDocument(ItemDocument itemDocument) {
+		int source = (int) EntityIdKeys.getNumericId(itemDocument
+				.getEntityId());
+		Iterator<Statement> statements = itemDocument.getAllStatements();
+		while (statements.hasNext()) {
+			Statement statement = statements.next();
+			if (statement.getRank() == StatementRank.DEPRECATED) {
+				continue;
+			}
+			Value value = statement.getValue();
+			if (!(value instanceof ItemIdValue)) {
+				continue;
+			}
+			int label = (int) EntityIdKeys.getNumericId(statement
+					.getMainSnak().getPropertyId());
+			if (this.labels == null || this.labels.contains(label)) {
+				addEdge(source, (int) EntityIdKeys
+						.getNumericId((ItemIdValue) value), label);
+			}
+		}
+	}
+
+	/**
+	 * Ends the first pass, in which edges are counted, and prepares the
+	 * second one, in which they are stored.
+	 */
+	public void startSecondPass() {
+		if (this.secondPass) {
+			throw new IllegalStateException(
+					"The second pass has already been started.");
+		}
+		this.secondPass = true;
+		this.offsets = new MemoryBlock(this.allocator,
+				8L * (this.numberOfNodes + 1));
+		long offset = 0;
+		for (int i = 0; i < this.numberOfNodes; i++) {
+			this.offsets.putLong(8L * i, offset);
+			offset += this.counts.getInt(4L * i);
+			this.counts.putInt(4L * i, 0);
+		}
+		this.offsets.putLong(8L * this.numberOfNodes, offset);
+		this.targets = new MemoryBlock(this.allocator, 4 * this.numberOfEdges);
+		this.edgeLabels = new MemoryBlock(this.allocator,
+				4 * this.numberOfEdges);
+	}
+
+	/**
+	 * Builds the graph after the second pass, including the index of the
+	 * reversed edges. The builder cannot be used afterwards.
+	 *
+	 * @return the graph
+	 * @throws IllegalStateException
+	 *             if the second pass has not been started, or did not add
+	 *             all edges of the first pass
+	 */
+	public CsrGraph build() {
+		if (!this.secondPass || this.targets == null) {
+			throw new IllegalStateException(
+					"The graph can only be built after the second pass.");
+		}
+		if (this.storedEdges != this.numberOfEdges) {
+			throw new IllegalStateException("The second pass added "
+					+ this.storedEdges + " edges instead of "
+					+ this.numberOfEdges + ".");
+		}
+		int nodes = this.numberOfNodes;
+		long edges = this.numberOfEdges;
+
+		// count incoming edges and compute their offsets
+		MemoryBlock counts = this.counts;
+		for (int i = 0; i < nodes; i++) {
+			counts.putInt(4L * i, 0);
+		}
+		for (long i = 0; i < edges; i++) {
+			long target = 4L * this.targets.getInt(4 * i);
+			counts.putInt(target, counts.getInt(target) + 1);
+		}
+		MemoryBlock reverseOffsets = new MemoryBlock(this.allocator,
+				8L * (nodes + 1));
+		long offset = 0;
+		for (int i = 0; i < nodes; i++) {
+			reverseOffsets.putLong(8L * i, offset);
+			offset += counts.getInt(4L * i);
+			counts.putInt(4L * i, 0);
+		}
+		reverseOffsets.putLong(8L * nodes, offset);
+
+		// fill in the reversed edges in the order of their sources
+		MemoryBlock sources = new MemoryBlock(this.allocator, 4 * edges);
+		MemoryBlock reverseLabels = new MemoryBlock(this.allocator, 4 * edges);
+		for (int source = 0; source < nodes; source++) {
+			long end = this.offsets.getLong(8L * (source + 1));
+			for (long i = this.offsets.getLong(8L * source); i < end; i++) {
+				int target = this.targets.getInt(4 * i);
+				int stored = counts.getInt(4L * target);
+				long position = reverseOffsets.getLong(8L * target) + stored;
+				sources.putInt(4 * position, source);
+				reverseLabels.putInt(4 * position, this.edgeLabels.getInt(4 * i));
+				counts.putInt(4L * target, stored + 1);
+			}
+		}
+
+		CsrGraph graph = new CsrGraph(nodes, edges, this.offsets,
+				this.targets, this.edgeLabels, reverseOffsets, sources,
+				reverseLabels);
+		this.counts = null;
+		this.targets = null;
+		return graph;
+	}
+
+	/**
+	 * Makes sure that the counts can be stored for the given number of nodes.
+	 */
+	private void ensureCapacity(int nodes) {
+		long capacity = this.counts.size / 4;
+		if (nodes <= capacity) {
+			return;
+		}
+		while (capacity < nodes) {
+			capacity *= 2;
+		}
+		MemoryBlock counts = new MemoryBlock(this.allocator, 4 * capacity);
+		for (long i = 0; i < this.counts.size; i += 8) {
+			counts.putLong(i, this.counts.getLong(i));
+		}
+		this.counts = counts;
+	}
+}
@@ -0,0 +1,499 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Immutable, strictly increasing sequence of non-negative numbers, such as
+ * the numeric ids of the items that use a property, compressed with the
+ * Elias-Fano encoding. Each number is split into its lowest <i>l</i> bits,
+ * which are stored verbatim, and its remaining high bits, which are stored
+ * in unary in a {@link RankedBitVectorImpl}. With <i>l</i> chosen as
+ * log(<i>u</i>/<i>n</i>) for <i>n</i> numbers below <i>u</i>, the sequence
+ * needs less than 2 + log(<i>u</i>/<i>n</i>) bits per number, plus the
+ * directory of the bit vector.
+ * <p>
+ * The <i>i</i>-th number is found with a select query on the high bits, and
+ * {@link Cursor#nextGreaterOrEqual(long)} skips over whole ranges of numbers
+ * in the same way, which makes it possible to intersect sequences of very
+ * different lengths efficiently.
+ */
+public class EliasFanoSequence {
+
+	/**
+	 * Number of occurrences of a bit value between two select samples of the
+	 * high bits, which is smaller than the default of
+	 * {@link RankedBitVectorImpl} to make random access faster.
+	 */
+	static final int SELECT_SAMPLE_RATE = 0x200;
+
+	/**
+	 * Value returned by search methods if there is no matching number.
+	 */
+	public static final long NOT_FOUND = -1;
+
+	final long size;
+
+	/**
+	 * Number of low bits of each number that are stored verbatim.
+	 */
+	final int lowBits;
+
+	/**
+	 * Low bits of all numbers, packed into words with the least significant
+	 * bits first.
+	 */
+	final long[] lowerBits;
+
+	/**
+	 * High bits of all numbers in unary: the high bits <i>h</i> of the
+	 * <i>i</i>-th number are represented by a <code>true</code> at position
+	 * <i>h</i> + <i>i</i>.
+	 */
+	final RankedBitVectorImpl upperBits;
+
+	/**
+	 * The largest number, or -1 if the sequence is empty.
+	 */
+	final long last;
+
+	/**
+	 * Builder for sequences whose length and largest number are known in
+	 * advance, so that the numbers do not need to be kept in an array.
+	 */
+	public static class Builder {
+
+		final long size;
+		final long universe;
+		final int lowBits;
+		final long[] lowerBits;
+		final RankedBitVectorImpl upperBits;
+
+		long count;
+		long last = -1;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param size
+		 *            number of numbers that will be added
+		 * @param universe
+		 *            upper bound for the numbers, which must all be smaller
+		 */
+		public Builder(long size, long universe) {
+			if (size < 0) {
+				throw new IllegalArgumentException(
+						"The size must be a non-negative number. The received value was: "
+								+ size + ".");
+			}
+			if (universe < size) {
+				throw new IllegalArgumentException(
+						"The universe must not be smaller than the size. The received value was: "
+								+ universe + ".");
+			}
+			this.size = size;
+			this.universe = universe;
+			this.lowBits = size == 0 || universe / size < 2 ? 0
+					: 63 - Long.numberOfLeadingZeros(universe / size);
+			this.lowerBits = new long[(int) ((size * this.lowBits + 63) >>> 6)];
+			long highValues = size == 0 ? 0 : ((universe - 1) >>> this.lowBits) + 1;
+			this.upperBits = new RankedBitVectorImpl(size + highValues, 1,
+					SELECT_SAMPLE_RATE);
+		}
+
+		/**
+		 * Adds the next number, which must be greater than all previous
+		 * numbers and smaller than the universe.
+		 *
+		 * @param value
+		 *            the number
+		 * @return this builder
+		 */
+		public Builder add(long value) {
+			if (value <= this.last || value >= this.universe) {
+				throw new IllegalArgumentException("The number " + value
+						+ " is not greater than " + this.last
+						+ " or not smaller than " + this.universe + ".");
+			}
+			if (this.count == this.size) {
+				throw new IllegalStateException("More than " + this.size
+						+ " numbers have been added.");
+			}
+			if (this.lowBits > 0) {
+				long bitPosition = this.count * this.lowBits;
+				long low = value & ((1L << this.lowBits) - 1);
+				int word = (int) (bitPosition >>> 6);
+				int offset = (int) (bitPosition & 63);
+				this.lowerBits[word] |= low << offset;
+				if (offset + this.lowBits > 64) {
+					this.lowerBits[word + 1] |= low >>> (64 - offset);
+				}
+			}
+			this.upperBits.setBit((value >>> this.lowBits) + this.count, true);
+			this.count++;
+			this.last = value;
+			return this;
+		}
+
+		/**
+		 * Creates the sequence after all numbers have been added.
+		 *
+		 * @return the sequence
+		 */
+		public EliasFanoSequence build() {
+			if (this.count != this.size) {
+				throw new IllegalStateException("Only " + this.count + " of "
+						+ this.size + " numbers have been added.");
+			}
+			return new EliasFanoSequence(this.size, this.lowBits,
+					this.lowerBits, this.upperBits, this.last);
+		}
+	}
+
+	/**
+	 * Iterator over the numbers of a sequence in increasing order, which can
+	 * skip numbers that are smaller than a given bound.
+	 */
+	public class Cursor implements PrimitiveIterator.OfLong {
+
+		/**
+		 * Index of the next number.
+		 */
+		long index;
+
+		/**
+		 * Position of the high bits of the next number in the upper bits.
+		 */
+		long position;
+
+		Cursor() {
+			this.position = nextSetBit(0);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return this.index < EliasFanoSequence.this.size;
+		}
+
+		@Override
+		public long nextLong() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			long value = ((this.position - this.index) << EliasFanoSequence.this.lowBits)
+					| getLowBits(this.index);
+			this.index++;
+			if (hasNext()) {
+				this.position = nextSetBit(this.position + 1);
+			}
+			return value;
+		}
+
+		/**
+		 * Moves to the first number that is greater than or equal to the
+		 * given bound and returns it, so that the next call of
+		 * {@link #nextLong()} returns the number after it.
+		 *
+		 * @param bound
+		 *            the lower bound
+		 * @return the smallest remaining number that is not smaller than the
+		 *         bound, or {@link EliasFanoSequence#NOT_FOUND} if there is
+		 *         none
+		 */
+		public long nextGreaterOrEqual(long bound) {
+			if (bound > EliasFanoSequence.this.last || !hasNext()) {
+				this.index = EliasFanoSequence.this.size;
+				return NOT_FOUND;
+			}
+			long high = bound >>> EliasFanoSequence.this.lowBits;
+			if (high > this.position - this.index) {
+				// skip to the first number with these high bits
+				long start = EliasFanoSequence.this.upperBits.findPosition(
+						false, high) + 1;
+				this.index = start - high;
+				this.position = nextSetBit(start);
+			}
+			while (hasNext()) {
+				long value = nextLong();
+				if (value >= bound) {
+					return value;
+				}
+			}
+			return NOT_FOUND;
+		}
+
+		/**
+		 * Returns the index of the number that is returned by the next call
+		 * of {@link #nextLong()}.
+		 *
+		 * @return index of the next number
+		 */
+		public long getIndex() {
+			return this.index;
+		}
+	}
+
+	/**
+	 * Creates a sequence that contains the given numbers.
+	 *
+	 * @param values
+	 *            strictly increasing non-negative numbers
+	 */
+	public EliasFanoSequence(long[] values) {
+		this(build(values));
+	}
+
+	private EliasFanoSequence(EliasFanoSequence other) {
+		this(other.size, other.lowBits, other.lowerBits, other.upperBits,
+				other.last);
+	}
+
+	EliasFanoSequence(long size, int lowBits, long[] lowerBits,
+			RankedBitVectorImpl upperBits, long last) {
+		this.size = size;
+		this.lowBits = lowBits;
+		this.lowerBits = lowerBits;
+		this.upperBits = upperBits;
+		this.last = last;
+		// build the rank and select directory right away, so that the
+		// sequence can be shared between threads
+		upperBits.getDirectory();
+	}
+
+	private static EliasFanoSequence build(long[] values) {
+		Builder builder = new Builder(values.length,
+				values.length == 0 ? 0 : values[values.length - 1] + 1);
+		for (long value : values) {
+			builder.add(value);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Returns the number of numbers in the sequence.
+	 *
+	 * @return size of the sequence
+	 */
+	public long size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the number at the given index.
+	 *
+	 * @param index
+	 *            index of the number, starting at 0
+	 * @return the number
+	 * @throws IndexOutOfBoundsException
+	 *             if there is no number at this index
+	 */
+	public long get(long index) {
+		if (index < 0 || index >= this.size) {
+			throw new IndexOutOfBoundsException("Index " + index
+					+ " is out of bounds for a sequence of size " + this.size
+					+ ".");
+		}
+		long position = this.upperBits.findPosition(true, index + 1);
+		return ((position - index) << this.lowBits) | getLowBits(index);
+	}
+
+	/**
+	 * Returns the smallest number in the sequence that is greater than or
+	 * equal to the given bound.
+	 *
+	 * @param bound
+	 *            the lower bound
+	 * @return the number, or {@link #NOT_FOUND} if there is none
+	 */
+	public long nextGreaterOrEqual(long bound) {
+		return cursor().nextGreaterOrEqual(bound);
+	}
+
+	/**
+	 * Checks if the sequence contains the given number.
+	 *
+	 * @param value
+	 *            the number
+	 * @return true if the number is in the sequence
+	 */
+	public boolean contains(long value) {
+		return value >= 0 && nextGreaterOrEqual(value) == value;
+	}
+
+	/**
+	 * Returns a cursor that starts at the first number.
+	 *
+	 * @return new cursor
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * Returns a new sequence of the numbers that are contained in this
+	 * sequence and in the given sequence. The shorter sequence is iterated,
+	 * while the other one is searched with
+	 * {@link Cursor#nextGreaterOrEqual(long)}.
+	 *
+	 * @param other
+	 *            the other sequence
+	 * @return the intersection
+	 */
+	public EliasFanoSequence intersection(EliasFanoSequence other) {
+		Cursor shorter = this.size <= other.size ? cursor() : other.cursor();
+		Cursor longer = this.size <= other.size ? other.cursor() : cursor();
+		long[] result = new long[16];
+		int count = 0;
+		// both cursors have consumed the number they returned last, so the
+		// current numbers are kept here until they are matched or skipped
+		long candidate = shorter.hasNext() ? shorter.nextLong() : NOT_FOUND;
+		long found = longer.hasNext() ? longer.nextLong() : NOT_FOUND;
+		while (candidate != NOT_FOUND && found != NOT_FOUND) {
+			if (found == candidate) {
+				if (count == result.length) {
+					result = Arrays.copyOf(result, 2 * count);
+				}
+				result[count++] = found;
+				candidate = shorter.hasNext() ? shorter.nextLong() : NOT_FOUND;
+				found = longer.hasNext() ? longer.nextLong() : NOT_FOUND;
+			} else if (found < candidate) {
+				found = longer.nextGreaterOrEqual(candidate);
+			} else {
+				candidate = shorter.nextGreaterOrEqual(found);
+			}
+		}
+		return new EliasFanoSequence(Arrays.copyOf(result, count));
+	}
+
+	/**
+	 * Returns all numbers of the sequence as an array.
+	 *
+	 * @return array of the numbers
+	 */
+	public long[] toArray() {
+		long[] result = new long[(int) this.size];
+		Cursor cursor = cursor();
+		for (int i = 0; i < result.length; i++) {
+			result[i] = cursor.nextLong();
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the approximate number of bytes used by this sequence.
+	 *
+	 * @return size in bytes
+	 */
+	public long getSizeInBytes() {
+		RankSelectDirectory directory = this.upperBits.getDirectory();
+		return 8L * this.lowerBits.length + 8L * directory.words.length + 8L
+				* directory.superblockCounts.length + 2L
+				* directory.blockCounts.length + 4L
+				* directory.selectSamplesOfTrue.length + 4L
+				* directory.selectSamplesOfFalse.length;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof EliasFanoSequence)) {
+			return false;
+		}
+		EliasFanoSequence other = (EliasFanoSequence) obj;
+		if (this.size != other.size || this.last != other.last) {
+			return false;
+		}
+		Cursor cursor = cursor();
+		Cursor otherCursor = other.cursor();
+		while (cursor.hasNext()) {
+			if (cursor.nextLong() != otherCursor.nextLong()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = 1;
+		Cursor cursor = cursor();
+		while (cursor.hasNext()) {
+			result = 0x1F * result + Long.hashCode(cursor.nextLong());
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder("[");
+		Cursor cursor = cursor();
+		while (cursor.hasNext()) {
+			result.append(cursor.nextLong());
+			if (cursor.hasNext()) {
+				result.append(", ");
+			}
+		}
+		return result.append("]").toString();
+	}
+
+	/**
+	 * Returns the low bits of the number at the given index.
+	 */
+	long getLowBits(long index) {
+		if (this.lowBits == 0) {
+			return 0;
+		}
+		long bitPosition = index * this.lowBits;
+		int word = (int) (bitPosition >>> 6);
+		int offset = (int) (bitPosition & 63);
+		long result = this.lowerBits[word] >>> offset;
+		if (offset + this.lowBits > 64) {
+			result |= this.lowerBits[word + 1] << (64 - offset);
+		}
+		return result & ((1L << this.lowBits) - 1);
+	}
+
+	/**
+	 * Returns the first position of a <code>true</code> in the upper bits at
+	 * or after the given position, or the size of the upper bits if there is
+	 * none.
+	 */
+	long nextSetBit(long from) {
+		long[] words = this.upperBits.bitVector.arrayOfBits;
+		int word = (int) (from >>> 6);
+		if (word >= words.length) {
+			return this.upperBits.size();
+		}
+		long bits = words[word] & (-1L << (from & 63));
+		while (bits == 0) {
+			if (++word == words.length) {
+				return this.upperBits.size();
+			}
+			bits = words[word];
+		}
+		return ((long) word << 6) + Long.numberOfTrailingZeros(bits);
+	}
+}
@@ -56,6 +56,10 @@ import org.apache.commons.lang3.ArrayUtils;
  * For efficiency reasons, this class assumes that the bit vector is unmodified.
  * Any modification of the bit vector needs to be notified in
  * {@link FindPositionArray#update()}.
+ * <p>
+ * This class is no longer used by {@link RankedBitVectorImpl}, which works on
+ * whole words with a {@link RankSelectDirectory}. It is kept for comparison
+ * in tests and benchmarks.
  * 
  * @see RankedBitVectorImpl
  * 
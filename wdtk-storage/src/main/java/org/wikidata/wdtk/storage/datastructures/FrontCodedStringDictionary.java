@@ -0,0 +1,331 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Static, memory-mapped dictionary that assigns consecutive ids to a set of
+ * strings, such as labels or IRIs, and stores them in very little space. The
+ * strings are sorted by their UTF-8 encoding (i.e., by Unicode code points),
+ * and their id is their position in this order. They are grouped into
+ * buckets of a fixed number of strings: the first string of each bucket is
+ * stored completely, and each other string only by the length of the prefix
+ * it shares with the previous string and the remaining bytes (<i>front
+ * coding</i>). Since neighbouring strings in sorted order tend to have long
+ * common prefixes, this saves much space for IRIs and similar data.
+ * <p>
+ * The dictionary supports lookups from ids to strings and from strings to
+ * ids, and iterating over all strings with a given prefix. Each lookup
+ * decodes at most one bucket, after a binary search over the buckets in the
+ * case of string lookups. Dictionaries are created with
+ * {@link FrontCodedStringDictionaryBuilder}, and can be used by many threads
+ * at the same time.
+ * <p>
+ * The file starts with a header of 64 bytes, followed by the buckets, and the
+ * (8-byte aligned) start positions of all buckets at the end. Numbers in the
+ * buckets are stored as variable-length integers.
+ */
+public class FrontCodedStringDictionary {
+
+	static final long MAGIC = 0x4349444B5444574CL;
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 64;
+
+	static final int OFFSET_BUCKET_SIZE = 12;
+	static final int OFFSET_COUNT = 16;
+	static final int OFFSET_NUMBER_OF_BUCKETS = 24;
+	static final int OFFSET_BUCKET_POSITIONS = 32;
+
+	final MappedFileBuffer buffer;
+
+	final int bucketSize;
+
+	final long count;
+
+	final long numberOfBuckets;
+
+	final long bucketPositionsOffset;
+
+	FrontCodedStringDictionary(MappedFileBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.getLong(0) != MAGIC || buffer.getInt(8) != VERSION) {
+			throw new IOException("The file is not a string dictionary.");
+		}
+		this.bucketSize = buffer.getInt(OFFSET_BUCKET_SIZE);
+		this.count = buffer.getLong(OFFSET_COUNT);
+		this.numberOfBuckets = buffer.getLong(OFFSET_NUMBER_OF_BUCKETS);
+		this.bucketPositionsOffset = buffer.getLong(OFFSET_BUCKET_POSITIONS);
+		if (this.bucketSize <= 0 || this.count < 0
+				|| this.numberOfBuckets != (this.count + this.bucketSize - 1)
+						/ this.bucketSize) {
+			throw new IOException("The header of the string dictionary is invalid.");
+		}
+	}
+
+	/**
+	 * Opens a dictionary that was written by
+	 * {@link FrontCodedStringDictionaryBuilder}.
+	 *
+	 * @param path
+	 *            the file of the dictionary
+	 * @return the dictionary
+	 * @throws IOException
+	 *             if the file cannot be read or does not contain a
+	 *             dictionary
+	 */
+	public static FrontCodedStringDictionary open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE) {
+				throw new IOException("The file is not a string dictionary.");
+			}
+			FrontCodedStringDictionary result = new FrontCodedStringDictionary(
+					new MappedFileBuffer(channel, size, false,
+							MappedFileBuffer.DEFAULT_LG_CHUNK_SIZE));
+			if (result.bucketPositionsOffset + 8 * result.numberOfBuckets != size) {
+				throw new IOException("The string dictionary is truncated.");
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Returns the number of strings.
+	 *
+	 * @return number of strings
+	 */
+	public long size() {
+		return this.count;
+	}
+
+	/**
+	 * Returns the string with the given id.
+	 *
+	 * @param id
+	 *            id between 0 and {@link #size()} - 1
+	 * @return the string
+	 * @throws IndexOutOfBoundsException
+	 *             if there is no string with this id
+	 */
+	public String getString(long id) {
+		if (id < 0 || id >= this.count) {
+			throw new IndexOutOfBoundsException("Id " + id
+					+ " is out of bounds.");
+		}
+		Cursor cursor = new Cursor(id / this.bucketSize);
+		while (cursor.id < id) {
+			cursor.next();
+		}
+		return cursor.getString();
+	}
+
+	/**
+	 * Returns the id of the given string.
+	 *
+	 * @param string
+	 *            the string to look up
+	 * @return the id, or -1 if the string is not in the dictionary
+	 */
+	public long getId(String string) {
+		byte[] key = string.getBytes(StandardCharsets.UTF_8);
+		Cursor cursor = seek(key);
+		if (cursor != null && cursor.compareTo(key) == 0) {
+			return cursor.id;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns an iterator over all strings that start with the given prefix,
+	 * in the order of their ids.
+	 *
+	 * @param prefix
+	 *            prefix of the strings; the empty string gives all strings
+	 * @return iterator over matching strings
+	 */
+	public Iterator<String> getStringsWithPrefix(String prefix) {
+		byte[] prefixBytes = prefix.getBytes(StandardCharsets.UTF_8);
+		Cursor cursor = seek(prefixBytes);
+		return new Iterator<String>() {
+
+			boolean hasNext = cursor != null && cursor.hasPrefix(prefixBytes);
+
+			@Override
+			public boolean hasNext() {
+				return this.hasNext;
+			}
+
+			@Override
+			public String next() {
+				if (!this.hasNext) {
+					throw new NoSuchElementException();
+				}
+				String result = cursor.getString();
+				this.hasNext = cursor.next() && cursor.hasPrefix(prefixBytes);
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * Returns a cursor at the first string that is greater than or equal to
+	 * the given key, or null if there is none.
+	 */
+	Cursor seek(byte[] key) {
+		if (this.count == 0) {
+			return null;
+		}
+		// find the last bucket whose first string is not larger than the key
+		long low = 0;
+		long high = this.numberOfBuckets - 1;
+		while (low < high) {
+			long middle = (low + high + 1) >>> 1;
+			if (new Cursor(middle).compareTo(key) <= 0) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		Cursor cursor = new Cursor(low);
+		while (cursor.compareTo(key) < 0) {
+			if (!cursor.next()) {
+				return null;
+			}
+		}
+		return cursor;
+	}
+
+	/**
+	 * Compares two byte arrays (or prefixes of them) lexicographically, with
+	 * bytes taken as unsigned numbers, which gives the order of code points
+	 * for UTF-8.
+	 */
+	static int compare(byte[] a, int aLength, byte[] b, int bLength) {
+		int length = Math.min(aLength, bLength);
+		for (int i = 0; i < length; i++) {
+			int difference = (a[i] & 0xFF) - (b[i] & 0xFF);
+			if (difference != 0) {
+				return difference;
+			}
+		}
+		return aLength - bLength;
+	}
+
+	/**
+	 * Position in the dictionary that decodes the strings one after the
+	 * other.
+	 */
+	class Cursor {
+
+		long id;
+
+		long position;
+
+		byte[] bytes = new byte[64];
+
+		int length;
+
+		/**
+		 * Creates a cursor at the first string of the given bucket.
+		 */
+		Cursor(long bucket) {
+			this.id = bucket * FrontCodedStringDictionary.this.bucketSize;
+			this.position = FrontCodedStringDictionary.this.buffer
+					.getLong(FrontCodedStringDictionary.this.bucketPositionsOffset
+							+ 8 * bucket);
+			readSuffix(0);
+		}
+
+		/**
+		 * Moves to the next string.
+		 *
+		 * @return false if there is no next string
+		 */
+		boolean next() {
+			if (this.id + 1 >= FrontCodedStringDictionary.this.count) {
+				return false;
+			}
+			this.id++;
+			if (this.id % FrontCodedStringDictionary.this.bucketSize == 0) {
+				readSuffix(0);
+			} else {
+				readSuffix((int) readNumber());
+			}
+			return true;
+		}
+
+		String getString() {
+			return new String(this.bytes, 0, this.length,
+					StandardCharsets.UTF_8);
+		}
+
+		int compareTo(byte[] key) {
+			return compare(this.bytes, this.length, key, key.length);
+		}
+
+		boolean hasPrefix(byte[] prefix) {
+			if (this.length < prefix.length) {
+				return false;
+			}
+			for (int i = 0; i < prefix.length; i++) {
+				if (this.bytes[i] != prefix[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void readSuffix(int sharedLength) {
+			int suffixLength = (int) readNumber();
+			this.length = sharedLength + suffixLength;
+			if (this.length > this.bytes.length) {
+				this.bytes = Arrays.copyOf(this.bytes,
+						Math.max(this.length, 2 * this.bytes.length));
+			}
+			MappedFileBuffer buffer = FrontCodedStringDictionary.this.buffer;
+			for (int i = sharedLength; i < this.length; i++) {
+				this.bytes[i] = buffer.getByte(this.position++);
+			}
+		}
+
+		private long readNumber() {
+			MappedFileBuffer buffer = FrontCodedStringDictionary.this.buffer;
+			long result = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = buffer.getByte(this.position++);
+				result |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			return result;
+		}
+	}
+}
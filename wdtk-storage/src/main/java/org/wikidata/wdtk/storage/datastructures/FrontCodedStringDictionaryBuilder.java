@@ -0,0 +1,393 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Builder for {@link FrontCodedStringDictionary} files. Strings can be added
+ * in any order and may be repeated, e.g., while processing a dump. They are
+ * collected in memory until a given amount of memory is used, and then
+ * written to a sorted temporary file. Building the dictionary merges these
+ * files. Hence, dictionaries of any size can be built with little memory.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class FrontCodedStringDictionaryBuilder implements Closeable {
+
+	/**
+	 * Default number of strings per bucket.
+	 */
+	public static final int DEFAULT_BUCKET_SIZE = 16;
+
+	/**
+	 * Default number of bytes of strings that are kept in memory.
+	 */
+	public static final long DEFAULT_BUFFER_SIZE = 64L << 20;
+
+	/**
+	 * Estimated memory needed for each string in addition to its bytes.
+	 */
+	static final int OVERHEAD_PER_STRING = 32;
+
+	final Path temporaryDirectory;
+
+	final int bucketSize;
+
+	final long bufferSize;
+
+	final List<byte[]> buffer = new ArrayList<>();
+
+	long bufferedBytes;
+
+	final List<Path> runs = new ArrayList<>();
+
+	/**
+	 * Constructs a builder with default settings.
+	 *
+	 * @param temporaryDirectory
+	 *            directory for temporary files
+	 */
+	public FrontCodedStringDictionaryBuilder(Path temporaryDirectory) {
+		this(temporaryDirectory, DEFAULT_BUCKET_SIZE, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Constructs a builder.
+	 *
+	 * @param temporaryDirectory
+	 *            directory for temporary files
+	 * @param bucketSize
+	 *            number of strings per bucket; larger buckets save space but
+	 *            make lookups slower
+	 * @param bufferSize
+	 *            approximate number of bytes of memory to use for strings
+	 *            before they are written to a temporary file
+	 */
+	public FrontCodedStringDictionaryBuilder(Path temporaryDirectory,
+			int bucketSize, long bufferSize) {
+		Validate.notNull(temporaryDirectory,
+				"Temporary directory cannot be null.");
+		if (bucketSize <= 0) {
+			throw new IllegalArgumentException(
+					"The bucket size must be a positive number. The received value was: "
+							+ bucketSize + ".");
+		}
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException(
+					"The buffer size must be a positive number. The received value was: "
+							+ bufferSize + ".");
+		}
+		this.temporaryDirectory = temporaryDirectory;
+		this.bucketSize = bucketSize;
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Adds a string to the dictionary.
+	 *
+	 * @param string
+	 *            the string to add
+	 * @throws IOException
+	 *             if a temporary file cannot be written
+	 */
+	public void add(String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		this.buffer.add(bytes);
+		this.bufferedBytes += bytes.length + OVERHEAD_PER_STRING;
+		if (this.bufferedBytes >= this.bufferSize) {
+			writeRun();
+		}
+	}
+
+	/**
+	 * Writes the dictionary of all strings that have been added to the given
+	 * file, and deletes the temporary files. The builder is empty afterwards.
+	 *
+	 * @param path
+	 *            the file of the dictionary
+	 * @return the number of distinct strings in the dictionary
+	 * @throws IOException
+	 *             if the dictionary cannot be written
+	 */
+	public long build(Path path) throws IOException {
+		try (DictionaryWriter writer = new DictionaryWriter(path,
+				this.bucketSize)) {
+			if (this.runs.isEmpty()) {
+				for (byte[] bytes : sortBuffer()) {
+					writer.add(bytes);
+				}
+			} else {
+				writeRun();
+				merge(writer);
+			}
+			return writer.count;
+		} finally {
+			close();
+		}
+	}
+
+	/**
+	 * Deletes all temporary files and forgets all strings.
+	 */
+	@Override
+	public void close() throws IOException {
+		this.buffer.clear();
+		this.bufferedBytes = 0;
+		for (Path run : this.runs) {
+			Files.deleteIfExists(run);
+		}
+		this.runs.clear();
+	}
+
+	private byte[][] sortBuffer() {
+		byte[][] strings = this.buffer.toArray(new byte[this.buffer.size()][]);
+		Arrays.sort(strings, (a, b) -> FrontCodedStringDictionary.compare(a,
+				a.length, b, b.length));
+		this.buffer.clear();
+		this.bufferedBytes = 0;
+		return strings;
+	}
+
+	private void writeRun() throws IOException {
+		Path run = Files.createTempFile(this.temporaryDirectory, "wdtk-dict-",
+				".tmp");
+		this.runs.add(run);
+		try (OutputStream out = new BufferedOutputStream(
+				Files.newOutputStream(run))) {
+			byte[] previous = null;
+			for (byte[] bytes : sortBuffer()) {
+				if (previous == null || !Arrays.equals(previous, bytes)) {
+					writeNumber(out, bytes.length);
+					out.write(bytes);
+					previous = bytes;
+				}
+			}
+		}
+	}
+
+	private void merge(DictionaryWriter writer) throws IOException {
+		PriorityQueue<RunReader> queue = new PriorityQueue<>((a, b) -> FrontCodedStringDictionary
+				.compare(a.current, a.current.length, b.current,
+						b.current.length));
+		List<RunReader> readers = new ArrayList<>();
+		try {
+			for (Path run : this.runs) {
+				RunReader reader = new RunReader(run);
+				readers.add(reader);
+				if (reader.advance()) {
+					queue.add(reader);
+				}
+			}
+			while (!queue.isEmpty()) {
+				RunReader reader = queue.poll();
+				writer.add(reader.current);
+				if (reader.advance()) {
+					queue.add(reader);
+				}
+			}
+		} finally {
+			for (RunReader reader : readers) {
+				reader.input.close();
+			}
+		}
+	}
+
+	static void writeNumber(OutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	/**
+	 * Reader for a sorted temporary file.
+	 */
+	static class RunReader {
+
+		final DataInputStream input;
+
+		byte[] current;
+
+		RunReader(Path path) throws IOException {
+			this.input = new DataInputStream(new BufferedInputStream(
+					Files.newInputStream(path)));
+		}
+
+		boolean advance() throws IOException {
+			int length = 0;
+			int shift = 0;
+			int b;
+			do {
+				b = this.input.read();
+				if (b < 0) {
+					if (shift == 0) {
+						return false;
+					}
+					throw new EOFException("Temporary file is truncated.");
+				}
+				length |= (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			this.current = new byte[length];
+			this.input.readFully(this.current);
+			return true;
+		}
+	}
+
+	/**
+	 * Writes sorted strings to a dictionary file, skipping duplicates.
+	 */
+	static class DictionaryWriter implements Closeable {
+
+		final Path path;
+
+		final int bucketSize;
+
+		final OutputStream out;
+
+		long position;
+
+		byte[] previous;
+
+		long count;
+
+		long[] bucketPositions = new long[16];
+
+		int numberOfBuckets;
+
+		DictionaryWriter(Path path, int bucketSize) throws IOException {
+			this.path = path;
+			this.bucketSize = bucketSize;
+			this.out = new CountingOutputStream(Files.newOutputStream(path));
+			this.out.write(new byte[FrontCodedStringDictionary.HEADER_SIZE]);
+		}
+
+		void add(byte[] bytes) throws IOException {
+			if (this.previous != null && Arrays.equals(this.previous, bytes)) {
+				return;
+			}
+			if (this.count % this.bucketSize == 0) {
+				if (this.numberOfBuckets == this.bucketPositions.length) {
+					this.bucketPositions = Arrays.copyOf(this.bucketPositions,
+							2 * this.numberOfBuckets);
+				}
+				this.bucketPositions[this.numberOfBuckets++] = this.position;
+				writeNumber(this.out, bytes.length);
+				this.out.write(bytes);
+			} else {
+				int shared = 0;
+				int maxShared = Math.min(bytes.length, this.previous.length);
+				while (shared < maxShared
+						&& bytes[shared] == this.previous[shared]) {
+					shared++;
+				}
+				writeNumber(this.out, shared);
+				writeNumber(this.out, bytes.length - shared);
+				this.out.write(bytes, shared, bytes.length - shared);
+			}
+			this.previous = bytes;
+			this.count++;
+		}
+
+		@Override
+		public void close() throws IOException {
+			while (this.position % 8 != 0) {
+				this.out.write(0);
+			}
+			long bucketPositionsOffset = this.position;
+			ByteBuffer bytes = ByteBuffer.allocate(8 * 1024).order(
+					ByteOrder.LITTLE_ENDIAN);
+			for (int i = 0; i < this.numberOfBuckets; i++) {
+				if (!bytes.hasRemaining()) {
+					this.out.write(bytes.array());
+					bytes.clear();
+				}
+				bytes.putLong(this.bucketPositions[i]);
+			}
+			this.out.write(bytes.array(), 0, bytes.position());
+			this.out.close();
+
+			ByteBuffer header = ByteBuffer.allocate(
+					FrontCodedStringDictionary.HEADER_SIZE).order(
+					ByteOrder.LITTLE_ENDIAN);
+			header.putLong(0, FrontCodedStringDictionary.MAGIC);
+			header.putInt(8, FrontCodedStringDictionary.VERSION);
+			header.putInt(FrontCodedStringDictionary.OFFSET_BUCKET_SIZE,
+					this.bucketSize);
+			header.putLong(FrontCodedStringDictionary.OFFSET_COUNT, this.count);
+			header.putLong(FrontCodedStringDictionary.OFFSET_NUMBER_OF_BUCKETS,
+					this.numberOfBuckets);
+			header.putLong(FrontCodedStringDictionary.OFFSET_BUCKET_POSITIONS,
+					bucketPositionsOffset);
+			try (FileChannel channel = FileChannel.open(this.path,
+					StandardOpenOption.WRITE)) {
+				while (header.hasRemaining()) {
+					channel.write(header, header.position());
+				}
+			}
+		}
+
+		/**
+		 * Buffered output stream that keeps track of the position in the
+		 * file.
+		 */
+		class CountingOutputStream extends BufferedOutputStream {
+
+			CountingOutputStream(OutputStream out) {
+				super(out, 1 << 16);
+			}
+
+			@Override
+			public synchronized void write(int b) throws IOException {
+				super.write(b);
+				DictionaryWriter.this.position++;
+			}
+
+			@Override
+			public synchronized void write(byte[] b, int off, int len)
+					throws IOException {
+				super.write(b, off, len);
+				DictionaryWriter.this.position += len;
+			}
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Hash map from primitive <code>long</code> keys to <code>long</code>
+ * values, such as counts or file offsets for numeric entity ids (see
+ * {@link org.wikidata.wdtk.storage.entities.EntityIdKeys}). Each entry needs
+ * between 21 and 43 bytes, without any objects per entry, and the memory can
+ * be taken from outside of the Java heap by using a suitable
+ * {@link MemoryAllocator}. The map grows as needed.
+ * <p>
+ * This class is not thread-safe; see {@link ConcurrentLongLongHashMap} for a
+ * map that can be shared between threads.
+ */
+public class LongLongHashMap extends AbstractLongKeyHashMap {
+
+	/**
+	 * Consumer for the entries of the map.
+	 */
+	@FunctionalInterface
+	public interface EntryConsumer {
+		void accept(long key, long value);
+	}
+
+	/**
+	 * Constructs an empty map on the heap.
+	 */
+	public LongLongHashMap() {
+		this(0, MemoryAllocator.onHeap());
+	}
+
+	/**
+	 * Constructs an empty map that is large enough for the given number of
+	 * entries.
+	 *
+	 * @param expectedSize
+	 *            the number of entries the map should hold without growing
+	 * @param allocator
+	 *            the allocator to take memory from
+	 */
+	public LongLongHashMap(long expectedSize, MemoryAllocator allocator) {
+		super(expectedSize, allocator, 8);
+	}
+
+	/**
+	 * Returns the value for the given key.
+	 *
+	 * @param key
+	 *            key
+	 * @param defaultValue
+	 *            the value to return if there is no entry for the key
+	 * @return the value for the key, or the default value
+	 */
+	public long get(long key, long defaultValue) {
+		return getValue(key, defaultValue);
+	}
+
+	/**
+	 * Sets the value for the given key.
+	 *
+	 * @param key
+	 *            key
+	 * @param value
+	 *            new value
+	 */
+	public void put(long key, long value) {
+		putValue(key, value);
+	}
+
+	/**
+	 * Adds a number to the value of the given key, where a missing entry
+	 * counts as 0.
+	 *
+	 * @param key
+	 *            key
+	 * @param delta
+	 *            number to add
+	 * @return the new value
+	 */
+	public long addTo(long key, long delta) {
+		return addToValue(key, delta);
+	}
+
+	/**
+	 * Calls the given consumer for all entries, in no particular order. The
+	 * map must not be modified while this method runs.
+	 *
+	 * @param consumer
+	 *            consumer of entries
+	 */
+	public void forEach(EntryConsumer consumer) {
+		if (this.hasZeroKey) {
+			consumer.accept(0, this.zeroKeyValue);
+		}
+		long capacity = capacity();
+		for (long i = 0; i < capacity; i++) {
+			long key = this.keys.getLong(i << 3);
+			if (key != 0) {
+				consumer.accept(key, this.values.getLong(i << 3));
+			}
+		}
+	}
+}
@@ -0,0 +1,564 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Implementation of {@link RankedBitVector} that is stored in a
+ * memory-mapped file. The file contains the bits together with the
+ * directories for rank and select, so that opening an existing file does not
+ * require any computation, and the data is only loaded by the operating
+ * system when it is accessed. Several processes can open the same file
+ * read-only and share its pages. Files can be larger than 2GB, so that bit
+ * vectors with more than 2<sup>31</sup> words are supported.
+ * <p>
+ * Bit vectors of this class have a fixed size. They are created with
+ * {@link #create(Path, long)} and filled with {@link #setBit(long, boolean)},
+ * or written from another bit vector with {@link #write(BitVector, Path)}.
+ * Rank and select directories are computed when first needed after a
+ * modification, and when the bit vector is closed. Files can then be opened
+ * read-only with {@link #open(Path)}.
+ * <p>
+ * The file format is as follows. All numbers are little-endian.
+ * <ol>
+ * <li>Header of {@value #HEADER_SIZE} bytes: the magic number
+ * {@value #MAGIC} (8 bytes), the format version {@value #VERSION} (int), the
+ * select sample rate (int), the size in bits (long), the number of
+ * <code>true</code> values or -1 if the directories are not up to date (long),
+ * the number of select samples for <code>true</code> and for
+ * <code>false</code> (long each), followed by zeros.</li>
+ * <li>The bits, as words of 64 bits (long), with the least significant bit of
+ * each word first. Bits after the end of the bit vector are zero.</li>
+ * <li>The rank directory, with one long per superblock of
+ * {@value RankSelectDirectory#BITS_PER_SUPERBLOCK} bits, followed by one
+ * unsigned 16-bit number per block of
+ * {@value RankSelectDirectory#BITS_PER_BLOCK} bits, and padding to a multiple
+ * of 8 bytes, as described in {@link RankSelectDirectory}.</li>
+ * <li>The select samples, as block indexes (long), first those for
+ * <code>true</code> and then those for <code>false</code>. Space for
+ * size / (select sample rate) + 2 samples is reserved.</li>
+ * </ol>
+ * Objects of this class are not thread-safe if the bit vector is modified.
+ * Read-only bit vectors can be shared between threads after the first query,
+ * or after calling {@link #countBits(boolean, long)} once.
+ */
+public class MappedBitVector implements RankedBitVector, Iterable<Boolean>,
+		Closeable {
+
+	static final long MAGIC = 0x5654494B5444574CL;
+
+	static final int VERSION = 1;
+
+	static final int HEADER_SIZE = 64;
+
+	static final int OFFSET_SAMPLE_RATE = 12;
+	static final int OFFSET_SIZE = 16;
+	static final int OFFSET_COUNT_OF_TRUE = 24;
+	static final int OFFSET_SAMPLES_OF_TRUE = 32;
+	static final int OFFSET_SAMPLES_OF_FALSE = 40;
+
+	final MappedFileBuffer buffer;
+
+	final boolean writable;
+
+	final long size;
+
+	final int selectSampleRate;
+
+	final long numberOfWords;
+
+	final long numberOfBlocks;
+
+	final long superblocksOffset;
+
+	final long blocksOffset;
+
+	final long samplesOffset;
+
+	/**
+	 * Number of <code>true</code> values, or -1 if the directories need to be
+	 * rebuilt.
+	 */
+	long countOfTrue;
+
+	long numberOfSamplesOfTrue;
+
+	long numberOfSamplesOfFalse;
+
+	/**
+	 * Creates a new file for a bit vector of the given size, which contains
+	 * <code>false</code> at all indexes. An existing file is overwritten.
+	 *
+	 * @param file
+	 *            the file to create
+	 * @param size
+	 *            the number of bits
+	 * @return the writable bit vector
+	 * @throws IOException
+	 *             if the file could not be created
+	 */
+	public static MappedBitVector create(Path file, long size)
+			throws IOException {
+		return create(file, size,
+				RankSelectDirectory.DEFAULT_SELECT_SAMPLE_RATE,
+				MappedFileBuffer.DEFAULT_LG_CHUNK_SIZE);
+	}
+
+	static MappedBitVector create(Path file, long size, int selectSampleRate,
+			int lgChunkSize) throws IOException {
+		if (size < 0) {
+			throw new IllegalArgumentException("Wrong bit vector size '"
+					+ size + "'. Bit vector size must be non-negative.");
+		}
+		if (selectSampleRate < 1) {
+			throw new IllegalArgumentException(
+					"The select sample rate must be a positive number. The received value was: "
+							+ selectSampleRate + ".");
+		}
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			long length = getFileLength(size, selectSampleRate);
+			// extend the file, which is then filled with zeros
+			channel.write(ByteBuffer.wrap(new byte[1]), length - 1);
+			MappedFileBuffer buffer = new MappedFileBuffer(channel, length,
+					true, lgChunkSize);
+			buffer.putLong(0, MAGIC);
+			buffer.putInt(8, VERSION);
+			buffer.putInt(OFFSET_SAMPLE_RATE, selectSampleRate);
+			buffer.putLong(OFFSET_SIZE, size);
+			buffer.putLong(OFFSET_COUNT_OF_TRUE, -1);
+			return new MappedBitVector(buffer, true);
+		}
+	}
+
+	/**
+	 * Writes the given bit vector to a file, including the directories for
+	 * rank and select. An existing file is overwritten.
+	 *
+	 * @param bitVector
+	 *            the bit vector to write
+	 * @param file
+	 *            the file to write to
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	public static void write(BitVector bitVector, Path file)
+			throws IOException {
+		Validate.notNull(bitVector, "Bit vector cannot be null.");
+		try (MappedBitVector mapped = create(file, bitVector.size())) {
+			if (bitVector instanceof BitVectorImpl) {
+				long[] words = ((BitVectorImpl) bitVector).arrayOfBits;
+				for (long i = 0; i < mapped.numberOfWords; i++) {
+					mapped.putWord(i, words[(int) i]);
+				}
+			} else {
+				for (long i = 0; i < bitVector.size(); i++) {
+					if (bitVector.getBit(i)) {
+						mapped.setBit(i, true);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Opens an existing bit vector for reading. Only the header of the file is
+	 * read.
+	 *
+	 * @param file
+	 *            the file to open
+	 * @return the read-only bit vector
+	 * @throws IOException
+	 *             if the file could not be read or is not a complete bit
+	 *             vector file
+	 */
+	public static MappedBitVector open(Path file) throws IOException {
+		return open(file, MappedFileBuffer.DEFAULT_LG_CHUNK_SIZE);
+	}
+
+	static MappedBitVector open(Path file, int lgChunkSize) throws IOException {
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_SIZE) {
+				throw new IOException("File " + file
+						+ " is too short for a bit vector.");
+			}
+			MappedFileBuffer header = new MappedFileBuffer(channel,
+					HEADER_SIZE, false, 6);
+			if (header.getLong(0) != MAGIC || header.getInt(8) != VERSION) {
+				throw new IOException("File " + file
+						+ " is not a bit vector of version " + VERSION + ".");
+			}
+			if (header.getLong(OFFSET_COUNT_OF_TRUE) < 0) {
+				throw new IOException("Bit vector in file " + file
+						+ " was not closed properly.");
+			}
+			long length = getFileLength(header.getLong(OFFSET_SIZE),
+					header.getInt(OFFSET_SAMPLE_RATE));
+			if (channel.size() < length) {
+				throw new IOException("File " + file + " is truncated.");
+			}
+			return new MappedBitVector(new MappedFileBuffer(channel, length,
+					false, lgChunkSize), false);
+		}
+	}
+
+	private MappedBitVector(MappedFileBuffer buffer, boolean writable) {
+		this.buffer = buffer;
+		this.writable = writable;
+		this.size = buffer.getLong(OFFSET_SIZE);
+		this.selectSampleRate = buffer.getInt(OFFSET_SAMPLE_RATE);
+		this.countOfTrue = buffer.getLong(OFFSET_COUNT_OF_TRUE);
+		this.numberOfSamplesOfTrue = buffer.getLong(OFFSET_SAMPLES_OF_TRUE);
+		this.numberOfSamplesOfFalse = buffer.getLong(OFFSET_SAMPLES_OF_FALSE);
+
+		this.numberOfWords = getNumberOfWords(this.size);
+		this.numberOfBlocks = getNumberOfBlocks(this.numberOfWords);
+		this.superblocksOffset = HEADER_SIZE + 8 * this.numberOfWords;
+		this.blocksOffset = this.superblocksOffset + 8
+				* getNumberOfSuperblocks(this.numberOfBlocks);
+		this.samplesOffset = this.blocksOffset
+				+ ((2 * this.numberOfBlocks + 7) & ~7L);
+	}
+
+	static long getNumberOfWords(long size) {
+		return (size + BitVectorImpl.WORD_MASK) >>> BitVectorImpl.LG_WORD_SIZE;
+	}
+
+	static long getNumberOfBlocks(long numberOfWords) {
+		return (numberOfWords + RankSelectDirectory.WORDS_PER_BLOCK - 1) >>> RankSelectDirectory.LG_WORDS_PER_BLOCK;
+	}
+
+	static long getNumberOfSuperblocks(long numberOfBlocks) {
+		return (numberOfBlocks + (1 << RankSelectDirectory.LG_BLOCKS_PER_SUPERBLOCK) - 1) >>> RankSelectDirectory.LG_BLOCKS_PER_SUPERBLOCK;
+	}
+
+	static long getMaximalNumberOfSamples(long size, int selectSampleRate) {
+		return size / selectSampleRate + 2;
+	}
+
+	/**
+	 * Returns the length of a file that stores a bit vector of the given
+	 * size.
+	 */
+	static long getFileLength(long size, int selectSampleRate) {
+		long numberOfWords = getNumberOfWords(size);
+		long numberOfBlocks = getNumberOfBlocks(numberOfWords);
+		return HEADER_SIZE + 8 * numberOfWords + 8
+				* getNumberOfSuperblocks(numberOfBlocks)
+				+ ((2 * numberOfBlocks + 7) & ~7L) + 8
+				* getMaximalNumberOfSamples(size, selectSampleRate);
+	}
+
+	long getWord(long index) {
+		return this.buffer.getLong(HEADER_SIZE + 8 * index);
+	}
+
+	void putWord(long index, long word) {
+		this.buffer.putLong(HEADER_SIZE + 8 * index, word);
+		invalidateDirectory();
+	}
+
+	@Override
+	public boolean getBit(long position) {
+		if (position < 0) {
+			throw new IndexOutOfBoundsException("Position " + position
+					+ " is out of bounds.");
+		}
+		if (position >= this.size) {
+			return false;
+		}
+		return ((getWord(position >>> BitVectorImpl.LG_WORD_SIZE) >>> (position & BitVectorImpl.WORD_MASK)) & 1) == 1;
+	}
+
+	/**
+	 * Sets a bit. Bit vectors of this class have a fixed size, so the
+	 * position must be smaller than the size.
+	 *
+	 * @throws IndexOutOfBoundsException
+	 *             if the position is out of range
+	 * @throws UnsupportedOperationException
+	 *             if the bit vector was opened read-only
+	 */
+	@Override
+	public void setBit(long position, boolean bit) {
+		assertWritable();
+		if (position < 0 || position >= this.size) {
+			throw new IndexOutOfBoundsException("Position " + position
+					+ " is out of bounds.");
+		}
+		long index = position >>> BitVectorImpl.LG_WORD_SIZE;
+		long word = getWord(index);
+		long mask = 1L << (position & BitVectorImpl.WORD_MASK);
+		long newWord = bit ? word | mask : word & ~mask;
+		if (newWord != word) {
+			putWord(index, newWord);
+		}
+	}
+
+	/**
+	 * Not supported, since bit vectors of this class have a fixed size.
+	 *
+	 * @throws UnsupportedOperationException
+	 *             always
+	 */
+	@Override
+	public boolean addBit(boolean bit) {
+		throw new UnsupportedOperationException(
+				"Memory-mapped bit vectors have a fixed size.");
+	}
+
+	@Override
+	public long size() {
+		return this.size;
+	}
+
+	@Override
+	public long countBits(boolean bit, long position) {
+		if (position < 0) {
+			return 0;
+		}
+		ensureDirectory();
+		long count;
+		if (position >= this.size) {
+			count = this.countOfTrue;
+		} else {
+			long word = position >>> BitVectorImpl.LG_WORD_SIZE;
+			long block = word >>> RankSelectDirectory.LG_WORDS_PER_BLOCK;
+			count = countBefore(true, block);
+			for (long i = block << RankSelectDirectory.LG_WORDS_PER_BLOCK; i < word; i++) {
+				count += Long.bitCount(getWord(i));
+			}
+			count += Long.bitCount(getWord(word)
+					& (-1L >>> (BitVectorImpl.WORD_MASK - (position & BitVectorImpl.WORD_MASK))));
+		}
+		return bit ? count : (position + 1 - count);
+	}
+
+	@Override
+	public long findPosition(boolean bit, long nOccurrence) {
+		ensureDirectory();
+		long total = bit ? this.countOfTrue : this.size - this.countOfTrue;
+		if (nOccurrence <= 0 || nOccurrence > total) {
+			return NOT_FOUND;
+		}
+		long sample = (nOccurrence - 1) / this.selectSampleRate;
+		long numberOfSamples = bit ? this.numberOfSamplesOfTrue
+				: this.numberOfSamplesOfFalse;
+		long low = getSample(bit, sample);
+		long high = (sample + 1 < numberOfSamples) ? getSample(bit,
+				sample + 1) : this.numberOfBlocks - 1;
+		while (low < high) {
+			long middle = (low + high + 1) >>> 1;
+			if (countBefore(bit, middle) < nOccurrence) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+
+		long remaining = nOccurrence - countBefore(bit, low);
+		for (long i = low << RankSelectDirectory.LG_WORDS_PER_BLOCK;; i++) {
+			long word = bit ? getWord(i) : ~getWord(i);
+			int count = Long.bitCount(word);
+			if (remaining <= count) {
+				return (i << BitVectorImpl.LG_WORD_SIZE)
+						+ RankSelectDirectory.selectInWord(word,
+								(int) remaining);
+			}
+			remaining -= count;
+		}
+	}
+
+	long countBefore(boolean bit, long block) {
+		long count = this.buffer.getLong(this.superblocksOffset + 8
+				* (block >>> RankSelectDirectory.LG_BLOCKS_PER_SUPERBLOCK))
+				+ this.buffer.getChar(this.blocksOffset + 2 * block);
+		return bit ? count : block * RankSelectDirectory.BITS_PER_BLOCK
+				- count;
+	}
+
+	long getSample(boolean bit, long sample) {
+		long index = bit ? sample : this.numberOfSamplesOfTrue + sample;
+		return this.buffer.getLong(this.samplesOffset + 8 * index);
+	}
+
+	/**
+	 * Computes the directories for rank and select if the bits have changed.
+	 */
+	void ensureDirectory() {
+		if (this.countOfTrue >= 0) {
+			return;
+		}
+		long count = 0;
+		for (long block = 0; block < this.numberOfBlocks; block++) {
+			long superblockOffset = this.superblocksOffset + 8
+					* (block >>> RankSelectDirectory.LG_BLOCKS_PER_SUPERBLOCK);
+			if ((block & ((1 << RankSelectDirectory.LG_BLOCKS_PER_SUPERBLOCK) - 1)) == 0) {
+				this.buffer.putLong(superblockOffset, count);
+			}
+			this.buffer.putChar(this.blocksOffset + 2 * block,
+					(char) (count - this.buffer.getLong(superblockOffset)));
+			long end = Math.min(this.numberOfWords,
+					(block + 1) << RankSelectDirectory.LG_WORDS_PER_BLOCK);
+			for (long i = block << RankSelectDirectory.LG_WORDS_PER_BLOCK; i < end; i++) {
+				count += Long.bitCount(getWord(i));
+			}
+		}
+
+		this.numberOfSamplesOfTrue = (count + this.selectSampleRate - 1)
+				/ this.selectSampleRate;
+		this.numberOfSamplesOfFalse = (this.size - count
+				+ this.selectSampleRate - 1)
+				/ this.selectSampleRate;
+		long nextSampleOfTrue = 0;
+		long nextSampleOfFalse = 0;
+		for (long block = 0; block < this.numberOfBlocks; block++) {
+			long after = (block + 1 < this.numberOfBlocks) ? countBefore(
+					true, block + 1) : count;
+			while (nextSampleOfTrue < this.numberOfSamplesOfTrue
+					&& nextSampleOfTrue * this.selectSampleRate < after) {
+				this.buffer.putLong(this.samplesOffset + 8
+						* nextSampleOfTrue++, block);
+			}
+			after = Math.min(this.size, (block + 1)
+					* RankSelectDirectory.BITS_PER_BLOCK)
+					- after;
+			while (nextSampleOfFalse < this.numberOfSamplesOfFalse
+					&& nextSampleOfFalse * this.selectSampleRate < after) {
+				this.buffer.putLong(this.samplesOffset + 8
+						* (this.numberOfSamplesOfTrue + nextSampleOfFalse++),
+						block);
+			}
+		}
+
+		this.buffer.putLong(OFFSET_SAMPLES_OF_TRUE,
+				this.numberOfSamplesOfTrue);
+		this.buffer.putLong(OFFSET_SAMPLES_OF_FALSE,
+				this.numberOfSamplesOfFalse);
+		this.countOfTrue = count;
+		this.buffer.putLong(OFFSET_COUNT_OF_TRUE, count);
+	}
+
+	private void invalidateDirectory() {
+		if (this.countOfTrue >= 0) {
+			this.countOfTrue = -1;
+			this.buffer.putLong(OFFSET_COUNT_OF_TRUE, -1);
+		}
+	}
+
+	private void assertWritable() {
+		if (!this.writable) {
+			throw new UnsupportedOperationException(
+					"This bit vector was opened read-only.");
+		}
+	}
+
+	/**
+	 * Computes the directories if needed and writes all changes to the file.
+	 * Read-only bit vectors are not affected. The file stays mapped until the
+	 * object is garbage collected, but it should not be used afterwards.
+	 */
+	@Override
+	public void close() {
+		if (this.writable) {
+			ensureDirectory();
+			this.buffer.force();
+		}
+	}
+
+	@Override
+	public Iterator<Boolean> iterator() {
+		return new BitVectorIterator(this);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof BitVector)) {
+			return false;
+		}
+		BitVector other = (BitVector) obj;
+		if (this.size != other.size()) {
+			return false;
+		}
+		// bits after the end are false in both representations, so that
+		// whole words can be compared
+		if (other instanceof MappedBitVector) {
+			MappedBitVector otherMapped = (MappedBitVector) other;
+			for (long i = 0; i < this.numberOfWords; i++) {
+				if (getWord(i) != otherMapped.getWord(i)) {
+					return false;
+				}
+			}
+			return true;
+		} else if (other instanceof BitVectorImpl) {
+			long[] otherWords = ((BitVectorImpl) other).arrayOfBits;
+			for (int i = 0; i < this.numberOfWords; i++) {
+				if (getWord(i) != otherWords[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+		for (long i = 0; i < this.size; i++) {
+			if (getBit(i) != other.getBit(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a hash code that is the same as the hash code of a
+	 * {@link BitVectorImpl} with the same bits.
+	 */
+	@Override
+	public int hashCode() {
+		int ret = (int) this.size;
+		for (long i = 0; i < this.numberOfWords; i++) {
+			ret += (0x1F * getWord(i));
+		}
+		return ret;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (long position = 0; position < this.size; position++) {
+			sb.append(getBit(position) ? "1" : "0");
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,124 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * A file, or a prefix of a file, that is mapped into memory in chunks, so
+ * that files larger than 2GB can be accessed. The data is read and written in
+ * little-endian byte order. Values must not cross chunk boundaries, which is
+ * guaranteed if they are aligned to their size, since chunks have a size that
+ * is a power of two.
+ */
+class MappedFileBuffer {
+
+	static final int DEFAULT_LG_CHUNK_SIZE = 30;
+
+	final int lgChunkSize;
+
+	final long chunkMask;
+
+	final MappedByteBuffer[] chunks;
+
+	/**
+	 * Maps the first <i>length</i> bytes of the given file. The mapping stays
+	 * valid after the channel is closed.
+	 *
+	 * @param channel
+	 *            the channel of the file
+	 * @param length
+	 *            the number of bytes to map
+	 * @param writable
+	 *            true if the file should be mapped for reading and writing
+	 * @param lgChunkSize
+	 *            base-two logarithm of the size of each mapped chunk; must be
+	 *            between 3 and 30
+	 * @throws IOException
+	 *             if the file could not be mapped
+	 */
+	MappedFileBuffer(FileChannel channel, long length, boolean writable,
+			int lgChunkSize) throws IOException {
+		if (lgChunkSize < 3 || lgChunkSize > DEFAULT_LG_CHUNK_SIZE) {
+			throw new IllegalArgumentException(
+					"The chunk size must be between 2^3 and 2^30 bytes.");
+		}
+		this.lgChunkSize = lgChunkSize;
+		this.chunkMask = (1L << lgChunkSize) - 1;
+		int numberOfChunks = (int) ((length + this.chunkMask) >>> lgChunkSize);
+		this.chunks = new MappedByteBuffer[numberOfChunks];
+		for (int i = 0; i < numberOfChunks; i++) {
+			long start = (long) i << lgChunkSize;
+			this.chunks[i] = channel.map(writable ? MapMode.READ_WRITE
+					: MapMode.READ_ONLY, start,
+					Math.min(length - start, 1L << lgChunkSize));
+			this.chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	long getLong(long offset) {
+		return this.chunks[(int) (offset >>> this.lgChunkSize)]
+				.getLong((int) (offset & this.chunkMask));
+	}
+
+	void putLong(long offset, long value) {
+		this.chunks[(int) (offset >>> this.lgChunkSize)].putLong(
+				(int) (offset & this.chunkMask), value);
+	}
+
+	int getInt(long offset) {
+		return this.chunks[(int) (offset >>> this.lgChunkSize)]
+				.getInt((int) (offset & this.chunkMask));
+	}
+
+	void putInt(long offset, int value) {
+		this.chunks[(int) (offset >>> this.lgChunkSize)].putInt(
+				(int) (offset & this.chunkMask), value);
+	}
+
+	byte getByte(long offset) {
+		return this.chunks[(int) (offset >>> this.lgChunkSize)]
+				.get((int) (offset & this.chunkMask));
+	}
+
+	char getChar(long offset) {
+		return this.chunks[(int) (offset >>> this.lgChunkSize)]
+				.getChar((int) (offset & this.chunkMask));
+	}
+
+	void putChar(long offset, char value) {
+		this.chunks[(int) (offset >>> this.lgChunkSize)].putChar(
+				(int) (offset & this.chunkMask), value);
+	}
+
+	/**
+	 * Writes all changes to the storage device.
+	 */
+	void force() {
+		for (MappedByteBuffer chunk : this.chunks) {
+			chunk.force();
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Strategy for allocating the memory of large primitive data structures, such
+ * as {@link LongLongHashMap}. Memory can be taken from the Java heap, from
+ * outside of the heap (direct buffers), or from memory-mapped temporary files.
+ * The latter two do not count towards the maximal heap size, so data
+ * structures with billions of entries do not need a huge heap, and
+ * memory-mapped files can even be larger than the physical memory.
+ * <p>
+ * Memory that is not on the heap is released when the data structure that
+ * uses it is garbage collected.
+ */
+public abstract class MemoryAllocator {
+
+	/**
+	 * Base-two logarithm of the largest size of a single buffer.
+	 */
+	static final int LG_CHUNK_SIZE = 30;
+
+	static final MemoryAllocator ON_HEAP = new MemoryAllocator() {
+		@Override
+		ByteBuffer allocateChunk(int size) {
+			return ByteBuffer.allocate(size);
+		}
+
+		@Override
+		public String toString() {
+			return "on-heap";
+		}
+	};
+
+	static final MemoryAllocator OFF_HEAP = new MemoryAllocator() {
+		@Override
+		ByteBuffer allocateChunk(int size) {
+			return ByteBuffer.allocateDirect(size);
+		}
+
+		@Override
+		public String toString() {
+			return "off-heap";
+		}
+	};
+
+	MemoryAllocator() {
+	}
+
+	/**
+	 * Returns an allocator for memory on the Java heap.
+	 *
+	 * @return allocator
+	 */
+	public static MemoryAllocator onHeap() {
+		return ON_HEAP;
+	}
+
+	/**
+	 * Returns an allocator for memory outside of the Java heap, which is
+	 * limited by the JVM option <code>-XX:MaxDirectMemorySize</code>.
+	 *
+	 * @return allocator
+	 */
+	public static MemoryAllocator offHeap() {
+		return OFF_HEAP;
+	}
+
+	/**
+	 * Returns an allocator for memory-mapped temporary files in the given
+	 * directory. The files are deleted right after they have been mapped
+	 * (where the operating system supports this), or when the JVM exits.
+	 *
+	 * @param directory
+	 *            directory for the temporary files
+	 * @return allocator
+	 */
+	public static MemoryAllocator mapped(Path directory) {
+		Validate.notNull(directory, "Directory cannot be null.");
+		return new MemoryAllocator() {
+			@Override
+			ByteBuffer allocateChunk(int size) {
+				try {
+					Path file = Files.createTempFile(directory, "wdtk-", ".map");
+					ByteBuffer buffer;
+					try (RandomAccessFile raf = new RandomAccessFile(
+							file.toFile(), "rw");
+							FileChannel channel = raf.getChannel()) {
+						raf.setLength(size);
+						buffer = channel.map(MapMode.READ_WRITE, 0, size);
+					}
+					try {
+						Files.delete(file);
+					} catch (IOException e) {
+						file.toFile().deleteOnExit();
+					}
+					return buffer;
+				} catch (IOException e) {
+					throw new RuntimeException(
+							"Cannot create memory-mapped file in " + directory
+									+ ": " + e.getMessage(), e);
+				}
+			}
+
+			@Override
+			public String toString() {
+				return "mapped(" + directory + ")";
+			}
+		};
+	}
+
+	/**
+	 * Allocates a buffer that is filled with zeros.
+	 *
+	 * @param size
+	 *            the size of the buffer in bytes
+	 * @return buffer
+	 */
+	abstract ByteBuffer allocateChunk(int size);
+}
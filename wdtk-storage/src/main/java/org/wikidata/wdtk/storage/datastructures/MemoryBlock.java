@@ -0,0 +1,79 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Zero-initialized block of memory of any size, which is allocated in chunks
+ * of at most 2<sup>30</sup> bytes by a {@link MemoryAllocator}. Values must be
+ * aligned to their size so that they do not cross chunk boundaries.
+ */
+class MemoryBlock {
+
+	final long size;
+
+	final ByteBuffer[] chunks;
+
+	/**
+	 * Allocates a new block.
+	 *
+	 * @param allocator
+	 *            the allocator to take memory from
+	 * @param size
+	 *            the size in bytes
+	 */
+	MemoryBlock(MemoryAllocator allocator, long size) {
+		this.size = size;
+		long chunkSize = 1L << MemoryAllocator.LG_CHUNK_SIZE;
+		int numberOfChunks = (int) ((size + chunkSize - 1) >>> MemoryAllocator.LG_CHUNK_SIZE);
+		this.chunks = new ByteBuffer[numberOfChunks];
+		for (int i = 0; i < numberOfChunks; i++) {
+			long start = i * chunkSize;
+			this.chunks[i] = allocator.allocateChunk(
+					(int) Math.min(size - start, chunkSize)).order(
+					ByteOrder.nativeOrder());
+		}
+	}
+
+	long getLong(long offset) {
+		return this.chunks[(int) (offset >>> MemoryAllocator.LG_CHUNK_SIZE)]
+				.getLong((int) offset & ((1 << MemoryAllocator.LG_CHUNK_SIZE) - 1));
+	}
+
+	void putLong(long offset, long value) {
+		this.chunks[(int) (offset >>> MemoryAllocator.LG_CHUNK_SIZE)].putLong(
+				(int) offset & ((1 << MemoryAllocator.LG_CHUNK_SIZE) - 1),
+				value);
+	}
+
+	int getInt(long offset) {
+		return this.chunks[(int) (offset >>> MemoryAllocator.LG_CHUNK_SIZE)]
+				.getInt((int) offset & ((1 << MemoryAllocator.LG_CHUNK_SIZE) - 1));
+	}
+
+	void putInt(long offset, int value) {
+		this.chunks[(int) (offset >>> MemoryAllocator.LG_CHUNK_SIZE)].putInt(
+				(int) offset & ((1 << MemoryAllocator.LG_CHUNK_SIZE) - 1),
+				value);
+	}
+}
@@ -0,0 +1,259 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Directory for constant-time rank and select queries on a bit vector that is
+ * stored in an array of 64-bit words. The bit vector is divided into
+ * superblocks of {@value #BITS_PER_SUPERBLOCK} bits and blocks of
+ * {@value #BITS_PER_BLOCK} bits. For each superblock, the directory stores the
+ * number of <code>true</code> values before it, and for each block the number
+ * of <code>true</code> values between the start of its superblock and the
+ * block, which fits into 16 bits. Ranks are found by adding these two values
+ * and counting the bits of at most eight words with {@link Long#bitCount(long)}.
+ * The directory needs about 3.2% of the space of the bit vector.
+ * <p>
+ * For select, the directory samples the block of every <i>k</i>-th
+ * occurrence of <code>true</code> and of <code>false</code>, where <i>k</i>
+ * is the select sample rate. A query does a binary search on the blocks
+ * between two samples and then scans at most eight words.
+ * <p>
+ * The directory is a snapshot: it has to be rebuilt when the bit vector
+ * changes.
+ *
+ * @see RankedBitVectorImpl
+ */
+class RankSelectDirectory {
+
+	static final int LG_WORDS_PER_BLOCK = 3;
+	static final int WORDS_PER_BLOCK = 1 << LG_WORDS_PER_BLOCK;
+	static final int BITS_PER_BLOCK = WORDS_PER_BLOCK << BitVectorImpl.LG_WORD_SIZE;
+
+	static final int LG_BLOCKS_PER_SUPERBLOCK = 7;
+	static final int BITS_PER_SUPERBLOCK = BITS_PER_BLOCK << LG_BLOCKS_PER_SUPERBLOCK;
+
+	static final int DEFAULT_SELECT_SAMPLE_RATE = 0x2000;
+
+	/**
+	 * The words of the bit vector, which are assumed unmodified.
+	 */
+	final long[] words;
+
+	/**
+	 * The number of bits in the bit vector.
+	 */
+	final long size;
+
+	/**
+	 * Number of occurrences of a bit value between two select samples.
+	 */
+	final int selectSampleRate;
+
+	/**
+	 * Number of <code>true</code> values before each superblock.
+	 */
+	final long[] superblockCounts;
+
+	/**
+	 * Number of <code>true</code> values before each block, counted from the
+	 * start of its superblock.
+	 */
+	final char[] blockCounts;
+
+	/**
+	 * Block that contains the occurrence 1 + <i>i</i> * selectSampleRate of
+	 * <code>true</code>, for each <i>i</i>.
+	 */
+	final int[] selectSamplesOfTrue;
+
+	/**
+	 * Block that contains the occurrence 1 + <i>i</i> * selectSampleRate of
+	 * <code>false</code>, for each <i>i</i>.
+	 */
+	final int[] selectSamplesOfFalse;
+
+	final long countOfTrue;
+
+	/**
+	 * Creates a directory for the given bits.
+	 *
+	 * @param words
+	 *            words of the bit vector, with the least significant bit of
+	 *            each word first; bits after the end of the bit vector must be
+	 *            <code>false</code>
+	 * @param size
+	 *            the number of bits in the bit vector
+	 * @param selectSampleRate
+	 *            number of occurrences of a bit value between two select
+	 *            samples; must be a positive number
+	 */
+	RankSelectDirectory(long[] words, long size, int selectSampleRate) {
+		if (selectSampleRate < 1) {
+			throw new IllegalArgumentException(
+					"The select sample rate must be a positive number. The received value was: "
+							+ selectSampleRate + ".");
+		}
+		this.words = words;
+		this.size = size;
+		this.selectSampleRate = selectSampleRate;
+
+		int numberOfWords = (int) ((size + BitVectorImpl.WORD_MASK) >>> BitVectorImpl.LG_WORD_SIZE);
+		int numberOfBlocks = (numberOfWords + WORDS_PER_BLOCK - 1) >>> LG_WORDS_PER_BLOCK;
+		this.superblockCounts = new long[(numberOfBlocks
+				+ (1 << LG_BLOCKS_PER_SUPERBLOCK) - 1) >>> LG_BLOCKS_PER_SUPERBLOCK];
+		this.blockCounts = new char[numberOfBlocks];
+
+		long count = 0;
+		for (int block = 0; block < numberOfBlocks; block++) {
+			int superblock = block >>> LG_BLOCKS_PER_SUPERBLOCK;
+			if ((block & ((1 << LG_BLOCKS_PER_SUPERBLOCK) - 1)) == 0) {
+				this.superblockCounts[superblock] = count;
+			}
+			this.blockCounts[block] = (char) (count - this.superblockCounts[superblock]);
+			int end = Math.min(numberOfWords, (block + 1) << LG_WORDS_PER_BLOCK);
+			for (int i = block << LG_WORDS_PER_BLOCK; i < end; i++) {
+				count += Long.bitCount(words[i]);
+			}
+		}
+		this.countOfTrue = count;
+
+		this.selectSamplesOfTrue = new int[(int) ((count + selectSampleRate - 1) / selectSampleRate)];
+		this.selectSamplesOfFalse = new int[(int) ((size - count + selectSampleRate - 1) / selectSampleRate)];
+		int nextSampleOfTrue = 0;
+		int nextSampleOfFalse = 0;
+		for (int block = 0; block < numberOfBlocks; block++) {
+			long after = (block + 1 < numberOfBlocks) ? countBefore(true,
+					block + 1) : count;
+			while (nextSampleOfTrue < this.selectSamplesOfTrue.length
+					&& (long) nextSampleOfTrue * selectSampleRate < after) {
+				this.selectSamplesOfTrue[nextSampleOfTrue++] = block;
+			}
+			after = Math.min(size, (long) (block + 1) * BITS_PER_BLOCK)
+					- after;
+			while (nextSampleOfFalse < this.selectSamplesOfFalse.length
+					&& (long) nextSampleOfFalse * selectSampleRate < after) {
+				this.selectSamplesOfFalse[nextSampleOfFalse++] = block;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of occurrences of <i>bit</i> up to <i>position</i>,
+	 * inclusive. Positions after the end of the bit vector are considered to
+	 * be <code>false</code>.
+	 *
+	 * @param bit
+	 *            bit
+	 * @param position
+	 *            position
+	 * @return number of occurrences of <i>bit</i> up to <i>position</i>
+	 */
+	long countBits(boolean bit, long position) {
+		if (position < 0) {
+			return 0;
+		}
+		long countOfTrue;
+		if (position >= this.size) {
+			countOfTrue = this.countOfTrue;
+		} else {
+			int word = (int) (position >>> BitVectorImpl.LG_WORD_SIZE);
+			int block = word >>> LG_WORDS_PER_BLOCK;
+			countOfTrue = countBefore(true, block);
+			for (int i = block << LG_WORDS_PER_BLOCK; i < word; i++) {
+				countOfTrue += Long.bitCount(this.words[i]);
+			}
+			countOfTrue += Long.bitCount(this.words[word]
+					& (-1L >>> (BitVectorImpl.WORD_MASK - (position & BitVectorImpl.WORD_MASK))));
+		}
+		return bit ? countOfTrue : (position + 1 - countOfTrue);
+	}
+
+	/**
+	 * Returns the position of the <i>n</i>-th occurrence of <i>bit</i>, or
+	 * {@link RankedBitVector#NOT_FOUND} if there are not enough occurrences.
+	 *
+	 * @param bit
+	 *            bit
+	 * @param nOccurrence
+	 *            number of occurrences
+	 * @return position of the <i>n</i>-th occurrence of <i>bit</i>
+	 */
+	long findPosition(boolean bit, long nOccurrence) {
+		long total = bit ? this.countOfTrue : this.size - this.countOfTrue;
+		if (nOccurrence <= 0 || nOccurrence > total) {
+			return RankedBitVector.NOT_FOUND;
+		}
+		int[] samples = bit ? this.selectSamplesOfTrue
+				: this.selectSamplesOfFalse;
+		int sample = (int) ((nOccurrence - 1) / this.selectSampleRate);
+		int low = samples[sample];
+		int high = (sample + 1 < samples.length) ? samples[sample + 1]
+				: this.blockCounts.length - 1;
+		// find the last block with fewer occurrences before it
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (countBefore(bit, middle) < nOccurrence) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+
+		long remaining = nOccurrence - countBefore(bit, low);
+		for (int i = low << LG_WORDS_PER_BLOCK;; i++) {
+			long word = bit ? this.words[i] : ~this.words[i];
+			int count = Long.bitCount(word);
+			if (remaining <= count) {
+				return ((long) i << BitVectorImpl.LG_WORD_SIZE)
+						+ selectInWord(word, (int) remaining);
+			}
+			remaining -= count;
+		}
+	}
+
+	/**
+	 * Returns the number of occurrences of <i>bit</i> before the given block.
+	 */
+	long countBefore(boolean bit, int block) {
+		long countOfTrue = this.superblockCounts[block >>> LG_BLOCKS_PER_SUPERBLOCK]
+				+ this.blockCounts[block];
+		return bit ? countOfTrue : (long) block * BITS_PER_BLOCK
+				- countOfTrue;
+	}
+
+	/**
+	 * Returns the position of the <i>n</i>-th bit that is set in a word,
+	 * counting from the least significant bit.
+	 *
+	 * @param word
+	 *            word
+	 * @param nOccurrence
+	 *            number of the occurrence, which must be between 1 and the
+	 *            number of bits set in the word
+	 * @return position in the word
+	 */
+	static int selectInWord(long word, int nOccurrence) {
+		for (int i = 1; i < nOccurrence; i++) {
+			word &= word - 1;
+		}
+		return Long.numberOfTrailingZeros(word);
+	}
+}
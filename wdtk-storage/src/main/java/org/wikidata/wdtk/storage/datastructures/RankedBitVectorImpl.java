@@ -24,42 +24,39 @@ import java.util.Iterator;
 
 /**
  * Default implementation of {@link RankedBitVector}. This implementation uses
- * auxiliary classes to have efficient performance for the methods of a ranked
- * bit vector. Hence, {@link #countBits(boolean, long)} uses an instance of
- * {@link CountBitsArray} and {@link #findPosition(boolean, long)} uses two
- * instances of {@link FindPositionArray}.
+ * a {@link RankSelectDirectory} that works on the 64-bit words of the bit
+ * vector, so that {@link #countBits(boolean, long)} and
+ * {@link #findPosition(boolean, long)} take constant or near-constant time.
+ * The directory is rebuilt on the first query after the bit vector has been
+ * modified, which takes time linear in the number of words.
  * 
- * @see CountBitsArray
- * 
- * @see FindPositionArray
+ * @see RankSelectDirectory
  * 
  * @author Julian Mendez
  */
 public class RankedBitVectorImpl implements RankedBitVector, Iterable<Boolean> {
 
-	static final int defaultCountBitsBlockSize = 0x400;
-
-	static final int defaultFindPositionBlockSize = 0x2000;
+	static final int defaultFindPositionBlockSize = RankSelectDirectory.DEFAULT_SELECT_SAMPLE_RATE;
 
 	final BitVectorImpl bitVector;
 
-	final CountBitsArray countBitsArray;
-
-	final FindPositionArray findPositionOfFalse;
+	/**
+	 * Number of occurrences of a bit value between two select samples of the
+	 * directory.
+	 */
+	final int findPositionBlockSize;
 
-	final FindPositionArray findPositionOfTrue;
+	/**
+	 * Directory for rank and select, or null if it needs to be rebuilt.
+	 */
+	RankSelectDirectory directory;
 
 	/**
 	 * Constructor of a ranked bit vector of size 0.
 	 */
 	public RankedBitVectorImpl() {
 		this.bitVector = new BitVectorImpl();
-		this.countBitsArray = new CountBitsArray(this.bitVector,
-				defaultCountBitsBlockSize);
-		this.findPositionOfFalse = new FindPositionArray(this.bitVector, false,
-				defaultFindPositionBlockSize);
-		this.findPositionOfTrue = new FindPositionArray(this.bitVector, true,
-				defaultFindPositionBlockSize);
+		this.findPositionBlockSize = defaultFindPositionBlockSize;
 	}
 
 	/**
@@ -71,18 +68,10 @@ public class RankedBitVectorImpl implements RankedBitVector, Iterable<Boolean> {
 	public RankedBitVectorImpl(BitVector bitVector) {
 		this.bitVector = new BitVectorImpl(bitVector);
 		if (bitVector instanceof RankedBitVectorImpl) {
-			this.countBitsArray = new CountBitsArray(this.bitVector,
-					((RankedBitVectorImpl) bitVector).countBitsArray
-							.getBlockSize());
+			this.findPositionBlockSize = ((RankedBitVectorImpl) bitVector).findPositionBlockSize;
 		} else {
-			this.countBitsArray = new CountBitsArray(this.bitVector,
-					defaultCountBitsBlockSize);
+			this.findPositionBlockSize = defaultFindPositionBlockSize;
 		}
-		this.findPositionOfFalse = new FindPositionArray(this.bitVector, false,
-				defaultFindPositionBlockSize);
-		this.findPositionOfTrue = new FindPositionArray(this.bitVector, true,
-				defaultFindPositionBlockSize);
-
 	}
 
 	/**
@@ -94,12 +83,7 @@ public class RankedBitVectorImpl implements RankedBitVector, Iterable<Boolean> {
 	 */
 	public RankedBitVectorImpl(long initialSize) {
 		this.bitVector = new BitVectorImpl(initialSize);
-		this.countBitsArray = new CountBitsArray(this.bitVector,
-				defaultCountBitsBlockSize);
-		this.findPositionOfFalse = new FindPositionArray(this.bitVector, false,
-				defaultFindPositionBlockSize);
-		this.findPositionOfTrue = new FindPositionArray(this.bitVector, true,
-				defaultFindPositionBlockSize);
+		this.findPositionBlockSize = defaultFindPositionBlockSize;
 	}
 
 	/**
@@ -111,21 +95,31 @@ public class RankedBitVectorImpl implements RankedBitVector, Iterable<Boolean> {
 	 *            initial size of this ranked bit vector
 	 * @param countBlockSize
 	 *            block size to count number of occurrences of a value; this
-	 *            value must be a positive number
+	 *            value must be a positive number; it is only checked for
+	 *            compatibility, since the directory uses fixed blocks of
+	 *            {@value RankSelectDirectory#BITS_PER_BLOCK} bits
 	 * @param findPositionBlockSize
 	 *            block size to find the position of the <i>n</i>-th occurrence
-	 *            of a value; this value must be greater than or equal to 64
+	 *            of a value, used as the select sample rate of the directory;
+	 *            this value must be greater than or equal to 64
 	 * @throws IllegalArgumentException
 	 *             if any of the block sizes is too small
 	 */
 	public RankedBitVectorImpl(long initialSize, int countBlockSize,
 			int findPositionBlockSize) {
+		if (countBlockSize < 1) {
+			throw new IllegalArgumentException(
+					"The block size must be a positive number. The received value was: "
+							+ countBlockSize + ".");
+		}
+		if (findPositionBlockSize < 0x40) {
+			throw new IllegalArgumentException(
+					"The block size must be greater than or equal to " + 0x40
+							+ ". The received value was " + findPositionBlockSize
+							+ ".");
+		}
 		this.bitVector = new BitVectorImpl(initialSize);
-		this.countBitsArray = new CountBitsArray(this.bitVector, countBlockSize);
-		this.findPositionOfFalse = new FindPositionArray(this.bitVector, false,
-				findPositionBlockSize);
-		this.findPositionOfTrue = new FindPositionArray(this.bitVector, true,
-				findPositionBlockSize);
+		this.findPositionBlockSize = findPositionBlockSize;
 	}
 
 	@Override
@@ -137,7 +131,7 @@ public class RankedBitVectorImpl implements RankedBitVector, Iterable<Boolean> {
 
 	@Override
 	public long countBits(boolean bit, long position) {
-		return this.countBitsArray.countBits(bit, position);
+		return getDirectory().countBits(bit, position);
 	}
 
 	@Override
@@ -153,11 +147,21 @@ public class RankedBitVectorImpl implements RankedBitVector, Iterable<Boolean> {
 
 	@Override
 	public long findPosition(boolean bit, long nOccurrence) {
-		if (nOccurrence <= 0) {
-			return NOT_FOUND;
+		return getDirectory().findPosition(bit, nOccurrence);
+	}
+
+	/**
+	 * Returns the rank and select directory, building it if needed.
+	 * 
+	 * @return the directory for the current bits
+	 */
+	RankSelectDirectory getDirectory() {
+		if (this.directory == null) {
+			this.directory = new RankSelectDirectory(
+					this.bitVector.arrayOfBits, this.bitVector.size(),
+					this.findPositionBlockSize);
 		}
-		return bit ? this.findPositionOfTrue.findPosition(nOccurrence)
-				: this.findPositionOfFalse.findPosition(nOccurrence);
+		return this.directory;
 	}
 
 	@Override
@@ -176,9 +180,7 @@ public class RankedBitVectorImpl implements RankedBitVector, Iterable<Boolean> {
 	}
 
 	void notifyObservers() {
-		this.countBitsArray.update();
-		this.findPositionOfFalse.update();
-		this.findPositionOfTrue.update();
+		this.directory = null;
 	}
 
 	@Override
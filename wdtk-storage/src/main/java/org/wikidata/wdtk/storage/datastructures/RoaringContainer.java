@@ -0,0 +1,226 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.function.IntConsumer;
+
+/**
+ * Container for the values 0 to 65535 that share the same high bits in a
+ * {@link CompressedBitmap}. There are three representations: a sorted array
+ * for sparse containers ({@link ArrayContainer}), a plain bitmap for dense
+ * containers ({@link BitmapContainer}), and a list of runs of consecutive
+ * values ({@link RunContainer}). Array and bitmap containers are converted
+ * into each other automatically when values are added or removed, while run
+ * containers are only created by {@link #runOptimize()}.
+ * <p>
+ * Operations may modify the container they are called on and return the
+ * container that should be used afterwards, which might be a new one of a
+ * different type. Binary operations never modify their arguments.
+ */
+abstract class RoaringContainer {
+
+	/**
+	 * Number of values that a container can hold.
+	 */
+	static final int CONTAINER_SIZE = 0x10000;
+
+	/**
+	 * Largest cardinality of an {@link ArrayContainer}. Containers with more
+	 * values are stored as bitmaps, which need as much space as an array of
+	 * this size.
+	 */
+	static final int MAX_ARRAY_SIZE = 0x1000;
+
+	static final byte TYPE_ARRAY = 0;
+	static final byte TYPE_BITMAP = 1;
+	static final byte TYPE_RUN = 2;
+
+	/**
+	 * Returns the number of values in this container.
+	 *
+	 * @return number of values
+	 */
+	abstract int cardinality();
+
+	/**
+	 * Returns true if the given value is in this container.
+	 *
+	 * @param value
+	 *            value between 0 and 65535
+	 * @return true if the value is contained
+	 */
+	abstract boolean contains(int value);
+
+	/**
+	 * Adds a value.
+	 *
+	 * @param value
+	 *            value between 0 and 65535
+	 * @return the container that contains the result
+	 */
+	abstract RoaringContainer add(int value);
+
+	/**
+	 * Removes a value.
+	 *
+	 * @param value
+	 *            value between 0 and 65535
+	 * @return the container that contains the result
+	 */
+	abstract RoaringContainer remove(int value);
+
+	/**
+	 * Returns the smallest value in this container that is greater than or
+	 * equal to the given value.
+	 *
+	 * @param from
+	 *            non-negative value
+	 * @return the next value, or -1 if there is none
+	 */
+	abstract int nextValue(int from);
+
+	/**
+	 * Calls the given consumer for all values in ascending order.
+	 *
+	 * @param consumer
+	 *            consumer of values
+	 */
+	abstract void forEach(IntConsumer consumer);
+
+	/**
+	 * Returns a new container with the values that are in this or in the
+	 * other container.
+	 */
+	abstract RoaringContainer or(RoaringContainer other);
+
+	/**
+	 * Returns a new container with the values that are in this and in the
+	 * other container. The result might be empty.
+	 */
+	abstract RoaringContainer and(RoaringContainer other);
+
+	/**
+	 * Returns a new container with the values that are in this but not in the
+	 * other container. The result might be empty.
+	 */
+	abstract RoaringContainer andNot(RoaringContainer other);
+
+	/**
+	 * Returns a copy of this container that can be modified independently.
+	 */
+	abstract RoaringContainer copy();
+
+	/**
+	 * Returns the number of bytes that {@link #writeTo(DataOutput)} writes.
+	 */
+	abstract int getSizeInBytes();
+
+	/**
+	 * Returns the type that is written before the serialization of this
+	 * container.
+	 */
+	abstract byte getType();
+
+	/**
+	 * Writes this container without its type.
+	 */
+	abstract void writeTo(DataOutput output) throws IOException;
+
+	/**
+	 * Returns a run container with the same values if it is smaller than this
+	 * container, and this container otherwise.
+	 *
+	 * @return the smallest representation of this container
+	 */
+	RoaringContainer runOptimize() {
+		RunContainer runContainer = new RunContainer(this);
+		return runContainer.getSizeInBytes() < getSizeInBytes() ? runContainer
+				: this;
+	}
+
+	/**
+	 * Returns the sum of the hash contributions of the 64-bit words of this
+	 * container, in the same way as {@link BitVectorImpl#hashCode()}.
+	 */
+	int wordHash() {
+		int[] result = new int[1];
+		long[] current = { 0, 0 }; // word index and word
+		forEach(value -> {
+			int index = value >>> BitVectorImpl.LG_WORD_SIZE;
+			if (index != current[0]) {
+				result[0] += (int) (0x1F * current[1]);
+				current[0] = index;
+				current[1] = 0;
+			}
+			current[1] |= 1L << value;
+		});
+		return result[0] + (int) (0x1F * current[1]);
+	}
+
+	/**
+	 * Returns true if both containers contain the same values, regardless of
+	 * their representation.
+	 */
+	boolean hasSameValues(RoaringContainer other) {
+		if (cardinality() != other.cardinality()) {
+			return false;
+		}
+		int value = nextValue(0);
+		int otherValue = other.nextValue(0);
+		while (value >= 0) {
+			if (value != otherValue) {
+				return false;
+			}
+			value = nextValue(value + 1);
+			otherValue = other.nextValue(otherValue + 1);
+		}
+		return true;
+	}
+
+	/**
+	 * Reads a container that was written by {@link #writeTo(DataOutput)}.
+	 *
+	 * @param type
+	 *            the type of the container
+	 * @param input
+	 *            the input to read from
+	 * @return the container
+	 * @throws IOException
+	 *             if the input cannot be read or does not contain a valid
+	 *             container
+	 */
+	static RoaringContainer read(byte type, DataInput input)
+			throws IOException {
+		switch (type) {
+		case TYPE_ARRAY:
+			return ArrayContainer.read(input);
+		case TYPE_BITMAP:
+			return BitmapContainer.read(input);
+		case TYPE_RUN:
+			return RunContainer.read(input);
+		default:
+			throw new IOException("Unknown container type " + type + ".");
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Container of a {@link CompressedBitmap} that stores runs of consecutive
+ * values by their first value and length. This is very compact for ranges of
+ * ids. Run containers are immutable: modifications and binary operations
+ * convert them to array or bitmap containers first.
+ */
+final class RunContainer extends RoaringContainer {
+
+	/**
+	 * First values of the runs, in ascending order.
+	 */
+	final char[] starts;
+
+	/**
+	 * Lengths of the runs minus one, so that a run of all 65536 values can be
+	 * stored.
+	 */
+	final char[] lengths;
+
+	final int numberOfRuns;
+
+	final int cardinality;
+
+	RunContainer(char[] starts, char[] lengths, int numberOfRuns) {
+		this.starts = starts;
+		this.lengths = lengths;
+		this.numberOfRuns = numberOfRuns;
+		int cardinality = 0;
+		for (int i = 0; i < numberOfRuns; i++) {
+			cardinality += lengths[i] + 1;
+		}
+		this.cardinality = cardinality;
+	}
+
+	/**
+	 * Creates a run container with the same values as the given container.
+	 */
+	RunContainer(RoaringContainer container) {
+		int[] runs = { 0, -2, -2 }; // number of runs, start, last value
+		char[] starts = new char[16];
+		char[] lengths = new char[16];
+		char[][] arrays = { starts, lengths };
+		container.forEach(value -> {
+			if (value != runs[2] + 1) {
+				if (runs[1] >= 0) {
+					addRun(arrays, runs[0]++, runs[1], runs[2]);
+				}
+				runs[1] = value;
+			}
+			runs[2] = value;
+		});
+		if (runs[1] >= 0) {
+			addRun(arrays, runs[0]++, runs[1], runs[2]);
+		}
+		this.starts = arrays[0];
+		this.lengths = arrays[1];
+		this.numberOfRuns = runs[0];
+		this.cardinality = container.cardinality();
+	}
+
+	private static void addRun(char[][] arrays, int index, int start, int last) {
+		if (index == arrays[0].length) {
+			arrays[0] = Arrays.copyOf(arrays[0], 2 * index);
+			arrays[1] = Arrays.copyOf(arrays[1], 2 * index);
+		}
+		arrays[0][index] = (char) start;
+		arrays[1][index] = (char) (last - start);
+	}
+
+	@Override
+	int cardinality() {
+		return this.cardinality;
+	}
+
+	/**
+	 * Returns the index of the last run that starts at or before the given
+	 * value, or -1 if there is none.
+	 */
+	private int findRun(int value) {
+		int index = Arrays.binarySearch(this.starts, 0, this.numberOfRuns,
+				(char) value);
+		return index >= 0 ? index : -index - 2;
+	}
+
+	@Override
+	boolean contains(int value) {
+		int index = findRun(value);
+		return index >= 0
+				&& value <= this.starts[index] + this.lengths[index];
+	}
+
+	@Override
+	RoaringContainer add(int value) {
+		if (contains(value)) {
+			return this;
+		}
+		return toEagerContainer().add(value);
+	}
+
+	@Override
+	RoaringContainer remove(int value) {
+		if (!contains(value)) {
+			return this;
+		}
+		return toEagerContainer().remove(value);
+	}
+
+	@Override
+	int nextValue(int from) {
+		if (from >= CONTAINER_SIZE) {
+			return -1;
+		}
+		int index = findRun(from);
+		if (index >= 0 && from <= this.starts[index] + this.lengths[index]) {
+			return from;
+		}
+		index++;
+		return index < this.numberOfRuns ? this.starts[index] : -1;
+	}
+
+	@Override
+	void forEach(IntConsumer consumer) {
+		for (int i = 0; i < this.numberOfRuns; i++) {
+			int end = this.starts[i] + this.lengths[i];
+			for (int value = this.starts[i]; value <= end; value++) {
+				consumer.accept(value);
+			}
+		}
+	}
+
+	/**
+	 * Returns an array or bitmap container with the same values, depending on
+	 * the cardinality.
+	 */
+	RoaringContainer toEagerContainer() {
+		if (this.cardinality <= MAX_ARRAY_SIZE) {
+			char[] values = new char[Math.max(this.cardinality, 4)];
+			int[] k = new int[1];
+			forEach(value -> values[k[0]++] = (char) value);
+			return new ArrayContainer(values, this.cardinality);
+		}
+		BitmapContainer result = new BitmapContainer();
+		for (int i = 0; i < this.numberOfRuns; i++) {
+			result.setRange(this.starts[i], this.starts[i] + this.lengths[i]
+					+ 1);
+		}
+		return result;
+	}
+
+	@Override
+	RoaringContainer or(RoaringContainer other) {
+		return toEagerContainer().or(other);
+	}
+
+	@Override
+	RoaringContainer and(RoaringContainer other) {
+		return toEagerContainer().and(other);
+	}
+
+	@Override
+	RoaringContainer andNot(RoaringContainer other) {
+		return toEagerContainer().andNot(other);
+	}
+
+	@Override
+	RoaringContainer runOptimize() {
+		return this;
+	}
+
+	@Override
+	RoaringContainer copy() {
+		return this;
+	}
+
+	@Override
+	int getSizeInBytes() {
+		return 2 + 4 * this.numberOfRuns;
+	}
+
+	@Override
+	byte getType() {
+		return TYPE_RUN;
+	}
+
+	@Override
+	void writeTo(DataOutput output) throws IOException {
+		output.writeChar(this.numberOfRuns);
+		for (int i = 0; i < this.numberOfRuns; i++) {
+			output.writeChar(this.starts[i]);
+			output.writeChar(this.lengths[i]);
+		}
+	}
+
+	static RunContainer read(DataInput input) throws IOException {
+		int numberOfRuns = input.readChar();
+		char[] starts = new char[numberOfRuns];
+		char[] lengths = new char[numberOfRuns];
+		int previousEnd = -2;
+		for (int i = 0; i < numberOfRuns; i++) {
+			starts[i] = input.readChar();
+			lengths[i] = input.readChar();
+			if (starts[i] <= previousEnd + 1
+					|| starts[i] + lengths[i] >= CONTAINER_SIZE) {
+				throw new IOException("Invalid run in run container.");
+			}
+			previousEnd = starts[i] + lengths[i];
+		}
+		return new RunContainer(starts, lengths, numberOfRuns);
+	}
+}
@@ -0,0 +1,772 @@
+package org.wikidata.wdtk.storage.entities;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.wikidata.wdtk.datamodel.interfaces.ItemIdValue;
+import org.wikidata.wdtk.storage.datastructures.CompressedBitmap;
+import org.wikidata.wdtk.storage.datastructures.CsrGraph;
+import org.wikidata.wdtk.storage.datastructures.CsrGraph.Direction;
+import org.wikidata.wdtk.storage.datastructures.CsrGraphBuilder;
+import org.wikidata.wdtk.storage.datastructures.LongIntHashMap;
+
+/**
+ * Precomputed index of the transitive closure of a class hierarchy, such as
+ * the one given by "subclass of" (P279) statements, together with the
+ * "instance of" (P31) statements of all items. It answers whether a class is
+ * a (direct or indirect) subclass of another one, and whether an item is an
+ * instance of a class or of any of its subclasses, in time that does not
+ * depend on the size of the hierarchy.
+ * <p>
+ * The index uses tree-cover interval labelling. Cycles in the hierarchy are
+ * collapsed into a single node, so that the classes of a cycle are
+ * subclasses of each other. A spanning forest of the remaining acyclic graph
+ * is numbered in post-order, so that the subclasses of a class along the
+ * forest have consecutive numbers. Subclasses that are only reachable via
+ * other edges are covered by a few additional intervals. If a class would
+ * need more than {@link #MAX_INTERVALS} additional intervals, a
+ * {@link CompressedBitmap} of the numbers of its subclasses is used
+ * instead. Every class is considered to be a subclass of itself.
+ * <p>
+ * The index is built from a {@link CsrGraph} that contains the edges of both
+ * properties, which in turn can be built from two passes over a dump:
+ *
+ * <pre>
+ * CsrGraphBuilder builder = new CsrGraphBuilder(MemoryAllocator.onHeap(),
+ * 		Datamodel.makeWikidataPropertyIdValue("P31"),
+ * 		Datamodel.makeWikidataPropertyIdValue("P279"));
+ * // process dump with builder, call builder.startSecondPass(), process again
+ * ClassHierarchyIndex index = ClassHierarchyIndex.build(builder.build());
+ * </pre>
+ *
+ * The index can be saved with {@link #writeTo(OutputStream)} and loaded with
+ * {@link #readFrom(InputStream)}. It cannot be changed after it has been
+ * built, and it can be used by several threads at the same time.
+ */
+public class ClassHierarchyIndex {
+
+	/**
+	 * Numeric id of the property "subclass of" (P279) on Wikidata.
+	 */
+	public static final int SUBCLASS_OF = 279;
+
+	/**
+	 * Numeric id of the property "instance of" (P31) on Wikidata.
+	 */
+	public static final int INSTANCE_OF = 31;
+
+	/**
+	 * Maximal number of additional intervals of a class. Classes that would
+	 * need more use a bitmap instead.
+	 */
+	static final int MAX_INTERVALS = 8;
+
+	static final int MAGIC = 0x57444348;
+	static final int VERSION = 1;
+
+	/**
+	 * Number of nodes of the graph the index was built from; the instance
+	 * lists cover all nodes below this number.
+	 */
+	final int numberOfNodes;
+
+	/**
+	 * Numeric ids of all classes, by the index of the class.
+	 */
+	final int[] classIds;
+
+	/**
+	 * Maps numeric ids of classes to the index of the class.
+	 */
+	final LongIntHashMap classIndexes;
+
+	/**
+	 * Component of each class, where classes on a common cycle share a
+	 * component.
+	 */
+	final int[] components;
+
+	/**
+	 * Smallest post-order number in the spanning tree below each component.
+	 */
+	final int[] lows;
+
+	/**
+	 * Post-order number of each component in the spanning forest.
+	 */
+	final int[] posts;
+
+	/**
+	 * Start of the additional intervals of each component in
+	 * {@link #intervalBounds}, with one more entry for the end of the last
+	 * component.
+	 */
+	final int[] intervalOffsets;
+
+	/**
+	 * Lower and upper bounds of the additional intervals of all components.
+	 */
+	final int[] intervalBounds;
+
+	/**
+	 * Bitmaps that replace the additional intervals of components with too
+	 * many of them, or null.
+	 */
+	final CompressedBitmap[] bitmaps;
+
+	/**
+	 * Start of the classes of each node in {@link #instanceClasses}, with one
+	 * more entry for the end of the last node.
+	 */
+	final int[] instanceOffsets;
+
+	/**
+	 * Indexes of the direct classes of all nodes.
+	 */
+	final int[] instanceClasses;
+
+	ClassHierarchyIndex(int numberOfNodes, int[] classIds, int[] components,
+			int[] lows, int[] posts, int[] intervalOffsets,
+			int[] intervalBounds, CompressedBitmap[] bitmaps,
+			int[] instanceOffsets, int[] instanceClasses) {
+		this.numberOfNodes = numberOfNodes;
+		this.classIds = classIds;
+		this.components = components;
+		this.lows = lows;
+		this.posts = posts;
+		this.intervalOffsets = intervalOffsets;
+		this.intervalBounds = intervalBounds;
+		this.bitmaps = bitmaps;
+		this.instanceOffsets = instanceOffsets;
+		this.instanceClasses = instanceClasses;
+		this.classIndexes = new LongIntHashMap();
+		for (int i = 0; i < classIds.length; i++) {
+			this.classIndexes.put(classIds[i], i);
+		}
+	}
+
+	/**
+	 * Builds the index for the edges of a graph that are labelled with
+	 * {@link #SUBCLASS_OF} and {@link #INSTANCE_OF}, as created by a
+	 * {@link CsrGraphBuilder} for these properties.
+	 *
+	 * @param graph
+	 *            the graph
+	 * @return the index
+	 */
+	public static ClassHierarchyIndex build(CsrGraph graph) {
+		return build(graph, SUBCLASS_OF, INSTANCE_OF);
+	}
+
+	/**
+	 * Builds the index for the edges of a graph with the given labels. Nodes
+	 * that occur on edges with the subclass label, and targets of edges with
+	 * the instance label, are classes.
+	 *
+	 * @param graph
+	 *            the graph
+	 * @param subclassLabel
+	 *            the label of edges from classes to their superclasses
+	 * @param instanceLabel
+	 *            the label of edges from nodes to their classes
+	 * @return the index
+	 */
+	public static ClassHierarchyIndex build(CsrGraph graph,
+			int subclassLabel, int instanceLabel) {
+		return new Builder(graph, subclassLabel, instanceLabel).build();
+	}
+
+	/**
+	 * Returns the number of classes in the index.
+	 *
+	 * @return number of classes
+	 */
+	public int getNumberOfClasses() {
+		return this.classIds.length;
+	}
+
+	/**
+	 * Checks if the item with the given numeric id is a class, i.e., has a
+	 * superclass, a subclass or an instance.
+	 *
+	 * @param id
+	 *            numeric id of the item
+	 * @return true if the item is a class
+	 */
+	public boolean isClass(int id) {
+		return this.classIndexes.containsKey(id);
+	}
+
+	/**
+	 * Checks if a class is a subclass of another class, directly or
+	 * indirectly. Every class is a subclass of itself.
+	 *
+	 * @param subclass
+	 *            numeric id of the potential subclass
+	 * @param superclass
+	 *            numeric id of the potential superclass
+	 * @return true if the first class is a subclass of the second one, and
+	 *         false if not or if one of them is not a class
+	 */
+	public boolean isSubclassOf(int subclass, int superclass) {
+		int source = this.classIndexes.get(subclass, -1);
+		int target = this.classIndexes.get(superclass, -1);
+		if (source < 0 || target < 0) {
+			return false;
+		}
+		return reaches(this.components[source], this.components[target]);
+	}
+
+	/**
+	 * Checks if a class is a subclass of another class, directly or
+	 * indirectly. Every class is a subclass of itself.
+	 *
+	 * @param subclass
+	 *            the potential subclass
+	 * @param superclass
+	 *            the potential superclass
+	 * @return true if the first class is a subclass of the second one, and
+	 *         false if not or if one of them is not a class
+	 */
+	public boolean isSubclassOf(ItemIdValue subclass, ItemIdValue superclass) {
+		return isSubclassOf((int) EntityIdKeys.getNumericId(subclass),
+				(int) EntityIdKeys.getNumericId(superclass));
+	}
+
+	/**
+	 * Checks if an item is an instance of a class, i.e., if one of its
+	 * classes is a subclass of the given class.
+	 *
+	 * @param item
+	 *            numeric id of the item
+	 * @param itemClass
+	 *            numeric id of the class
+	 * @return true if the item is an instance of the class
+	 */
+	public boolean isInstanceOf(int item, int itemClass) {
+		int target = this.classIndexes.get(itemClass, -1);
+		if (target < 0 || item < 0 || item >= this.numberOfNodes) {
+			return false;
+		}
+		int component = this.components[target];
+		int end = this.instanceOffsets[item + 1];
+		for (int i = this.instanceOffsets[item]; i < end; i++) {
+			if (reaches(this.components[this.instanceClasses[i]], component)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if an item is an instance of a class, i.e., if one of its
+	 * classes is a subclass of the given class.
+	 *
+	 * @param item
+	 *            the item
+	 * @param itemClass
+	 *            the class
+	 * @return true if the item is an instance of the class
+	 */
+	public boolean isInstanceOf(ItemIdValue item, ItemIdValue itemClass) {
+		return isInstanceOf((int) EntityIdKeys.getNumericId(item),
+				(int) EntityIdKeys.getNumericId(itemClass));
+	}
+
+	/**
+	 * Writes the index to a stream. The stream is not closed.
+	 *
+	 * @param outputStream
+	 *            stream to write to
+	 * @throws IOException
+	 *             if the stream could not be written
+	 */
+	public void writeTo(OutputStream outputStream) throws IOException {
+		DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(outputStream));
+		output.writeInt(MAGIC);
+		output.writeInt(VERSION);
+		output.writeInt(this.numberOfNodes);
+		writeArray(this.classIds, output);
+		writeArray(this.components, output);
+		writeArray(this.lows, output);
+		writeArray(this.posts, output);
+		writeArray(this.intervalOffsets, output);
+		writeArray(this.intervalBounds, output);
+		int numberOfBitmaps = 0;
+		for (CompressedBitmap bitmap : this.bitmaps) {
+			if (bitmap != null) {
+				numberOfBitmaps++;
+			}
+		}
+		output.writeInt(numberOfBitmaps);
+		for (int i = 0; i < this.bitmaps.length; i++) {
+			if (this.bitmaps[i] != null) {
+				output.writeInt(i);
+				this.bitmaps[i].writeTo(output);
+			}
+		}
+		writeArray(this.instanceOffsets, output);
+		writeArray(this.instanceClasses, output);
+		output.flush();
+	}
+
+	/**
+	 * Reads an index that was written by {@link #writeTo(OutputStream)}. The
+	 * stream is not closed.
+	 *
+	 * @param inputStream
+	 *            stream to read from
+	 * @return the index
+	 * @throws IOException
+	 *             if the stream could not be read or does not contain a
+	 *             valid index
+	 */
+	public static ClassHierarchyIndex readFrom(InputStream inputStream)
+			throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(
+				inputStream));
+		if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+			throw new IOException("The input is not a class hierarchy index.");
+		}
+		int numberOfNodes = input.readInt();
+		int[] classIds = readArray(input);
+		int[] components = readArray(input);
+		int[] lows = readArray(input);
+		int[] posts = readArray(input);
+		int[] intervalOffsets = readArray(input);
+		int[] intervalBounds = readArray(input);
+		CompressedBitmap[] bitmaps = new CompressedBitmap[posts.length];
+		int numberOfBitmaps = input.readInt();
+		for (int i = 0; i < numberOfBitmaps; i++) {
+			int component = input.readInt();
+			if (component < 0 || component >= bitmaps.length) {
+				throw new IOException("Invalid bitmap in class hierarchy index.");
+			}
+			bitmaps[component] = CompressedBitmap.readFrom(input);
+		}
+		int[] instanceOffsets = readArray(input);
+		int[] instanceClasses = readArray(input);
+		if (numberOfNodes < 0 || components.length != classIds.length
+				|| lows.length != posts.length
+				|| intervalOffsets.length != posts.length + 1
+				|| instanceOffsets.length != numberOfNodes + 1) {
+			throw new IOException("Inconsistent class hierarchy index.");
+		}
+		return new ClassHierarchyIndex(numberOfNodes, classIds, components,
+				lows, posts, intervalOffsets, intervalBounds, bitmaps,
+				instanceOffsets, instanceClasses);
+	}
+
+	/**
+	 * Checks if the first component is a subclass of the second one.
+	 */
+	boolean reaches(int source, int target) {
+		int post = this.posts[source];
+		if (this.lows[target] <= post && post <= this.posts[target]) {
+			return true;
+		}
+		if (this.bitmaps[target] != null) {
+			return this.bitmaps[target].getBit(post);
+		}
+		int end = this.intervalOffsets[target + 1];
+		for (int i = this.intervalOffsets[target]; i < end; i += 2) {
+			if (this.intervalBounds[i] <= post
+					&& post <= this.intervalBounds[i + 1]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void writeArray(int[] array, DataOutputStream output)
+			throws IOException {
+		output.writeInt(array.length);
+		for (int value : array) {
+			output.writeInt(value);
+		}
+	}
+
+	private static int[] readArray(DataInputStream input) throws IOException {
+		int length = input.readInt();
+		if (length < 0) {
+			throw new IOException("Invalid array length in class hierarchy index.");
+		}
+		int[] result = new int[length];
+		for (int i = 0; i < length; i++) {
+			result[i] = input.readInt();
+		}
+		return result;
+	}
+
+	/**
+	 * Computes the labelling of a class hierarchy.
+	 */
+	static class Builder {
+
+		final CsrGraph graph;
+		final int subclassLabel;
+		final int instanceLabel;
+
+		final LongIntHashMap classIndexes = new LongIntHashMap();
+		int numberOfClasses;
+
+		int[] superclassOffsets;
+		int[] superclasses;
+
+		int[] components;
+		int numberOfComponents;
+
+		int[] childOffsets;
+		int[] children;
+
+		int[] lows;
+		int[] posts;
+
+		Builder(CsrGraph graph, int subclassLabel, int instanceLabel) {
+			this.graph = graph;
+			this.subclassLabel = subclassLabel;
+			this.instanceLabel = instanceLabel;
+		}
+
+		ClassHierarchyIndex build() {
+			int numberOfNodes = this.graph.getNumberOfNodes();
+			int[] instanceOffsets = new int[numberOfNodes + 1];
+			for (int node = 0; node < numberOfNodes; node++) {
+				int source = node;
+				this.graph.forEachEdge(node, Direction.FORWARD,
+						(target, label) -> {
+							if (label == this.subclassLabel) {
+								addClass(source);
+								addClass(target);
+							} else if (label == this.instanceLabel) {
+								addClass(target);
+								instanceOffsets[source + 1]++;
+							}
+						});
+			}
+			int[] classIds = new int[this.numberOfClasses];
+			this.classIndexes.forEach((id, index) -> classIds[index] = (int) id);
+
+			// direct superclasses and classes of instances
+			this.superclassOffsets = new int[this.numberOfClasses + 1];
+			for (int node = 0; node < numberOfNodes; node++) {
+				int index = this.classIndexes.get(node, -1);
+				if (index >= 0) {
+					this.superclassOffsets[index + 1] = countEdges(node,
+							this.subclassLabel);
+				}
+			}
+			prefixSums(this.superclassOffsets);
+			prefixSums(instanceOffsets);
+			this.superclasses = new int[this.superclassOffsets[this.numberOfClasses]];
+			int[] instanceClasses = new int[instanceOffsets[numberOfNodes]];
+			for (int node = 0; node < numberOfNodes; node++) {
+				int index = this.classIndexes.get(node, -1);
+				int[] superclassPosition = { index >= 0 ? this.superclassOffsets[index]
+						: 0 };
+				int[] instancePosition = { instanceOffsets[node] };
+				this.graph.forEachEdge(node, Direction.FORWARD,
+						(target, label) -> {
+							if (label == this.subclassLabel) {
+								this.superclasses[superclassPosition[0]++] = this.classIndexes
+										.get(target, -1);
+							} else if (label == this.instanceLabel) {
+								instanceClasses[instancePosition[0]++] = this.classIndexes
+										.get(target, -1);
+							}
+						});
+			}
+
+			findComponents();
+			buildComponentGraph();
+			numberSpanningForest();
+
+			int[][] intervals = new int[this.numberOfComponents][];
+			CompressedBitmap[] bitmaps = new CompressedBitmap[this.numberOfComponents];
+			// subclasses have larger component numbers than their superclasses
+			for (int c = this.numberOfComponents - 1; c >= 0; c--) {
+				computeIntervals(c, intervals, bitmaps);
+			}
+			int[] intervalOffsets = new int[this.numberOfComponents + 1];
+			for (int c = 0; c < this.numberOfComponents; c++) {
+				intervalOffsets[c + 1] = intervalOffsets[c]
+						+ intervals[c].length;
+			}
+			int[] intervalBounds = new int[intervalOffsets[this.numberOfComponents]];
+			for (int c = 0; c < this.numberOfComponents; c++) {
+				System.arraycopy(intervals[c], 0, intervalBounds,
+						intervalOffsets[c], intervals[c].length);
+			}
+
+			return new ClassHierarchyIndex(numberOfNodes, classIds,
+					this.components, this.lows, this.posts, intervalOffsets,
+					intervalBounds, bitmaps, instanceOffsets, instanceClasses);
+		}
+
+		void addClass(int id) {
+			if (this.classIndexes.get(id, -1) < 0) {
+				this.classIndexes.put(id, this.numberOfClasses++);
+			}
+		}
+
+		int countEdges(int node, int edgeLabel) {
+			int[] count = { 0 };
+			this.graph.forEachEdge(node, Direction.FORWARD, (target, label) -> {
+				if (label == edgeLabel) {
+					count[0]++;
+				}
+			});
+			return count[0];
+		}
+
+		/**
+		 * Finds the strongly connected components of the subclass graph with
+		 * an iterative version of Tarjan's algorithm. Components are numbered
+		 * in the order in which they are completed, so that superclasses
+		 * have smaller numbers than their subclasses.
+		 */
+		void findComponents() {
+			int n = this.numberOfClasses;
+			this.components = new int[n];
+			int[] order = new int[n];
+			int[] lowLinks = new int[n];
+			Arrays.fill(order, -1);
+			boolean[] onStack = new boolean[n];
+			int[] stack = new int[n];
+			int stackSize = 0;
+			int[] callNodes = new int[n];
+			int[] callEdges = new int[n];
+			int callSize = 0;
+			int counter = 0;
+
+			for (int start = 0; start < n; start++) {
+				if (order[start] >= 0) {
+					continue;
+				}
+				order[start] = lowLinks[start] = counter++;
+				stack[stackSize++] = start;
+				onStack[start] = true;
+				callNodes[callSize] = start;
+				callEdges[callSize++] = this.superclassOffsets[start];
+				while (callSize > 0) {
+					int node = callNodes[callSize - 1];
+					int edge = callEdges[callSize - 1];
+					if (edge < this.superclassOffsets[node + 1]) {
+						callEdges[callSize - 1]++;
+						int next = this.superclasses[edge];
+						if (order[next] < 0) {
+							order[next] = lowLinks[next] = counter++;
+							stack[stackSize++] = next;
+							onStack[next] = true;
+							callNodes[callSize] = next;
+							callEdges[callSize++] = this.superclassOffsets[next];
+						} else if (onStack[next]) {
+							lowLinks[node] = Math.min(lowLinks[node],
+									order[next]);
+						}
+					} else {
+						callSize--;
+						if (lowLinks[node] == order[node]) {
+							int member;
+							do {
+								member = stack[--stackSize];
+								onStack[member] = false;
+								this.components[member] = this.numberOfComponents;
+							} while (member != node);
+							this.numberOfComponents++;
+						}
+						if (callSize > 0) {
+							int parent = callNodes[callSize - 1];
+							lowLinks[parent] = Math.min(lowLinks[parent],
+									lowLinks[node]);
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Computes the direct subclasses of each component, leaving out
+		 * edges within components.
+		 */
+		void buildComponentGraph() {
+			this.childOffsets = new int[this.numberOfComponents + 1];
+			for (int i = 0; i < this.numberOfClasses; i++) {
+				for (int e = this.superclassOffsets[i]; e < this.superclassOffsets[i + 1]; e++) {
+					int parent = this.components[this.superclasses[e]];
+					if (parent != this.components[i]) {
+						this.childOffsets[parent + 1]++;
+					}
+				}
+			}
+			prefixSums(this.childOffsets);
+			this.children = new int[this.childOffsets[this.numberOfComponents]];
+			int[] positions = Arrays.copyOf(this.childOffsets,
+					this.numberOfComponents);
+			for (int i = 0; i < this.numberOfClasses; i++) {
+				for (int e = this.superclassOffsets[i]; e < this.superclassOffsets[i + 1]; e++) {
+					int parent = this.components[this.superclasses[e]];
+					if (parent != this.components[i]) {
+						this.children[positions[parent]++] = this.components[i];
+					}
+				}
+			}
+		}
+
+		/**
+		 * Numbers the components in post-order of a depth-first spanning
+		 * forest that starts at the components without superclasses.
+		 */
+		void numberSpanningForest() {
+			int n = this.numberOfComponents;
+			this.lows = new int[n];
+			this.posts = new int[n];
+			boolean[] hasParent = new boolean[n];
+			for (int child : this.children) {
+				hasParent[child] = true;
+			}
+			boolean[] visited = new boolean[n];
+			int[] callNodes = new int[n];
+			int[] callEdges = new int[n];
+			int counter = 0;
+			for (int root = 0; root < n; root++) {
+				if (hasParent[root]) {
+					continue;
+				}
+				int callSize = 0;
+				visited[root] = true;
+				this.lows[root] = counter;
+				callNodes[callSize] = root;
+				callEdges[callSize++] = this.childOffsets[root];
+				while (callSize > 0) {
+					int node = callNodes[callSize - 1];
+					int edge = callEdges[callSize - 1];
+					if (edge < this.childOffsets[node + 1]) {
+						callEdges[callSize - 1]++;
+						int child = this.children[edge];
+						if (!visited[child]) {
+							visited[child] = true;
+							this.lows[child] = counter;
+							callNodes[callSize] = child;
+							callEdges[callSize++] = this.childOffsets[child];
+						}
+					} else {
+						callSize--;
+						this.posts[node] = counter++;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Computes the intervals of subclasses of a component that are not
+		 * covered by its spanning tree, assuming that this has already been
+		 * done for all of its subclasses.
+		 */
+		void computeIntervals(int component, int[][] intervals,
+				CompressedBitmap[] bitmaps) {
+			int low = this.lows[component];
+			int post = this.posts[component];
+			long[] candidates = new long[4];
+			int size = 0;
+			CompressedBitmap bitmap = null;
+			for (int e = this.childOffsets[component]; e < this.childOffsets[component + 1]; e++) {
+				int child = this.children[e];
+				int[] childIntervals = intervals[child];
+				if (candidates.length < size + 1 + childIntervals.length / 2) {
+					candidates = Arrays.copyOf(candidates, 2 * (size + 1)
+							+ childIntervals.length);
+				}
+				if (this.lows[child] < low || this.posts[child] > post) {
+					candidates[size++] = interval(this.lows[child],
+							this.posts[child]);
+				}
+				for (int i = 0; i < childIntervals.length; i += 2) {
+					if (childIntervals[i] < low || childIntervals[i + 1] > post) {
+						candidates[size++] = interval(childIntervals[i],
+								childIntervals[i + 1]);
+					}
+				}
+				if (bitmaps[child] != null) {
+					bitmap = bitmap == null ? bitmaps[child]
+							: bitmap.union(bitmaps[child]);
+				}
+			}
+
+			// merge overlapping and adjacent intervals
+			Arrays.sort(candidates, 0, size);
+			int merged = 0;
+			for (int i = 0; i < size; i++) {
+				long lower = candidates[i] >>> 32;
+				long upper = candidates[i] & 0xFFFFFFFFL;
+				if (merged > 0 && lower <= (candidates[merged - 1] & 0xFFFFFFFFL) + 1) {
+					if (upper > (candidates[merged - 1] & 0xFFFFFFFFL)) {
+						candidates[merged - 1] = interval(
+								(int) (candidates[merged - 1] >>> 32),
+								(int) upper);
+					}
+				} else {
+					candidates[merged++] = candidates[i];
+				}
+			}
+
+			if (bitmap == null && merged <= MAX_INTERVALS) {
+				int[] result = new int[2 * merged];
+				for (int i = 0; i < merged; i++) {
+					result[2 * i] = (int) (candidates[i] >>> 32);
+					result[2 * i + 1] = (int) candidates[i];
+				}
+				intervals[component] = result;
+			} else {
+				bitmap = bitmap == null ? new CompressedBitmap() : bitmap
+						.union(new CompressedBitmap());
+				for (int i = 0; i < merged; i++) {
+					long upper = candidates[i] & 0xFFFFFFFFL;
+					for (long p = candidates[i] >>> 32; p <= upper; p++) {
+						bitmap.setBit(p, true);
+					}
+				}
+				bitmap.runOptimize();
+				intervals[component] = new int[0];
+				bitmaps[component] = bitmap;
+			}
+		}
+
+		static long interval(int lower, int upper) {
+			return ((long) lower << 32) | upper;
+		}
+
+		static void prefixSums(int[] array) {
+			for (int i = 1; i < array.length; i++) {
+				array[i] += array[i - 1];
+			}
+		}
+	}
+}
@@ -0,0 +1,805 @@
+package org.wikidata.wdtk.storage.entities;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wikidata.wdtk.datamodel.helpers.BinaryDeserializer;
+import org.wikidata.wdtk.datamodel.helpers.BinarySerializer;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocumentProcessor;
+import org.wikidata.wdtk.datamodel.interfaces.EntityIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.LexemeDocument;
+import org.wikidata.wdtk.datamodel.interfaces.MediaInfoDocument;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyDocument;
+import org.wikidata.wdtk.storage.datastructures.LongLongHashMap;
+import org.wikidata.wdtk.storage.datastructures.MemoryAllocator;
+
+/**
+ * Persistent store for entity documents in a local directory. Documents are
+ * encoded with {@link BinarySerializer} and appended to log files
+ * (segments). An index from entity ids to the position of their latest
+ * document is kept in memory (or in memory-mapped files, depending on the
+ * {@link MemoryAllocator}) and rebuilt from the segments when the store is
+ * opened. Full segments are memory-mapped for reading, so that documents can
+ * be retrieved with very low latency.
+ * <p>
+ * Each entity has at most one document: a document replaces the stored one
+ * only if its revision id is larger (see {@link #put(EntityDocument)}).
+ * Replaced documents remain in their segments as garbage until the segment is
+ * compacted, which copies its remaining documents to the current segment and
+ * deletes it. Compaction can be run with {@link #compact()}, or automatically
+ * in a background thread when a segment is full (see
+ * {@link #setCompactionThreshold(double)}).
+ * <p>
+ * The store is an {@link EntityDocumentProcessor}, so it can be filled
+ * directly from a dump. Documents are buffered in memory before they are
+ * written; {@link #flush()} or {@link #close()} make sure that they are
+ * written to disk. A store must only be opened once at a time. All methods
+ * are thread-safe.
+ */
+public class EntityDocumentStore implements EntityDocumentProcessor, Closeable {
+
+	static final Logger logger = LoggerFactory
+			.getLogger(EntityDocumentStore.class);
+
+	/**
+	 * Default maximal size of a segment in bytes.
+	 */
+	public static final long DEFAULT_SEGMENT_SIZE = 256L << 20;
+
+	/**
+	 * Default ratio of garbage in a segment at which it is compacted.
+	 */
+	public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+	static final String SEGMENT_PREFIX = "segment-";
+	static final String SEGMENT_SUFFIX = ".log";
+
+	/**
+	 * Size of the header of each record: payload length, CRC32 checksum of
+	 * the payload, entity key and revision id.
+	 */
+	static final int HEADER_SIZE = 24;
+
+	static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Segment file with its live data size, which is the size of all records
+	 * that have not been replaced.
+	 */
+	static class Segment {
+		final int id;
+		final Path path;
+		FileChannel channel;
+		MappedByteBuffer buffer;
+		long size;
+		long liveSize;
+		boolean compacting;
+
+		Segment(int id, Path path) {
+			this.id = id;
+			this.path = path;
+		}
+
+		double getGarbageRatio() {
+			return this.size == 0 ? 0 : 1.0 - (double) this.liveSize
+					/ this.size;
+		}
+	}
+
+	final Path directory;
+
+	final long maxSegmentSize;
+
+	/**
+	 * Position of the latest record of each entity key, as segment id (high
+	 * 32 bits) and offset.
+	 */
+	final LongLongHashMap locations;
+
+	final LongLongHashMap revisions;
+
+	final TreeMap<Integer, Segment> segments = new TreeMap<>();
+
+	Segment activeSegment;
+
+	final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE)
+			.order(ByteOrder.LITTLE_ENDIAN);
+
+	/**
+	 * Size of the active segment that has been written to its file.
+	 */
+	long flushedSize;
+
+	double compactionThreshold = 0;
+
+	ExecutorService compactionExecutor;
+
+	boolean compactionScheduled;
+
+	boolean closed;
+
+	/**
+	 * Opens the store in the given directory with default settings. The
+	 * directory is created if necessary.
+	 *
+	 * @param directory
+	 *            directory of the store
+	 * @throws IOException
+	 *             if the store cannot be opened
+	 */
+	public EntityDocumentStore(Path directory) throws IOException {
+		this(directory, DEFAULT_SEGMENT_SIZE, MemoryAllocator.onHeap());
+	}
+
+	/**
+	 * Opens the store in the given directory. The directory is created if
+	 * necessary.
+	 *
+	 * @param directory
+	 *            directory of the store
+	 * @param maxSegmentSize
+	 *            the size in bytes at which a new segment is started; between
+	 *            64KB and 1GB
+	 * @param indexAllocator
+	 *            allocator for the memory of the index
+	 * @throws IOException
+	 *             if the store cannot be opened
+	 */
+	public EntityDocumentStore(Path directory, long maxSegmentSize,
+			MemoryAllocator indexAllocator) throws IOException {
+		Validate.notNull(directory, "Directory cannot be null.");
+		if (maxSegmentSize < 1L << 16 || maxSegmentSize > 1L << 30) {
+			throw new IllegalArgumentException(
+					"The segment size must be between 64KB and 1GB. The received value was: "
+							+ maxSegmentSize + ".");
+		}
+		this.directory = directory;
+		this.maxSegmentSize = maxSegmentSize;
+		this.locations = new LongLongHashMap(0, indexAllocator);
+		this.revisions = new LongLongHashMap(0, indexAllocator);
+		Files.createDirectories(directory);
+		load();
+	}
+
+	/**
+	 * Stores the given document, unless the store already contains a document
+	 * for the same entity with a larger or equal revision id. Documents with
+	 * revision id 0 (unknown) only replace other documents with revision id
+	 * 0.
+	 *
+	 * @param document
+	 *            the document to store
+	 * @return true if the document was stored
+	 */
+	public synchronized boolean put(EntityDocument document) {
+		assertOpen();
+		long key = EntityIdKeys.getKey(document.getEntityId());
+		long revisionId = document.getRevisionId();
+		if (this.locations.containsKey(key)) {
+			long storedRevisionId = this.revisions.get(key, 0);
+			if (revisionId < storedRevisionId
+					|| (revisionId == storedRevisionId && revisionId != 0)) {
+				return false;
+			}
+		}
+		byte[] payload = BinarySerializer.getBytes(document);
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		try {
+			append(key, revisionId, (int) crc.getValue(), payload, 0,
+					payload.length);
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot write to entity store: "
+					+ e.getMessage(), e);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the stored document of the given entity.
+	 *
+	 * @param entityIdValue
+	 *            the id of the entity
+	 * @return the document, or null if there is none
+	 */
+	public EntityDocument get(EntityIdValue entityIdValue) {
+		return get(EntityIdKeys.getKey(entityIdValue));
+	}
+
+	/**
+	 * Returns true if the store contains a document for the given entity.
+	 *
+	 * @param entityIdValue
+	 *            the id of the entity
+	 * @return true if there is a document
+	 */
+	public synchronized boolean contains(EntityIdValue entityIdValue) {
+		return this.locations.containsKey(EntityIdKeys.getKey(entityIdValue));
+	}
+
+	/**
+	 * Returns the revision id of the stored document of the given entity.
+	 *
+	 * @param entityIdValue
+	 *            the id of the entity
+	 * @return the revision id, or -1 if there is no document
+	 */
+	public synchronized long getRevisionId(EntityIdValue entityIdValue) {
+		long key = EntityIdKeys.getKey(entityIdValue);
+		return this.locations.containsKey(key) ? this.revisions.get(key, 0)
+				: -1;
+	}
+
+	/**
+	 * Returns the number of documents in the store.
+	 *
+	 * @return number of entities
+	 */
+	public synchronized long size() {
+		return this.locations.size();
+	}
+
+	/**
+	 * Passes all stored documents to the given processor, in no particular
+	 * order. Documents that are stored while this method runs might or might
+	 * not be processed.
+	 *
+	 * @param processor
+	 *            the processor for the documents
+	 */
+	public void processAll(EntityDocumentProcessor processor) {
+		List<Long> keys = new ArrayList<>();
+		synchronized (this) {
+			assertOpen();
+			this.locations.forEach((key, location) -> keys.add(key));
+		}
+		for (long key : keys) {
+			EntityDocument document = get(key);
+			if (document instanceof ItemDocument) {
+				processor.processItemDocument((ItemDocument) document);
+			} else if (document instanceof PropertyDocument) {
+				processor.processPropertyDocument((PropertyDocument) document);
+			} else if (document instanceof LexemeDocument) {
+				processor.processLexemeDocument((LexemeDocument) document);
+			} else if (document instanceof MediaInfoDocument) {
+				processor
+						.processMediaInfoDocument((MediaInfoDocument) document);
+			}
+		}
+	}
+
+	@Override
+	public void processItemDocument(ItemDocument itemDocument) {
+		put(itemDocument);
+	}
+
+	@Override
+	public void processPropertyDocument(PropertyDocument propertyDocument) {
+		put(propertyDocument);
+	}
+
+	@Override
+	public void processLexemeDocument(LexemeDocument lexemeDocument) {
+		put(lexemeDocument);
+	}
+
+	@Override
+	public void processMediaInfoDocument(MediaInfoDocument mediaInfoDocument) {
+		put(mediaInfoDocument);
+	}
+
+	/**
+	 * Sets the ratio of garbage (i.e., the part of replaced documents) at
+	 * which full segments are compacted automatically in a background
+	 * thread. A value of 0 (the default) disables automatic compaction.
+	 *
+	 * @param compactionThreshold
+	 *            ratio between 0 and 1, e.g.,
+	 *            {@link #DEFAULT_COMPACTION_THRESHOLD}
+	 */
+	public synchronized void setCompactionThreshold(double compactionThreshold) {
+		if (compactionThreshold < 0 || compactionThreshold > 1) {
+			throw new IllegalArgumentException(
+					"The compaction threshold must be between 0 and 1. The received value was: "
+							+ compactionThreshold + ".");
+		}
+		this.compactionThreshold = compactionThreshold;
+	}
+
+	/**
+	 * Compacts all full segments whose ratio of garbage is at least the
+	 * compaction threshold, or {@link #DEFAULT_COMPACTION_THRESHOLD} if
+	 * automatic compaction is disabled. Other threads can use the store while
+	 * this method runs.
+	 *
+	 * @return the number of segments that have been compacted
+	 * @throws IOException
+	 *             if a segment cannot be compacted
+	 */
+	public int compact() throws IOException {
+		List<Segment> candidates = new ArrayList<>();
+		synchronized (this) {
+			assertOpen();
+			double threshold = this.compactionThreshold > 0 ? this.compactionThreshold
+					: DEFAULT_COMPACTION_THRESHOLD;
+			for (Segment segment : this.segments.values()) {
+				if (segment != this.activeSegment
+						&& segment.getGarbageRatio() >= threshold) {
+					candidates.add(segment);
+				}
+			}
+		}
+		for (Segment segment : candidates) {
+			compactSegment(segment);
+		}
+		return candidates.size();
+	}
+
+	/**
+	 * Writes all buffered documents to disk.
+	 *
+	 * @throws IOException
+	 *             if the documents cannot be written
+	 */
+	public synchronized void flush() throws IOException {
+		assertOpen();
+		writeBuffer();
+		this.activeSegment.channel.force(false);
+	}
+
+	/**
+	 * Writes all buffered documents to disk and closes the store. Automatic
+	 * compaction that is running is stopped after the current segment.
+	 */
+	@Override
+	public void close() throws IOException {
+		ExecutorService executor;
+		synchronized (this) {
+			if (this.closed) {
+				return;
+			}
+			flush();
+			executor = this.compactionExecutor;
+		}
+		if (executor != null) {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (this) {
+			this.closed = true;
+			for (Segment segment : this.segments.values()) {
+				if (segment.channel != null) {
+					segment.channel.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the stored document for the given entity key, or null if there
+	 * is none.
+	 */
+	EntityDocument get(long key) {
+		byte[] payload;
+		synchronized (this) {
+			assertOpen();
+			long location = this.locations.get(key, -1);
+			if (location == -1) {
+				return null;
+			}
+			try {
+				payload = readPayload(location);
+			} catch (IOException e) {
+				throw new RuntimeException("Cannot read entity " + key
+						+ " from entity store: " + e.getMessage(), e);
+			}
+		}
+		try {
+			return BinaryDeserializer.deserializeEntityDocument(payload);
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot decode entity " + key
+					+ " from entity store: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Returns the number of segment files.
+	 */
+	synchronized int getNumberOfSegments() {
+		return this.segments.size();
+	}
+
+	/**
+	 * Reads all segments and rebuilds the index. An incomplete record at the
+	 * end of the last segment, which can be left after a crash, is removed.
+	 */
+	private void load() throws IOException {
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(
+				this.directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path path : stream) {
+				String name = path.getFileName().toString();
+				int id = Integer.parseInt(name.substring(
+						SEGMENT_PREFIX.length(),
+						name.length() - SEGMENT_SUFFIX.length()));
+				this.segments.put(id, new Segment(id, path));
+			}
+		}
+		for (Segment segment : this.segments.values()) {
+			loadSegment(segment, segment.id == this.segments.lastKey());
+		}
+		if (this.segments.isEmpty()) {
+			startSegment(1);
+		} else {
+			this.activeSegment = this.segments.lastEntry().getValue();
+			this.activeSegment.channel = FileChannel.open(
+					this.activeSegment.path, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			this.flushedSize = this.activeSegment.size;
+		}
+		logger.info("Opened entity store in " + this.directory + " with "
+				+ this.locations.size() + " documents in "
+				+ this.segments.size() + " segments.");
+	}
+
+	private void loadSegment(Segment segment, boolean last) throws IOException {
+		try (FileChannel channel = FileChannel.open(segment.path,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long fileSize = channel.size();
+			MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0,
+					fileSize);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			// needed to find the sizes of replaced records in the index
+			segment.buffer = buffer;
+			long offset = 0;
+			while (offset < fileSize) {
+				if (!isValidRecord(buffer, (int) offset, last)) {
+					if (!last) {
+						throw new IOException("Segment " + segment.path
+								+ " is corrupted at offset " + offset + ".");
+					}
+					logger.warn("Removing incomplete record at the end of "
+							+ segment.path + ".");
+					channel.truncate(offset);
+					break;
+				}
+				int length = buffer.getInt((int) offset);
+				long key = buffer.getLong((int) offset + 8);
+				long revisionId = buffer.getLong((int) offset + 16);
+				// records are replayed in the order they were written
+				updateIndex(key, revisionId, location(segment.id, offset),
+						HEADER_SIZE + length);
+				offset += HEADER_SIZE + length;
+			}
+			segment.size = offset;
+			if (last) {
+				segment.buffer = null;
+			}
+		}
+	}
+
+	private boolean isValidRecord(ByteBuffer buffer, int offset,
+			boolean checkPayload) {
+		if (buffer.limit() - offset < HEADER_SIZE) {
+			return false;
+		}
+		int length = buffer.getInt(offset);
+		if (length < 0 || buffer.limit() - offset - HEADER_SIZE < length) {
+			return false;
+		}
+		if (checkPayload) {
+			byte[] payload = new byte[length];
+			ByteBuffer duplicate = buffer.duplicate();
+			duplicate.position(offset + HEADER_SIZE);
+			duplicate.get(payload);
+			CRC32 crc = new CRC32();
+			crc.update(payload);
+			return (int) crc.getValue() == buffer.getInt(offset + 4);
+		}
+		return true;
+	}
+
+	/**
+	 * Appends a record to the active segment and makes it the current one
+	 * for its key.
+	 */
+	private void append(long key, long revisionId, int crc, byte[] payload,
+			int start, int length) throws IOException {
+		int recordSize = HEADER_SIZE + length;
+		if (this.activeSegment.size > 0
+				&& this.activeSegment.size + recordSize > this.maxSegmentSize) {
+			sealActiveSegment();
+		}
+		long offset = this.activeSegment.size;
+		if (recordSize > this.writeBuffer.remaining()) {
+			writeBuffer();
+		}
+		if (recordSize > this.writeBuffer.capacity()) {
+			ByteBuffer record = ByteBuffer.allocate(recordSize).order(
+					ByteOrder.LITTLE_ENDIAN);
+			putRecord(record, key, revisionId, crc, payload, start, length);
+			record.flip();
+			writeFully(record, offset);
+			this.flushedSize += recordSize;
+		} else {
+			putRecord(this.writeBuffer, key, revisionId, crc, payload, start,
+					length);
+		}
+		this.activeSegment.size += recordSize;
+		updateIndex(key, revisionId, location(this.activeSegment.id, offset),
+				recordSize);
+	}
+
+	private static void putRecord(ByteBuffer buffer, long key,
+			long revisionId, int crc, byte[] payload, int start, int length) {
+		buffer.putInt(length);
+		buffer.putInt(crc);
+		buffer.putLong(key);
+		buffer.putLong(revisionId);
+		buffer.put(payload, start, length);
+	}
+
+	private void updateIndex(long key, long revisionId, long location,
+			int recordSize) {
+		long oldLocation = this.locations.get(key, -1);
+		if (oldLocation != -1) {
+			Segment oldSegment = this.segments.get(segmentId(oldLocation));
+			oldSegment.liveSize -= recordSize(oldSegment, oldLocation);
+		}
+		this.locations.put(key, location);
+		this.revisions.put(key, revisionId);
+		this.segments.get(segmentId(location)).liveSize += recordSize;
+	}
+
+	private int recordSize(Segment segment, long location) {
+		try {
+			return HEADER_SIZE + readHeader(segment, offset(location)).getInt(0);
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot read from entity store: "
+					+ e.getMessage(), e);
+		}
+	}
+
+	private ByteBuffer readHeader(Segment segment, long offset)
+			throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(
+				ByteOrder.LITTLE_ENDIAN);
+		read(segment, offset, header);
+		return header;
+	}
+
+	/**
+	 * Reads the payload of the record at the given location and checks its
+	 * checksum.
+	 */
+	private byte[] readPayload(long location) throws IOException {
+		Segment segment = this.segments.get(segmentId(location));
+		long offset = offset(location);
+		ByteBuffer header = readHeader(segment, offset);
+		byte[] payload = new byte[header.getInt(0)];
+		read(segment, offset + HEADER_SIZE, ByteBuffer.wrap(payload));
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		if ((int) crc.getValue() != header.getInt(4)) {
+			throw new IOException("Checksum error in " + segment.path
+					+ " at offset " + offset + ".");
+		}
+		return payload;
+	}
+
+	/**
+	 * Fills the given buffer with data from a segment, flushing the write
+	 * buffer if needed.
+	 */
+	private void read(Segment segment, long offset, ByteBuffer target)
+			throws IOException {
+		if (segment.buffer != null) {
+			ByteBuffer source = segment.buffer.duplicate();
+			source.position((int) offset);
+			source.limit((int) offset + target.remaining());
+			target.put(source);
+		} else {
+			if (segment == this.activeSegment
+					&& offset + target.remaining() > this.flushedSize) {
+				writeBuffer();
+			}
+			while (target.hasRemaining()) {
+				int read = segment.channel.read(target, offset);
+				if (read < 0) {
+					throw new IOException("Unexpected end of " + segment.path
+							+ ".");
+				}
+				offset += read;
+			}
+		}
+		target.rewind();
+	}
+
+	private void writeBuffer() throws IOException {
+		this.writeBuffer.flip();
+		int length = this.writeBuffer.remaining();
+		writeFully(this.writeBuffer, this.flushedSize);
+		this.flushedSize += length;
+		this.writeBuffer.clear();
+	}
+
+	private void writeFully(ByteBuffer buffer, long position)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			position += this.activeSegment.channel.write(buffer, position);
+		}
+	}
+
+	/**
+	 * Writes the active segment to disk, maps it for reading, and starts a
+	 * new one.
+	 */
+	private void sealActiveSegment() throws IOException {
+		writeBuffer();
+		Segment segment = this.activeSegment;
+		segment.channel.force(false);
+		segment.buffer = segment.channel.map(MapMode.READ_ONLY, 0,
+				segment.size);
+		segment.buffer.order(ByteOrder.LITTLE_ENDIAN);
+		segment.channel.close();
+		segment.channel = null;
+		startSegment(segment.id + 1);
+		scheduleCompactionIfNeeded();
+	}
+
+	private void startSegment(int id) throws IOException {
+		Path path = this.directory.resolve(String.format("%s%08d%s",
+				SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+		Segment segment = new Segment(id, path);
+		segment.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.segments.put(id, segment);
+		this.activeSegment = segment;
+		this.flushedSize = 0;
+	}
+
+	private void scheduleCompactionIfNeeded() {
+		if (this.compactionThreshold <= 0 || this.compactionScheduled) {
+			return;
+		}
+		boolean needed = false;
+		for (Segment segment : this.segments.values()) {
+			if (segment != this.activeSegment
+					&& segment.getGarbageRatio() >= this.compactionThreshold) {
+				needed = true;
+			}
+		}
+		if (!needed) {
+			return;
+		}
+		if (this.compactionExecutor == null) {
+			this.compactionExecutor = Executors.newSingleThreadExecutor(r -> {
+				Thread thread = new Thread(r, "wdtk-entity-store-compaction");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		this.compactionScheduled = true;
+		this.compactionExecutor.submit(() -> {
+			synchronized (this) {
+				this.compactionScheduled = false;
+			}
+			try {
+				compact();
+			} catch (IOException | RuntimeException e) {
+				logger.error("Compaction of entity store failed: "
+						+ e.toString());
+			}
+		});
+	}
+
+	/**
+	 * Copies the live records of a full segment to the active segment and
+	 * deletes the segment. Other threads can use the store in between
+	 * records, since full segments are never modified.
+	 */
+	private void compactSegment(Segment segment) throws IOException {
+		synchronized (this) {
+			if (segment.compacting || this.segments.get(segment.id) != segment) {
+				return;
+			}
+			segment.compacting = true;
+		}
+		ByteBuffer buffer = segment.buffer.duplicate().order(
+				ByteOrder.LITTLE_ENDIAN);
+		long offset = 0;
+		while (offset < segment.size) {
+			int length = buffer.getInt((int) offset);
+			long key = buffer.getLong((int) offset + 8);
+			synchronized (this) {
+				if (this.closed) {
+					return;
+				}
+				if (this.locations.get(key, -1) == location(segment.id, offset)) {
+					byte[] payload = new byte[length];
+					buffer.position((int) offset + HEADER_SIZE);
+					buffer.get(payload);
+					append(key, buffer.getLong((int) offset + 16),
+							buffer.getInt((int) offset + 4), payload, 0, length);
+				}
+			}
+			offset += HEADER_SIZE + length;
+		}
+		synchronized (this) {
+			// later segments must be on disk before the data is deleted
+			writeBuffer();
+			this.activeSegment.channel.force(false);
+			this.segments.remove(segment.id);
+			segment.buffer = null;
+		}
+		try {
+			Files.delete(segment.path);
+		} catch (IOException e) {
+			logger.warn("Cannot delete compacted segment " + segment.path
+					+ ": " + e.getMessage());
+		}
+		logger.info("Compacted segment " + segment.path + ".");
+	}
+
+	private void assertOpen() {
+		if (this.closed) {
+			throw new IllegalStateException("The entity store is closed.");
+		}
+	}
+
+	static long location(int segmentId, long offset) {
+		return ((long) segmentId << 32) | offset;
+	}
+
+	static int segmentId(long location) {
+		return (int) (location >>> 32);
+	}
+
+	static long offset(long location) {
+		return location & 0xFFFFFFFFL;
+	}
+}
@@ -0,0 +1,202 @@
+package org.wikidata.wdtk.storage.entities;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.interfaces.EntityIdValue;
+
+/**
+ * Static helpers that convert entity ids into numbers, so that they can be
+ * used as keys of primitive data structures such as
+ * {@link org.wikidata.wdtk.storage.datastructures.LongLongHashMap} or
+ * {@link org.wikidata.wdtk.storage.datastructures.CompressedBitmap}.
+ * <p>
+ * There are two kinds of numbers. The <i>numeric id</i> of an item,
+ * property, lexeme or media info is simply the number in its id, e.g., 42
+ * for Q42. It is the most compact choice for data structures that only
+ * contain entities of one type. The <i>key</i> of an entity id also encodes
+ * its type in the highest byte, so that entities of all types (including
+ * forms and senses) can share a data structure, and the id can be restored
+ * with {@link #getEntityIdValue(long, String)}. The site IRI of entity ids
+ * is not part of either number.
+ */
+public class EntityIdKeys {
+
+	static final int TYPE_ITEM = 1;
+	static final int TYPE_PROPERTY = 2;
+	static final int TYPE_LEXEME = 3;
+	static final int TYPE_FORM = 4;
+	static final int TYPE_SENSE = 5;
+	static final int TYPE_MEDIA_INFO = 6;
+
+	static final int LG_TYPE_SHIFT = 56;
+	static final long NUMBER_MASK = (1L << LG_TYPE_SHIFT) - 1;
+
+	/**
+	 * Number of bits used for the number of a form or sense within its
+	 * lexeme.
+	 */
+	static final int LG_SUB_ID_SIZE = 16;
+
+	private EntityIdKeys() {
+	}
+
+	/**
+	 * Returns the number in the id of an item, property, lexeme or media info,
+	 * e.g., 42 for Q42.
+	 *
+	 * @param entityIdValue
+	 *            entity id
+	 * @return the numeric id
+	 * @throws IllegalArgumentException
+	 *             if the id is not of one of the supported types
+	 */
+	public static long getNumericId(EntityIdValue entityIdValue) {
+		String id = entityIdValue.getId();
+		int type = getSimpleType(id);
+		if (type == 0) {
+			throw new IllegalArgumentException("Entity id " + id
+					+ " does not have a numeric id.");
+		}
+		return parseNumber(id, 1, id.length());
+	}
+
+	/**
+	 * Returns a number that encodes the type and the id of an entity id. The
+	 * number is positive.
+	 *
+	 * @param entityIdValue
+	 *            entity id
+	 * @return the key
+	 * @throws IllegalArgumentException
+	 *             if the id is not of a supported type, or its number is
+	 *             too large
+	 */
+	public static long getKey(EntityIdValue entityIdValue) {
+		String id = entityIdValue.getId();
+		int type = getSimpleType(id);
+		if (type != 0) {
+			return ((long) type << LG_TYPE_SHIFT)
+					| parseNumber(id, 1, id.length());
+		}
+		int separator = id.indexOf('-');
+		if (id.length() > separator + 2 && id.charAt(0) == 'L'
+				&& separator > 1) {
+			char subType = id.charAt(separator + 1);
+			if (subType == 'F' || subType == 'S') {
+				long lexeme = parseNumber(id, 1, separator);
+				long subId = parseNumber(id, separator + 2, id.length());
+				if (lexeme >= 1L << (LG_TYPE_SHIFT - LG_SUB_ID_SIZE)
+						|| subId >= 1L << LG_SUB_ID_SIZE) {
+					throw new IllegalArgumentException("Entity id " + id
+							+ " is too large to be encoded as a key.");
+				}
+				return ((long) (subType == 'F' ? TYPE_FORM : TYPE_SENSE) << LG_TYPE_SHIFT)
+						| (lexeme << LG_SUB_ID_SIZE) | subId;
+			}
+		}
+		throw new IllegalArgumentException("Entity id " + id
+				+ " cannot be encoded as a key.");
+	}
+
+	/**
+	 * Returns the entity id that is encoded in the given key.
+	 *
+	 * @param key
+	 *            key as returned by {@link #getKey(EntityIdValue)}
+	 * @param siteIri
+	 *            the site IRI of the entity id
+	 * @return the entity id
+	 * @throws IllegalArgumentException
+	 *             if the key is not valid
+	 */
+	public static EntityIdValue getEntityIdValue(long key, String siteIri) {
+		long number = key & NUMBER_MASK;
+		switch ((int) (key >>> LG_TYPE_SHIFT)) {
+		case TYPE_ITEM:
+			return Datamodel.makeItemIdValue("Q" + number, siteIri);
+		case TYPE_PROPERTY:
+			return Datamodel.makePropertyIdValue("P" + number, siteIri);
+		case TYPE_LEXEME:
+			return Datamodel.makeLexemeIdValue("L" + number, siteIri);
+		case TYPE_FORM:
+			return Datamodel.makeFormIdValue("L" + (number >>> LG_SUB_ID_SIZE)
+					+ "-F" + (number & ((1 << LG_SUB_ID_SIZE) - 1)), siteIri);
+		case TYPE_SENSE:
+			return Datamodel.makeSenseIdValue("L" + (number >>> LG_SUB_ID_SIZE)
+					+ "-S" + (number & ((1 << LG_SUB_ID_SIZE) - 1)), siteIri);
+		case TYPE_MEDIA_INFO:
+			return Datamodel.makeMediaInfoIdValue("M" + number, siteIri);
+		default:
+			throw new IllegalArgumentException("Invalid entity key " + key
+					+ ".");
+		}
+	}
+
+	/**
+	 * Returns the type of ids that consist of a letter and a number, or 0
+	 * for other ids.
+	 */
+	private static int getSimpleType(String id) {
+		if (id.length() < 2) {
+			return 0;
+		}
+		for (int i = 1; i < id.length(); i++) {
+			char c = id.charAt(i);
+			if (c < '0' || c > '9') {
+				return 0;
+			}
+		}
+		switch (id.charAt(0)) {
+		case 'Q':
+			return TYPE_ITEM;
+		case 'P':
+			return TYPE_PROPERTY;
+		case 'L':
+			return TYPE_LEXEME;
+		case 'M':
+			return TYPE_MEDIA_INFO;
+		default:
+			return 0;
+		}
+	}
+
+	private static long parseNumber(String id, int start, int end) {
+		if (start >= end || end - start > 16) {
+			throw new IllegalArgumentException("Entity id " + id
+					+ " cannot be encoded as a number.");
+		}
+		long result = 0;
+		for (int i = start; i < end; i++) {
+			char c = id.charAt(i);
+			if (c < '0' || c > '9') {
+				throw new IllegalArgumentException("Entity id " + id
+						+ " cannot be encoded as a number.");
+			}
+			result = 10 * result + (c - '0');
+		}
+		if (result > NUMBER_MASK) {
+			throw new IllegalArgumentException("Entity id " + id
+					+ " is too large to be encoded as a number.");
+		}
+		return result;
+	}
+}
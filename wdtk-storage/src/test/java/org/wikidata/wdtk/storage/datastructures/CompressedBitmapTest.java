@@ -0,0 +1,271 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for {@link CompressedBitmap}.
+ */
+public class CompressedBitmapTest {
+
+	/**
+	 * Creates a set of random positions, with sparse, dense and consecutive
+	 * parts so that all types of containers are used.
+	 */
+	TreeSet<Long> createPositions(long seed) {
+		Random random = new Random(seed);
+		TreeSet<Long> positions = new TreeSet<>();
+		// sparse
+		for (int i = 0; i < 1000; i++) {
+			positions.add((long) random.nextInt(1 << 24));
+		}
+		// dense
+		for (int i = 0; i < 20000; i++) {
+			positions.add((3L << 16) + random.nextInt(1 << 16));
+		}
+		// consecutive
+		long start = (7L << 16) + random.nextInt(1000);
+		for (long i = start; i < start + 100000; i++) {
+			positions.add(i);
+		}
+		// large
+		positions.add((1L << 40) + random.nextInt(1000));
+		return positions;
+	}
+
+	CompressedBitmap createBitmap(TreeSet<Long> positions) {
+		CompressedBitmap bitmap = new CompressedBitmap();
+		for (long position : positions) {
+			bitmap.setBit(position, true);
+		}
+		return bitmap;
+	}
+
+	void assertContent(TreeSet<Long> expected, CompressedBitmap bitmap) {
+		Assert.assertEquals(expected.size(), bitmap.cardinality());
+		PrimitiveIterator.OfLong iterator = bitmap.positionIterator();
+		for (long position : expected) {
+			Assert.assertTrue(iterator.hasNext());
+			Assert.assertEquals(position, iterator.nextLong());
+			Assert.assertTrue(bitmap.getBit(position));
+		}
+		Assert.assertFalse(iterator.hasNext());
+	}
+
+	@Test
+	public void testSetAndGet() {
+		TreeSet<Long> positions = createPositions(1);
+		CompressedBitmap bitmap = createBitmap(positions);
+		assertContent(positions, bitmap);
+		Assert.assertEquals(positions.last() + 1, bitmap.size());
+		for (long i = 0; i < 1000000; i += 7) {
+			Assert.assertEquals(positions.contains(i), bitmap.getBit(i));
+		}
+
+		Random random = new Random(2);
+		for (int i = 0; i < 50000; i++) {
+			long position = positions.higher((long) random.nextInt(1 << 19));
+			positions.remove(position);
+			bitmap.setBit(position, false);
+		}
+		assertContent(positions, bitmap);
+	}
+
+	@Test
+	public void testAddBit() {
+		CompressedBitmap bitmap = new CompressedBitmap();
+		bitmap.addBit(true);
+		bitmap.addBit(false);
+		bitmap.addBit(false);
+		bitmap.addBit(true);
+		Assert.assertEquals(4, bitmap.size());
+		Assert.assertEquals(2, bitmap.cardinality());
+		Assert.assertEquals("{0, 3}", bitmap.toString());
+
+		BitVectorImpl expected = new BitVectorImpl();
+		expected.addBit(true);
+		expected.addBit(false);
+		expected.addBit(false);
+		expected.addBit(true);
+		Assert.assertEquals(expected, bitmap);
+		Assert.assertEquals(bitmap, expected);
+		Assert.assertEquals(expected.hashCode(), bitmap.hashCode());
+	}
+
+	@Test
+	public void testContainerConversions() {
+		CompressedBitmap bitmap = new CompressedBitmap();
+		for (int i = 0; i <= RoaringContainer.MAX_ARRAY_SIZE; i++) {
+			bitmap.setBit(2 * i, true);
+		}
+		Assert.assertTrue(bitmap.containers[0] instanceof BitmapContainer);
+		bitmap.setBit(0, false);
+		Assert.assertTrue(bitmap.containers[0] instanceof ArrayContainer);
+		for (int i = 1; i <= RoaringContainer.MAX_ARRAY_SIZE; i++) {
+			bitmap.setBit(2 * i, false);
+		}
+		Assert.assertTrue(bitmap.isEmpty());
+		Assert.assertEquals(-1, bitmap.nextSetBit(0));
+	}
+
+	@Test
+	public void testNextSetBit() {
+		TreeSet<Long> positions = createPositions(3);
+		CompressedBitmap bitmap = createBitmap(positions);
+		bitmap.runOptimize();
+		Random random = new Random(4);
+		for (int i = 0; i < 10000; i++) {
+			long from = random.nextInt(1 << 25);
+			Long expected = positions.ceiling(from);
+			Assert.assertEquals(expected == null ? -1 : (long) expected,
+					bitmap.nextSetBit(from));
+		}
+		Assert.assertEquals((long) positions.last(),
+				bitmap.nextSetBit(1L << 30));
+	}
+
+	@Test
+	public void testOperations() {
+		TreeSet<Long> positions0 = createPositions(5);
+		TreeSet<Long> positions1 = createPositions(6);
+		CompressedBitmap bitmap0 = createBitmap(positions0);
+		CompressedBitmap bitmap1 = createBitmap(positions1);
+
+		TreeSet<Long> union = new TreeSet<>(positions0);
+		union.addAll(positions1);
+		TreeSet<Long> intersection = new TreeSet<>(positions0);
+		intersection.retainAll(positions1);
+		TreeSet<Long> difference = new TreeSet<>(positions0);
+		difference.removeAll(positions1);
+
+		for (int i = 0; i < 2; i++) {
+			assertContent(union, bitmap0.union(bitmap1));
+			assertContent(intersection, bitmap0.intersection(bitmap1));
+			assertContent(difference, bitmap0.difference(bitmap1));
+			// repeat with run containers
+			bitmap0.runOptimize();
+			bitmap1.runOptimize();
+		}
+		assertContent(positions0, bitmap0);
+		assertContent(positions1, bitmap1);
+		Assert.assertEquals(Math.max(bitmap0.size(), bitmap1.size()), bitmap0
+				.union(bitmap1).size());
+		Assert.assertEquals(bitmap0.size(), bitmap0.intersection(bitmap1)
+				.size());
+	}
+
+	@Test
+	public void testOperationResultsAreIndependent() {
+		CompressedBitmap bitmap0 = new CompressedBitmap();
+		bitmap0.setBit(5, true);
+		CompressedBitmap bitmap1 = new CompressedBitmap();
+		bitmap1.setBit(1L << 20, true);
+		CompressedBitmap union = bitmap0.union(bitmap1);
+		union.setBit(6, true);
+		union.setBit((1L << 20) + 1, true);
+		Assert.assertFalse(bitmap0.getBit(6));
+		Assert.assertFalse(bitmap1.getBit((1L << 20) + 1));
+	}
+
+	@Test
+	public void testRunOptimize() {
+		CompressedBitmap bitmap = new CompressedBitmap();
+		for (long i = 1000; i < 10000000; i++) {
+			bitmap.setBit(i, true);
+		}
+		long sizeBefore = bitmap.getSizeInBytes();
+		Assert.assertTrue(bitmap.runOptimize());
+		Assert.assertFalse(bitmap.runOptimize());
+		Assert.assertTrue(bitmap.getSizeInBytes() < sizeBefore / 100);
+		Assert.assertEquals(10000000 - 1000, bitmap.cardinality());
+		Assert.assertFalse(bitmap.getBit(999));
+		Assert.assertTrue(bitmap.getBit(1000));
+		Assert.assertTrue(bitmap.getBit(9999999));
+
+		// modifying a run container converts it back
+		bitmap.setBit(5000000, false);
+		Assert.assertFalse(bitmap.getBit(5000000));
+		Assert.assertEquals(10000000 - 1001, bitmap.cardinality());
+	}
+
+	@Test
+	public void testBitVectorConversion() {
+		BitVectorImpl bitVector = new BitVectorImpl();
+		PseudorandomBooleanGenerator generator = new PseudorandomBooleanGenerator(
+				0x2345);
+		for (int i = 0; i < 200000; i++) {
+			bitVector.addBit(generator.getPseudorandomBoolean()
+					&& generator.getPseudorandomBoolean());
+		}
+		CompressedBitmap bitmap = new CompressedBitmap(bitVector);
+		Assert.assertEquals(bitVector, bitmap);
+		Assert.assertEquals(bitmap, bitVector);
+		Assert.assertEquals(bitVector.hashCode(), bitmap.hashCode());
+		Assert.assertEquals(bitmap, new CompressedBitmap(
+				new RankedBitVectorImpl(bitVector)));
+
+		bitmap.runOptimize();
+		Assert.assertEquals(bitVector.hashCode(), bitmap.hashCode());
+		bitmap.setBit(3, !bitmap.getBit(3));
+		Assert.assertNotEquals(bitVector, bitmap);
+	}
+
+	@Test
+	public void testSerialization() throws IOException {
+		CompressedBitmap bitmap = createBitmap(createPositions(7));
+		bitmap.runOptimize();
+		bitmap.setBit(1L << 45, false);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		bitmap.writeTo(out);
+		Assert.assertEquals(bitmap.getSizeInBytes(), out.size());
+
+		CompressedBitmap read = CompressedBitmap
+				.readFrom(new ByteArrayInputStream(out.toByteArray()));
+		Assert.assertEquals(bitmap, read);
+		Assert.assertEquals(bitmap.size(), read.size());
+	}
+
+	@Test(expected = IOException.class)
+	public void testReadInvalidInput() throws IOException {
+		CompressedBitmap.readFrom(new ByteArrayInputStream(new byte[100]));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testTooLargePosition() {
+		new CompressedBitmap().setBit(CompressedBitmap.MAXIMAL_POSITION + 1,
+				true);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testNegativePosition() {
+		new CompressedBitmap().getBit(-1);
+	}
+}
@@ -0,0 +1,260 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for {@link ConcurrentBitVector}.
+ */
+public class ConcurrentBitVectorTest {
+
+	@Test
+	public void testSetAndGet() {
+		ConcurrentBitVector bv = new ConcurrentBitVector();
+		BitVectorImpl expected = new BitVectorImpl();
+		PseudorandomBooleanGenerator generator = new PseudorandomBooleanGenerator(
+				0x1234);
+		for (long i = 0; i < 0x1000; i++) {
+			boolean bit = generator.getPseudorandomBoolean();
+			bv.setBit(3 * i, bit);
+			expected.setBit(3 * i, bit);
+		}
+		Assert.assertEquals(expected.size(), bv.size());
+		for (long i = 0; i < bv.size(); i++) {
+			Assert.assertEquals(expected.getBit(i), bv.getBit(i));
+		}
+		Assert.assertEquals(expected, bv);
+		Assert.assertEquals(bv, expected);
+		Assert.assertEquals(expected.hashCode(), bv.hashCode());
+		Assert.assertEquals(expected.toString(), bv.toString());
+
+		Assert.assertFalse(bv.getBit(1000000));
+		bv.setBit(1000000, false);
+		Assert.assertEquals(1000001, bv.size());
+		Assert.assertFalse(bv.getBit(1000000));
+	}
+
+	@Test
+	public void testAddBit() {
+		ConcurrentBitVector bv = new ConcurrentBitVector();
+		bv.addBit(true);
+		bv.addBit(false);
+		bv.addBit(true);
+		Assert.assertEquals(3, bv.size());
+		Assert.assertEquals("101", bv.toString());
+
+		Iterator<Boolean> it = bv.iterator();
+		Assert.assertTrue(it.next());
+		Assert.assertFalse(it.next());
+		Assert.assertTrue(it.next());
+		Assert.assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void testGetAndSetBit() {
+		ConcurrentBitVector bv = new ConcurrentBitVector();
+		Assert.assertFalse(bv.getAndSetBit(70, true));
+		Assert.assertTrue(bv.getAndSetBit(70, true));
+		Assert.assertTrue(bv.getAndSetBit(70, false));
+		Assert.assertFalse(bv.getBit(70));
+		Assert.assertEquals(71, bv.size());
+	}
+
+	@Test
+	public void testLargePositions() {
+		ConcurrentBitVector bv = new ConcurrentBitVector();
+		long position = 1L << 36;
+		bv.setBit(position, true);
+		Assert.assertTrue(bv.getBit(position));
+		Assert.assertFalse(bv.getBit(position - 1));
+		Assert.assertEquals(position + 1, bv.size());
+		Assert.assertEquals(1, bv.cardinality());
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testNegativePosition() {
+		new ConcurrentBitVector().setBit(-1, true);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testTooLargePosition() {
+		new ConcurrentBitVector().setBit(1L << 38, true);
+	}
+
+	@Test
+	public void testConcurrentMarking() throws InterruptedException {
+		final ConcurrentBitVector bv = new ConcurrentBitVector();
+		final AtomicLong firstMarks = new AtomicLong();
+		final int threadCount = 8;
+		final int positions = 1 << 20;
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < threadCount; t++) {
+			final int offset = t;
+			threads.add(new Thread(() -> {
+				// all threads mark the same positions in a different order
+				for (int i = 0; i < positions; i++) {
+					long position = (i * 7L + offset * 1031L) % positions;
+					if (!bv.getAndSetBit(position * 5, true)) {
+						firstMarks.incrementAndGet();
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		Assert.assertEquals(positions, firstMarks.get());
+		Assert.assertEquals(positions, bv.cardinality());
+		Assert.assertEquals(5L * (positions - 1) + 1, bv.size());
+		for (long i = 0; i < bv.size(); i++) {
+			Assert.assertEquals(i % 5 == 0, bv.getBit(i));
+		}
+	}
+
+	@Test
+	public void testOr() {
+		BitVectorImpl bv0 = new BitVectorImpl();
+		BitVectorImpl bv1 = new BitVectorImpl();
+		PseudorandomBooleanGenerator generator = new PseudorandomBooleanGenerator(
+				0x4321);
+		for (int i = 0; i < 0x2000; i++) {
+			bv0.addBit(generator.getPseudorandomBoolean());
+		}
+		for (int i = 0; i < 0x3001; i++) {
+			bv1.addBit(generator.getPseudorandomBoolean());
+		}
+
+		ConcurrentBitVector bv = new ConcurrentBitVector(bv0);
+		Assert.assertEquals(bv0, bv);
+		bv.or(bv1);
+		Assert.assertEquals(bv1.size(), bv.size());
+		for (long i = 0; i < bv.size(); i++) {
+			Assert.assertEquals(bv0.getBit(i) || bv1.getBit(i), bv.getBit(i));
+		}
+
+		// merging a bit vector that does not give access to its words
+		ConcurrentBitVector other = new ConcurrentBitVector();
+		other.or(new BitwiseBitVector(bv));
+		Assert.assertEquals(bv, other);
+	}
+
+	@Test
+	public void testAnd() {
+		BitVectorImpl bv0 = new BitVectorImpl();
+		BitVectorImpl bv1 = new BitVectorImpl();
+		PseudorandomBooleanGenerator generator = new PseudorandomBooleanGenerator(
+				0x5678);
+		for (int i = 0; i < 0x3001; i++) {
+			bv0.addBit(generator.getPseudorandomBoolean());
+		}
+		for (int i = 0; i < 0x2000; i++) {
+			bv1.addBit(generator.getPseudorandomBoolean());
+		}
+
+		ConcurrentBitVector bv = new ConcurrentBitVector(bv0);
+		bv.and(bv1);
+		Assert.assertEquals(bv0.size(), bv.size());
+		for (long i = 0; i < bv.size(); i++) {
+			Assert.assertEquals(bv0.getBit(i) && bv1.getBit(i), bv.getBit(i));
+		}
+
+		ConcurrentBitVector other = new ConcurrentBitVector(bv0);
+		other.and(new BitwiseBitVector(bv1));
+		Assert.assertEquals(bv, other);
+	}
+
+	@Test
+	public void testMergePartialResults() throws InterruptedException {
+		final int threadCount = 4;
+		final BitVectorImpl[] partial = new BitVectorImpl[threadCount];
+		final ConcurrentBitVector merged = new ConcurrentBitVector();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < threadCount; t++) {
+			final int index = t;
+			partial[t] = new BitVectorImpl();
+			threads.add(new Thread(() -> {
+				for (long i = index; i < 100000; i += threadCount) {
+					partial[index].setBit(i, i % 3 == 0);
+				}
+				merged.or(partial[index]);
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertEquals(100000, merged.size());
+		for (long i = 0; i < merged.size(); i++) {
+			Assert.assertEquals(i % 3 == 0, merged.getBit(i));
+		}
+	}
+
+	/**
+	 * Bit vector that only gives access to single bits, used to test the
+	 * general code paths.
+	 */
+	static class BitwiseBitVector implements BitVector {
+
+		final BitVector bitVector;
+
+		BitwiseBitVector(BitVector bitVector) {
+			this.bitVector = bitVector;
+		}
+
+		@Override
+		public boolean addBit(boolean bit) {
+			return this.bitVector.addBit(bit);
+		}
+
+		@Override
+		public boolean getBit(long position) {
+			return this.bitVector.getBit(position);
+		}
+
+		@Override
+		public void setBit(long position, boolean bit) {
+			this.bitVector.setBit(position, bit);
+		}
+
+		@Override
+		public long size() {
+			return this.bitVector.size();
+		}
+
+		@Override
+		public Iterator<Boolean> iterator() {
+			return this.bitVector.iterator();
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for {@link ConcurrentLongLongHashMap}.
+ */
+public class ConcurrentLongLongHashMapTest {
+
+	@Test
+	public void testConcurrentCounting() throws InterruptedException {
+		final ConcurrentLongLongHashMap map = new ConcurrentLongLongHashMap();
+		final int threadCount = 8;
+		final int keys = 50000;
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < threadCount; t++) {
+			final int offset = t;
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < keys; i++) {
+					long key = (i + offset * 997L) % keys;
+					map.addTo(key, 1);
+					map.update(-key - 1, 0, value -> value + 2);
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		Assert.assertEquals(2 * keys, map.size());
+		for (long key = 0; key < keys; key++) {
+			Assert.assertEquals(threadCount, map.get(key, 0));
+			Assert.assertEquals(2 * threadCount, map.get(-key - 1, 0));
+		}
+		long[] sum = new long[1];
+		map.forEach((key, value) -> sum[0] += value);
+		Assert.assertEquals(3L * threadCount * keys, sum[0]);
+	}
+
+	@Test
+	public void testBasicOperations() {
+		ConcurrentLongLongHashMap map = new ConcurrentLongLongHashMap(100,
+				MemoryAllocator.offHeap(), 5);
+		Assert.assertEquals(8, map.segments.length);
+		map.put(10, 20);
+		Assert.assertTrue(map.containsKey(10));
+		Assert.assertEquals(20, map.get(10, 0));
+		Assert.assertTrue(map.remove(10));
+		Assert.assertFalse(map.remove(10));
+		Assert.assertEquals(0, map.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidNumberOfSegments() {
+		new ConcurrentLongLongHashMap(0, MemoryAllocator.onHeap(), 0);
+	}
+}
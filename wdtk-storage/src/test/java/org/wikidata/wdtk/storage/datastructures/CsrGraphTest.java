@@ -0,0 +1,236 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.helpers.ItemDocumentBuilder;
+import org.wikidata.wdtk.datamodel.helpers.StatementBuilder;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.ItemIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.StatementRank;
+import org.wikidata.wdtk.storage.datastructures.CsrGraph.Direction;
+
+/**
+ * Test class for {@link CsrGraph} and {@link CsrGraphBuilder}.
+ */
+public class CsrGraphTest {
+
+	static final PropertyIdValue P31 = Datamodel
+			.makeWikidataPropertyIdValue("P31");
+	static final PropertyIdValue P279 = Datamodel
+			.makeWikidataPropertyIdValue("P279");
+	static final PropertyIdValue P361 = Datamodel
+			.makeWikidataPropertyIdValue("P361");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	static ItemIdValue q(int id) {
+		return Datamodel.makeWikidataItemIdValue("Q" + id);
+	}
+
+	static ItemDocument item(int id, Object... edges) {
+		ItemDocumentBuilder builder = ItemDocumentBuilder.forItemId(q(id));
+		for (int i = 0; i < edges.length; i += 2) {
+			StatementBuilder statement = StatementBuilder
+					.forSubjectAndProperty(q(id), (PropertyIdValue) edges[i]);
+			if (edges[i + 1] instanceof Integer) {
+				statement.withValue(q((Integer) edges[i + 1]));
+			} else if (edges[i + 1] instanceof StatementRank) {
+				statement.withValue(q(1)).withRank(
+						(StatementRank) edges[i + 1]);
+			} else {
+				statement.withValue(Datamodel
+						.makeStringValue((String) edges[i + 1]));
+			}
+			builder.withStatement(statement.build());
+		}
+		return builder.build();
+	}
+
+	static List<ItemDocument> getDocuments() {
+		return Arrays.asList(item(1, P279, 2), item(2, P279, 3),
+				item(3, P279, 1, P361, 5),
+				item(4, P31, 2, P31, "not an item"),
+				item(5, P279, StatementRank.DEPRECATED), item(7, P31, 3));
+	}
+
+	static CsrGraph buildGraph(MemoryAllocator allocator,
+			PropertyIdValue... properties) {
+		CsrGraphBuilder builder = new CsrGraphBuilder(allocator, properties);
+		List<ItemDocument> documents = getDocuments();
+		documents.forEach(builder::processItemDocument);
+		builder.startSecondPass();
+		documents.forEach(builder::processItemDocument);
+		return builder.build();
+	}
+
+	@Test
+	public void testEdges() {
+		CsrGraph graph = buildGraph(MemoryAllocator.onHeap());
+		Assert.assertEquals(8, graph.getNumberOfNodes());
+		Assert.assertEquals(6, graph.getNumberOfEdges());
+
+		Assert.assertArrayEquals(new int[] { 1, 5 },
+				graph.getNeighbours(3, Direction.FORWARD, null));
+		Assert.assertArrayEquals(new int[] { 1 },
+				graph.getNeighbours(3, Direction.FORWARD, l -> l == 279));
+		Assert.assertArrayEquals(new int[] { 1, 4 },
+				graph.getNeighbours(2, Direction.BACKWARD, null));
+		Assert.assertArrayEquals(new int[] { 4 },
+				graph.getNeighbours(2, Direction.BACKWARD, l -> l == 31));
+		Assert.assertArrayEquals(new int[] {},
+				graph.getNeighbours(5, Direction.FORWARD, null));
+		Assert.assertArrayEquals(new int[] {},
+				graph.getNeighbours(6, Direction.FORWARD, null));
+
+		Assert.assertEquals(2, graph.getOutDegree(3));
+		Assert.assertEquals(2, graph.getInDegree(3));
+		Assert.assertEquals(0, graph.getOutDegree(0));
+
+		List<Integer> labels = new ArrayList<>();
+		graph.forEachEdge(3, Direction.BACKWARD, (node, label) -> {
+			labels.add(node);
+			labels.add(label);
+		});
+		Assert.assertEquals(Arrays.asList(2, 279, 7, 31), labels);
+	}
+
+	@Test
+	public void testPropertyFilter() {
+		CsrGraph graph = buildGraph(MemoryAllocator.onHeap(), P279);
+		Assert.assertEquals(4, graph.getNumberOfNodes());
+		Assert.assertEquals(3, graph.getNumberOfEdges());
+		Assert.assertArrayEquals(new int[] { 1 },
+				graph.getNeighbours(3, Direction.FORWARD, null));
+	}
+
+	@Test
+	public void testMappedGraph() {
+		CsrGraph graph = buildGraph(MemoryAllocator.mapped(this.folder
+				.getRoot().toPath()));
+		Assert.assertArrayEquals(new int[] { 1, 5 },
+				graph.getNeighbours(3, Direction.FORWARD, null));
+		Assert.assertArrayEquals(new int[] { 3 },
+				graph.getNeighbours(5, Direction.BACKWARD, null));
+	}
+
+	@Test
+	public void testBreadthFirstDepths() {
+		CsrGraph graph = buildGraph(MemoryAllocator.onHeap());
+		Map<Integer, Integer> depths = new ConcurrentHashMap<>();
+		ConcurrentBitVector visited = graph.traverseBreadthFirst(
+				new int[] { 4 }, Direction.FORWARD, null, 1,
+				(node, depth) -> {
+					depths.put(node, depth);
+					return true;
+				});
+		Assert.assertEquals(5, visited.cardinality());
+		Assert.assertEquals(Integer.valueOf(0), depths.get(4));
+		Assert.assertEquals(Integer.valueOf(1), depths.get(2));
+		Assert.assertEquals(Integer.valueOf(2), depths.get(3));
+		Assert.assertEquals(Integer.valueOf(3), depths.get(1));
+		Assert.assertEquals(Integer.valueOf(3), depths.get(5));
+	}
+
+	@Test
+	public void testTraversalFilters() {
+		CsrGraph graph = buildGraph(MemoryAllocator.onHeap());
+		// superclasses of Q7 via instance-of and subclass-of
+		ConcurrentBitVector visited = graph.traverseDepthFirst(
+				new int[] { 7 }, Direction.FORWARD, l -> l != 361, 1,
+				(node, depth) -> true);
+		Assert.assertEquals(4, visited.cardinality());
+		Assert.assertFalse(visited.getBit(5));
+
+		// the visitor can stop the traversal at a node, which still counts
+		// as visited
+		visited = graph.traverseBreadthFirst(new int[] { 1 },
+				Direction.BACKWARD, null, 1, (node, depth) -> node != 2);
+		Assert.assertEquals(4, visited.cardinality());
+		Assert.assertTrue(visited.getBit(2));
+		Assert.assertFalse(visited.getBit(4));
+	}
+
+	@Test
+	public void testParallelTraversals() {
+		int nodes = 20000;
+		CsrGraphBuilder builder = new CsrGraphBuilder(MemoryAllocator.onHeap());
+		for (int pass = 0; pass < 2; pass++) {
+			Random random = new Random(7);
+			for (int i = 0; i < 3 * nodes; i++) {
+				builder.addEdge(random.nextInt(nodes), random.nextInt(nodes),
+						random.nextInt(3));
+			}
+			if (pass == 0) {
+				builder.startSecondPass();
+			}
+		}
+		CsrGraph graph = builder.build();
+		int[] start = { 0, 17, 4711 };
+
+		ConcurrentBitVector expected = graph.traverseBreadthFirst(start,
+				Direction.FORWARD, l -> l > 0, 1, (node, depth) -> true);
+		Assert.assertTrue(expected.cardinality() > 100);
+		Assert.assertEquals(expected, graph.traverseBreadthFirst(start,
+				Direction.FORWARD, l -> l > 0, 4, (node, depth) -> true));
+		Assert.assertEquals(expected, graph.traverseDepthFirst(start,
+				Direction.FORWARD, l -> l > 0, 1, (node, depth) -> true));
+		Assert.assertEquals(expected, graph.traverseDepthFirst(start,
+				Direction.FORWARD, l -> l > 0, 4, (node, depth) -> true));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testAdditionalEdgeInSecondPass() {
+		CsrGraphBuilder builder = new CsrGraphBuilder(MemoryAllocator.onHeap());
+		builder.addEdge(1, 2, 0);
+		builder.startSecondPass();
+		builder.addEdge(1, 2, 0);
+		builder.addEdge(1, 3, 0);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testMissingEdgeInSecondPass() {
+		CsrGraphBuilder builder = new CsrGraphBuilder(MemoryAllocator.onHeap());
+		builder.addEdge(1, 2, 0);
+		builder.addEdge(2, 1, 0);
+		builder.startSecondPass();
+		builder.addEdge(1, 2, 0);
+		builder.build();
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testInvalidNode() {
+		buildGraph(MemoryAllocator.onHeap()).getOutDegree(8);
+	}
+}
@@ -0,0 +1,188 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for {@link EliasFanoSequence}.
+ */
+public class EliasFanoSequenceTest {
+
+	static long[] randomValues(Random random, int size, long universe) {
+		TreeSet<Long> set = new TreeSet<>();
+		while (set.size() < size) {
+			set.add((long) (random.nextDouble() * universe));
+		}
+		return set.stream().mapToLong(Long::longValue).toArray();
+	}
+
+	static TreeSet<Long> toSet(long[] values) {
+		TreeSet<Long> result = new TreeSet<>();
+		for (long value : values) {
+			result.add(value);
+		}
+		return result;
+	}
+
+	void assertSequence(long[] values) {
+		EliasFanoSequence sequence = new EliasFanoSequence(values);
+		Assert.assertEquals(values.length, sequence.size());
+		Assert.assertArrayEquals(values, sequence.toArray());
+		for (int i = 0; i < values.length; i++) {
+			Assert.assertEquals(values[i], sequence.get(i));
+		}
+
+		TreeSet<Long> set = toSet(values);
+		Random random = new Random(values.length);
+		long max = values.length == 0 ? 10 : 2 * values[values.length - 1];
+		for (int i = 0; i < 1000; i++) {
+			long bound = (long) (random.nextDouble() * max);
+			Long expected = set.ceiling(bound);
+			Assert.assertEquals(expected == null ? EliasFanoSequence.NOT_FOUND
+					: expected, sequence.nextGreaterOrEqual(bound));
+			Assert.assertEquals(set.contains(bound), sequence.contains(bound));
+		}
+
+		// skipping forwards with a single cursor
+		EliasFanoSequence.Cursor cursor = sequence.cursor();
+		long bound = 0;
+		while (true) {
+			Long expected = set.ceiling(bound);
+			long found = cursor.nextGreaterOrEqual(bound);
+			if (expected == null) {
+				Assert.assertEquals(EliasFanoSequence.NOT_FOUND, found);
+				Assert.assertFalse(cursor.hasNext());
+				break;
+			}
+			Assert.assertEquals(expected.longValue(), found);
+			bound = found + 1 + random.nextInt(1 + (int) (max / 50));
+		}
+	}
+
+	@Test
+	public void testSparseSequence() {
+		assertSequence(randomValues(new Random(1), 5000, 1L << 40));
+	}
+
+	@Test
+	public void testMediumSequence() {
+		assertSequence(randomValues(new Random(2), 10000, 1000000));
+	}
+
+	@Test
+	public void testDenseSequence() {
+		assertSequence(randomValues(new Random(3), 9000, 10000));
+		long[] all = new long[3000];
+		for (int i = 0; i < all.length; i++) {
+			all[i] = i;
+		}
+		assertSequence(all);
+	}
+
+	@Test
+	public void testSmallSequences() {
+		assertSequence(new long[] {});
+		assertSequence(new long[] { 0 });
+		assertSequence(new long[] { 42 });
+		assertSequence(new long[] { 3, 4, 1000000 });
+		Assert.assertEquals("[3, 4, 1000000]", new EliasFanoSequence(
+				new long[] { 3, 4, 1000000 }).toString());
+	}
+
+	@Test
+	public void testIntersection() {
+		Random random = new Random(4);
+		long[] a = randomValues(random, 20000, 200000);
+		long[] b = randomValues(random, 300, 200000);
+		TreeSet<Long> expected = toSet(a);
+		expected.retainAll(toSet(b));
+
+		EliasFanoSequence first = new EliasFanoSequence(a);
+		EliasFanoSequence second = new EliasFanoSequence(b);
+		EliasFanoSequence intersection = first.intersection(second);
+		Assert.assertArrayEquals(expected.stream().mapToLong(Long::longValue)
+				.toArray(), intersection.toArray());
+		Assert.assertEquals(intersection, second.intersection(first));
+		Assert.assertEquals(0, first.intersection(
+				new EliasFanoSequence(new long[] {})).size());
+
+		Assert.assertArrayEquals(new long[] { 14 }, new EliasFanoSequence(
+				new long[] { 4, 12, 14, 25 }).intersection(
+				new EliasFanoSequence(new long[] { 0, 1, 6, 7, 14, 16, 24 }))
+				.toArray());
+
+		for (int i = 0; i < 1000; i++) {
+			a = randomValues(random, random.nextInt(20), 40);
+			b = randomValues(random, random.nextInt(20), 40);
+			expected = toSet(a);
+			expected.retainAll(toSet(b));
+			Assert.assertArrayEquals(expected.stream()
+					.mapToLong(Long::longValue).toArray(),
+					new EliasFanoSequence(a).intersection(
+							new EliasFanoSequence(b)).toArray());
+		}
+	}
+
+	@Test
+	public void testSize() {
+		long[] values = randomValues(new Random(5), 100000, 100000000);
+		EliasFanoSequence sequence = new EliasFanoSequence(values);
+		// 2 + log(1000) bits per number, plus the directory
+		Assert.assertTrue(sequence.getSizeInBytes() < 100000 * 13 / 8);
+	}
+
+	@Test
+	public void testEqualityAndHashCode() {
+		EliasFanoSequence sequence = new EliasFanoSequence(new long[] { 1, 5,
+				9 });
+		EliasFanoSequence copy = new EliasFanoSequence.Builder(3, 100).add(1)
+				.add(5).add(9).build();
+		Assert.assertEquals(sequence, copy);
+		Assert.assertEquals(sequence.hashCode(), copy.hashCode());
+		Assert.assertNotEquals(sequence, new EliasFanoSequence(new long[] {
+				1, 5, 8 }));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnsortedInput() {
+		new EliasFanoSequence(new long[] { 1, 5, 3, 9 });
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDuplicateInput() {
+		new EliasFanoSequence(new long[] { 1, 5, 5, 9 });
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testIncompleteBuilder() {
+		new EliasFanoSequence.Builder(3, 100).add(1).build();
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testInvalidIndex() {
+		new EliasFanoSequence(new long[] { 1, 2 }).get(2);
+	}
+}
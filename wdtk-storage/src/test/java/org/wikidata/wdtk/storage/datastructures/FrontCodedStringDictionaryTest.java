@@ -0,0 +1,194 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test class for {@link FrontCodedStringDictionary} and
+ * {@link FrontCodedStringDictionaryBuilder}.
+ */
+public class FrontCodedStringDictionaryTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Sorted set of strings in the order of their UTF-8 encoding.
+	 */
+	static TreeSet<String> newUtf8Set() {
+		return new TreeSet<>((a, b) -> {
+			byte[] x = a.getBytes(StandardCharsets.UTF_8);
+			byte[] y = b.getBytes(StandardCharsets.UTF_8);
+			return FrontCodedStringDictionary.compare(x, x.length, y,
+					y.length);
+		});
+	}
+
+	List<String> createStrings() {
+		Random random = new Random(11);
+		List<String> strings = new ArrayList<>();
+		String[] prefixes = { "http://www.wikidata.org/entity/Q",
+				"http://www.wikidata.org/entity/P", "Berlin", "Bern", "",
+				"été", "😀 " };
+		for (int i = 0; i < 20000; i++) {
+			strings.add(prefixes[random.nextInt(prefixes.length)]
+					+ random.nextInt(5000));
+		}
+		strings.add("");
+		return strings;
+	}
+
+	FrontCodedStringDictionary build(List<String> strings, int bucketSize,
+			long bufferSize) throws IOException {
+		Path file = this.folder.newFile().toPath();
+		FrontCodedStringDictionaryBuilder builder = new FrontCodedStringDictionaryBuilder(
+				this.folder.getRoot().toPath(), bucketSize, bufferSize);
+		for (String string : strings) {
+			builder.add(string);
+		}
+		builder.build(file);
+		return FrontCodedStringDictionary.open(file);
+	}
+
+	void assertDictionary(TreeSet<String> expected,
+			FrontCodedStringDictionary dictionary) {
+		Assert.assertEquals(expected.size(), dictionary.size());
+		long id = 0;
+		for (String string : expected) {
+			Assert.assertEquals(string, dictionary.getString(id));
+			Assert.assertEquals(id, dictionary.getId(string));
+			id++;
+		}
+		Assert.assertEquals(-1, dictionary.getId("not contained"));
+		Assert.assertEquals(-1, dictionary.getId("Ber"));
+		Assert.assertEquals(-1, dictionary.getId("￿"));
+	}
+
+	@Test
+	public void testLookups() throws IOException {
+		List<String> strings = createStrings();
+		TreeSet<String> expected = newUtf8Set();
+		expected.addAll(strings);
+		assertDictionary(expected, build(strings, 16, 1 << 30));
+		assertDictionary(expected, build(strings, 1, 1 << 30));
+		assertDictionary(expected, build(strings, 100, 1 << 30));
+	}
+
+	@Test
+	public void testExternalSorting() throws IOException {
+		List<String> strings = createStrings();
+		TreeSet<String> expected = newUtf8Set();
+		expected.addAll(strings);
+		// small buffer to create many temporary files
+		assertDictionary(expected, build(strings, 8, 10000));
+		try (Stream<Path> files = Files.list(this.folder
+				.getRoot().toPath())) {
+			Assert.assertEquals(0, files.filter(
+					path -> path.getFileName().toString()
+							.startsWith("wdtk-dict-"))
+					.count());
+		}
+	}
+
+	@Test
+	public void testPrefixIteration() throws IOException {
+		List<String> strings = createStrings();
+		TreeSet<String> expected = newUtf8Set();
+		expected.addAll(strings);
+		FrontCodedStringDictionary dictionary = build(strings, 16, 1 << 30);
+
+		for (String prefix : new String[] { "Bern", "Ber", "Berlin12",
+				"http://www.wikidata.org/entity/", "", "é", "x",
+				"\ud83d" + "\ude00 49" }) {
+			List<String> matching = new ArrayList<>();
+			for (String string : expected) {
+				if (string.startsWith(prefix)) {
+					matching.add(string);
+				}
+			}
+			List<String> result = new ArrayList<>();
+			dictionary.getStringsWithPrefix(prefix).forEachRemaining(
+					result::add);
+			Assert.assertEquals(matching, result);
+		}
+	}
+
+	@Test
+	public void testEmptyDictionary() throws IOException {
+		FrontCodedStringDictionary dictionary = build(new ArrayList<>(), 16,
+				1 << 20);
+		Assert.assertEquals(0, dictionary.size());
+		Assert.assertEquals(-1, dictionary.getId(""));
+		Iterator<String> iterator = dictionary.getStringsWithPrefix("");
+		Assert.assertFalse(iterator.hasNext());
+	}
+
+	@Test
+	public void testCompression() throws IOException {
+		List<String> strings = new ArrayList<>();
+		long totalLength = 0;
+		for (int i = 0; i < 100000; i++) {
+			String iri = "http://www.wikidata.org/entity/Q" + i;
+			strings.add(iri);
+			totalLength += iri.length();
+		}
+		Path file = this.folder.newFile().toPath();
+		FrontCodedStringDictionaryBuilder builder = new FrontCodedStringDictionaryBuilder(
+				this.folder.getRoot().toPath());
+		for (String string : strings) {
+			builder.add(string);
+		}
+		Assert.assertEquals(100000, builder.build(file));
+		Assert.assertTrue(Files.size(file) < totalLength / 4);
+		FrontCodedStringDictionary dictionary = FrontCodedStringDictionary
+				.open(file);
+		long id = dictionary.getId("http://www.wikidata.org/entity/Q42");
+		Assert.assertEquals("http://www.wikidata.org/entity/Q42",
+				dictionary.getString(id));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testInvalidId() throws IOException {
+		build(createStrings(), 16, 1 << 20).getString(-1);
+	}
+
+	@Test(expected = IOException.class)
+	public void testInvalidFile() throws IOException {
+		Path file = this.folder.newFile().toPath();
+		Files.write(file, new byte[100]);
+		FrontCodedStringDictionary.open(file);
+	}
+}
@@ -0,0 +1,74 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for {@link LongIntHashMap}.
+ */
+public class LongIntHashMapTest {
+
+	@Test
+	public void testRandomOperations() {
+		LongIntHashMap map = new LongIntHashMap(0, MemoryAllocator.offHeap());
+		Map<Long, Integer> expected = new HashMap<>();
+		Random random = new Random(7);
+		for (int i = 0; i < 100000; i++) {
+			long key = random.nextInt(20000) * 0x100000001L;
+			switch (random.nextInt(3)) {
+			case 0:
+				int value = random.nextInt();
+				map.put(key, value);
+				expected.put(key, value);
+				break;
+			case 1:
+				Assert.assertEquals(expected.remove(key) != null,
+						map.remove(key));
+				break;
+			default:
+				Assert.assertEquals(expected.merge(key, 3, Integer::sum)
+						.intValue(), map.addTo(key, 3));
+			}
+		}
+		Assert.assertEquals(expected.size(), map.size());
+		Map<Long, Integer> entries = new HashMap<>();
+		map.forEach(entries::put);
+		Assert.assertEquals(expected, entries);
+		for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+			Assert.assertEquals(entry.getValue().intValue(),
+					map.get(entry.getKey(), 0));
+		}
+	}
+
+	@Test
+	public void testIntOverflow() {
+		LongIntHashMap map = new LongIntHashMap();
+		map.put(3, Integer.MAX_VALUE);
+		Assert.assertEquals(Integer.MIN_VALUE, map.addTo(3, 1));
+		Assert.assertEquals(Integer.MIN_VALUE, map.get(3, 0));
+	}
+}
@@ -0,0 +1,129 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test class for {@link LongLongHashMap}.
+ */
+public class LongLongHashMapTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	void testRandomOperations(LongLongHashMap map) {
+		Map<Long, Long> expected = new HashMap<>();
+		Random random = new Random(42);
+		for (int i = 0; i < 200000; i++) {
+			// small key range to provoke collisions and removals
+			long key = random.nextInt(50000) - 100;
+			switch (random.nextInt(4)) {
+			case 0:
+			case 1:
+				long value = random.nextLong();
+				map.put(key, value);
+				expected.put(key, value);
+				break;
+			case 2:
+				Assert.assertEquals(expected.remove(key) != null,
+						map.remove(key));
+				break;
+			default:
+				Assert.assertEquals(expected.merge(key, 7L, Long::sum)
+						.longValue(), map.addTo(key, 7));
+			}
+		}
+		Assert.assertEquals(expected.size(), map.size());
+		for (long key = -100; key < 50000; key++) {
+			Long value = expected.get(key);
+			Assert.assertEquals(value != null, map.containsKey(key));
+			Assert.assertEquals(value == null ? -1 : value,
+					map.get(key, -1));
+		}
+		Map<Long, Long> entries = new HashMap<>();
+		map.forEach(entries::put);
+		Assert.assertEquals(expected, entries);
+	}
+
+	@Test
+	public void testOnHeap() {
+		testRandomOperations(new LongLongHashMap());
+	}
+
+	@Test
+	public void testOffHeap() {
+		testRandomOperations(new LongLongHashMap(1000,
+				MemoryAllocator.offHeap()));
+	}
+
+	@Test
+	public void testMapped() {
+		testRandomOperations(new LongLongHashMap(0,
+				MemoryAllocator.mapped(this.folder.getRoot().toPath())));
+	}
+
+	@Test
+	public void testGrowth() {
+		LongLongHashMap map = new LongLongHashMap();
+		Assert.assertEquals(16, map.capacity());
+		for (long i = 1; i <= 100000; i++) {
+			map.put(i, 2 * i);
+		}
+		Assert.assertEquals(100000, map.size());
+		Assert.assertEquals(1 << 18, map.capacity());
+		for (long i = 1; i <= 100000; i++) {
+			Assert.assertEquals(2 * i, map.get(i, 0));
+		}
+
+		LongLongHashMap presized = new LongLongHashMap(100000,
+				MemoryAllocator.onHeap());
+		Assert.assertEquals(1 << 18, presized.capacity());
+	}
+
+	@Test
+	public void testZeroKeyAndClear() {
+		LongLongHashMap map = new LongLongHashMap();
+		Assert.assertTrue(map.isEmpty());
+		Assert.assertFalse(map.containsKey(0));
+		map.put(0, 5);
+		map.put(1, 6);
+		Assert.assertEquals(2, map.size());
+		Assert.assertEquals(5, map.get(0, -1));
+		Assert.assertEquals(6, map.addTo(0, 1));
+		map.clear();
+		Assert.assertTrue(map.isEmpty());
+		Assert.assertEquals(-1, map.get(0, -1));
+		Assert.assertEquals(-1, map.get(1, -1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeExpectedSize() {
+		new LongLongHashMap(-1, MemoryAllocator.onHeap());
+	}
+}
@@ -0,0 +1,158 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test class for {@link MappedBitVector}.
+ */
+public class MappedBitVectorTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	BitVectorImpl createBitVector(long size, int seed) {
+		PseudorandomBooleanGenerator generator = new PseudorandomBooleanGenerator(
+				seed);
+		BitVectorImpl bv = new BitVectorImpl();
+		for (long i = 0; i < size; i++) {
+			bv.addBit(generator.getPseudorandomBoolean());
+		}
+		return bv;
+	}
+
+	void assertSameRankAndSelect(RankedBitVector expected,
+			RankedBitVector actual) {
+		for (long i = 0; i < expected.size(); i++) {
+			Assert.assertEquals(expected.countBits(true, i),
+					actual.countBits(true, i));
+			Assert.assertEquals(expected.countBits(false, i),
+					actual.countBits(false, i));
+			Assert.assertEquals(expected.findPosition(true, i + 1),
+					actual.findPosition(true, i + 1));
+			Assert.assertEquals(expected.findPosition(false, i + 1),
+					actual.findPosition(false, i + 1));
+		}
+	}
+
+	@Test
+	public void testWriteAndOpen() throws IOException {
+		BitVectorImpl bv = createBitVector(
+				2 * RankSelectDirectory.BITS_PER_SUPERBLOCK + 123, 0x1234);
+		Path file = folder.newFile().toPath();
+		MappedBitVector.write(bv, file);
+
+		// small chunks, so that the file is split into many mappings
+		MappedBitVector mapped = MappedBitVector.open(file, 10);
+		Assert.assertEquals(bv.size(), mapped.size());
+		Assert.assertEquals(bv, mapped);
+		Assert.assertEquals(mapped, bv);
+		Assert.assertEquals(bv.hashCode(), mapped.hashCode());
+		Assert.assertFalse(mapped.getBit(bv.size() + 10));
+		assertSameRankAndSelect(new RankedBitVectorImpl(bv), mapped);
+		mapped.close();
+	}
+
+	@Test
+	public void testCreateAndModify() throws IOException {
+		Path file = folder.newFile().toPath();
+		MappedBitVector mapped = MappedBitVector.create(file, 1000, 0x40, 6);
+		RankedBitVectorImpl expected = new RankedBitVectorImpl(1000);
+		for (int i = 0; i < 1000; i += 7) {
+			mapped.setBit(i, true);
+			expected.setBit(i, true);
+		}
+		assertSameRankAndSelect(expected, mapped);
+
+		mapped.setBit(7, false);
+		expected.setBit(7, false);
+		mapped.setBit(999, true);
+		expected.setBit(999, true);
+		assertSameRankAndSelect(expected, mapped);
+		mapped.close();
+
+		MappedBitVector reopened = MappedBitVector.open(file);
+		Assert.assertEquals(expected, reopened);
+		assertSameRankAndSelect(expected, reopened);
+		Assert.assertEquals(expected.toString(), reopened.toString());
+
+		Iterator<Boolean> it = reopened.iterator();
+		for (long i = 0; i < 1000; i++) {
+			Assert.assertEquals(expected.getBit(i), it.next());
+		}
+		Assert.assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		Path file = folder.newFile().toPath();
+		MappedBitVector.write(new BitVectorImpl(), file);
+		MappedBitVector mapped = MappedBitVector.open(file);
+		Assert.assertEquals(0, mapped.size());
+		Assert.assertEquals(new BitVectorImpl(), mapped);
+		Assert.assertEquals(RankedBitVector.NOT_FOUND,
+				mapped.findPosition(true, 1));
+		Assert.assertEquals(0, mapped.countBits(true, 5));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testReadOnly() throws IOException {
+		Path file = folder.newFile().toPath();
+		MappedBitVector.write(new BitVectorImpl(10), file);
+		MappedBitVector.open(file).setBit(1, true);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testAddBit() throws IOException {
+		Path file = folder.newFile().toPath();
+		MappedBitVector.create(file, 10).addBit(true);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testSetBitOutOfBounds() throws IOException {
+		Path file = folder.newFile().toPath();
+		MappedBitVector.create(file, 10).setBit(10, true);
+	}
+
+	@Test(expected = IOException.class)
+	public void testOpenInvalidFile() throws IOException {
+		Path file = folder.newFile().toPath();
+		Files.write(file, new byte[100]);
+		MappedBitVector.open(file);
+	}
+
+	@Test(expected = IOException.class)
+	public void testOpenUnfinishedFile() throws IOException {
+		Path file = folder.newFile().toPath();
+		MappedBitVector mapped = MappedBitVector.create(file, 100);
+		mapped.setBit(3, true);
+		MappedBitVector.open(file);
+	}
+}
@@ -0,0 +1,106 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Random;
+
+/**
+ * Simple benchmark that compares {@link RankSelectDirectory} with the
+ * bit-by-bit implementations {@link CountBitsArray} and
+ * {@link FindPositionArray}. This is not run as part of the tests. The size
+ * of the bit vector in bits can be given as the first argument; the default
+ * is 2^31 bits, which needs about 300MB of heap space.
+ */
+public class RankSelectBenchmark {
+
+	static final int QUERIES = 100000;
+
+	public static void main(String[] args) {
+		long size = args.length > 0 ? Long.parseLong(args[0]) : 1L << 31;
+		boolean includeOld = args.length < 2 || Boolean.parseBoolean(args[1]);
+
+		System.out.println("Creating random bit vector with " + size
+				+ " bits ...");
+		BitVectorImpl bv = new BitVectorImpl(size);
+		Random random = new Random(0x1234);
+		for (int i = 0; i < bv.arrayOfBits.length; i++) {
+			bv.arrayOfBits[i] = random.nextLong();
+		}
+		// clear bits after the end of the bit vector
+		int lastWord = (int) (size >>> BitVectorImpl.LG_WORD_SIZE);
+		if (lastWord < bv.arrayOfBits.length) {
+			bv.arrayOfBits[lastWord] &= (1L << (size & BitVectorImpl.WORD_MASK)) - 1;
+		}
+
+		long start = System.nanoTime();
+		RankSelectDirectory directory = new RankSelectDirectory(
+				bv.arrayOfBits, size,
+				RankSelectDirectory.DEFAULT_SELECT_SAMPLE_RATE);
+		report("Word-level directory: build", start, 1);
+		runQueries(directory::countBits, directory::findPosition, size,
+				directory.countOfTrue, "Word-level directory");
+
+		if (includeOld) {
+			CountBitsArray countBitsArray = new CountBitsArray(bv, 0x400);
+			FindPositionArray findPositionArray = new FindPositionArray(bv,
+					true, 0x2000);
+			start = System.nanoTime();
+			countBitsArray.updateCount();
+			findPositionArray.updateCount();
+			report("Bit-level arrays: build", start, 1);
+			runQueries(countBitsArray::countBits,
+					(bit, n) -> findPositionArray.findPosition(n), size,
+					directory.countOfTrue, "Bit-level arrays");
+		}
+	}
+
+	interface Query {
+		long apply(boolean bit, long argument);
+	}
+
+	static void runQueries(Query rank, Query select, long size,
+			long countOfTrue, String name) {
+		Random random = new Random(0x5678);
+		long checksum = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < QUERIES; i++) {
+			checksum += rank.apply(true, (long) (random.nextDouble() * size));
+		}
+		report(name + ": rank", start, QUERIES);
+		start = System.nanoTime();
+		for (int i = 0; i < QUERIES; i++) {
+			checksum += select.apply(true,
+					1 + (long) (random.nextDouble() * countOfTrue));
+		}
+		report(name + ": select", start, QUERIES);
+		System.out.println("(checksum " + checksum + ")");
+	}
+
+	static void report(String task, long start, int operations) {
+		long nanos = System.nanoTime() - start;
+		if (operations == 1) {
+			System.out.println(task + ": " + (nanos / 1000000) + "ms");
+		} else {
+			System.out.println(task + ": " + (nanos / operations)
+					+ "ns per operation");
+		}
+	}
+}
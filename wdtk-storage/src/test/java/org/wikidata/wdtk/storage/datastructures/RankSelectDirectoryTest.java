@@ -0,0 +1,129 @@
+package org.wikidata.wdtk.storage.datastructures;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for {@link RankSelectDirectory}.
+ */
+public class RankSelectDirectoryTest {
+
+	/**
+	 * Creates a bit vector where each bit is <code>true</code> with the given
+	 * probability.
+	 */
+	BitVectorImpl createBitVector(long size, double density, long seed) {
+		Random random = new Random(seed);
+		BitVectorImpl bv = new BitVectorImpl(size);
+		for (long i = 0; i < size; i++) {
+			if (random.nextDouble() < density) {
+				bv.setBit(i, true);
+			}
+		}
+		return bv;
+	}
+
+	/**
+	 * Compares all ranks and selects of the directory with the values found
+	 * by scanning the bit vector.
+	 */
+	void assertCorrectDirectory(BitVectorImpl bv, int selectSampleRate) {
+		RankSelectDirectory directory = new RankSelectDirectory(
+				bv.arrayOfBits, bv.size(), selectSampleRate);
+		long countOfTrue = 0;
+		long countOfFalse = 0;
+		for (long i = 0; i < bv.size(); i++) {
+			if (bv.getBit(i)) {
+				countOfTrue++;
+				Assert.assertEquals(i, directory.findPosition(true, countOfTrue));
+			} else {
+				countOfFalse++;
+				Assert.assertEquals(i,
+						directory.findPosition(false, countOfFalse));
+			}
+			Assert.assertEquals(countOfTrue, directory.countBits(true, i));
+			Assert.assertEquals(countOfFalse, directory.countBits(false, i));
+		}
+		Assert.assertEquals(RankedBitVector.NOT_FOUND,
+				directory.findPosition(true, countOfTrue + 1));
+		Assert.assertEquals(RankedBitVector.NOT_FOUND,
+				directory.findPosition(false, countOfFalse + 1));
+		Assert.assertEquals(RankedBitVector.NOT_FOUND,
+				directory.findPosition(true, 0));
+		Assert.assertEquals(countOfTrue,
+				directory.countBits(true, bv.size() + 100));
+		Assert.assertEquals(countOfFalse + 100,
+				directory.countBits(false, bv.size() + 99));
+		Assert.assertEquals(0, directory.countBits(true, -1));
+	}
+
+	@Test
+	public void testEmpty() {
+		assertCorrectDirectory(new BitVectorImpl(), 0x40);
+	}
+
+	@Test
+	public void testDensities() {
+		// several superblocks, not a multiple of the word size
+		long size = 3 * RankSelectDirectory.BITS_PER_SUPERBLOCK + 77;
+		double[] densities = { 0.0, 0.001, 0.1, 0.5, 0.9, 0.999, 1.0 };
+		for (int i = 0; i < densities.length; i++) {
+			BitVectorImpl bv = createBitVector(size, densities[i], i);
+			assertCorrectDirectory(bv, RankSelectDirectory.DEFAULT_SELECT_SAMPLE_RATE);
+			assertCorrectDirectory(bv, 0x40);
+		}
+	}
+
+	@Test
+	public void testSmallSampleRate() {
+		BitVectorImpl bv = createBitVector(5000, 0.3, 42);
+		assertCorrectDirectory(bv, 1);
+		assertCorrectDirectory(bv, 3);
+	}
+
+	@Test
+	public void testSelectInWord() {
+		Assert.assertEquals(0, RankSelectDirectory.selectInWord(1L, 1));
+		Assert.assertEquals(63, RankSelectDirectory.selectInWord(-1L, 64));
+		Assert.assertEquals(5,
+				RankSelectDirectory.selectInWord(0b101010L, 3));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidSampleRate() {
+		new RankSelectDirectory(new long[1], 0, 0);
+	}
+
+	@Test
+	public void testRankedBitVectorUpdatesDirectory() {
+		RankedBitVectorImpl bv = new RankedBitVectorImpl(1000);
+		Assert.assertEquals(0, bv.countBits(true, 999));
+		bv.setBit(500, true);
+		Assert.assertEquals(1, bv.countBits(true, 999));
+		Assert.assertEquals(500, bv.findPosition(true, 1));
+		bv.addBit(true);
+		Assert.assertEquals(1000, bv.findPosition(true, 2));
+	}
+}
@@ -0,0 +1,205 @@
+package org.wikidata.wdtk.storage.entities;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.storage.datastructures.CompressedBitmap;
+import org.wikidata.wdtk.storage.datastructures.ConcurrentBitVector;
+import org.wikidata.wdtk.storage.datastructures.CsrGraph;
+import org.wikidata.wdtk.storage.datastructures.CsrGraph.Direction;
+import org.wikidata.wdtk.storage.datastructures.CsrGraphBuilder;
+import org.wikidata.wdtk.storage.datastructures.MemoryAllocator;
+
+/**
+ * Test class for {@link ClassHierarchyIndex}.
+ */
+public class ClassHierarchyIndexTest {
+
+	static final int P31 = ClassHierarchyIndex.INSTANCE_OF;
+	static final int P279 = ClassHierarchyIndex.SUBCLASS_OF;
+
+	static CsrGraph buildGraph(int[][] edges) {
+		CsrGraphBuilder builder = new CsrGraphBuilder(MemoryAllocator.onHeap());
+		for (int pass = 0; pass < 2; pass++) {
+			for (int[] edge : edges) {
+				builder.addEdge(edge[0], edge[1], edge[2]);
+			}
+			if (pass == 0) {
+				builder.startSecondPass();
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Builds a random hierarchy of the given number of classes with cycles
+	 * and many classes with several superclasses, and the same number of
+	 * instances.
+	 */
+	static CsrGraph buildRandomGraph(int classes, long seed) {
+		Random random = new Random(seed);
+		int[][] edges = new int[4 * classes][];
+		for (int i = 0; i < 3 * classes; i++) {
+			int subclass = 1 + random.nextInt(classes);
+			// mostly upwards to keep the hierarchy deep, sometimes creating
+			// cycles
+			int superclass = random.nextInt(20) == 0 ? 1 + random
+					.nextInt(classes) : 1 + random.nextInt(subclass);
+			edges[i] = new int[] { subclass, superclass, P279 };
+		}
+		for (int i = 3 * classes; i < 4 * classes; i++) {
+			edges[i] = new int[] { classes + 1 + random.nextInt(classes),
+					1 + random.nextInt(classes), P31 };
+		}
+		return buildGraph(edges);
+	}
+
+	static void assertMatchesGraph(ClassHierarchyIndex index, CsrGraph graph,
+			int classes) {
+		for (int subclass = 1; subclass <= classes; subclass++) {
+			ConcurrentBitVector superclasses = graph.traverseBreadthFirst(
+					new int[] { subclass }, Direction.FORWARD,
+					l -> l == P279, 1, (node, depth) -> true);
+			for (int superclass = 1; superclass <= classes; superclass++) {
+				Assert.assertEquals(subclass + " < " + superclass,
+						index.isClass(subclass)
+								&& superclasses.getBit(superclass),
+						index.isSubclassOf(subclass, superclass));
+			}
+		}
+		for (int item = classes + 1; item <= 2 * classes; item++) {
+			if (item >= graph.getNumberOfNodes()) {
+				Assert.assertFalse(index.isInstanceOf(item, 1));
+				continue;
+			}
+			int[] itemClasses = graph.getNeighbours(item, Direction.FORWARD,
+					l -> l == P31);
+			ConcurrentBitVector superclasses = graph.traverseBreadthFirst(
+					itemClasses, Direction.FORWARD, l -> l == P279, 1,
+					(node, depth) -> true);
+			for (int itemClass = 1; itemClass <= classes; itemClass++) {
+				Assert.assertEquals(item + " : " + itemClass,
+						superclasses.getBit(itemClass),
+						index.isInstanceOf(item, itemClass));
+			}
+		}
+	}
+
+	@Test
+	public void testSmallHierarchy() {
+		// Q1 < Q2 < Q3 < Q2 (cycle), Q4 < Q1, Q4 < Q5, Q6 : Q4, Q7 : Q5
+		CsrGraph graph = buildGraph(new int[][] { { 1, 2, P279 },
+				{ 2, 3, P279 }, { 3, 2, P279 }, { 4, 1, P279 },
+				{ 4, 5, P279 }, { 6, 4, P31 }, { 7, 5, P31 },
+				{ 8, 1, 361 } });
+		ClassHierarchyIndex index = ClassHierarchyIndex.build(graph);
+
+		Assert.assertEquals(5, index.getNumberOfClasses());
+		Assert.assertTrue(index.isClass(5));
+		Assert.assertFalse(index.isClass(6));
+		Assert.assertFalse(index.isClass(8));
+
+		Assert.assertTrue(index.isSubclassOf(1, 1));
+		Assert.assertTrue(index.isSubclassOf(1, 3));
+		Assert.assertTrue(index.isSubclassOf(3, 2));
+		Assert.assertTrue(index.isSubclassOf(2, 3));
+		Assert.assertTrue(index.isSubclassOf(4, 3));
+		Assert.assertTrue(index.isSubclassOf(4, 5));
+		Assert.assertFalse(index.isSubclassOf(3, 1));
+		Assert.assertFalse(index.isSubclassOf(1, 5));
+		Assert.assertFalse(index.isSubclassOf(8, 1));
+		Assert.assertFalse(index.isSubclassOf(6, 6));
+
+		Assert.assertTrue(index.isInstanceOf(6, 4));
+		Assert.assertTrue(index.isInstanceOf(6, 2));
+		Assert.assertTrue(index.isInstanceOf(6, 5));
+		Assert.assertFalse(index.isInstanceOf(7, 4));
+		Assert.assertFalse(index.isInstanceOf(8, 1));
+		Assert.assertFalse(index.isInstanceOf(1000, 1));
+
+		Assert.assertTrue(index.isInstanceOf(
+				Datamodel.makeWikidataItemIdValue("Q6"),
+				Datamodel.makeWikidataItemIdValue("Q3")));
+		Assert.assertFalse(index.isSubclassOf(
+				Datamodel.makeWikidataItemIdValue("Q5"),
+				Datamodel.makeWikidataItemIdValue("Q4")));
+	}
+
+	@Test
+	public void testRandomHierarchy() {
+		CsrGraph graph = buildRandomGraph(300, 42);
+		ClassHierarchyIndex index = ClassHierarchyIndex.build(graph);
+		assertMatchesGraph(index, graph, 300);
+	}
+
+	@Test
+	public void testBitmapFallback() {
+		// Q2 has many subclasses that are not in its spanning tree, and
+		// which are not numbered consecutively in the spanning tree of Q1
+		int[][] edges = new int[3 * 20][];
+		for (int i = 0; i < 20; i++) {
+			edges[3 * i] = new int[] { 100 + 2 * i, 1, P279 };
+			edges[3 * i + 1] = new int[] { 100 + 2 * i, 2, P279 };
+			edges[3 * i + 2] = new int[] { 101 + 2 * i, 1, P279 };
+		}
+		CsrGraph graph = buildGraph(edges);
+		ClassHierarchyIndex index = ClassHierarchyIndex.build(graph);
+		int bitmaps = 0;
+		for (CompressedBitmap bitmap : index.bitmaps) {
+			if (bitmap != null) {
+				bitmaps++;
+			}
+		}
+		Assert.assertEquals(1, bitmaps);
+		for (int i = 0; i < 40; i++) {
+			Assert.assertTrue(index.isSubclassOf(100 + i, 1));
+			Assert.assertEquals(i % 2 == 0, index.isSubclassOf(100 + i, 2));
+		}
+		Assert.assertFalse(index.isSubclassOf(1, 2));
+		Assert.assertFalse(index.isSubclassOf(2, 1));
+	}
+
+	@Test
+	public void testWriteAndRead() throws IOException {
+		CsrGraph graph = buildRandomGraph(200, 7);
+		ClassHierarchyIndex index = ClassHierarchyIndex.build(graph);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		index.writeTo(output);
+		ClassHierarchyIndex copy = ClassHierarchyIndex
+				.readFrom(new ByteArrayInputStream(output.toByteArray()));
+		Assert.assertEquals(index.getNumberOfClasses(),
+				copy.getNumberOfClasses());
+		assertMatchesGraph(copy, graph, 200);
+	}
+
+	@Test(expected = IOException.class)
+	public void testReadInvalidInput() throws IOException {
+		ClassHierarchyIndex.readFrom(new ByteArrayInputStream(new byte[] { 1,
+				2, 3, 4, 5, 6, 7, 8 }));
+	}
+}
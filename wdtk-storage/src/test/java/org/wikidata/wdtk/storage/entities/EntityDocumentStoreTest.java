@@ -0,0 +1,219 @@
+package org.wikidata.wdtk.storage.entities;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.helpers.ItemDocumentBuilder;
+import org.wikidata.wdtk.datamodel.helpers.PropertyDocumentBuilder;
+import org.wikidata.wdtk.datamodel.interfaces.DatatypeIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocumentProcessor;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyDocument;
+import org.wikidata.wdtk.storage.datastructures.MemoryAllocator;
+
+/**
+ * Test class for {@link EntityDocumentStore}.
+ */
+public class EntityDocumentStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	static ItemDocument makeItem(int id, long revisionId, String label) {
+		return ItemDocumentBuilder
+				.forItemId(Datamodel.makeWikidataItemIdValue("Q" + id))
+				.withLabel(label, "en").withRevisionId(revisionId).build();
+	}
+
+	static PropertyDocument makeProperty(int id, long revisionId) {
+		return PropertyDocumentBuilder
+				.forPropertyIdAndDatatype(
+						Datamodel.makeWikidataPropertyIdValue("P" + id),
+						DatatypeIdValue.DT_ITEM).withLabel("property", "en")
+				.withRevisionId(revisionId).build();
+	}
+
+	@Test
+	public void testPutAndGet() throws IOException {
+		Path directory = this.folder.getRoot().toPath();
+		try (EntityDocumentStore store = new EntityDocumentStore(directory)) {
+			Assert.assertNull(store.get(Datamodel.makeWikidataItemIdValue("Q1")));
+			Assert.assertEquals(-1, store.getRevisionId(Datamodel
+					.makeWikidataItemIdValue("Q1")));
+
+			ItemDocument item = makeItem(1, 10, "one");
+			PropertyDocument property = makeProperty(1, 11);
+			store.processItemDocument(item);
+			store.processPropertyDocument(property);
+			Assert.assertEquals(2, store.size());
+			Assert.assertEquals(item, store.get(item.getEntityId()));
+			Assert.assertEquals(property, store.get(property.getEntityId()));
+			Assert.assertTrue(store.contains(item.getEntityId()));
+			Assert.assertEquals(10, store.getRevisionId(item.getEntityId()));
+		}
+	}
+
+	@Test
+	public void testLatestRevisionWins() throws IOException {
+		Path directory = this.folder.getRoot().toPath();
+		try (EntityDocumentStore store = new EntityDocumentStore(directory)) {
+			Assert.assertTrue(store.put(makeItem(1, 10, "ten")));
+			Assert.assertTrue(store.put(makeItem(1, 12, "twelve")));
+			Assert.assertFalse(store.put(makeItem(1, 11, "eleven")));
+			Assert.assertFalse(store.put(makeItem(1, 12, "twelve again")));
+			Assert.assertEquals(makeItem(1, 12, "twelve"),
+					store.get(Datamodel.makeWikidataItemIdValue("Q1")));
+			Assert.assertEquals(1, store.size());
+
+			Assert.assertTrue(store.put(makeItem(2, 0, "a")));
+			Assert.assertTrue(store.put(makeItem(2, 0, "b")));
+			Assert.assertEquals(makeItem(2, 0, "b"),
+					store.get(Datamodel.makeWikidataItemIdValue("Q2")));
+		}
+	}
+
+	@Test
+	public void testReopen() throws IOException {
+		Path directory = this.folder.getRoot().toPath();
+		try (EntityDocumentStore store = new EntityDocumentStore(directory,
+				1 << 16, MemoryAllocator.onHeap())) {
+			for (int i = 1; i <= 2000; i++) {
+				store.put(makeItem(i, 1, "first " + i));
+			}
+			for (int i = 1; i <= 2000; i += 2) {
+				store.put(makeItem(i, 2, "second " + i));
+			}
+			Assert.assertTrue(store.getNumberOfSegments() > 1);
+		}
+		try (EntityDocumentStore store = new EntityDocumentStore(directory,
+				1 << 16, MemoryAllocator.offHeap())) {
+			Assert.assertEquals(2000, store.size());
+			for (int i = 1; i <= 2000; i++) {
+				long revisionId = i % 2 == 1 ? 2 : 1;
+				Assert.assertEquals(makeItem(i, revisionId,
+						(revisionId == 2 ? "second " : "first ") + i),
+						store.get(Datamodel.makeWikidataItemIdValue("Q" + i)));
+			}
+		}
+	}
+
+	@Test
+	public void testIncompleteRecordIsRemoved() throws IOException {
+		Path directory = this.folder.getRoot().toPath();
+		try (EntityDocumentStore store = new EntityDocumentStore(directory)) {
+			store.put(makeItem(1, 1, "one"));
+			store.put(makeItem(2, 1, "two"));
+		}
+		Path segment = directory.resolve("segment-00000001.log");
+		long size = Files.size(segment);
+		// simulate a crash while writing a record
+		Files.write(segment, new byte[] { 100, 0, 0, 0, 1, 2, 3 },
+				StandardOpenOption.APPEND);
+		try (EntityDocumentStore store = new EntityDocumentStore(directory)) {
+			Assert.assertEquals(2, store.size());
+			Assert.assertEquals(size, Files.size(segment));
+			store.put(makeItem(3, 1, "three"));
+		}
+		try (EntityDocumentStore store = new EntityDocumentStore(directory)) {
+			Assert.assertEquals(3, store.size());
+			Assert.assertEquals(makeItem(3, 1, "three"),
+					store.get(Datamodel.makeWikidataItemIdValue("Q3")));
+		}
+	}
+
+	@Test
+	public void testCompaction() throws IOException {
+		Path directory = this.folder.getRoot().toPath();
+		try (EntityDocumentStore store = new EntityDocumentStore(directory,
+				1 << 16, MemoryAllocator.onHeap())) {
+			for (int revision = 1; revision <= 5; revision++) {
+				for (int i = 1; i <= 500; i++) {
+					store.put(makeItem(i, revision, "revision " + revision));
+				}
+			}
+			int segmentsBefore = store.getNumberOfSegments();
+			Assert.assertTrue(store.compact() > 0);
+			Assert.assertTrue(store.getNumberOfSegments() < segmentsBefore);
+			for (int i = 1; i <= 500; i++) {
+				Assert.assertEquals(makeItem(i, 5, "revision 5"),
+						store.get(Datamodel.makeWikidataItemIdValue("Q" + i)));
+			}
+		}
+		try (EntityDocumentStore store = new EntityDocumentStore(directory,
+				1 << 16, MemoryAllocator.onHeap())) {
+			Assert.assertEquals(500, store.size());
+			List<EntityDocument> documents = new ArrayList<>();
+			store.processAll(new EntityDocumentProcessor() {
+				@Override
+				public void processItemDocument(ItemDocument itemDocument) {
+					documents.add(itemDocument);
+				}
+			});
+			Assert.assertEquals(500, documents.size());
+			for (EntityDocument document : documents) {
+				Assert.assertEquals(5, document.getRevisionId());
+			}
+		}
+	}
+
+	@Test
+	public void testBackgroundCompaction() throws IOException,
+			InterruptedException {
+		Path directory = this.folder.getRoot().toPath();
+		try (EntityDocumentStore store = new EntityDocumentStore(directory,
+				1 << 16, MemoryAllocator.onHeap())) {
+			store.setCompactionThreshold(0.5);
+			for (int revision = 1; revision <= 20; revision++) {
+				for (int i = 1; i <= 200; i++) {
+					store.put(makeItem(i, revision, "revision " + revision));
+				}
+			}
+			for (int i = 0; i < 100 && store.getNumberOfSegments() > 3; i++) {
+				Thread.sleep(50);
+			}
+			Assert.assertTrue(store.getNumberOfSegments() <= 3);
+			for (int i = 1; i <= 200; i++) {
+				Assert.assertEquals(20, store.getRevisionId(Datamodel
+						.makeWikidataItemIdValue("Q" + i)));
+			}
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testClosedStore() throws IOException {
+		EntityDocumentStore store = new EntityDocumentStore(this.folder
+				.getRoot().toPath());
+		store.close();
+		store.put(makeItem(1, 1, "one"));
+	}
+}
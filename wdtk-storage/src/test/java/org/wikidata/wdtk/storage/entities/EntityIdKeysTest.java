@@ -0,0 +1,82 @@
+package org.wikidata.wdtk.storage.entities;
+
+/*
+ * #%L
+ * Wikidata Toolkit Storage
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.interfaces.EntityIdValue;
+
+/**
+ * Test class for {@link EntityIdKeys}.
+ */
+public class EntityIdKeysTest {
+
+	static final String SITE_IRI = Datamodel.SITE_WIKIDATA;
+
+	@Test
+	public void testNumericIds() {
+		Assert.assertEquals(42, EntityIdKeys.getNumericId(Datamodel
+				.makeWikidataItemIdValue("Q42")));
+		Assert.assertEquals(31, EntityIdKeys.getNumericId(Datamodel
+				.makeWikidataPropertyIdValue("P31")));
+		Assert.assertEquals(7, EntityIdKeys.getNumericId(Datamodel
+				.makeWikidataLexemeIdValue("L7")));
+		Assert.assertEquals(123456789, EntityIdKeys.getNumericId(Datamodel
+				.makeWikimediaCommonsMediaInfoIdValue("M123456789")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNumericIdOfForm() {
+		EntityIdKeys.getNumericId(Datamodel.makeWikidataFormIdValue("L7-F1"));
+	}
+
+	@Test
+	public void testKeys() {
+		EntityIdValue[] ids = { Datamodel.makeItemIdValue("Q42", SITE_IRI),
+				Datamodel.makePropertyIdValue("P42", SITE_IRI),
+				Datamodel.makeLexemeIdValue("L42", SITE_IRI),
+				Datamodel.makeFormIdValue("L42-F3", SITE_IRI),
+				Datamodel.makeSenseIdValue("L42-S3", SITE_IRI),
+				Datamodel.makeMediaInfoIdValue("M42", SITE_IRI),
+				Datamodel.makeItemIdValue("Q987654321", SITE_IRI) };
+		long[] keys = new long[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			keys[i] = EntityIdKeys.getKey(ids[i]);
+			Assert.assertTrue(keys[i] > 0);
+			for (int j = 0; j < i; j++) {
+				Assert.assertNotEquals(keys[j], keys[i]);
+			}
+			Assert.assertEquals(ids[i],
+					EntityIdKeys.getEntityIdValue(keys[i], SITE_IRI));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooLargeSubId() {
+		EntityIdKeys.getKey(Datamodel.makeWikidataFormIdValue("L42-F65536"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidKey() {
+		EntityIdKeys.getEntityIdValue(42, SITE_IRI);
+	}
+}
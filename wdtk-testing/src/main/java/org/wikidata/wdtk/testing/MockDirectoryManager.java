@@ -282,6 +282,16 @@ public class MockDirectoryManager implements DirectoryManager {
 		files.put(filePath, fileContents.getBytes(StandardCharsets.UTF_8));
 	}
 
+	@Override
+	public void deleteFile(String fileName) throws IOException {
+		Path filePath = this.directory.resolve(fileName);
+		ensureWritePermission(filePath);
+
+		if (hasFile(fileName)) {
+			files.remove(filePath);
+		}
+	}
+
 	@Override
 	public OutputStream getOutputStreamForFile(String fileName)
 			throws IOException {
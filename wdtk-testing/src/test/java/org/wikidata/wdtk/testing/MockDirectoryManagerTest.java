@@ -183,6 +183,21 @@ public class MockDirectoryManagerTest {
 		assertTrue(exception);
 	}
 
+	@Test
+	public void deleteFile() throws IOException {
+		mdm.createFile("newfile.txt", "New contents");
+		mdm.deleteFile("newfile.txt");
+		assertFalse(mdm.hasFile("newfile.txt"));
+		mdm.deleteFile("newfile.txt");
+	}
+
+	@Test(expected = IOException.class)
+	public void deleteFileReadOnly() throws IOException {
+		DirectoryManager mdmReadOnly = new MockDirectoryManager(basePath,
+				false, true);
+		mdmReadOnly.deleteFile("newfile.txt");
+	}
+
 	@Test(expected = FileAlreadyExistsException.class)
 	public void createFileConflict() throws IOException {
 		DirectoryManager submdm = mdm.getSubdirectoryManager("dir2");
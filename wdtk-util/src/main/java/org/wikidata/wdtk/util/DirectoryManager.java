@@ -120,6 +120,16 @@ public interface DirectoryManager {
 	 */
 	void createFile(String fileName, String fileContents) throws IOException;
 
+	/**
+	 * Deletes the file of the given name within the current directory, if it
+	 * exists.
+	 *
+	 * @param fileName
+	 *            the name of the file
+	 * @throws IOException
+	 */
+	void deleteFile(String fileName) throws IOException;
+
 	/**
 	 * Opens and returns an output stream that can be used to write to the file
 	 * of the given name within the current directory. The stream is owned by
@@ -156,6 +156,14 @@ public class DirectoryManagerImpl implements DirectoryManager {
 		}
 	}
 
+	@Override
+	public void deleteFile(String fileName) throws IOException {
+		Path filePath = this.directory.resolve(fileName);
+		ensureWritePermission(filePath);
+
+		Files.deleteIfExists(filePath);
+	}
+
 	@Override
 	public OutputStream getOutputStreamForFile(String fileName)
 			throws IOException {
@@ -67,6 +67,11 @@ public class DirectoryManagerFactoryTest {
 
 		}
 
+		@Override
+		public void deleteFile(String fileName) {
+
+		}
+
 		@Override
 		public OutputStream getOutputStreamForFile(String fileName) {
 			return null;
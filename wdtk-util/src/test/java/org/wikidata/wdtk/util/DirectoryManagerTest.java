@@ -90,6 +90,11 @@ public class DirectoryManagerTest {
 		dm.createFileAtomic("new-test-file.txt", in);
 	}
 
+	@Test(expected = IOException.class)
+	public void NoDeleteFileReadOnly() throws IOException {
+		dm.deleteFile("file.txt");
+	}
+
 	@Test
 	public void getCompressionInputStreamNone() throws IOException {
 		ByteArrayInputStream in = new ByteArrayInputStream(
@@ -29,9 +29,11 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.wikidata.wdtk.util.WebResourceFetcherImpl;
+import org.wikidata.wdtk.wikibaseapi.apierrors.MaxlagErrorException;
 import org.wikidata.wdtk.wikibaseapi.apierrors.MediaWikiApiErrorException;
 import org.wikidata.wdtk.wikibaseapi.apierrors.MediaWikiApiErrorHandler;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
@@ -214,6 +216,19 @@ public class ApiConnection {
 	 */
 	int readTimeout = -1;
 
+	/**
+	 * Transport used to send requests, or null to open a new
+	 * {@link HttpURLConnection} for each request.
+	 */
+	@JsonIgnore
+	HttpTransport httpTransport = null;
+
+	/**
+	 * Listener that is informed about each request, or null.
+	 */
+	@JsonIgnore
+	ApiRequestListener requestListener = null;
+
 	/**
 	 * Mapper object used for deserializing JSON data.
 	 */
@@ -397,22 +412,26 @@ public class ApiConnection {
 	 *     if a network error occurred
 	 */
 	String getOrFetchToken(String tokenType) throws IOException, MediaWikiApiErrorException {
-		if (tokens.containsKey(tokenType)) {
-			return tokens.get(tokenType);
+		synchronized (tokens) {
+			if (tokens.containsKey(tokenType)) {
+				return tokens.get(tokenType);
+			}
+			String value = fetchToken(tokenType);
+			tokens.put(tokenType, value);
+			// TODO if fetchToken raises an exception, we could try to recover here:
+			// (1) Check if we are still logged in; maybe log in again
+			// (2) If there is another error, maybe just run the operation again
+			return value;
 		}
-		String value = fetchToken(tokenType);
-		tokens.put(tokenType, value);
-		// TODO if fetchToken raises an exception, we could try to recover here:
-		// (1) Check if we are still logged in; maybe log in again
-		// (2) If there is another error, maybe just run the operation again
-		return value;
 	}
 
 	/**
 	 * Remove fetched value of given token.
 	 */
 	void clearToken(String tokenType) {
-		tokens.remove(tokenType);
+		synchronized (tokens) {
+			tokens.remove(tokenType);
+		}
 	}
 
 	/**
@@ -437,6 +456,29 @@ public class ApiConnection {
 		return root.path("query").path("tokens").path(tokenType + "token").textValue();
 	}
 
+	/**
+	 * Sends a request for a JSON result like
+	 * {@link #sendJsonRequest(String, Map)}, but returns the response without
+	 * parsing it, so that large results can be read incrementally. The caller
+	 * is responsible for checking errors and warnings in the result.
+	 *
+	 * @param requestMethod
+	 *            either POST or GET
+	 * @param parameters
+	 *            Maps parameter keys to values. Out of this map the function
+	 *            will create a query string for the request.
+	 * @return API result as JSON text
+	 * @throws IOException
+	 */
+	InputStream sendJsonRequestForStream(String requestMethod,
+			Map<String, String> parameters) throws IOException {
+		parameters.put(ApiConnection.PARAM_FORMAT, "json");
+		if (loggedIn) {
+			parameters.put(ApiConnection.ASSERT_PARAMETER, "user");
+		}
+		return sendRequest(requestMethod, parameters);
+	}
+
 	/**
 	 * Sends a request to the API with the given parameters and the given
 	 * request method and returns the result JSON tree. It automatically fills the
@@ -454,15 +496,112 @@ public class ApiConnection {
 	 * @throws MediaWikiApiErrorException if the API returns an error
 	 */
 	public JsonNode sendJsonRequest(String requestMethod, Map<String,String> parameters) throws IOException, MediaWikiApiErrorException {
-		parameters.put(ApiConnection.PARAM_FORMAT, "json");
-		if (loggedIn) {
-			parameters.put(ApiConnection.ASSERT_PARAMETER, "user");
-		}
-		try (InputStream response = sendRequest(requestMethod, parameters)) {
+		return sendJsonRequest(requestMethod, parameters, response -> {
 			JsonNode root = this.mapper.readTree(response);
-			this.checkErrors(root);
-			this.logWarnings(root);
+			checkResponse(root);
 			return root;
+		});
+	}
+
+	/**
+	 * Reads the response of a request for a JSON result.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 */
+	@FunctionalInterface
+	interface ResponseReader<T> {
+		T read(InputStream response) throws IOException,
+				MediaWikiApiErrorException;
+	}
+
+	/**
+	 * Sends a request for a JSON result like
+	 * {@link #sendJsonRequest(String, Map)}, but reads the response with the
+	 * given reader, which is responsible for checking errors and warnings.
+	 * The request is reported to the {@link ApiRequestListener} of this
+	 * connection, if any.
+	 *
+	 * @param requestMethod
+	 *            either POST or GET
+	 * @param parameters
+	 *            Maps parameter keys to values. Out of this map the function
+	 *            will create a query string for the request.
+	 * @param reader
+	 *            reads the result from the response
+	 * @return the result of the reader
+	 * @throws IOException
+	 * @throws MediaWikiApiErrorException if the reader finds an API error
+	 */
+	<T> T sendJsonRequest(String requestMethod,
+			Map<String, String> parameters, ResponseReader<T> reader)
+			throws IOException, MediaWikiApiErrorException {
+		ApiRequestListener listener = this.requestListener;
+		if (listener == null) {
+			try (InputStream response = sendJsonRequestForStream(
+					requestMethod, parameters)) {
+				return reader.read(response);
+			}
+		}
+
+		String action = parameters.getOrDefault(PARAM_ACTION, "");
+		long start = System.nanoTime();
+		CountingInputStream counter = null;
+		String errorCode = null;
+		try (InputStream response = sendJsonRequestForStream(requestMethod,
+				parameters)) {
+			counter = new CountingInputStream(response);
+			return reader.read(counter);
+		} catch (MediaWikiApiErrorException e) {
+			errorCode = e.getErrorCode();
+			throw e;
+		} catch (IOException | RuntimeException e) {
+			errorCode = e.getClass().getSimpleName();
+			throw e;
+		} finally {
+			listener.onRequest(action, System.nanoTime() - start,
+					counter == null ? 0 : counter.count, errorCode);
+		}
+	}
+
+	/**
+	 * Input stream that counts the bytes that are read.
+	 */
+	static class CountingInputStream extends FilterInputStream {
+		long count = 0;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				this.count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				this.count += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			this.count += skipped;
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
 		}
 	}
 
@@ -486,6 +625,9 @@ public class ApiConnection {
 	public InputStream sendRequest(String requestMethod,
 			Map<String, String> parameters) throws IOException {
 		String queryString = getQueryString(parameters);
+		if (this.httpTransport != null) {
+			return sendRequest(requestMethod, queryString, this.httpTransport);
+		}
 		URL url = new URL(this.apiBaseUrl);
 		HttpURLConnection connection = (HttpURLConnection) WebResourceFetcherImpl
 				.getUrlConnection(url);
@@ -501,12 +643,60 @@ public class ApiConnection {
 		if (rc != 200) {
 			logger.warn("Error: API request returned response code " + rc);
 		}
+		if (rc == 429) {
+			throw new TooManyRequestsException(
+					"API request was rejected with response code 429",
+					TooManyRequestsException.getRetryAfterSeconds(connection
+							.getHeaderFields()));
+		}
 
 		InputStream iStream = connection.getInputStream();
 		fillCookies(connection.getHeaderFields());
 		return iStream;
 	}
 
+	/**
+	 * Sends a request with the given transport, and fills the cookie map with
+	 * the cookies of the response.
+	 */
+	private InputStream sendRequest(String requestMethod, String queryString,
+			HttpTransport transport) throws IOException {
+		Map<String, String> headers = new HashMap<>();
+		headers.put("Content-Type", "application/x-www-form-urlencoded");
+		headers.put(ApiConnection.PARAM_COOKIE, getCookieString());
+		HttpTransport.Response response = transport.send(requestMethod,
+				this.apiBaseUrl, queryString, headers, this.connectTimeout,
+				this.readTimeout);
+		if (response.getStatusCode() != 200) {
+			logger.warn("Error: API request returned response code "
+					+ response.getStatusCode());
+		}
+		fillCookies(response.getHeaderFields());
+		if (response.getStatusCode() == 429) {
+			response.getBody().close();
+			throw new TooManyRequestsException(
+					"API request was rejected with response code 429",
+					TooManyRequestsException.getRetryAfterSeconds(response
+							.getHeaderFields()));
+		}
+		return response.getBody();
+	}
+
+	/**
+	 * Checks if an API response contains an error and throws a suitable
+	 * exception in this case, and logs the warnings of the response
+	 * otherwise.
+	 *
+	 * @param root
+	 *            root node of the JSON result
+	 * @throws MediaWikiApiErrorException
+	 *             if the response contains an error
+	 */
+	void checkResponse(JsonNode root) throws MediaWikiApiErrorException {
+		checkErrors(root);
+		logWarnings(root);
+	}
+
 	/**
 	 * @deprecated Use ApiConnection.sendJsonRequest that executes this method
 	 *
@@ -520,6 +710,12 @@ public class ApiConnection {
 	public void checkErrors(JsonNode root) throws MediaWikiApiErrorException {
 		if (root.has("error")) {
 			JsonNode errorNode = root.path("error");
+			if (MediaWikiApiErrorHandler.ERROR_MAXLAG.equals(errorNode.path(
+					"code").asText())) {
+				throw new MaxlagErrorException(errorNode.path("info").asText(
+						"No details provided"), errorNode.path("lag").asDouble(
+						-1));
+			}
 			MediaWikiApiErrorHandler.throwMediaWikiApiErrorException(errorNode
 					.path("code").asText("UNKNOWN"), errorNode.path("info")
 					.asText("No details provided"));
@@ -706,15 +902,18 @@ public class ApiConnection {
 	        }
 	    }
 	    if (!headerCookies.isEmpty()) {
-			for (String cookie : headerCookies) {
-				String[] cookieResponse = cookie.split(";\\p{Space}??");
-				for (String cookieLine : cookieResponse) {
-					String[] entry = cookieLine.split("=");
-					if (entry.length == 2) {
-						this.cookies.put(entry[0], entry[1]);
-					}
-					if (entry.length == 1) {
-						this.cookies.put(entry[0], "");
+			// requests of asynchronous fetchers may run concurrently
+			synchronized (this.cookies) {
+				for (String cookie : headerCookies) {
+					String[] cookieResponse = cookie.split(";\\p{Space}??");
+					for (String cookieLine : cookieResponse) {
+						String[] entry = cookieLine.split("=");
+						if (entry.length == 2) {
+							this.cookies.put(entry[0], entry[1]);
+						}
+						if (entry.length == 1) {
+							this.cookies.put(entry[0], "");
+						}
 					}
 				}
 			}
@@ -732,17 +931,18 @@ public class ApiConnection {
 	String getCookieString() {
 		StringBuilder result = new StringBuilder();
 		boolean first = true;
-		for (Entry<String, String> entry : this.cookies.entrySet()) {
-			if (first) {
-				first = false;
-			} else {
-				result.append("; ");
-			}
-			result.append(entry.getKey());
-			if (!"".equals(entry.getValue())) {
-				result.append("=").append(entry.getValue());
+		synchronized (this.cookies) {
+			for (Entry<String, String> entry : this.cookies.entrySet()) {
+				if (first) {
+					first = false;
+				} else {
+					result.append("; ");
+				}
+				result.append(entry.getKey());
+				if (!"".equals(entry.getValue())) {
+					result.append("=").append(entry.getValue());
+				}
 			}
-
 		}
 		return result.toString();
 	}
@@ -849,4 +1049,60 @@ public class ApiConnection {
 		readTimeout = timeout;
 	}
 
+	/**
+	 * Returns the transport that is used to send requests, or null if a new
+	 * {@link HttpURLConnection} is opened for each request, which is the
+	 * default behaviour (for backwards compatibility).
+	 *
+	 * @return the transport or null
+	 */
+	@JsonIgnore
+	public HttpTransport getHttpTransport() {
+		return this.httpTransport;
+	}
+
+	/**
+	 * Sets the transport that is used to send requests. A
+	 * {@link KeepAliveHttpTransport} reuses connections and compresses
+	 * responses, which makes sending many requests considerably faster.
+	 * Transports can be shared by several connections; cookies and tokens
+	 * are still managed by each connection. If set to null, a new
+	 * {@link HttpURLConnection} is opened and configured with
+	 * {@link #setupConnection(String, String, HttpURLConnection)} for each
+	 * request.
+	 *
+	 * @param httpTransport
+	 *            the transport or null
+	 */
+	@JsonIgnore
+	public void setHttpTransport(HttpTransport httpTransport) {
+		this.httpTransport = httpTransport;
+	}
+
+	/**
+	 * Returns the listener that is informed about each request of this
+	 * connection, or null if there is none.
+	 *
+	 * @return the listener or null
+	 */
+	@JsonIgnore
+	public ApiRequestListener getRequestListener() {
+		return this.requestListener;
+	}
+
+	/**
+	 * Sets a listener that is informed about each request of this
+	 * connection. {@link WbEditingAction} also reports its retries and waits
+	 * to the listener of its connection. Use an {@link ApiRequestMetrics} to
+	 * collect statistics of the requests, which can also be read through
+	 * JMX. The listener is not serialized with the connection.
+	 *
+	 * @param requestListener
+	 *            the listener, or null to stop reporting requests
+	 */
+	@JsonIgnore
+	public void setRequestListener(ApiRequestListener requestListener) {
+		this.requestListener = requestListener;
+	}
+
 }
@@ -0,0 +1,91 @@
+package org.wikidata.wdtk.wikibaseapi;
+
+/*
+ * #%L
+ * Wikidata Toolkit Wikibase API
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Receives measurements of the requests that an {@link ApiConnection} sends
+ * to a Wikibase site, and of the retries and waits of
+ * {@link WbEditingAction}. Listeners are called by the threads that send the
+ * requests, so they must be thread-safe and should return quickly.
+ * {@link ApiRequestMetrics} collects the measurements for monitoring.
+ *
+ * @see ApiConnection#setRequestListener(ApiRequestListener)
+ */
+public interface ApiRequestListener {
+
+	/**
+	 * Reason for which a thread waited before sending a request.
+	 */
+	enum WaitReason {
+		/**
+		 * Waiting after the site rejected a request because of replication
+		 * lag (maxlag).
+		 */
+		MAXLAG,
+		/**
+		 * Waiting to limit the rate of edits, including the waits after
+		 * HTTP 429 (too many requests) responses.
+		 */
+		THROTTLE
+	}
+
+	/**
+	 * Reports that a request was completed, successfully or not.
+	 *
+	 * @param action
+	 *            the API action of the request, such as "wbgetentities"
+	 * @param durationNanos
+	 *            time in nanoseconds from sending the request until the
+	 *            response was read
+	 * @param responseBytes
+	 *            number of bytes of the response body that were read
+	 * @param errorCode
+	 *            null if the request succeeded, the MediaWiki error code if
+	 *            the API returned an error, or the simple class name of the
+	 *            exception for other failures, such as
+	 *            "TooManyRequestsException" or "SocketTimeoutException"
+	 */
+	void onRequest(String action, long durationNanos, long responseBytes,
+			String errorCode);
+
+	/**
+	 * Reports that a failed request will be sent again.
+	 *
+	 * @param action
+	 *            the API action of the request
+	 * @param errorCode
+	 *            the error code of the failed request, as in
+	 *            {@link #onRequest(String, long, long, String)}
+	 */
+	void onRetry(String action, String errorCode);
+
+	/**
+	 * Reports that a thread waited before sending a request.
+	 *
+	 * @param action
+	 *            the API action of the request
+	 * @param reason
+	 *            the reason for waiting
+	 * @param waitMillis
+	 *            the time waited in milliseconds
+	 */
+	void onWait(String action, WaitReason reason, long waitMillis);
+}
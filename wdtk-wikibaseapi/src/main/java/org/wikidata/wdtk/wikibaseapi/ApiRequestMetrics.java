@@ -0,0 +1,450 @@
+package org.wikidata.wdtk.wikibaseapi;
+
+/*
+ * #%L
+ * Wikidata Toolkit Wikibase API
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * {@link ApiRequestListener} that collects statistics of the requests to a
+ * Wikibase site for each API action: the number of requests and their
+ * latency histogram, the size of the responses, the error codes, the number
+ * of retries, and the time spent waiting because of maxlag and to limit the
+ * rate of edits. The statistics can be read with the methods of this class,
+ * or through JMX after calling {@link #registerMBean(String)}. One object
+ * can be used by several connections to collect their combined statistics.
+ * <p>
+ * The latency histogram counts the requests whose latency is at most each
+ * of the bounds given by {@link #LATENCY_BUCKET_BOUNDS_MILLIS}, with one
+ * last bucket for longer requests. Percentiles are estimated from the
+ * histogram, so they are upper bounds of the real values. Statistics are
+ * updated without locking and may be slightly inconsistent while requests
+ * are completed.
+ */
+public class ApiRequestMetrics implements ApiRequestListener,
+		ApiRequestMetricsMXBean {
+
+	/**
+	 * JMX domain of the objects registered by
+	 * {@link #registerMBean(String)}.
+	 */
+	public final static String JMX_DOMAIN = "org.wikidata.wdtk";
+
+	/**
+	 * Upper bounds of the buckets of the latency histograms in milliseconds.
+	 */
+	public final static long[] LATENCY_BUCKET_BOUNDS_MILLIS = { 1, 2, 5, 10,
+			20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, 50000,
+			100000 };
+
+	/**
+	 * Statistics of each action.
+	 */
+	final ConcurrentHashMap<String, ActionMetrics> actions = new ConcurrentHashMap<>();
+
+	@Override
+	public void onRequest(String action, long durationNanos,
+			long responseBytes, String errorCode) {
+		getMetrics(action).addRequest(durationNanos, responseBytes, errorCode);
+	}
+
+	@Override
+	public void onRetry(String action, String errorCode) {
+		getMetrics(action).retries.increment();
+	}
+
+	@Override
+	public void onWait(String action, WaitReason reason, long waitMillis) {
+		ActionMetrics metrics = getMetrics(action);
+		if (reason == WaitReason.MAXLAG) {
+			metrics.maxlagWaitMillis.add(waitMillis);
+		} else {
+			metrics.throttleWaitMillis.add(waitMillis);
+		}
+	}
+
+	/**
+	 * Returns the actions for which requests were reported.
+	 *
+	 * @return set of API actions
+	 */
+	public Set<String> getActions() {
+		return Collections.unmodifiableSet(this.actions.keySet());
+	}
+
+	/**
+	 * Returns the statistics of the given action.
+	 *
+	 * @param action
+	 *            the API action, such as "wbgetentities"
+	 * @return the statistics, or null if nothing was reported for the action
+	 */
+	public ActionStatistics getActionStatistics(String action) {
+		ActionMetrics metrics = this.actions.get(action);
+		return metrics == null ? null : new ActionStatistics(action, metrics);
+	}
+
+	@Override
+	public Map<String, ActionStatistics> getActionStatistics() {
+		Map<String, ActionStatistics> result = new TreeMap<>();
+		for (Map.Entry<String, ActionMetrics> entry : this.actions.entrySet()) {
+			result.put(entry.getKey(), new ActionStatistics(entry.getKey(),
+					entry.getValue()));
+		}
+		return result;
+	}
+
+	@Override
+	public long getRequestCount() {
+		return this.actions.values().stream()
+				.mapToLong(metrics -> metrics.requests.sum()).sum();
+	}
+
+	@Override
+	public long getErrorCount() {
+		return this.actions.values().stream()
+				.mapToLong(metrics -> metrics.errors.sum()).sum();
+	}
+
+	@Override
+	public long getRetryCount() {
+		return this.actions.values().stream()
+				.mapToLong(metrics -> metrics.retries.sum()).sum();
+	}
+
+	@Override
+	public long getResponseBytes() {
+		return this.actions.values().stream()
+				.mapToLong(metrics -> metrics.responseBytes.sum()).sum();
+	}
+
+	@Override
+	public long getMaxlagWaitMillis() {
+		return this.actions.values().stream()
+				.mapToLong(metrics -> metrics.maxlagWaitMillis.sum()).sum();
+	}
+
+	@Override
+	public long getThrottleWaitMillis() {
+		return this.actions.values().stream()
+				.mapToLong(metrics -> metrics.throttleWaitMillis.sum()).sum();
+	}
+
+	@Override
+	public void reset() {
+		this.actions.clear();
+	}
+
+	/**
+	 * Registers this object with the platform MBean server, so that the
+	 * statistics can be read with JMX clients such as JConsole. The object
+	 * name is "org.wikidata.wdtk:type=ApiRequestMetrics,name=" followed by
+	 * the quoted name.
+	 *
+	 * @param name
+	 *            name that distinguishes this object from other registered
+	 *            metrics, such as the name of the site
+	 * @return the object name under which this object was registered
+	 * @throws JMException
+	 *             if the object could not be registered, e.g., because the
+	 *             name is already used
+	 */
+	public ObjectName registerMBean(String name) throws JMException {
+		ObjectName objectName = getObjectName(name);
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				objectName);
+		return objectName;
+	}
+
+	/**
+	 * Removes the registration of {@link #registerMBean(String)} from the
+	 * platform MBean server.
+	 *
+	 * @param name
+	 *            the name that was used for registering
+	 * @throws JMException
+	 *             if no object was registered with this name
+	 */
+	public void unregisterMBean(String name) throws JMException {
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+				getObjectName(name));
+	}
+
+	static ObjectName getObjectName(String name) throws JMException {
+		return new ObjectName(JMX_DOMAIN + ":type="
+				+ ApiRequestMetrics.class.getSimpleName() + ",name="
+				+ ObjectName.quote(name));
+	}
+
+	ActionMetrics getMetrics(String action) {
+		return this.actions.computeIfAbsent(action, key -> new ActionMetrics());
+	}
+
+	/**
+	 * Statistics of one action, which are updated concurrently.
+	 */
+	static class ActionMetrics {
+		final LongAdder requests = new LongAdder();
+		final LongAdder errors = new LongAdder();
+		final LongAdder retries = new LongAdder();
+		final LongAdder totalNanos = new LongAdder();
+		final AtomicLong maxNanos = new AtomicLong();
+		final LongAdder responseBytes = new LongAdder();
+		final LongAdder maxlagWaitMillis = new LongAdder();
+		final LongAdder throttleWaitMillis = new LongAdder();
+		final AtomicLongArray latencyHistogram = new AtomicLongArray(
+				LATENCY_BUCKET_BOUNDS_MILLIS.length + 1);
+		final ConcurrentHashMap<String, LongAdder> errorCodes = new ConcurrentHashMap<>();
+
+		void addRequest(long durationNanos, long bytes, String errorCode) {
+			this.requests.increment();
+			this.totalNanos.add(durationNanos);
+			this.maxNanos.accumulateAndGet(durationNanos, Math::max);
+			this.responseBytes.add(bytes);
+			this.latencyHistogram.incrementAndGet(getBucket(durationNanos));
+			if (errorCode != null) {
+				this.errors.increment();
+				this.errorCodes.computeIfAbsent(errorCode,
+						key -> new LongAdder()).increment();
+			}
+		}
+
+		static int getBucket(long durationNanos) {
+			int bucket = 0;
+			while (bucket < LATENCY_BUCKET_BOUNDS_MILLIS.length
+					&& durationNanos > TimeUnit.MILLISECONDS
+							.toNanos(LATENCY_BUCKET_BOUNDS_MILLIS[bucket])) {
+				bucket++;
+			}
+			return bucket;
+		}
+	}
+
+	/**
+	 * Snapshot of the statistics of one action.
+	 */
+	public static class ActionStatistics {
+
+		final String action;
+		final long requestCount;
+		final long errorCount;
+		final long retryCount;
+		final long totalNanos;
+		final long maxNanos;
+		final long responseBytes;
+		final long maxlagWaitMillis;
+		final long throttleWaitMillis;
+		final long[] latencyHistogram;
+		final Map<String, Long> errorCodes;
+
+		ActionStatistics(String action, ActionMetrics metrics) {
+			this.action = action;
+			this.requestCount = metrics.requests.sum();
+			this.errorCount = metrics.errors.sum();
+			this.retryCount = metrics.retries.sum();
+			this.totalNanos = metrics.totalNanos.sum();
+			this.maxNanos = metrics.maxNanos.get();
+			this.responseBytes = metrics.responseBytes.sum();
+			this.maxlagWaitMillis = metrics.maxlagWaitMillis.sum();
+			this.throttleWaitMillis = metrics.throttleWaitMillis.sum();
+			this.latencyHistogram = new long[metrics.latencyHistogram.length()];
+			for (int i = 0; i < this.latencyHistogram.length; i++) {
+				this.latencyHistogram[i] = metrics.latencyHistogram.get(i);
+			}
+			Map<String, Long> codes = new HashMap<>();
+			metrics.errorCodes.forEach((code, count) -> codes.put(code,
+					count.sum()));
+			this.errorCodes = Collections.unmodifiableMap(codes);
+		}
+
+		/**
+		 * Returns the API action of these statistics.
+		 *
+		 * @return the action
+		 */
+		public String getAction() {
+			return this.action;
+		}
+
+		/**
+		 * Returns the number of requests.
+		 *
+		 * @return number of requests
+		 */
+		public long getRequestCount() {
+			return this.requestCount;
+		}
+
+		/**
+		 * Returns the number of failed requests.
+		 *
+		 * @return number of failed requests
+		 */
+		public long getErrorCount() {
+			return this.errorCount;
+		}
+
+		/**
+		 * Returns the number of failed requests for each error code.
+		 *
+		 * @return map from error codes to the number of requests
+		 * @see ApiRequestListener#onRequest(String, long, long, String)
+		 */
+		public Map<String, Long> getErrorCodes() {
+			return this.errorCodes;
+		}
+
+		/**
+		 * Returns the number of retried requests.
+		 *
+		 * @return number of retries
+		 */
+		public long getRetryCount() {
+			return this.retryCount;
+		}
+
+		/**
+		 * Returns the total number of bytes of the responses.
+		 *
+		 * @return number of bytes
+		 */
+		public long getResponseBytes() {
+			return this.responseBytes;
+		}
+
+		/**
+		 * Returns the time waited because of maxlag errors.
+		 *
+		 * @return time in milliseconds
+		 */
+		public long getMaxlagWaitMillis() {
+			return this.maxlagWaitMillis;
+		}
+
+		/**
+		 * Returns the time waited to limit the rate of edits.
+		 *
+		 * @return time in milliseconds
+		 */
+		public long getThrottleWaitMillis() {
+			return this.throttleWaitMillis;
+		}
+
+		/**
+		 * Returns the mean latency of the requests.
+		 *
+		 * @return latency in milliseconds, or 0 if there were no requests
+		 */
+		public double getMeanLatencyMillis() {
+			return this.requestCount == 0 ? 0 : this.totalNanos / 1e6
+					/ this.requestCount;
+		}
+
+		/**
+		 * Returns the highest latency of the requests.
+		 *
+		 * @return latency in milliseconds
+		 */
+		public double getMaxLatencyMillis() {
+			return this.maxNanos / 1e6;
+		}
+
+		/**
+		 * Returns the estimated median of the latencies.
+		 *
+		 * @return latency in milliseconds
+		 */
+		public double getMedianLatencyMillis() {
+			return getLatencyPercentileMillis(50);
+		}
+
+		/**
+		 * Returns the estimated 95th percentile of the latencies.
+		 *
+		 * @return latency in milliseconds
+		 */
+		public double getLatency95thPercentileMillis() {
+			return getLatencyPercentileMillis(95);
+		}
+
+		/**
+		 * Returns the estimated 99th percentile of the latencies.
+		 *
+		 * @return latency in milliseconds
+		 */
+		public double getLatency99thPercentileMillis() {
+			return getLatencyPercentileMillis(99);
+		}
+
+		/**
+		 * Returns an estimate of the given percentile of the latencies: the
+		 * upper bound of the histogram bucket that contains it, or the
+		 * highest latency if this is smaller.
+		 *
+		 * @param percentile
+		 *            the percentile, between 0 and 100
+		 * @return latency in milliseconds, or 0 if there were no requests
+		 */
+		public double getLatencyPercentileMillis(double percentile) {
+			long total = 0;
+			for (long count : this.latencyHistogram) {
+				total += count;
+			}
+			if (total == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+			long seen = 0;
+			for (int i = 0; i < LATENCY_BUCKET_BOUNDS_MILLIS.length; i++) {
+				seen += this.latencyHistogram[i];
+				if (seen >= rank) {
+					return Math.min(LATENCY_BUCKET_BOUNDS_MILLIS[i],
+							getMaxLatencyMillis());
+				}
+			}
+			return getMaxLatencyMillis();
+		}
+
+		/**
+		 * Returns the latency histogram. Entry i is the number of requests
+		 * that took at most {@link #LATENCY_BUCKET_BOUNDS_MILLIS}[i]
+		 * milliseconds, and more than the previous bound; the last entry
+		 * counts the requests that took longer than all bounds.
+		 *
+		 * @return the number of requests in each bucket
+		 */
+		public long[] getLatencyHistogram() {
+			return this.latencyHistogram.clone();
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package org.wikidata.wdtk.wikibaseapi;
+
+/*
+ * #%L
+ * Wikidata Toolkit Wikibase API
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link ApiRequestMetrics}, which makes the
+ * measurements available through JMX.
+ */
+public interface ApiRequestMetricsMXBean {
+
+	/**
+	 * Returns the number of requests of all actions.
+	 *
+	 * @return number of requests
+	 */
+	long getRequestCount();
+
+	/**
+	 * Returns the number of failed requests of all actions.
+	 *
+	 * @return number of failed requests
+	 */
+	long getErrorCount();
+
+	/**
+	 * Returns the number of retried requests of all actions.
+	 *
+	 * @return number of retries
+	 */
+	long getRetryCount();
+
+	/**
+	 * Returns the number of response bytes of all actions.
+	 *
+	 * @return number of bytes
+	 */
+	long getResponseBytes();
+
+	/**
+	 * Returns the total time waited because of maxlag errors.
+	 *
+	 * @return time in milliseconds
+	 */
+	long getMaxlagWaitMillis();
+
+	/**
+	 * Returns the total time waited to limit the rate of edits.
+	 *
+	 * @return time in milliseconds
+	 */
+	long getThrottleWaitMillis();
+
+	/**
+	 * Returns the statistics of each action.
+	 *
+	 * @return map from API actions to their statistics
+	 */
+	Map<String, ApiRequestMetrics.ActionStatistics> getActionStatistics();
+
+	/**
+	 * Discards all measurements.
+	 */
+	void reset();
+}
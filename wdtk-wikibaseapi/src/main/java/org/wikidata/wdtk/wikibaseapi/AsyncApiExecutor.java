@@ -0,0 +1,294 @@
+package org.wikidata.wdtk.wikibaseapi;
+
+/*
+ * #%L
+ * Wikidata Toolkit Wikibase API
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.Validate;
+import org.wikidata.wdtk.wikibaseapi.apierrors.MediaWikiApiErrorException;
+
+/**
+ * Runs blocking API calls asynchronously and returns their results as
+ * {@link CompletableFuture} objects. At most a fixed number of calls run at
+ * the same time; further calls wait in a queue without occupying a thread of
+ * the executor. An instance can be shared by several
+ * {@link WikibaseDataFetcher} objects to enforce one limit for all of them.
+ * <p>
+ * Futures complete exceptionally with the {@link MediaWikiApiErrorException}
+ * or {@link IOException} thrown by the call, or with a
+ * {@link TimeoutException} if the call did not finish within the timeout.
+ * The timeout includes the time spent waiting in the queue. A call that
+ * times out while it is running is not aborted, since blocking HTTP requests
+ * cannot be interrupted; it keeps its slot until the read timeout of the
+ * connection ends it.
+ */
+public class AsyncApiExecutor {
+
+	/**
+	 * Default number of API calls that can run at the same time.
+	 */
+	public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+
+	/**
+	 * A blocking call to the API.
+	 *
+	 * @param <T>
+	 *            type of the result
+	 */
+	@FunctionalInterface
+	public interface ApiCall<T> {
+		T call() throws IOException, MediaWikiApiErrorException;
+	}
+
+	private static ExecutorService defaultExecutor;
+
+	private static ScheduledExecutorService timer;
+
+	final Executor executor;
+
+	final int maxConcurrentRequests;
+
+	final long timeoutMillis;
+
+	/**
+	 * Number of calls that have been handed to the executor and have not
+	 * finished yet.
+	 */
+	private int running = 0;
+
+	/**
+	 * Calls that wait for a free slot.
+	 */
+	private final Deque<Task<?>> pending = new ArrayDeque<>();
+
+	/**
+	 * Creates an executor that runs at most
+	 * {@value #DEFAULT_MAX_CONCURRENT_REQUESTS} calls at the same time on a
+	 * shared pool of daemon threads, without timeout.
+	 */
+	public AsyncApiExecutor() {
+		this(getDefaultExecutor(), DEFAULT_MAX_CONCURRENT_REQUESTS, 0);
+	}
+
+	/**
+	 * Creates an executor.
+	 *
+	 * @param executor
+	 *            the executor that runs the blocking calls; it needs at least
+	 *            <i>maxConcurrentRequests</i> threads to reach the full
+	 *            concurrency
+	 * @param maxConcurrentRequests
+	 *            maximal number of calls that run at the same time
+	 * @param timeoutMillis
+	 *            time in milliseconds after which the future of a call is
+	 *            completed with a {@link TimeoutException}, or 0 for no
+	 *            timeout
+	 */
+	public AsyncApiExecutor(Executor executor, int maxConcurrentRequests,
+			long timeoutMillis) {
+		Validate.notNull(executor, "Executor must not be null");
+		Validate.isTrue(maxConcurrentRequests > 0,
+				"The maximal number of concurrent requests must be positive");
+		Validate.isTrue(timeoutMillis >= 0, "The timeout must not be negative");
+		this.executor = executor;
+		this.maxConcurrentRequests = maxConcurrentRequests;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Returns the maximal number of calls that run at the same time.
+	 *
+	 * @return the concurrency limit
+	 */
+	public int getMaxConcurrentRequests() {
+		return this.maxConcurrentRequests;
+	}
+
+	/**
+	 * Returns the timeout of each call in milliseconds, or 0 if calls do not
+	 * time out.
+	 *
+	 * @return the timeout
+	 */
+	public long getTimeoutMillis() {
+		return this.timeoutMillis;
+	}
+
+	/**
+	 * Returns the number of calls that are running.
+	 *
+	 * @return number of running calls
+	 */
+	public synchronized int getRunningCount() {
+		return this.running;
+	}
+
+	/**
+	 * Returns the number of calls that wait for a free slot.
+	 *
+	 * @return number of queued calls
+	 */
+	public synchronized int getQueuedCount() {
+		return this.pending.size();
+	}
+
+	/**
+	 * Schedules a call with the timeout of this executor.
+	 *
+	 * @param call
+	 *            the call to run
+	 * @return future for the result of the call
+	 */
+	public <T> CompletableFuture<T> submit(ApiCall<T> call) {
+		return submit(call, this.timeoutMillis);
+	}
+
+	/**
+	 * Schedules a call with the given timeout.
+	 *
+	 * @param call
+	 *            the call to run
+	 * @param timeoutMillis
+	 *            timeout in milliseconds, or 0 for no timeout
+	 * @return future for the result of the call
+	 */
+	public <T> CompletableFuture<T> submit(ApiCall<T> call, long timeoutMillis) {
+		Validate.isTrue(timeoutMillis >= 0, "The timeout must not be negative");
+		CompletableFuture<T> result = new CompletableFuture<>();
+		Task<T> task = new Task<>(call, result);
+
+		if (timeoutMillis > 0) {
+			ScheduledFuture<?> timeout = getTimer().schedule(
+					() -> result.completeExceptionally(new TimeoutException(
+							"API request did not finish within "
+									+ timeoutMillis + "ms")), timeoutMillis,
+					TimeUnit.MILLISECONDS);
+			result.whenComplete((value, exception) -> timeout.cancel(false));
+		}
+
+		boolean start;
+		synchronized (this) {
+			start = this.running < this.maxConcurrentRequests;
+			if (start) {
+				this.running++;
+			} else {
+				this.pending.add(task);
+			}
+		}
+		if (start) {
+			execute(task);
+		}
+		return result;
+	}
+
+	/**
+	 * Frees the slot of a finished call, handing it to the next queued call.
+	 */
+	private void release() {
+		Task<?> next;
+		synchronized (this) {
+			next = this.pending.poll();
+			if (next == null) {
+				this.running--;
+			}
+		}
+		if (next != null) {
+			execute(next);
+		}
+	}
+
+	private void execute(Task<?> task) {
+		try {
+			this.executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			task.result.completeExceptionally(e);
+			release();
+		}
+	}
+
+	/**
+	 * A call together with the future for its result.
+	 */
+	private class Task<T> implements Runnable {
+
+		final ApiCall<T> call;
+
+		final CompletableFuture<T> result;
+
+		Task(ApiCall<T> call, CompletableFuture<T> result) {
+			this.call = call;
+			this.result = result;
+		}
+
+		@Override
+		public void run() {
+			try {
+				// skip calls that timed out or were cancelled in the queue
+				if (!this.result.isDone()) {
+					this.result.complete(this.call.call());
+				}
+			} catch (Exception e) {
+				this.result.completeExceptionally(e);
+			} finally {
+				release();
+			}
+		}
+	}
+
+	static synchronized ExecutorService getDefaultExecutor() {
+		if (defaultExecutor == null) {
+			defaultExecutor = Executors
+					.newCachedThreadPool(daemonThreads("wdtk-api-"));
+		}
+		return defaultExecutor;
+	}
+
+	private static synchronized ScheduledExecutorService getTimer() {
+		if (timer == null) {
+			timer = Executors.newSingleThreadScheduledExecutor(
+					daemonThreads("wdtk-api-timeout-"));
+		}
+		return timer;
+	}
+
+	private static ThreadFactory daemonThreads(String prefix) {
+		AtomicInteger counter = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, prefix
+					+ counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
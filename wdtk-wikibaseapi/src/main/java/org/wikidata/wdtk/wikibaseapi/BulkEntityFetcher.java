@@ -0,0 +1,435 @@
+package org.wikidata.wdtk.wikibaseapi;
+
+/*
+ * #%L
+ * Wikidata Toolkit Wikibase API
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+import org.wikidata.wdtk.wikibaseapi.apierrors.MaxlagErrorException;
+import org.wikidata.wdtk.wikibaseapi.apierrors.MediaWikiApiErrorException;
+
+/**
+ * Fetches large numbers of entities by sending several wbgetentities requests
+ * at the same time. The entities are split into batches as in
+ * {@link WikibaseDataFetcher}, using its filter. Documents are passed to a
+ * callback as soon as their batch has arrived, so that they need not be kept
+ * in memory together.
+ * <p>
+ * The number of parallel requests adapts to the load of the server. Requests
+ * are sent with a maxlag parameter. If the server reports too much lag or
+ * answers with HTTP status 429, the number of parallel requests is halved and
+ * no new request is sent for the time that the server asked for. After each
+ * round of successful requests, the number grows by one again, up to the
+ * configured maximum. Failed batches are retried a limited number of times.
+ * <p>
+ * Objects of this class keep statistics about the last fetch, so they should
+ * not be used by several threads at the same time.
+ */
+public class BulkEntityFetcher {
+
+	static final Logger logger = LoggerFactory
+			.getLogger(BulkEntityFetcher.class);
+
+	/**
+	 * Default maximal number of parallel requests.
+	 */
+	public static final int DEFAULT_MAX_CONCURRENCY = 4;
+
+	final WikibaseDataFetcher fetcher;
+
+	int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+
+	int maxRetries = 5;
+
+	Integer maxLag = 5;
+
+	long retryDelayMillis = 1000;
+
+	int concurrency = DEFAULT_MAX_CONCURRENCY;
+
+	int retryCount = 0;
+
+	/**
+	 * Creates an object that fetches entities with the given fetcher.
+	 *
+	 * @param fetcher
+	 *            the fetcher whose connection, filter and batch size are used
+	 */
+	public BulkEntityFetcher(WikibaseDataFetcher fetcher) {
+		Validate.notNull(fetcher, "Fetcher must not be null");
+		this.fetcher = fetcher;
+	}
+
+	/**
+	 * Returns the maximal number of requests that are sent at the same time.
+	 *
+	 * @return the maximal number of parallel requests
+	 */
+	public int getMaxConcurrency() {
+		return this.maxConcurrency;
+	}
+
+	/**
+	 * Sets the maximal number of requests that are sent at the same time.
+	 * Please respect the limits of the site that is accessed; for
+	 * Wikimedia sites, a small number is appropriate.
+	 *
+	 * @param maxConcurrency
+	 *            the maximal number of parallel requests
+	 */
+	public void setMaxConcurrency(int maxConcurrency) {
+		Validate.isTrue(maxConcurrency > 0,
+				"The maximal concurrency must be positive");
+		this.maxConcurrency = maxConcurrency;
+	}
+
+	/**
+	 * Returns how often a failed batch is sent again before giving up.
+	 *
+	 * @return the maximal number of retries per batch
+	 */
+	public int getMaxRetries() {
+		return this.maxRetries;
+	}
+
+	/**
+	 * Sets how often a failed batch is sent again before giving up.
+	 *
+	 * @param maxRetries
+	 *            the maximal number of retries per batch
+	 */
+	public void setMaxRetries(int maxRetries) {
+		Validate.isTrue(maxRetries >= 0,
+				"The number of retries must not be negative");
+		this.maxRetries = maxRetries;
+	}
+
+	/**
+	 * Returns the value of the maxlag parameter that is sent with each
+	 * request.
+	 *
+	 * @return the maxlag parameter in seconds, or null if it is not sent
+	 */
+	public Integer getMaxLag() {
+		return this.maxLag;
+	}
+
+	/**
+	 * Sets the value of the maxlag parameter that is sent with each request.
+	 * See the <a
+	 * href="https://www.mediawiki.org/wiki/Manual:Maxlag_parameter">MediaWiki
+	 * documentation</a>.
+	 *
+	 * @param maxLag
+	 *            the maxlag parameter in seconds, or null to not send it
+	 */
+	public void setMaxLag(Integer maxLag) {
+		this.maxLag = maxLag;
+	}
+
+	/**
+	 * Returns the time to wait before retrying a failed batch for the first
+	 * time. The time doubles with every further retry of the batch, unless
+	 * the server tells us how long to wait.
+	 *
+	 * @return the base delay in milliseconds
+	 */
+	public long getRetryDelayMillis() {
+		return this.retryDelayMillis;
+	}
+
+	/**
+	 * Sets the time to wait before retrying a failed batch for the first time.
+	 *
+	 * @param retryDelayMillis
+	 *            the base delay in milliseconds
+	 */
+	public void setRetryDelayMillis(long retryDelayMillis) {
+		Validate.isTrue(retryDelayMillis >= 0,
+				"The retry delay must not be negative");
+		this.retryDelayMillis = retryDelayMillis;
+	}
+
+	/**
+	 * Returns the number of parallel requests that was allowed at the end of
+	 * the last fetch.
+	 *
+	 * @return the current concurrency
+	 */
+	public int getConcurrency() {
+		return this.concurrency;
+	}
+
+	/**
+	 * Returns the number of batches that were sent again during the last
+	 * fetch.
+	 *
+	 * @return the number of retries
+	 */
+	public int getRetryCount() {
+		return this.retryCount;
+	}
+
+	/**
+	 * Fetches the documents for the entities of the given string IDs. Each
+	 * document that was found is passed to the consumer together with its ID.
+	 * The consumer is called in the thread that called this method, so it
+	 * need not be thread-safe. The order of the documents is not specified.
+	 * <p>
+	 * If a batch cannot be fetched within the allowed number of retries, the
+	 * method throws the last error. Documents of other batches may have been
+	 * passed to the consumer already in this case.
+	 *
+	 * @param entityIds
+	 *            list of string IDs (e.g., "P31", "Q42") of requested entities
+	 * @param consumer
+	 *            receives the ID and document of each entity that was found
+	 * @throws MediaWikiApiErrorException
+	 *             if the API returned an error that was not resolved by
+	 *             retrying
+	 * @throws IOException
+	 *             if a batch could not be fetched due to network errors
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while waiting for results
+	 */
+	public void fetchEntityDocuments(List<String> entityIds,
+			BiConsumer<String, EntityDocument> consumer)
+			throws MediaWikiApiErrorException, IOException,
+			InterruptedException {
+		List<WbGetEntitiesActionData> batches = new ArrayList<>();
+		int batchSize = this.fetcher.maxListSize;
+		for (int i = 0; i < entityIds.size(); i += batchSize) {
+			WbGetEntitiesActionData properties = new WbGetEntitiesActionData();
+			properties.ids = ApiConnection.implodeObjects(entityIds.subList(i,
+					Math.min(entityIds.size(), i + batchSize)));
+			batches.add(properties);
+		}
+		fetch(batches, consumer);
+	}
+
+	/**
+	 * Fetches the documents for the entities that have pages of the given
+	 * titles on the given site, passing them to the consumer together with
+	 * their title. See {@link #fetchEntityDocuments(List, BiConsumer)} for
+	 * details.
+	 *
+	 * @param siteKey
+	 *            wiki site id, e.g. "enwiki"
+	 * @param titles
+	 *            list of string titles (e.g. "Douglas Adams") of requested
+	 *            entities
+	 * @param consumer
+	 *            receives the title and document of each entity that was
+	 *            found
+	 * @throws MediaWikiApiErrorException
+	 *             if the API returned an error that was not resolved by
+	 *             retrying
+	 * @throws IOException
+	 *             if a batch could not be fetched due to network errors
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while waiting for results
+	 */
+	public void fetchEntityDocumentsByTitle(String siteKey,
+			List<String> titles, BiConsumer<String, EntityDocument> consumer)
+			throws MediaWikiApiErrorException, IOException,
+			InterruptedException {
+		List<WbGetEntitiesActionData> batches = new ArrayList<>();
+		int batchSize = this.fetcher.maxListSize;
+		for (int i = 0; i < titles.size(); i += batchSize) {
+			WbGetEntitiesActionData properties = new WbGetEntitiesActionData();
+			properties.titles = ApiConnection.implodeObjects(titles.subList(i,
+					Math.min(titles.size(), i + batchSize)));
+			properties.sites = siteKey;
+			batches.add(properties);
+		}
+		fetch(batches, consumer);
+	}
+
+	/**
+	 * A batch of entities together with the number of failed attempts to
+	 * fetch it.
+	 */
+	private static class Batch {
+
+		final WbGetEntitiesActionData properties;
+
+		int failures = 0;
+
+		Batch(WbGetEntitiesActionData properties) {
+			this.properties = properties;
+		}
+	}
+
+	/**
+	 * Sends the given requests in parallel and passes the results to the
+	 * consumer.
+	 */
+	void fetch(List<WbGetEntitiesActionData> requests,
+			BiConsumer<String, EntityDocument> consumer)
+			throws MediaWikiApiErrorException, IOException,
+			InterruptedException {
+		Deque<Batch> queue = new ArrayDeque<>();
+		for (WbGetEntitiesActionData properties : requests) {
+			this.fetcher.configureProperties(properties);
+			properties.maxlag = this.maxLag;
+			queue.add(new Batch(properties));
+		}
+		this.concurrency = this.maxConcurrency;
+		this.retryCount = 0;
+		if (queue.isEmpty()) {
+			return;
+		}
+
+		ExecutorService threads = Executors.newFixedThreadPool(
+				this.maxConcurrency, daemonThreads());
+		CompletionService<Map<String, EntityDocument>> completion = new ExecutorCompletionService<>(
+				threads);
+		Map<Future<Map<String, EntityDocument>>, Batch> running = new HashMap<>();
+		int successes = 0;
+		long notBefore = System.nanoTime();
+		try {
+			while (!queue.isEmpty() || !running.isEmpty()) {
+				long now = System.nanoTime();
+				while (running.size() < this.concurrency && !queue.isEmpty()
+						&& now - notBefore >= 0) {
+					Batch batch = queue.poll();
+					running.put(completion.submit(() -> this.fetcher.wbGetEntitiesAction
+							.wbGetEntities(batch.properties)), batch);
+				}
+
+				Future<Map<String, EntityDocument>> future;
+				if (running.isEmpty()) {
+					TimeUnit.NANOSECONDS.sleep(notBefore - now);
+					continue;
+				} else if (!queue.isEmpty()
+						&& running.size() < this.concurrency) {
+					future = completion.poll(notBefore - now,
+							TimeUnit.NANOSECONDS);
+					if (future == null) {
+						continue;
+					}
+				} else {
+					future = completion.take();
+				}
+
+				Batch batch = running.remove(future);
+				try {
+					future.get().forEach(consumer);
+					successes++;
+					if (successes >= this.concurrency
+							&& this.concurrency < this.maxConcurrency) {
+						this.concurrency++;
+						successes = 0;
+					}
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					long delay = getRetryDelay(batch, cause);
+					if (batch.failures >= this.maxRetries) {
+						throwCause(cause);
+					}
+					batch.failures++;
+					this.retryCount++;
+					if (cause instanceof MaxlagErrorException
+							|| cause instanceof TooManyRequestsException) {
+						this.concurrency = Math.max(1, this.concurrency / 2);
+						successes = 0;
+					}
+					logger.warn("Fetching entities failed (" + cause
+							+ "); retrying in " + delay + "ms with at most "
+							+ this.concurrency + " parallel requests.");
+					long retryTime = System.nanoTime()
+							+ TimeUnit.MILLISECONDS.toNanos(delay);
+					if (retryTime - notBefore > 0) {
+						notBefore = retryTime;
+					}
+					queue.addFirst(batch);
+				}
+			}
+		} finally {
+			threads.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns the time in milliseconds to wait before retrying a batch that
+	 * failed with the given exception. Errors that cannot be solved by
+	 * retrying are thrown.
+	 */
+	long getRetryDelay(Batch batch, Throwable cause)
+			throws MediaWikiApiErrorException, IOException {
+		long backOff = this.retryDelayMillis << Math.min(batch.failures, 16);
+		if (cause instanceof MaxlagErrorException) {
+			double lag = ((MaxlagErrorException) cause).getLag();
+			return Math.max(backOff, (long) (lag * 1000));
+		} else if (cause instanceof TooManyRequestsException) {
+			int retryAfter = ((TooManyRequestsException) cause)
+					.getRetryAfterSeconds();
+			return retryAfter >= 0 ? retryAfter * 1000L : backOff;
+		} else if (cause instanceof IOException) {
+			return backOff;
+		}
+		throwCause(cause);
+		return backOff;
+	}
+
+	private static void throwCause(Throwable cause)
+			throws MediaWikiApiErrorException, IOException {
+		if (cause instanceof MediaWikiApiErrorException) {
+			throw (MediaWikiApiErrorException) cause;
+		} else if (cause instanceof IOException) {
+			throw (IOException) cause;
+		} else if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		} else if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		throw new IOException(cause);
+	}
+
+	private static ThreadFactory daemonThreads() {
+		AtomicInteger counter = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, "wdtk-bulk-fetch-"
+					+ counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
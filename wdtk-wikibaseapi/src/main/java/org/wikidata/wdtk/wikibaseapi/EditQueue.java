@@ -0,0 +1,435 @@
+package org.wikidata.wdtk.wikibaseapi;
+
+/*
+ * #%L
+ * Wikidata Toolkit Wikibase API
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+import org.wikidata.wdtk.datamodel.interfaces.EntityIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.MonolingualTextValue;
+import org.wikidata.wdtk.datamodel.interfaces.Statement;
+import org.wikidata.wdtk.datamodel.interfaces.StatementDocument;
+import org.wikidata.wdtk.datamodel.interfaces.TermedStatementDocument;
+import org.wikidata.wdtk.wikibaseapi.apierrors.EditConflictErrorException;
+import org.wikidata.wdtk.wikibaseapi.apierrors.MediaWikiApiErrorException;
+import org.wikidata.wdtk.wikibaseapi.apierrors.NoSuchEntityErrorException;
+
+/**
+ * Queue of updates that are sent through a {@link WikibaseDataEditor} in the
+ * background. Updates of the same entity that are waiting in the queue are
+ * merged and sent in one edit, as if they had been given to
+ * {@link WikibaseDataEditor#updateTermsStatements(TermedStatementDocument, List, List, List, List, List, List, String, List)}
+ * together. Several entities are edited at the same time, up to a fixed
+ * limit; an entity is never edited by two threads at once.
+ * <p>
+ * The rate of edits is controlled by the editor. To use the allowed rate
+ * fully with concurrent edits, set a shared {@link EditRateController} such
+ * as {@link TokenBucketRateController} on the editor; otherwise, concurrent
+ * edits wait for each other to respect the average time per edit.
+ * <p>
+ * Each update returns a future for the document after the edit. The current
+ * document of an entity is fetched right before it is edited. If the edit
+ * fails with an edit conflict, since the entity was changed by someone else
+ * in the meantime, the document is fetched again and the updates are
+ * computed anew, up to a fixed number of times. Futures complete
+ * exceptionally with the {@link EditConflictErrorException} if conflicts
+ * remain, with a {@link NoSuchEntityErrorException} if the entity does not
+ * exist, or with any other error of the edit.
+ */
+public class EditQueue {
+
+	static final Logger logger = LoggerFactory.getLogger(EditQueue.class);
+
+	/**
+	 * Updates of one entity that are sent in one edit.
+	 */
+	static final class PendingEdit {
+		final EntityIdValue entityId;
+		final List<MonolingualTextValue> addLabels = new ArrayList<>();
+		final List<MonolingualTextValue> addDescriptions = new ArrayList<>();
+		final List<MonolingualTextValue> addAliases = new ArrayList<>();
+		final List<MonolingualTextValue> deleteAliases = new ArrayList<>();
+		final List<Statement> addStatements = new ArrayList<>();
+		final List<Statement> deleteStatements = new ArrayList<>();
+		final Set<String> summaries = new LinkedHashSet<>();
+		final Set<String> tags = new LinkedHashSet<>();
+		final List<CompletableFuture<EntityDocument>> futures = new ArrayList<>();
+
+		PendingEdit(EntityIdValue entityId) {
+			this.entityId = entityId;
+		}
+
+		boolean hasTermUpdates() {
+			return !this.addLabels.isEmpty() || !this.addDescriptions.isEmpty()
+					|| !this.addAliases.isEmpty()
+					|| !this.deleteAliases.isEmpty();
+		}
+
+		String getSummary() {
+			return this.summaries.isEmpty() ? null : String.join("; ",
+					this.summaries);
+		}
+	}
+
+	final WikibaseDataEditor editor;
+
+	final Executor executor;
+
+	final int maxConcurrentEdits;
+
+	/**
+	 * Number of times an edit is computed anew after an edit conflict.
+	 */
+	int maxConflictRetries = 2;
+
+	/**
+	 * Edits that wait to be sent, by entity id, in the order of their first
+	 * update.
+	 */
+	private final Map<String, PendingEdit> pending = new LinkedHashMap<>();
+
+	/**
+	 * Ids of the entities that are being edited.
+	 */
+	private final Set<String> running = new LinkedHashSet<>();
+
+	private long submittedCount = 0;
+
+	private long editCount = 0;
+
+	private long conflictCount = 0;
+
+	private long failureCount = 0;
+
+	/**
+	 * Creates a queue that edits up to the given number of entities at the
+	 * same time, using a shared pool of daemon threads.
+	 *
+	 * @param editor
+	 *            the editor that performs the edits
+	 * @param maxConcurrentEdits
+	 *            maximal number of entities that are edited at the same time
+	 */
+	public EditQueue(WikibaseDataEditor editor, int maxConcurrentEdits) {
+		this(editor, AsyncApiExecutor.getDefaultExecutor(), maxConcurrentEdits);
+	}
+
+	/**
+	 * Creates a queue.
+	 *
+	 * @param editor
+	 *            the editor that performs the edits
+	 * @param executor
+	 *            the executor that runs the edits; it needs at least
+	 *            <i>maxConcurrentEdits</i> threads to reach the full
+	 *            concurrency
+	 * @param maxConcurrentEdits
+	 *            maximal number of entities that are edited at the same time
+	 */
+	public EditQueue(WikibaseDataEditor editor, Executor executor,
+			int maxConcurrentEdits) {
+		Validate.notNull(editor, "Editor must not be null");
+		Validate.notNull(executor, "Executor must not be null");
+		Validate.isTrue(maxConcurrentEdits > 0,
+				"The maximal number of concurrent edits must be positive");
+		this.editor = editor;
+		this.executor = executor;
+		this.maxConcurrentEdits = maxConcurrentEdits;
+	}
+
+	/**
+	 * Sets the number of times an edit is computed anew after an edit
+	 * conflict, before its futures fail.
+	 *
+	 * @param maxConflictRetries
+	 *            the number of retries, 0 to not retry
+	 */
+	public void setMaxConflictRetries(int maxConflictRetries) {
+		Validate.isTrue(maxConflictRetries >= 0,
+				"The number of retries must not be negative");
+		this.maxConflictRetries = maxConflictRetries;
+	}
+
+	/**
+	 * Queues an update of the statements of an entity. See
+	 * {@link WikibaseDataEditor#updateStatements(StatementDocument, List, List, String, List)}
+	 * for the meaning of the parameters.
+	 *
+	 * @param entityId
+	 *            the entity to update
+	 * @param addStatements
+	 *            statements to be added or updated
+	 * @param deleteStatements
+	 *            statements to be deleted
+	 * @param summary
+	 *            summary for the edit, or null; different summaries of
+	 *            merged updates are joined
+	 * @param tags
+	 *            tags to apply to the edit, or null
+	 * @return future for the document after the edit
+	 */
+	public CompletableFuture<EntityDocument> submitStatementUpdate(
+			EntityIdValue entityId, List<Statement> addStatements,
+			List<Statement> deleteStatements, String summary, List<String> tags) {
+		return submitTermStatementUpdate(entityId, null, null, null, null,
+				addStatements, deleteStatements, summary, tags);
+	}
+
+	/**
+	 * Queues an update of the terms and statements of an entity. See
+	 * {@link WikibaseDataEditor#updateTermsStatements(TermedStatementDocument, List, List, List, List, List, List, String, List)}
+	 * for the meaning of the parameters; null lists are treated as empty.
+	 * Updates of terms can only be applied to entities with terms, such as
+	 * items and properties.
+	 *
+	 * @param entityId
+	 *            the entity to update
+	 * @param addLabels
+	 *            labels to be set
+	 * @param addDescriptions
+	 *            descriptions to be set
+	 * @param addAliases
+	 *            aliases to be added
+	 * @param deleteAliases
+	 *            aliases to be deleted
+	 * @param addStatements
+	 *            statements to be added or updated
+	 * @param deleteStatements
+	 *            statements to be deleted
+	 * @param summary
+	 *            summary for the edit, or null; different summaries of
+	 *            merged updates are joined
+	 * @param tags
+	 *            tags to apply to the edit, or null
+	 * @return future for the document after the edit
+	 */
+	public CompletableFuture<EntityDocument> submitTermStatementUpdate(
+			EntityIdValue entityId, List<MonolingualTextValue> addLabels,
+			List<MonolingualTextValue> addDescriptions,
+			List<MonolingualTextValue> addAliases,
+			List<MonolingualTextValue> deleteAliases,
+			List<Statement> addStatements, List<Statement> deleteStatements,
+			String summary, List<String> tags) {
+		Validate.notNull(entityId, "Entity id must not be null");
+		CompletableFuture<EntityDocument> future = new CompletableFuture<>();
+		synchronized (this) {
+			PendingEdit edit = this.pending.computeIfAbsent(
+					entityId.getId(), id -> new PendingEdit(entityId));
+			addAll(edit.addLabels, addLabels);
+			addAll(edit.addDescriptions, addDescriptions);
+			addAll(edit.addAliases, addAliases);
+			addAll(edit.deleteAliases, deleteAliases);
+			addAll(edit.addStatements, addStatements);
+			addAll(edit.deleteStatements, deleteStatements);
+			if (summary != null) {
+				edit.summaries.add(summary);
+			}
+			addAll(edit.tags, tags);
+			edit.futures.add(future);
+			this.submittedCount++;
+			schedule();
+		}
+		return future;
+	}
+
+	/**
+	 * Waits until all queued updates have been sent.
+	 *
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while waiting
+	 */
+	public synchronized void awaitCompletion() throws InterruptedException {
+		while (!this.pending.isEmpty() || !this.running.isEmpty()) {
+			wait();
+		}
+	}
+
+	/**
+	 * Returns the number of entities whose updates wait to be sent.
+	 *
+	 * @return number of waiting entities
+	 */
+	public synchronized int getPendingCount() {
+		return this.pending.size();
+	}
+
+	/**
+	 * Returns the number of updates that were submitted.
+	 *
+	 * @return number of submitted updates
+	 */
+	public synchronized long getSubmittedCount() {
+		return this.submittedCount;
+	}
+
+	/**
+	 * Returns the number of merged edits that were completed. This is
+	 * usually lower than the number of submitted updates.
+	 *
+	 * @return number of completed edits
+	 */
+	public synchronized long getEditCount() {
+		return this.editCount;
+	}
+
+	/**
+	 * Returns the number of edit conflicts, including conflicts that were
+	 * resolved by retrying.
+	 *
+	 * @return number of edit conflicts
+	 */
+	public synchronized long getConflictCount() {
+		return this.conflictCount;
+	}
+
+	/**
+	 * Returns the number of merged edits that failed.
+	 *
+	 * @return number of failed edits
+	 */
+	public synchronized long getFailureCount() {
+		return this.failureCount;
+	}
+
+	/**
+	 * Starts edits of waiting entities that are not being edited, while the
+	 * limit of concurrent edits allows it. Must be called while holding the
+	 * lock of this object.
+	 */
+	private void schedule() {
+		Iterator<PendingEdit> iterator = this.pending.values().iterator();
+		while (this.running.size() < this.maxConcurrentEdits
+				&& iterator.hasNext()) {
+			PendingEdit edit = iterator.next();
+			String id = edit.entityId.getId();
+			if (this.running.add(id)) {
+				iterator.remove();
+				try {
+					this.executor.execute(() -> run(edit));
+				} catch (RuntimeException e) {
+					this.running.remove(id);
+					this.failureCount++;
+					for (CompletableFuture<EntityDocument> future : edit.futures) {
+						future.completeExceptionally(e);
+					}
+				}
+			}
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Performs an edit and completes its futures.
+	 */
+	void run(PendingEdit edit) {
+		EntityDocument result = null;
+		Throwable error = null;
+		try {
+			result = perform(edit);
+		} catch (Throwable e) {
+			error = e;
+		}
+
+		for (CompletableFuture<EntityDocument> future : edit.futures) {
+			if (error == null) {
+				future.complete(result);
+			} else {
+				future.completeExceptionally(error);
+			}
+		}
+		synchronized (this) {
+			this.running.remove(edit.entityId.getId());
+			if (error == null) {
+				this.editCount++;
+			} else {
+				this.failureCount++;
+			}
+			schedule();
+		}
+	}
+
+	/**
+	 * Fetches the current document of the entity and applies the updates,
+	 * retrying after edit conflicts.
+	 */
+	EntityDocument perform(PendingEdit edit) throws IOException,
+			MediaWikiApiErrorException {
+		String id = edit.entityId.getId();
+		List<String> tags = edit.tags.isEmpty() ? null : new ArrayList<>(
+				edit.tags);
+		for (int attempt = 0;; attempt++) {
+			EntityDocument document = this.editor.wikibaseDataFetcher
+					.getEntityDocument(id);
+			if (document == null) {
+				throw new NoSuchEntityErrorException("Entity " + id
+						+ " does not exist");
+			}
+			try {
+				if (edit.hasTermUpdates()) {
+					if (!(document instanceof TermedStatementDocument)) {
+						throw new IllegalArgumentException("Entity " + id
+								+ " does not support terms");
+					}
+					return this.editor.updateTermsStatements(
+							(TermedStatementDocument) document, edit.addLabels,
+							edit.addDescriptions, edit.addAliases,
+							edit.deleteAliases, edit.addStatements,
+							edit.deleteStatements, edit.getSummary(), tags);
+				}
+				if (!(document instanceof StatementDocument)) {
+					throw new IllegalArgumentException("Entity " + id
+							+ " does not support statements");
+				}
+				return this.editor.updateStatements(
+						(StatementDocument) document, edit.addStatements,
+						edit.deleteStatements, edit.getSummary(), tags);
+			} catch (EditConflictErrorException e) {
+				synchronized (this) {
+					this.conflictCount++;
+				}
+				if (attempt >= this.maxConflictRetries) {
+					throw e;
+				}
+				logger.info("Edit conflict on " + id
+						+ ", fetching the entity again.");
+			}
+		}
+	}
+
+	static <T> void addAll(Collection<T> target, List<T> values) {
+		if (values != null) {
+			target.addAll(values);
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package org.wikidata.wdtk.wikibaseapi;
+
+/*
+ * #%L
+ * Wikidata Toolkit Wikibase API
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Decides when edits may be sent to a Wikibase site. {@link WbEditingAction}
+ * asks the controller before every request and reports how the server
+ * reacted, so that the controller can adapt the rate to the load of the
+ * site. One controller can be shared by several editors and threads to
+ * control their combined rate.
+ */
+public interface EditRateController {
+
+	/**
+	 * Blocks until the next edit may be sent.
+	 *
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while waiting
+	 */
+	void acquire() throws InterruptedException;
+
+	/**
+	 * Reports that an edit was accepted by the server.
+	 */
+	void onSuccess();
+
+	/**
+	 * Reports that an edit was rejected because the replication lag of the
+	 * site exceeded the maxlag parameter.
+	 *
+	 * @param lagSeconds
+	 *            the lag in seconds that the server reported, or -1 if
+	 *            unknown
+	 */
+	void onMaxlag(double lagSeconds);
+
+	/**
+	 * Reports that an edit was rejected with HTTP status 429 (too many
+	 * requests).
+	 *
+	 * @param retryAfterSeconds
+	 *            the time in seconds from the Retry-After header, or -1 if
+	 *            unknown
+	 */
+	void onTooManyRequests(int retryAfterSeconds);
+}
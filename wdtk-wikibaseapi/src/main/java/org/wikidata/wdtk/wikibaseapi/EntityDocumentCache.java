@@ -0,0 +1,396 @@
+package org.wikidata.wdtk.wikibaseapi;
+
+/*
+ * #%L
+ * Wikidata Toolkit Wikibase API
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.lang3.Validate;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+
+/**
+ * Size-bounded cache for entity documents, to be used with
+ * {@link WikibaseDataFetcher#setCache(EntityDocumentCache)}. Documents are
+ * fresh for a given time after they were fetched. When a stale document is
+ * requested, the fetcher first asks the API for the current revision of the
+ * entity, which is much cheaper than fetching the document, and only fetches
+ * the document again if the revision has changed.
+ * <p>
+ * Documents are stored together with the settings of the filter that was
+ * used to fetch them, so fetchers with different filters can share a cache.
+ * When the cache is full, the least recently used or the least frequently
+ * used document is evicted. To make sure that no outdated documents are
+ * returned after own edits, the cache can be registered with
+ * {@link WikibaseDataEditor#setCache(EntityDocumentCache)}.
+ * <p>
+ * This class is thread-safe.
+ */
+public class EntityDocumentCache {
+
+	/**
+	 * Strategies for choosing the document to remove from a full cache.
+	 */
+	public enum EvictionPolicy {
+		/**
+		 * Remove the document that was least recently used.
+		 */
+		LRU,
+		/**
+		 * Remove the document that was used least often, and the least
+		 * recently used one among those.
+		 */
+		LFU
+	}
+
+	/**
+	 * A cached document.
+	 */
+	static class Entry {
+
+		final String key;
+
+		final String entityId;
+
+		final EntityDocument document;
+
+		long fetchTime;
+
+		int frequency = 1;
+
+		Entry(String key, String entityId, EntityDocument document,
+				long fetchTime) {
+			this.key = key;
+			this.entityId = entityId;
+			this.document = document;
+			this.fetchTime = fetchTime;
+		}
+	}
+
+	final int maxSize;
+
+	final long timeToLiveMillis;
+
+	final EvictionPolicy policy;
+
+	/**
+	 * Source of the current time in milliseconds.
+	 */
+	final LongSupplier clock;
+
+	/**
+	 * Cached documents by key. For LRU, the order of this map is the access
+	 * order.
+	 */
+	final LinkedHashMap<String, Entry> entries;
+
+	/**
+	 * Keys of the cached documents by entity ID, with one key for each filter
+	 * that the entity was fetched with. Used to invalidate the documents of
+	 * an entity without looking at all entries.
+	 */
+	final Map<String, Set<String>> keysByEntityId = new HashMap<>();
+
+	/**
+	 * For LFU, the keys of the entries by their use count, each in order of
+	 * access.
+	 */
+	final Map<Integer, LinkedHashSet<String>> frequencies = new HashMap<>();
+
+	int minFrequency = 1;
+
+	long hitCount = 0;
+
+	long missCount = 0;
+
+	long staleCount = 0;
+
+	long revalidationCount = 0;
+
+	long evictionCount = 0;
+
+	/**
+	 * Creates a cache with LRU eviction.
+	 *
+	 * @param maxSize
+	 *            the maximal number of documents
+	 * @param timeToLiveMillis
+	 *            time in milliseconds for which a document is returned
+	 *            without checking its revision
+	 */
+	public EntityDocumentCache(int maxSize, long timeToLiveMillis) {
+		this(maxSize, timeToLiveMillis, EvictionPolicy.LRU);
+	}
+
+	/**
+	 * Creates a cache.
+	 *
+	 * @param maxSize
+	 *            the maximal number of documents
+	 * @param timeToLiveMillis
+	 *            time in milliseconds for which a document is returned
+	 *            without checking its revision
+	 * @param policy
+	 *            the eviction policy
+	 */
+	public EntityDocumentCache(int maxSize, long timeToLiveMillis,
+			EvictionPolicy policy) {
+		this(maxSize, timeToLiveMillis, policy,
+				() -> System.nanoTime() / 1000000);
+	}
+
+	EntityDocumentCache(int maxSize, long timeToLiveMillis,
+			EvictionPolicy policy, LongSupplier clock) {
+		Validate.isTrue(maxSize > 0, "The size of the cache must be positive");
+		Validate.isTrue(timeToLiveMillis >= 0,
+				"The time to live must not be negative");
+		Validate.notNull(policy, "Eviction policy must not be null");
+		this.maxSize = maxSize;
+		this.timeToLiveMillis = timeToLiveMillis;
+		this.policy = policy;
+		this.clock = clock;
+		this.entries = new LinkedHashMap<>(16, 0.75f,
+				policy == EvictionPolicy.LRU);
+	}
+
+	/**
+	 * Returns the number of cached documents.
+	 *
+	 * @return the size of the cache
+	 */
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Returns the number of requests for documents that were answered from
+	 * the cache without contacting the API.
+	 *
+	 * @return the number of hits
+	 */
+	public synchronized long getHitCount() {
+		return this.hitCount;
+	}
+
+	/**
+	 * Returns the number of requests for documents that were not cached.
+	 *
+	 * @return the number of misses
+	 */
+	public synchronized long getMissCount() {
+		return this.missCount;
+	}
+
+	/**
+	 * Returns the number of requests for documents that were cached but
+	 * stale, so that their revision had to be checked.
+	 *
+	 * @return the number of stale lookups
+	 */
+	public synchronized long getStaleCount() {
+		return this.staleCount;
+	}
+
+	/**
+	 * Returns the number of stale documents that were found to be current
+	 * when their revision was checked, so that they did not have to be
+	 * fetched again.
+	 *
+	 * @return the number of successful revalidations
+	 */
+	public synchronized long getRevalidationCount() {
+		return this.revalidationCount;
+	}
+
+	/**
+	 * Returns the number of documents that were removed to make room for
+	 * others.
+	 *
+	 * @return the number of evictions
+	 */
+	public synchronized long getEvictionCount() {
+		return this.evictionCount;
+	}
+
+	/**
+	 * Returns the share of requests that were answered with a cached
+	 * document, including documents that had to be revalidated.
+	 *
+	 * @return the hit rate between 0 and 1, or 0 if there were no requests
+	 */
+	public synchronized double getHitRate() {
+		long requests = this.hitCount + this.missCount + this.staleCount;
+		return requests == 0 ? 0
+				: (double) (this.hitCount + this.revalidationCount) / requests;
+	}
+
+	/**
+	 * Removes all documents. The statistics are kept.
+	 */
+	public synchronized void clear() {
+		this.entries.clear();
+		this.keysByEntityId.clear();
+		this.frequencies.clear();
+	}
+
+	/**
+	 * Removes all documents of the given entity, for all filters.
+	 *
+	 * @param entityId
+	 *            the string ID of the entity, e.g., "Q42"
+	 */
+	public synchronized void invalidate(String entityId) {
+		Set<String> keys = this.keysByEntityId.remove(entityId);
+		if (keys == null) {
+			return;
+		}
+		for (String key : keys) {
+			removeFrequency(this.entries.remove(key));
+		}
+	}
+
+	/**
+	 * Looks up a document, counting a hit, a miss or a stale lookup.
+	 *
+	 * @param filterKey
+	 *            key for the settings of the filter of the fetcher
+	 * @param entityId
+	 *            the requested ID
+	 * @return the entry, or null if there is none
+	 */
+	synchronized Entry lookup(String filterKey, String entityId) {
+		Entry entry = this.entries.get(getKey(filterKey, entityId));
+		if (entry == null) {
+			this.missCount++;
+		} else {
+			touch(entry);
+			if (isFresh(entry)) {
+				this.hitCount++;
+			} else {
+				this.staleCount++;
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Returns true if the entry can be used without checking its revision.
+	 */
+	synchronized boolean isFresh(Entry entry) {
+		return this.clock.getAsLong() - entry.fetchTime < this.timeToLiveMillis;
+	}
+
+	/**
+	 * Marks a stale entry as fresh, after its revision has been found to be
+	 * current.
+	 */
+	synchronized void revalidated(Entry entry) {
+		entry.fetchTime = this.clock.getAsLong();
+		this.revalidationCount++;
+	}
+
+	/**
+	 * Stores a document that has just been fetched.
+	 */
+	synchronized void put(String filterKey, String entityId,
+			EntityDocument document) {
+		String key = getKey(filterKey, entityId);
+		removeEntry(key);
+		while (this.entries.size() >= this.maxSize) {
+			evict();
+		}
+		Entry entry = new Entry(key, entityId, document,
+				this.clock.getAsLong());
+		this.entries.put(key, entry);
+		this.keysByEntityId.computeIfAbsent(entityId, id -> new HashSet<>())
+				.add(key);
+		if (this.policy == EvictionPolicy.LFU) {
+			this.frequencies.computeIfAbsent(1, f -> new LinkedHashSet<>())
+					.add(key);
+			this.minFrequency = 1;
+		}
+	}
+
+	/**
+	 * Removes the document of an entity that does not exist (anymore).
+	 */
+	synchronized void remove(String filterKey, String entityId) {
+		removeEntry(getKey(filterKey, entityId));
+	}
+
+	private static String getKey(String filterKey, String entityId) {
+		return filterKey + '\n' + entityId;
+	}
+
+	/**
+	 * Removes the entry with the given key, if any, from all data
+	 * structures.
+	 */
+	private void removeEntry(String key) {
+		Entry entry = this.entries.remove(key);
+		if (entry == null) {
+			return;
+		}
+		Set<String> keys = this.keysByEntityId.get(entry.entityId);
+		keys.remove(key);
+		if (keys.isEmpty()) {
+			this.keysByEntityId.remove(entry.entityId);
+		}
+		removeFrequency(entry);
+	}
+
+	private void touch(Entry entry) {
+		if (this.policy == EvictionPolicy.LFU) {
+			removeFrequency(entry);
+			entry.frequency++;
+			this.frequencies.computeIfAbsent(entry.frequency,
+					f -> new LinkedHashSet<>()).add(entry.key);
+		}
+	}
+
+	private void removeFrequency(Entry entry) {
+		if (this.policy == EvictionPolicy.LFU) {
+			LinkedHashSet<String> keys = this.frequencies.get(entry.frequency);
+			keys.remove(entry.key);
+			if (keys.isEmpty()) {
+				this.frequencies.remove(entry.frequency);
+			}
+		}
+	}
+
+	private void evict() {
+		String key;
+		if (this.policy == EvictionPolicy.LFU) {
+			while (!this.frequencies.containsKey(this.minFrequency)) {
+				this.minFrequency++;
+			}
+			key = this.frequencies.get(this.minFrequency).iterator().next();
+		} else {
+			key = this.entries.keySet().iterator().next();
+		}
+		removeEntry(key);
+		this.evictionCount++;
+	}
+}
@@ -0,0 +1,125 @@
+package org.wikidata.wdtk.wikibaseapi;
+
+/*
+ * #%L
+ * Wikidata Toolkit Wikibase API
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interface for the HTTP layer that an {@link ApiConnection} uses to send its
+ * requests. The connection takes care of the parameters, cookies and the
+ * interpretation of the results, while the transport only sends a request
+ * with a form-encoded body and returns the raw response. Implementations must
+ * be thread-safe, so that one transport can be shared by several
+ * connections.
+ *
+ * @see ApiConnection#setHttpTransport(HttpTransport)
+ * @see KeepAliveHttpTransport
+ */
+public interface HttpTransport {
+
+	/**
+	 * Sends a request.
+	 *
+	 * @param requestMethod
+	 *            either "POST" or "GET"
+	 * @param url
+	 *            the URL of the API
+	 * @param body
+	 *            the form-encoded parameters of the request, which are sent
+	 *            in the body of POST requests and in the query string of GET
+	 *            requests
+	 * @param headers
+	 *            additional request headers, such as "Cookie"
+	 * @param connectTimeout
+	 *            maximum time to wait for when establishing a connection, in
+	 *            milliseconds, or a negative value to not set a timeout
+	 * @param readTimeout
+	 *            maximum time to wait for a server response once the
+	 *            connection was established, in milliseconds, or a negative
+	 *            value to not set a timeout
+	 * @return the response, whose body must be closed by the caller
+	 * @throws IOException
+	 *             if the request could not be sent or the response could not
+	 *             be received
+	 */
+	Response send(String requestMethod, String url, String body,
+			Map<String, String> headers, int connectTimeout, int readTimeout)
+			throws IOException;
+
+	/**
+	 * Response to a request sent by a {@link HttpTransport}.
+	 */
+	class Response {
+
+		final int statusCode;
+		final Map<String, List<String>> headerFields;
+		final InputStream body;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param statusCode
+		 *            the HTTP status code
+		 * @param headerFields
+		 *            the header fields of the response, mapping (case
+		 *            insensitive) names to their values
+		 * @param body
+		 *            the decoded body of the response
+		 */
+		public Response(int statusCode,
+				Map<String, List<String>> headerFields, InputStream body) {
+			this.statusCode = statusCode;
+			this.headerFields = headerFields;
+			this.body = body;
+		}
+
+		/**
+		 * Returns the HTTP status code.
+		 *
+		 * @return status code
+		 */
+		public int getStatusCode() {
+			return this.statusCode;
+		}
+
+		/**
+		 * Returns the header fields of the response.
+		 *
+		 * @return map from header names to their values
+		 */
+		public Map<String, List<String>> getHeaderFields() {
+			return this.headerFields;
+		}
+
+		/**
+		 * Returns the body of the response, after removing any content
+		 * encoding such as gzip.
+		 *
+		 * @return body of the response
+		 */
+		public InputStream getBody() {
+			return this.body;
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package org.wikidata.wdtk.wikibaseapi;
+
+/*
+ * #%L
+ * Wikidata Toolkit Wikibase API
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.wikidata.wdtk.util.WebResourceFetcherImpl;
+
+/**
+ * {@link HttpTransport} that is tuned for sending many requests to the same
+ * API. It still uses {@link HttpURLConnection}, but makes sure that the
+ * underlying connections are kept alive and reused by the JDK:
+ * <ul>
+ * <li>responses are requested with gzip encoding and decoded transparently,
+ * which reduces the size of typical API responses considerably;</li>
+ * <li>request bodies are always encoded in UTF-8, independently of the
+ * platform encoding;</li>
+ * <li>GET requests carry their parameters in the URL instead of being turned
+ * into POST requests;</li>
+ * <li>bodies of responses with an error status are read from the error
+ * stream, and the rest of every body is drained when it is closed, so that
+ * the connection can be returned to the keep-alive cache of the JDK.</li>
+ * </ul>
+ * The number of idle connections that are kept per server is controlled by
+ * the system property "http.maxConnections" (5 by default). Proxy settings
+ * and the user agent are taken from {@link WebResourceFetcherImpl}.
+ * <p>
+ * On Java 11 and above, a transport based on java.net.http.HttpClient can be
+ * plugged in in the same way to get HTTP/2.
+ */
+public class KeepAliveHttpTransport implements HttpTransport {
+
+	/**
+	 * Maximal number of bytes that are read to drain the rest of a response
+	 * before its connection is given up instead of being reused.
+	 */
+	static final int MAX_DRAINED_BYTES = 1 << 16;
+
+	@Override
+	public Response send(String requestMethod, String url, String body,
+			Map<String, String> headers, int connectTimeout, int readTimeout)
+			throws IOException {
+		boolean post = "POST".equals(requestMethod);
+		URL target = post || body.isEmpty() ? new URL(url) : new URL(url
+				+ (url.contains("?") ? "&" : "?") + body);
+		HttpURLConnection connection = (HttpURLConnection) WebResourceFetcherImpl
+				.getUrlConnection(target);
+		connection.setRequestMethod(requestMethod);
+		connection.setUseCaches(false);
+		connection.setRequestProperty("Accept-Encoding", "gzip");
+		if (connectTimeout >= 0) {
+			connection.setConnectTimeout(connectTimeout);
+		}
+		if (readTimeout >= 0) {
+			connection.setReadTimeout(readTimeout);
+		}
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			connection.setRequestProperty(header.getKey(), header.getValue());
+		}
+
+		if (post) {
+			byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+			connection.setDoOutput(true);
+			try (OutputStream output = connection.getOutputStream()) {
+				output.write(bytes);
+			}
+		}
+
+		int statusCode = connection.getResponseCode();
+		InputStream stream = statusCode >= 400 ? connection.getErrorStream()
+				: connection.getInputStream();
+		if (stream == null) {
+			stream = new ByteArrayInputStream(new byte[0]);
+		}
+		stream = new DrainingInputStream(stream);
+		if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+			stream = new GZIPInputStream(stream);
+		}
+		return new Response(statusCode, connection.getHeaderFields(), stream);
+	}
+
+	/**
+	 * Stream that reads the remaining bytes of the underlying stream before
+	 * closing it, so that the connection can be reused.
+	 */
+	static class DrainingInputStream extends FilterInputStream {
+
+		DrainingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				byte[] buffer = new byte[4096];
+				int drained = 0;
+				int read;
+				while (drained < MAX_DRAINED_BYTES
+						&& (read = this.in.read(buffer)) >= 0) {
+					drained += read;
+				}
+			} catch (IOException e) {
+				// the connection cannot be reused, but the body has been
+				// read as far as needed
+			} finally {
+				super.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,334 @@
+package org.wikidata.wdtk.wikibaseapi;
+
+/*
+ * #%L
+ * Wikidata Toolkit Wikibase API
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+import org.wikidata.wdtk.wikibaseapi.AsyncApiExecutor.ApiCall;
+import org.wikidata.wdtk.wikibaseapi.apierrors.MediaWikiApiErrorException;
+
+/**
+ * Shares API calls between threads that need the same data at the same
+ * time. Calls with the same key that are started while an identical call is
+ * in flight do not contact the API, but wait for the result of the running
+ * call ("single flight"). Results are not kept after the call finished; use
+ * an {@link EntityDocumentCache} for that.
+ * <p>
+ * In addition, lookups of single keys (such as entity IDs) can be collected
+ * for a short time window and sent as one batch request. This trades some
+ * latency of the first lookup for fewer requests when many independent
+ * lookups arrive at the same time.
+ * <p>
+ * The counters of this class can be used to judge how much is saved: every
+ * call to {@link #execute(String, ApiCall)} counts as a request, and as a
+ * call if it actually contacts the API; it is coalesced if it shares the call
+ * of another request. Lookups that join a batch opened by another lookup
+ * count as coalesced requests. The lookup that opens a batch is not counted,
+ * since the batch call is expected to send its request through
+ * {@link #execute(String, ApiCall)}, where it is counted.
+ */
+public class RequestCoalescer {
+
+	/**
+	 * A call that fetches the values for a batch of keys.
+	 *
+	 * @param <V>
+	 *            type of the values
+	 */
+	@FunctionalInterface
+	public interface BatchCall<V> {
+		Map<String, V> call(Set<String> keys) throws IOException,
+				MediaWikiApiErrorException;
+	}
+
+	/**
+	 * Lookups that are collected to be sent in one call.
+	 */
+	static final class Batch {
+		final Set<String> keys = new LinkedHashSet<>();
+		final CompletableFuture<Map<String, ?>> result = new CompletableFuture<>();
+		boolean closed = false;
+	}
+
+	/**
+	 * Calls that are running, by key.
+	 */
+	final ConcurrentHashMap<String, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+
+	/**
+	 * Batches that still accept keys, by group. Also used as the lock for
+	 * batches.
+	 */
+	final Map<String, Batch> openBatches = new HashMap<>();
+
+	final AtomicLong requestCount = new AtomicLong();
+
+	final AtomicLong callCount = new AtomicLong();
+
+	final AtomicLong coalescedCount = new AtomicLong();
+
+	/**
+	 * Runs the given call, unless a call with the same key is running
+	 * already; then the result of that call is returned instead. All callers
+	 * receive the same result object, so it should not be modified. Errors of
+	 * the call are thrown to all callers.
+	 *
+	 * @param key
+	 *            key that identifies the call, usually built from all of
+	 *            its parameters
+	 * @param call
+	 *            the call to run
+	 * @return the result of the call
+	 * @throws IOException
+	 * @throws MediaWikiApiErrorException
+	 */
+	@SuppressWarnings("unchecked")
+	public <V> V execute(String key, ApiCall<V> call) throws IOException,
+			MediaWikiApiErrorException {
+		this.requestCount.incrementAndGet();
+		CompletableFuture<V> future = new CompletableFuture<>();
+		CompletableFuture<?> running = this.inFlight.putIfAbsent(key, future);
+		if (running != null) {
+			this.coalescedCount.incrementAndGet();
+			return (V) await(running);
+		}
+
+		this.callCount.incrementAndGet();
+		try {
+			V result = call.call();
+			future.complete(result);
+			return result;
+		} catch (IOException | MediaWikiApiErrorException | RuntimeException
+				| Error e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			this.inFlight.remove(key, future);
+		}
+	}
+
+	/**
+	 * Looks up the value for a single key as part of a batch. The first
+	 * lookup of a group opens a batch and waits for the given time window,
+	 * or until the batch has the maximal size; then it runs the call for all
+	 * keys that were collected. Other lookups of the same group that arrive
+	 * in the meantime only add their key and wait for the result. Batches of
+	 * different groups are never merged, so the group should contain all
+	 * parameters of the call other than the keys.
+	 *
+	 * @param group
+	 *            the group of the lookup
+	 * @param key
+	 *            the key to look up
+	 * @param windowMillis
+	 *            time in milliseconds that the first lookup of a batch
+	 *            waits for further lookups
+	 * @param maxBatchSize
+	 *            maximal number of keys in a batch
+	 * @param call
+	 *            the call that fetches the values of a batch
+	 * @return the value for the key, or null if the call did not return one
+	 * @throws IOException
+	 * @throws MediaWikiApiErrorException
+	 */
+	public <V> V executeBatched(String group, String key, long windowMillis,
+			int maxBatchSize, BatchCall<V> call) throws IOException,
+			MediaWikiApiErrorException {
+		Validate.isTrue(windowMillis >= 0,
+				"The batch window must not be negative");
+		Validate.isTrue(maxBatchSize > 0, "The batch size must be positive");
+
+		Batch batch;
+		boolean first;
+		this.requestCount.incrementAndGet();
+		synchronized (this.openBatches) {
+			batch = this.openBatches.get(group);
+			first = batch == null;
+			if (first) {
+				batch = new Batch();
+				this.openBatches.put(group, batch);
+			} else {
+				this.coalescedCount.incrementAndGet();
+			}
+			batch.keys.add(key);
+			if (batch.keys.size() >= maxBatchSize) {
+				close(group, batch);
+			}
+		}
+
+		if (first) {
+			Set<String> keys;
+			synchronized (this.openBatches) {
+				long deadline = System.nanoTime()
+						+ TimeUnit.MILLISECONDS.toNanos(windowMillis);
+				long remaining;
+				while (!batch.closed
+						&& (remaining = deadline - System.nanoTime()) > 0) {
+					try {
+						TimeUnit.NANOSECONDS.timedWait(this.openBatches,
+								remaining);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+				close(group, batch);
+				keys = new LinkedHashSet<>(batch.keys);
+			}
+
+			this.callCount.incrementAndGet();
+			try {
+				batch.result.complete(call.call(keys));
+			} catch (IOException | MediaWikiApiErrorException
+					| RuntimeException | Error e) {
+				batch.result.completeExceptionally(e);
+				throw e;
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		V value = (V) ((Map<String, ?>) await(batch.result)).get(key);
+		return value;
+	}
+
+	/**
+	 * Returns the number of requests, that is, the number of calls to
+	 * {@link #execute(String, ApiCall)} and of lookups passed to
+	 * {@link #executeBatched(String, String, long, int, BatchCall)}.
+	 *
+	 * @return number of requests
+	 */
+	public long getRequestCount() {
+		return this.requestCount.get();
+	}
+
+	/**
+	 * Returns the number of calls that were actually made to the API,
+	 * counting each batch call once.
+	 *
+	 * @return number of API calls
+	 */
+	public long getCallCount() {
+		return this.callCount.get();
+	}
+
+	/**
+	 * Returns the number of requests that did not need a call of their own,
+	 * since they shared a running call or were part of a batch.
+	 *
+	 * @return number of coalesced requests
+	 */
+	public long getCoalescedCount() {
+		return this.coalescedCount.get();
+	}
+
+	/**
+	 * Returns the share of requests that did not need a call of their own,
+	 * between 0 (no savings) and 1.
+	 *
+	 * @return coalescing ratio
+	 */
+	public double getCoalescingRatio() {
+		long requests = getRequestCount();
+		return requests == 0 ? 0 : getCoalescedCount() / (double) requests;
+	}
+
+	/**
+	 * Returns the number of calls that are in flight.
+	 *
+	 * @return number of running calls
+	 */
+	public int getInFlightCount() {
+		return this.inFlight.size();
+	}
+
+	/**
+	 * Closes a batch for further keys and wakes up the thread that waits for
+	 * it. Must be called while holding the lock on {@link #openBatches}.
+	 */
+	void close(String group, Batch batch) {
+		if (!batch.closed) {
+			batch.closed = true;
+			this.openBatches.remove(group, batch);
+			this.openBatches.notifyAll();
+		}
+	}
+
+	/**
+	 * Waits for the result of a call made by another thread and throws its
+	 * exceptions in this thread.
+	 */
+	static Object await(CompletableFuture<?> future) throws IOException,
+			MediaWikiApiErrorException {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return future.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof MediaWikiApiErrorException) {
+				throw (MediaWikiApiErrorException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Builds a key from the given parts, so that different parts give
+	 * different keys.
+	 *
+	 * @param parts
+	 *            the parts of the key; null is allowed
+	 * @return the key
+	 */
+	static String makeKey(Object... parts) {
+		StringBuilder key = new StringBuilder();
+		for (Object part : parts) {
+			key.append(part == null ? "\u0000" : part).append('\n');
+		}
+		return key.toString();
+	}
+}
@@ -155,6 +155,17 @@ public class StatementUpdate {
 	final HashMap<PropertyIdValue, List<StatementWithUpdate>> toKeep;
 	@JsonIgnore
 	final List<String> toDelete;
+	/**
+	 * Hash indexes of the statements in {@link #toKeep}, by property.
+	 */
+	@JsonIgnore
+	final HashMap<PropertyIdValue, KeptStatementIndex> toKeepIndex = new HashMap<>();
+	/**
+	 * True if statements are indexed by claim, as decided by
+	 * {@link #useClaimIndex()}.
+	 */
+	@JsonIgnore
+	final boolean indexClaims = useClaimIndex();
 	@JsonIgnore
 	StatementDocument currentDocument;
 
@@ -320,41 +331,41 @@ public class StatementUpdate {
 	 */
 	protected void markStatementsForDeletion(StatementDocument currentDocument,
 			List<Statement> deleteStatements) {
-		for (Statement statement : deleteStatements) {
-			boolean found = false;
-			for (StatementGroup sg : currentDocument.getStatementGroups()) {
-				if (!sg.getProperty().equals(statement.getMainSnak().getPropertyId())) {
-					continue;
-				}
+		if (deleteStatements.isEmpty()) {
+			return;
+		}
 
-				Statement changedStatement = null;
-				for (Statement existingStatement : sg) {
-					if (existingStatement.equals(statement)) {
-						found = true;
-						toDelete.add(statement.getStatementId());
-					} else if (existingStatement.getStatementId().equals(
-							statement.getStatementId())) {
-						// (we assume all existing statement ids to be nonempty
-						// here)
-						changedStatement = existingStatement;
-						break;
-					}
-				}
+		// index the current statements once, so that each deletion is
+		// checked in constant time
+		Map<String, Statement> currentStatements = new HashMap<>();
+		Set<PropertyIdValue> currentProperties = new HashSet<>();
+		for (StatementGroup sg : currentDocument.getStatementGroups()) {
+			currentProperties.add(sg.getProperty());
+			for (Statement existingStatement : sg) {
+				currentStatements.putIfAbsent(
+						existingStatement.getStatementId(), existingStatement);
+			}
+		}
 
-				if (!found) {
-					StringBuilder warning = new StringBuilder();
-					warning.append("Cannot delete statement (id ")
-							.append(statement.getStatementId())
-							.append(") since it is not present in data. Statement was:\n")
-							.append(statement);
-
-					if (changedStatement != null) {
-						warning.append(
-								"\nThe data contains another statement with the same id: maybe it has been edited? Other statement was:\n")
-								.append(changedStatement);
-					}
-					logger.warn(warning.toString());
+		for (Statement statement : deleteStatements) {
+			Statement existingStatement = currentStatements.get(statement
+					.getStatementId());
+			if (statement.equals(existingStatement)) {
+				this.toDelete.add(statement.getStatementId());
+			} else if (currentProperties.contains(statement.getMainSnak()
+					.getPropertyId())) {
+				StringBuilder warning = new StringBuilder();
+				warning.append("Cannot delete statement (id ")
+						.append(statement.getStatementId())
+						.append(") since it is not present in data. Statement was:\n")
+						.append(statement);
+
+				if (existingStatement != null) {
+					warning.append(
+							"\nThe data contains another statement with the same id: maybe it has been edited? Other statement was:\n")
+							.append(existingStatement);
 				}
+				logger.warn(warning.toString());
 			}
 		}
 	}
@@ -378,10 +389,17 @@ public class StatementUpdate {
 			addStatement(statement, true);
 		}
 
+		// lookup set for the ids in toDelete, which is updated when merges
+		// mark further statements for deletion
+		Set<String> deletedIds = new HashSet<>();
+		int deletedCount = 0;
 		for (StatementGroup sg : currentDocument.getStatementGroups()) {
 			if (this.toKeep.containsKey(sg.getProperty())) {
 				for (Statement statement : sg) {
-					if (!this.toDelete.contains(statement.getStatementId())) {
+					for (; deletedCount < this.toDelete.size(); deletedCount++) {
+						deletedIds.add(this.toDelete.get(deletedCount));
+					}
+					if (!deletedIds.contains(statement.getStatementId())) {
 						addStatement(statement, false);
 					}
 				}
@@ -404,26 +422,43 @@ public class StatementUpdate {
 	 */
 	protected void addStatement(Statement statement, boolean isNew) {
 		PropertyIdValue pid = statement.getMainSnak().getPropertyId();
+		List<StatementWithUpdate> statements = this.toKeep.get(pid);
+		KeptStatementIndex index = this.toKeepIndex.get(pid);
+		if (statements == null) {
+			statements = new ArrayList<>();
+			this.toKeep.put(pid, statements);
+			index = new KeptStatementIndex();
+			this.toKeepIndex.put(pid, index);
+		}
 
 		// This code maintains the following properties:
 		// (1) the toKeep structure does not contain two statements with the
 		// same statement id
 		// (2) the toKeep structure does not contain two statements that can
 		// be merged
-		if (this.toKeep.containsKey(pid)) {
-			List<StatementWithUpdate> statements = this.toKeep.get(pid);
+		// The statement is combined with the first kept statement that has
+		// the same non-empty id or that it can be merged with. The indexes
+		// give the position of the former and the candidates for the latter.
+		Integer sameIdPosition = "".equals(statement.getStatementId()) ? null
+				: index.positionsById.get(statement.getStatementId());
+		List<Integer> candidates;
+		if (this.indexClaims) {
+			candidates = index.positionsByClaim.get(new ClaimKey(
+					statement.getClaim()));
+		} else {
+			candidates = new ArrayList<>(statements.size());
 			for (int i = 0; i < statements.size(); i++) {
+				candidates.add(i);
+			}
+		}
+		if (candidates != null) {
+			for (int i : candidates) {
+				if (sameIdPosition != null && sameIdPosition <= i) {
+					break;
+				}
 				Statement currentStatement = statements.get(i).statement;
 				boolean currentIsNew = statements.get(i).write;
 
-				if (!"".equals(currentStatement.getStatementId())
-						&& currentStatement.getStatementId().equals(
-								statement.getStatementId())) {
-					// Same, non-empty id: ignore existing statement as if
-					// deleted
-					return;
-				}
-
 				Statement newStatement = mergeStatements(statement,
 						currentStatement);
 				if (newStatement != null) {
@@ -438,6 +473,8 @@ public class StatementUpdate {
 
 					statements.set(i, new StatementWithUpdate(newStatement,
 							writeNewStatement));
+					index.replaceId(i, currentStatement.getStatementId(),
+							newStatement.getStatementId());
 
 					// Impossible with default merge code:
 					// Kept here for future extensions that may choose to not
@@ -455,13 +492,14 @@ public class StatementUpdate {
 					return;
 				}
 			}
+		}
 
-			statements.add(new StatementWithUpdate(statement, isNew));
-		} else {
-			List<StatementWithUpdate> statements = new ArrayList<>();
-			statements.add(new StatementWithUpdate(statement, isNew));
-			this.toKeep.put(pid, statements);
+		if (sameIdPosition != null) {
+			// Same, non-empty id: ignore existing statement as if deleted
+			return;
 		}
+		index.add(statements.size(), statement);
+		statements.add(new StatementWithUpdate(statement, isNew));
 	}
 
 	/**
@@ -586,7 +624,94 @@ public class StatementUpdate {
 
 		return snakCount2 == snakList1.size();
 	}
-	
+
+	/**
+	 * Returns true if statements may be looked up by a hash of their claim
+	 * when finding statements to merge. The hash only depends on the main
+	 * snak and on the qualifiers, as compared by the default implementations
+	 * of {@link #equivalentClaims(Claim, Claim)} and
+	 * {@link #isSameSnakSet(Iterator, Iterator)}. Subclasses that override
+	 * these methods must return false here, so that all statements of a
+	 * property are compared with each other. The index can still be used if
+	 * the overridden methods are only stricter than the default ones, so that
+	 * equivalent claims always have the same hash.
+	 * <p>
+	 * This method is called during construction, so it must not depend on
+	 * fields of subclasses.
+	 *
+	 * @return true if the claim index is used
+	 */
+	protected boolean useClaimIndex() {
+		return true;
+	}
+
+	/**
+	 * Hash indexes for the statements to keep for one property, giving their
+	 * positions by statement id and by claim.
+	 */
+	final class KeptStatementIndex {
+		final Map<String, Integer> positionsById = new HashMap<>();
+		/**
+		 * Positions of statements with equivalent claims, in ascending order.
+		 */
+		final Map<ClaimKey, List<Integer>> positionsByClaim = new HashMap<>();
+
+		void add(int position, Statement statement) {
+			if (!"".equals(statement.getStatementId())) {
+				this.positionsById.putIfAbsent(statement.getStatementId(),
+						position);
+			}
+			if (indexClaims) {
+				this.positionsByClaim.computeIfAbsent(
+						new ClaimKey(statement.getClaim()),
+						key -> new ArrayList<>(1)).add(position);
+			}
+		}
+
+		void replaceId(int position, String oldId, String newId) {
+			if (oldId.equals(newId)) {
+				return;
+			}
+			this.positionsById.remove(oldId, position);
+			if (!"".equals(newId)) {
+				this.positionsById.merge(newId, position, Math::min);
+			}
+		}
+	}
+
+	/**
+	 * Key for claims that are equal in the sense of
+	 * {@link #equivalentClaims(Claim, Claim)}. The hash code does not depend
+	 * on the order of qualifiers.
+	 */
+	final class ClaimKey {
+		final Claim claim;
+		final int hashCode;
+
+		ClaimKey(Claim claim) {
+			this.claim = claim;
+			int qualifiersHash = 0;
+			Iterator<Snak> qualifiers = claim.getAllQualifiers();
+			while (qualifiers.hasNext()) {
+				qualifiersHash += qualifiers.next().hashCode();
+			}
+			this.hashCode = 31 * claim.getMainSnak().hashCode()
+					+ qualifiersHash;
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof ClaimKey
+					&& this.hashCode == ((ClaimKey) obj).hashCode
+					&& equivalentClaims(this.claim, ((ClaimKey) obj).claim);
+		}
+	}
+
 	/**
 	 * Sets the GUID generator for this statement update.
 	 */
@@ -0,0 +1,364 @@
+package org.wikidata.wdtk.wikibaseapi;
+
+/*
+ * #%L
+ * Wikidata Toolkit Wikibase API
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.function.LongSupplier;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * {@link EditRateController} that combines a token bucket with additive
+ * increase and multiplicative decrease (AIMD) of the rate. Edits take tokens
+ * from a bucket that is refilled at the current rate and holds at most a
+ * fixed number of tokens, so that short bursts are possible while the
+ * average rate is kept.
+ * <p>
+ * Every accepted edit raises the rate a little, so that it grows by a fixed
+ * number of edits per second in each second of editing, up to the maximal
+ * rate. When the server rejects an edit because of maxlag or with HTTP 429,
+ * the rate is multiplied by a factor below one (but kept above the minimal
+ * rate) and all edits are paused. The pause is the lag reported by the
+ * server or the time of the Retry-After header, but at least an exponential
+ * back-off that grows with each consecutive rejection. Rejections that
+ * arrive during a pause were caused by edits sent before it and do not
+ * decrease the rate again, so that concurrent editors sharing the
+ * controller do not collapse the rate.
+ * <p>
+ * The class is thread-safe. Waiting threads are served in the order in
+ * which they called {@link #acquire()}, and again in the order in which
+ * they notice the end of a pause.
+ */
+public class TokenBucketRateController implements EditRateController {
+
+	/**
+	 * Sleeps for a given time. Can be replaced to test the controller
+	 * without waiting.
+	 */
+	@FunctionalInterface
+	interface Sleeper {
+		void sleep(long millis) throws InterruptedException;
+	}
+
+	/**
+	 * Source of the current time in milliseconds.
+	 */
+	final LongSupplier clock;
+
+	final Sleeper sleeper;
+
+	final double minRate;
+
+	final double maxRate;
+
+	final int burst;
+
+	/**
+	 * Increase of the rate in edits per second, per second of editing.
+	 */
+	double additiveIncrease = 0.02;
+
+	/**
+	 * Factor by which the rate is multiplied when the server is overloaded.
+	 */
+	double decreaseFactor = 0.5;
+
+	/**
+	 * Pause in milliseconds after the first of several consecutive
+	 * rejections.
+	 */
+	long firstBackOffMillis = 1000;
+
+	/**
+	 * Factor by which the pause grows with each consecutive rejection.
+	 */
+	double backOffFactor = 1.5;
+
+	/**
+	 * Maximal pause in milliseconds.
+	 */
+	long maxBackOffMillis = 300000;
+
+	/**
+	 * Current rate in edits per second.
+	 */
+	private double rate;
+
+	/**
+	 * Tokens in the bucket. Negative if edits have reserved tokens that are
+	 * not refilled yet.
+	 */
+	private double tokens;
+
+	/**
+	 * Time up to which the bucket has been refilled.
+	 */
+	private long lastRefill;
+
+	/**
+	 * Time until which no edits are sent.
+	 */
+	private long pausedUntil;
+
+	private int consecutiveRejections = 0;
+
+	/**
+	 * Number of pauses that were started. Threads that reserved a token
+	 * before a pause reserve a new one after it.
+	 */
+	private long pauseCount = 0;
+
+	private long acquireCount = 0;
+
+	private long waitTimeMillis = 0;
+
+	private long rejectionCount = 0;
+
+	/**
+	 * Creates a controller that starts at 0.5 edits per second (the default
+	 * speed of {@link WbEditingAction}), adapts the rate between 0.05 and 2
+	 * edits per second, and allows bursts of 9 edits.
+	 */
+	public TokenBucketRateController() {
+		this(0.5, 0.05, 2, 9);
+	}
+
+	/**
+	 * Creates a controller.
+	 *
+	 * @param initialRate
+	 *            the rate in edits per second at the start
+	 * @param minRate
+	 *            the minimal rate in edits per second
+	 * @param maxRate
+	 *            the maximal rate in edits per second
+	 * @param burst
+	 *            the maximal number of edits that can be sent without
+	 *            waiting after a period without edits
+	 */
+	public TokenBucketRateController(double initialRate, double minRate,
+			double maxRate, int burst) {
+		this(initialRate, minRate, maxRate, burst, System::currentTimeMillis,
+				Thread::sleep);
+	}
+
+	/**
+	 * Creates a controller with the given clock.
+	 */
+	TokenBucketRateController(double initialRate, double minRate,
+			double maxRate, int burst, LongSupplier clock, Sleeper sleeper) {
+		Validate.isTrue(minRate > 0, "The minimal rate must be positive");
+		Validate.isTrue(minRate <= initialRate && initialRate <= maxRate,
+				"The initial rate must be between the minimal and maximal rate");
+		Validate.isTrue(burst > 0, "The burst size must be positive");
+		this.minRate = minRate;
+		this.maxRate = maxRate;
+		this.burst = burst;
+		this.clock = clock;
+		this.sleeper = sleeper;
+		this.rate = initialRate;
+		this.tokens = burst;
+		this.lastRefill = clock.getAsLong();
+		this.pausedUntil = this.lastRefill;
+	}
+
+	/**
+	 * Sets the increase of the rate in edits per second, per second of
+	 * editing without rejections.
+	 *
+	 * @param additiveIncrease
+	 *            the increase, 0 to keep the rate constant
+	 */
+	public synchronized void setAdditiveIncrease(double additiveIncrease) {
+		Validate.isTrue(additiveIncrease >= 0,
+				"The increase must not be negative");
+		this.additiveIncrease = additiveIncrease;
+	}
+
+	/**
+	 * Sets the factor by which the rate is multiplied when the server
+	 * rejects an edit.
+	 *
+	 * @param decreaseFactor
+	 *            a factor between 0 (exclusive) and 1 (inclusive)
+	 */
+	public synchronized void setDecreaseFactor(double decreaseFactor) {
+		Validate.isTrue(decreaseFactor > 0 && decreaseFactor <= 1,
+				"The decrease factor must be in (0, 1]");
+		this.decreaseFactor = decreaseFactor;
+	}
+
+	/**
+	 * Sets the exponential back-off that is used as the minimal pause after
+	 * a rejection.
+	 *
+	 * @param firstBackOffMillis
+	 *            pause after the first rejection in milliseconds
+	 * @param backOffFactor
+	 *            factor by which the pause grows with each consecutive
+	 *            rejection
+	 * @param maxBackOffMillis
+	 *            maximal pause in milliseconds, also for lags and
+	 *            Retry-After times reported by the server
+	 */
+	public synchronized void setBackOff(long firstBackOffMillis,
+			double backOffFactor, long maxBackOffMillis) {
+		Validate.isTrue(firstBackOffMillis >= 0,
+				"The back-off must not be negative");
+		Validate.isTrue(backOffFactor >= 1,
+				"The back-off factor must be at least 1");
+		Validate.isTrue(maxBackOffMillis >= firstBackOffMillis,
+				"The maximal back-off must not be below the first back-off");
+		this.firstBackOffMillis = firstBackOffMillis;
+		this.backOffFactor = backOffFactor;
+		this.maxBackOffMillis = maxBackOffMillis;
+	}
+
+	/**
+	 * Returns the current rate.
+	 *
+	 * @return the rate in edits per second
+	 */
+	public synchronized double getRate() {
+		return this.rate;
+	}
+
+	/**
+	 * Returns the number of calls of {@link #acquire()}.
+	 *
+	 * @return number of acquired edits
+	 */
+	public synchronized long getAcquireCount() {
+		return this.acquireCount;
+	}
+
+	/**
+	 * Returns the total time that threads were asked to wait in
+	 * {@link #acquire()}.
+	 *
+	 * @return the waiting time in milliseconds
+	 */
+	public synchronized long getWaitTimeMillis() {
+		return this.waitTimeMillis;
+	}
+
+	/**
+	 * Returns the number of rejections that decreased the rate.
+	 *
+	 * @return number of rejections
+	 */
+	public synchronized long getRejectionCount() {
+		return this.rejectionCount;
+	}
+
+	@Override
+	public void acquire() throws InterruptedException {
+		boolean first = true;
+		while (true) {
+			long wait;
+			long pauses;
+			synchronized (this) {
+				long now = this.clock.getAsLong();
+				refill(now);
+				this.tokens -= 1;
+				// the bucket is refilled from lastRefill on, which is the end
+				// of the pause during a pause
+				long available = this.tokens >= 0 ? now : this.lastRefill
+						+ (long) Math.ceil(-this.tokens * 1000 / this.rate);
+				wait = Math.max(available, this.pausedUntil) - now;
+				pauses = this.pauseCount;
+				if (first) {
+					this.acquireCount++;
+					first = false;
+				}
+				this.waitTimeMillis += wait;
+			}
+			if (wait > 0) {
+				this.sleeper.sleep(wait);
+			}
+			synchronized (this) {
+				if (pauses == this.pauseCount) {
+					return;
+				}
+				// a pause started while we were waiting, and discarded
+				// our reservation
+			}
+		}
+	}
+
+	@Override
+	public synchronized void onSuccess() {
+		refill(this.clock.getAsLong());
+		this.consecutiveRejections = 0;
+		this.rate = Math.min(this.maxRate, this.rate + this.additiveIncrease
+				/ this.rate);
+	}
+
+	@Override
+	public void onMaxlag(double lagSeconds) {
+		reject(lagSeconds > 0 ? (long) (lagSeconds * 1000) : 0);
+	}
+
+	@Override
+	public void onTooManyRequests(int retryAfterSeconds) {
+		reject(retryAfterSeconds > 0 ? retryAfterSeconds * 1000L : 0);
+	}
+
+	/**
+	 * Decreases the rate and pauses all edits after a rejection.
+	 *
+	 * @param requestedPause
+	 *            the pause in milliseconds requested by the server, or 0
+	 */
+	synchronized void reject(long requestedPause) {
+		long now = this.clock.getAsLong();
+		refill(now);
+		boolean paused = now < this.pausedUntil;
+		if (!paused) {
+			this.rejectionCount++;
+			this.consecutiveRejections++;
+			this.rate = Math.max(this.minRate, this.rate * this.decreaseFactor);
+		}
+		double backOff = this.firstBackOffMillis
+				* Math.pow(this.backOffFactor, this.consecutiveRejections - 1);
+		long pause = (long) Math.min(this.maxBackOffMillis,
+				Math.max(backOff, requestedPause));
+		if (now + pause > this.pausedUntil) {
+			// no tokens accumulate during the pause, and reservations of
+			// waiting threads are discarded; one edit can be sent when the
+			// pause ends
+			this.pausedUntil = now + pause;
+			this.tokens = 1;
+			this.lastRefill = this.pausedUntil;
+			this.pauseCount++;
+		}
+	}
+
+	/**
+	 * Adds the tokens for the time since the last refill.
+	 */
+	private void refill(long now) {
+		if (now > this.lastRefill) {
+			this.tokens = Math.min(this.burst, this.tokens
+					+ (now - this.lastRefill) * this.rate / 1000);
+			this.lastRefill = now;
+		}
+	}
+}
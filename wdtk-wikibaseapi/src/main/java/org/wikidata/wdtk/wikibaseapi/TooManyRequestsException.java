@@ -0,0 +1,89 @@
+package org.wikidata.wdtk.wikibaseapi;
+
+/*
+ * #%L
+ * Wikidata Toolkit Wikibase API
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This exception is thrown when the server rejects a request with HTTP status
+ * 429 (Too Many Requests), which means that the client sends requests too
+ * fast and should slow down.
+ */
+public class TooManyRequestsException extends IOException {
+
+	private static final long serialVersionUID = 4290938247160233452L;
+
+	/**
+	 * Name of the HTTP response header field that tells us how long to wait.
+	 */
+	static final String HEADER_FIELD_RETRY_AFTER = "Retry-After";
+
+	final int retryAfterSeconds;
+
+	/**
+	 * Creates a new exception.
+	 *
+	 * @param message
+	 *            the message of the exception
+	 * @param retryAfterSeconds
+	 *            number of seconds that the server asked us to wait, or -1 if
+	 *            unknown
+	 */
+	public TooManyRequestsException(String message, int retryAfterSeconds) {
+		super(message);
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	/**
+	 * Returns the number of seconds that the server asked us to wait before
+	 * the next request, as given in the Retry-After header.
+	 *
+	 * @return number of seconds, or -1 if the server did not say
+	 */
+	public int getRetryAfterSeconds() {
+		return this.retryAfterSeconds;
+	}
+
+	/**
+	 * Reads the number of seconds from the Retry-After header. HTTP dates are
+	 * not supported and are treated like a missing header.
+	 *
+	 * @param headerFields
+	 *            header fields of the response
+	 * @return number of seconds, or -1 if not available
+	 */
+	static int getRetryAfterSeconds(Map<String, List<String>> headerFields) {
+		for (Map.Entry<String, List<String>> header : headerFields.entrySet()) {
+			if (HEADER_FIELD_RETRY_AFTER.equalsIgnoreCase(header.getKey())
+					&& !header.getValue().isEmpty()) {
+				try {
+					return Math.max(0, Integer.parseInt(header.getValue()
+							.get(0).trim()));
+				} catch (NumberFormatException e) {
+					return -1;
+				}
+			}
+		}
+		return -1;
+	}
+}
@@ -30,11 +30,13 @@ import org.slf4j.LoggerFactory;
 import org.wikidata.wdtk.datamodel.helpers.DatamodelMapper;
 import org.wikidata.wdtk.datamodel.implementation.EntityDocumentImpl;
 import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+import org.wikidata.wdtk.wikibaseapi.ApiRequestListener.WaitReason;
 import org.wikidata.wdtk.wikibaseapi.apierrors.MaxlagErrorException;
 import org.wikidata.wdtk.wikibaseapi.apierrors.MediaWikiApiErrorException;
 import org.wikidata.wdtk.wikibaseapi.apierrors.TokenErrorException;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -121,6 +123,18 @@ public class WbEditingAction {
 	 */
 	int remainingEdits = -1;
 
+	/**
+	 * Cache whose documents of edited entities are invalidated after each
+	 * edit, or null.
+	 */
+	EntityDocumentCache cache = null;
+
+	/**
+	 * Controller for the rate of edits, or null if the edit speed and maxlag
+	 * back-off settings of this object are used.
+	 */
+	EditRateController rateController = null;
+
 	/**
 	 * Creates an object to modify data on a Wikibase site. The API is used to
 	 * request the changes. The site URI is necessary since it is not contained
@@ -219,6 +233,31 @@ public class WbEditingAction {
 		this.averageMsecsPerEdit = milliseconds;
 	}
 
+	/**
+	 * Returns the controller for the rate of edits.
+	 *
+	 * @return the controller, or null if none is used
+	 */
+	public EditRateController getRateController() {
+		return this.rateController;
+	}
+
+	/**
+	 * Sets a controller for the rate of edits, such as a
+	 * {@link TokenBucketRateController}. The controller decides when edits
+	 * are sent and how long to pause after maxlag errors or HTTP 429
+	 * responses; the average time per edit and the maxlag wait times of this
+	 * object are then not used. The maximal number of retries still applies.
+	 * A controller can be shared by several objects to control their
+	 * combined rate.
+	 *
+	 * @param rateController
+	 *            the controller, or null to use the settings of this object
+	 */
+	public void setRateController(EditRateController rateController) {
+		this.rateController = rateController;
+	}
+
 	/**
 	 * Executes the API action "wbeditentity" for the given parameters. Created
 	 * or modified items are returned as a result. In particular, this is
@@ -728,23 +767,49 @@ public class WbEditingAction {
 		parameters.put("maxlag", Integer.toString(this.maxLag));
 		parameters.put("token", connection.getOrFetchToken("csrf"));
 
-		if (this.remainingEdits > 0) {
-			this.remainingEdits--;
-		} else if (this.remainingEdits == 0) {
-			logger.info("Not editing entity (simulation mode). Request parameters were: "
-					+ parameters.toString());
-			return null;
+		synchronized (this) {
+			if (this.remainingEdits > 0) {
+				this.remainingEdits--;
+			} else if (this.remainingEdits == 0) {
+				logger.info("Not editing entity (simulation mode). Request parameters were: "
+						+ parameters.toString());
+				return null;
+			}
 		}
 
-		checkEditSpeed();
+		JsonNode result;
+		if (this.rateController != null) {
+			result = sendRateControlled(parameters);
+		} else {
+			checkEditSpeed(action);
+			result = sendWithBackOff(parameters);
+		}
+
+		invalidateCache(id, result);
+		return result;
+	}
+	
+	/**
+	 * Sends an edit request, retrying with the maxlag wait times of this
+	 * object.
+	 *
+	 * @param parameters
+	 *            the parameters of the request
+	 * @return the response of the API
+	 * @throws IOException
+	 * @throws MediaWikiApiErrorException
+	 */
+	JsonNode sendWithBackOff(Map<String, String> parameters)
+			throws IOException, MediaWikiApiErrorException {
 		JsonNode result = null;
-		
+		String action = parameters.get(ApiConnection.PARAM_ACTION);
 		int retry = getMaxLagMaxRetries();
 		int maxLagSleepTime = getMaxLagFirstWaitTime();
 		MediaWikiApiErrorException lastException = null;
 		while (retry > 0) {
 			try {
 				result = this.connection.sendJsonRequest("POST", parameters);
+				lastException = null;
 				break;
 			} catch (TokenErrorException e) { // try again with a fresh token
 				lastException = e;
@@ -753,14 +818,19 @@ public class WbEditingAction {
 			} catch (MaxlagErrorException e) { // wait for 5 seconds
 				lastException = e;
 				logger.warn(e.getMessage() + String.format(" -- pausing for %d milliseconds.", maxLagSleepTime));
+				long start = System.nanoTime();
 				try {
 					Thread.sleep(maxLagSleepTime);
 				} catch (InterruptedException ex) {
 					Thread.currentThread().interrupt();
 				}
+				reportWait(action, WaitReason.MAXLAG, start);
 				maxLagSleepTime *= getMaxLagBackOffFactor();
 			}
 			retry--;
+			if (retry > 0) {
+				reportRetry(action, lastException);
+			}
 		}
 
 		if (lastException != null) {
@@ -768,10 +838,73 @@ public class WbEditingAction {
 					+ lastException.toString());
 			throw lastException;
 		}
-
 		return result;
 	}
-	
+
+	/**
+	 * Sends an edit request when the rate controller allows it, and reports
+	 * the outcome to the controller. Requests that are rejected because of
+	 * maxlag or with HTTP 429 are retried. The request is sent at least once,
+	 * even if the number of retries is not positive.
+	 *
+	 * @param parameters
+	 *            the parameters of the request
+	 * @return the response of the API
+	 * @throws IOException
+	 * @throws MediaWikiApiErrorException
+	 */
+	JsonNode sendRateControlled(Map<String, String> parameters)
+			throws IOException, MediaWikiApiErrorException {
+		String action = parameters.get(ApiConnection.PARAM_ACTION);
+		Exception lastException = null;
+		for (int retry = Math.max(1, getMaxLagMaxRetries()); retry > 0; retry--) {
+			if (lastException != null) {
+				reportRetry(action, lastException);
+			}
+			long start = System.nanoTime();
+			try {
+				this.rateController.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(
+						"Interrupted while waiting to edit");
+			} finally {
+				// waits after maxlag errors are due to the lag, all others
+				// limit the rate of edits
+				reportWait(action,
+						lastException instanceof MaxlagErrorException
+								? WaitReason.MAXLAG : WaitReason.THROTTLE,
+						start);
+			}
+			try {
+				JsonNode result = this.connection.sendJsonRequest("POST",
+						parameters);
+				this.rateController.onSuccess();
+				return result;
+			} catch (TokenErrorException e) { // try again with a fresh token
+				lastException = e;
+				connection.clearToken("csrf");
+				parameters.put("token", connection.getOrFetchToken("csrf"));
+			} catch (MaxlagErrorException e) {
+				lastException = e;
+				logger.warn(e.getMessage() + " -- slowing down.");
+				this.rateController.onMaxlag(e.getLag());
+			} catch (TooManyRequestsException e) {
+				lastException = e;
+				logger.warn(e.getMessage() + " -- slowing down.");
+				this.rateController.onTooManyRequests(e
+						.getRetryAfterSeconds());
+			}
+		}
+
+		logger.error("Gave up after several retries. Last error was: "
+				+ lastException.toString());
+		if (lastException instanceof IOException) {
+			throw (IOException) lastException;
+		}
+		throw (MediaWikiApiErrorException) lastException;
+	}
+
 	/**
 	 * @todo TO BE REFACTORED
 	 * @param root
@@ -820,9 +953,9 @@ public class WbEditingAction {
 	 * {@link WbEditingAction#editTimeWindow} time points when an edit was
 	 * made. If the time since the oldest edit in this window is shorter than
 	 * {@link #averageMsecsPerEdit} milliseconds, then the method will pause the
-	 * thread for the remaining time.
+	 * thread for the remaining time. Concurrent edits wait for each other.
 	 */
-	private void checkEditSpeed() {
+	private synchronized void checkEditSpeed(String action) {
 		long currentTime = System.nanoTime();
 		int nextIndex = (this.curEditTimeSlot + 1) % editTimeWindow;
 		if (this.recentEditTimes[nextIndex] != 0
@@ -837,12 +970,44 @@ public class WbEditingAction {
 			} catch (InterruptedException ex) {
 				Thread.currentThread().interrupt();
 			}
+			reportWait(action, WaitReason.THROTTLE, currentTime);
 			currentTime = System.nanoTime();
 		}
 
 		this.recentEditTimes[nextIndex] = currentTime;
 		this.curEditTimeSlot = nextIndex;
 	}
+
+	/**
+	 * Reports a retry after the given error to the request listener of the
+	 * connection, if any.
+	 */
+	private void reportRetry(String action, Exception error) {
+		ApiRequestListener listener = this.connection.getRequestListener();
+		if (listener != null) {
+			listener.onRetry(action,
+					error instanceof MediaWikiApiErrorException
+							? ((MediaWikiApiErrorException) error)
+									.getErrorCode()
+							: error.getClass().getSimpleName());
+		}
+	}
+
+	/**
+	 * Reports the time since the given start time to the request listener of
+	 * the connection, if any. Waits shorter than one millisecond are not
+	 * reported.
+	 *
+	 * @param start
+	 *            start of the wait, as given by {@link System#nanoTime()}
+	 */
+	private void reportWait(String action, WaitReason reason, long start) {
+		ApiRequestListener listener = this.connection.getRequestListener();
+		long waitMillis = (System.nanoTime() - start) / 1000000;
+		if (listener != null && waitMillis > 0) {
+			listener.onWait(action, reason, waitMillis);
+		}
+	}
 	
 	/**
 	 * Number of times we should retry if an editing action fails because
@@ -894,4 +1059,62 @@ public class WbEditingAction {
 		maxLagBackOffFactor = value;
 	}
 
+	/**
+	 * Returns the cache in which documents of edited entities are
+	 * invalidated.
+	 *
+	 * @return the cache, or null if there is none
+	 */
+	public EntityDocumentCache getCache() {
+		return this.cache;
+	}
+
+	/**
+	 * Sets a cache in which documents of edited entities are invalidated
+	 * after each successful edit.
+	 *
+	 * @param cache
+	 *            the cache, or null if there is none
+	 */
+	public void setCache(EntityDocumentCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Removes the documents of the entity that was edited from the cache.
+	 * The entity is found from the parameters of the request or, when
+	 * editing by title or statement id, from the response.
+	 *
+	 * @param id
+	 *            the id of the edited entity, or null
+	 * @param result
+	 *            the response of the API
+	 */
+	void invalidateCache(String id, JsonNode result) {
+		if (this.cache == null || result == null) {
+			return;
+		}
+		if (id != null) {
+			this.cache.invalidate(id);
+		}
+		String entityId = result.path("entity").path("id").asText(null);
+		if (entityId != null) {
+			this.cache.invalidate(entityId);
+		}
+		String statementId = result.path("claim").path("id").asText(null);
+		if (statementId != null) {
+			invalidateStatementEntity(statementId);
+		}
+		for (JsonNode removed : result.path("claims")) {
+			invalidateStatementEntity(removed.asText());
+		}
+	}
+
+	private void invalidateStatementEntity(String statementId) {
+		int separator = statementId.indexOf('$');
+		if (separator > 0) {
+			this.cache.invalidate(statementId.substring(0, separator)
+					.toUpperCase());
+		}
+	}
 }
@@ -22,7 +22,6 @@ package org.wikidata.wdtk.wikibaseapi;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.Map.Entry;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import org.slf4j.Logger;
@@ -34,9 +33,17 @@ import org.wikidata.wdtk.datamodel.implementation.EntityIdValueImpl;
 import org.wikidata.wdtk.datamodel.interfaces.*;
 import org.wikidata.wdtk.wikibaseapi.apierrors.MediaWikiApiErrorException;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonParserDelegate;
+import com.fasterxml.jackson.core.util.JsonParserSequence;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 /**
  * Java implementation of the wbgetentities action.
@@ -64,6 +71,11 @@ public class WbGetEntitiesAction {
 	 */
 	final ObjectMapper mapper;
 
+	/**
+	 * Reader used for deserializing entity documents.
+	 */
+	final ObjectReader entityReader;
+
 	/**
 	 * Creates an object to fetch data from the given ApiConnection. The site
 	 * URI is necessary since it is not contained in the data retrieved from the
@@ -80,6 +92,8 @@ public class WbGetEntitiesAction {
 		this.connection = connection;
 		this.siteIri = siteIri;
 		this.mapper = new DatamodelMapper(siteIri);
+		this.entityReader = this.mapper.readerFor(EntityDocumentImpl.class)
+				.with(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT);
 	}
 
 	/**
@@ -100,7 +114,7 @@ public class WbGetEntitiesAction {
 			throws MediaWikiApiErrorException, IOException {
 		return wbGetEntities(properties.ids, properties.sites,
 				properties.titles, properties.props, properties.languages,
-				properties.sitefilter);
+				properties.sitefilter, properties.maxlag);
 	}
 
 	/**
@@ -154,6 +168,13 @@ public class WbGetEntitiesAction {
 	public Map<String, EntityDocument> wbGetEntities(String ids, String sites,
 			String titles, String props, String languages, String sitefilter)
 			throws MediaWikiApiErrorException, IOException {
+		return wbGetEntities(ids, sites, titles, props, languages, sitefilter,
+				null);
+	}
+
+	private Map<String, EntityDocument> wbGetEntities(String ids, String sites,
+			String titles, String props, String languages, String sitefilter,
+			Integer maxlag) throws MediaWikiApiErrorException, IOException {
 
 		Map<String, String> parameters = new HashMap<>();
 		parameters.put(ApiConnection.PARAM_ACTION, "wbgetentities");
@@ -187,56 +208,20 @@ public class WbGetEntitiesAction {
 		if (sitefilter != null) {
 			parameters.put("sitefilter", sitefilter);
 		}
+		if (maxlag != null) {
+			parameters.put("maxlag", maxlag.toString());
+		}
 
 		Map<String, EntityDocument> result = new HashMap<>();
 
 		try {
-			JsonNode root = this.connection.sendJsonRequest("POST", parameters);
-
-			JsonNode entities = root.path("entities");
-			Iterator<Entry<String,JsonNode>> entitiesIterator = entities.fields();
-			int i = 0;
-			while(entitiesIterator.hasNext()) {
-				Entry<String,JsonNode> entry = entitiesIterator.next();
-				JsonNode entityNode = entry.getValue();
-				if(!entityNode.has("missing")) {
-					try {
-						EntityDocument ed = mapper.reader()
-								.with(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT)
-								.treeToValue(entityNode, EntityDocumentImpl.class);
-
-						if (titles == null) {
-							// We use the JSON key rather than the id of the value
-							// so that retrieving redirected entities works.
-							result.put(entry.getKey(), ed);
-						} else {
-							if (ed instanceof ItemDocument) {
-								SiteLink siteLink = ((ItemDocument) ed).getSiteLinks().get(sites);
-								if(siteLink != null) {
-									result.put(siteLink.getPageTitle(), ed);
-								}
-							} else if(ed instanceof MediaInfoDocument) {
-								result.put(entityNode.get("title").textValue(), ed);
-							}
-						}
-					} catch (JsonProcessingException e) {
-						logger.error("Error when reading JSON for entity "
-								+ entityNode.path("id").asText("UNKNOWN")
-								+ ": " + e.toString());
-					}
-				} else if(entityNode.has("id")) {
-					try {
-						EntityIdValue entityIdValue = EntityIdValueImpl.fromId(entityNode.get("id").asText(), siteIri);
-						if(entityIdValue instanceof MediaInfoIdValue) {
-							//TODO: bad hack, it would be much nicer if the API would return the page title
-							result.put(titlesList.get(i), Datamodel.makeMediaInfoDocument((MediaInfoIdValue) entityIdValue));
-						}
-					} catch (IllegalArgumentException e) {
-						logger.warn("Invalid entity id returned: " + entityNode.get("id").asText());
-					}
+			this.connection.sendJsonRequest("POST", parameters, response -> {
+				try (JsonParser parser = this.mapper.getFactory()
+						.createParser(response)) {
+					readResponse(parser, sites, titles, titlesList, result);
 				}
-				i++;
-			}
+				return result;
+			});
 		} catch (IOException e) {
 			logger.error("Could not retrive data: " + e.toString());
 			throw e;
@@ -245,4 +230,191 @@ public class WbGetEntitiesAction {
 		return result;
 	}
 
+	/**
+	 * Reads the response of a wbgetentities request in one pass, without
+	 * building a JSON tree for the entities. Errors and warnings are checked
+	 * when they are found.
+	 */
+	private void readResponse(JsonParser parser, String sites, String titles,
+			List<String> titlesList, Map<String, EntityDocument> result)
+			throws IOException, MediaWikiApiErrorException {
+		if (parser.nextToken() != JsonToken.START_OBJECT) {
+			throw new JsonParseException(parser,
+					"The API response is not a JSON object");
+		}
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			parser.nextToken();
+			switch (field) {
+			case "error":
+			case "warnings":
+				ObjectNode root = this.mapper.createObjectNode();
+				root.set(field, this.mapper.readTree(parser));
+				this.connection.checkResponse(root);
+				break;
+			case "entities":
+				readEntities(parser, sites, titles, titlesList, result);
+				break;
+			default:
+				parser.skipChildren();
+			}
+		}
+	}
+
+	/**
+	 * Reads the "entities" object of the response. The parser is positioned
+	 * at its start.
+	 */
+	private void readEntities(JsonParser parser, String sites, String titles,
+			List<String> titlesList, Map<String, EntityDocument> result)
+			throws IOException {
+		if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			return;
+		}
+		JsonStreamContext entitiesContext = parser.getParsingContext();
+		int i = 0;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String key = parser.getCurrentName();
+			if (parser.nextToken() == JsonToken.START_OBJECT) {
+				try {
+					readEntity(parser, key, i, sites, titles, titlesList,
+							result);
+				} catch (JsonMappingException e) {
+					logger.error("Error when reading JSON for entity " + key
+							+ ": " + e.toString());
+					// continue with the next entity
+					while (parser.getParsingContext() != entitiesContext) {
+						if (parser.nextToken() == null) {
+							throw e;
+						}
+					}
+				}
+			} else {
+				parser.skipChildren();
+			}
+			i++;
+		}
+	}
+
+	/**
+	 * Reads one entity of the response. The parser is positioned at the
+	 * start of the entity and is left at its end.
+	 * <p>
+	 * Missing entities are marked by a "missing" field and have no type, so
+	 * they cannot be read as documents. The simple fields at the start of the
+	 * entity are therefore buffered until a "missing" field or the first
+	 * nested value is found. The document is then read from the buffer,
+	 * followed by the rest of the response.
+	 */
+	private void readEntity(JsonParser parser, String key, int index,
+			String sites, String titles, List<String> titlesList,
+			Map<String, EntityDocument> result) throws IOException {
+		JsonStreamContext entityContext = parser.getParsingContext();
+		TokenBuffer prefix = new TokenBuffer(parser);
+		prefix.writeStartObject();
+		String id = null;
+		String title = null;
+		boolean missing = false;
+		JsonToken token;
+		while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+			String name = parser.getCurrentName();
+			JsonToken value = parser.nextToken();
+			if (value.isScalarValue()) {
+				if ("missing".equals(name)) {
+					missing = true;
+				} else if ("id".equals(name)) {
+					id = parser.getText();
+				} else if ("title".equals(name)) {
+					title = parser.getText();
+				}
+				prefix.writeFieldName(name);
+				prefix.copyCurrentEvent(parser);
+			} else if (missing) {
+				parser.skipChildren();
+			} else {
+				prefix.writeFieldName(name);
+				break;
+			}
+		}
+
+		if (missing) {
+			if (id != null) {
+				try {
+					EntityIdValue entityIdValue = EntityIdValueImpl.fromId(id, siteIri);
+					if(entityIdValue instanceof MediaInfoIdValue) {
+						//TODO: bad hack, it would be much nicer if the API would return the page title
+						result.put(titlesList.get(index), Datamodel.makeMediaInfoDocument((MediaInfoIdValue) entityIdValue));
+					}
+				} catch (IllegalArgumentException e) {
+					logger.warn("Invalid entity id returned: " + id);
+				}
+			}
+			return;
+		}
+
+		EntityDocument ed;
+		if (token == JsonToken.END_OBJECT) {
+			prefix.writeEndObject();
+			ed = this.entityReader.readValue(prefix.asParser());
+		} else {
+			TitleCapturingParser rest = new TitleCapturingParser(parser,
+					entityContext);
+			ed = this.entityReader.readValue(JsonParserSequence
+					.createFlattened(true, prefix.asParser(), rest));
+			if (rest.title != null) {
+				title = rest.title;
+			}
+		}
+
+		if (titles == null) {
+			// We use the JSON key rather than the id of the value
+			// so that retrieving redirected entities works.
+			result.put(key, ed);
+		} else {
+			if (ed instanceof ItemDocument) {
+				SiteLink siteLink = ((ItemDocument) ed).getSiteLinks().get(sites);
+				if(siteLink != null) {
+					result.put(siteLink.getPageTitle(), ed);
+				}
+			} else if(ed instanceof MediaInfoDocument && title != null) {
+				result.put(title, ed);
+			}
+		}
+	}
+
+	/**
+	 * Parser that records the page title of an entity while the entity is
+	 * read from it.
+	 */
+	private static class TitleCapturingParser extends JsonParserDelegate {
+
+		final JsonStreamContext entityContext;
+
+		boolean titleNext = false;
+
+		String title = null;
+
+		TitleCapturingParser(JsonParser parser, JsonStreamContext entityContext) {
+			super(parser);
+			this.entityContext = entityContext;
+		}
+
+		@Override
+		public JsonToken nextToken() throws IOException {
+			JsonToken token = super.nextToken();
+			if (this.titleNext) {
+				this.titleNext = false;
+				if (token == JsonToken.VALUE_STRING) {
+					this.title = getText();
+				}
+			} else if (token == JsonToken.FIELD_NAME
+					&& getParsingContext() == this.entityContext
+					&& "title".equals(getCurrentName())) {
+				this.titleNext = true;
+			}
+			return token;
+		}
+	}
+
 }
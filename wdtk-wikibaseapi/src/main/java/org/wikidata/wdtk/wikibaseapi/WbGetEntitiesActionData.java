@@ -73,4 +73,12 @@ public class WbGetEntitiesActionData {
 	 * for details.
 	 */
 	public String sitefilter = null;
+
+	/**
+	 * Value of MediaWiki's maxlag parameter in seconds, or null if the
+	 * parameter should not be sent. If the replication lag of the server is
+	 * larger, the request fails with a
+	 * {@link org.wikidata.wdtk.wikibaseapi.apierrors.MaxlagErrorException}.
+	 */
+	public Integer maxlag = null;
 }
@@ -25,7 +25,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
+import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.wikidata.wdtk.wikibaseapi.apierrors.MediaWikiApiErrorException;
@@ -60,6 +62,11 @@ public class WbSearchEntitiesAction {
      */
     private final ObjectMapper mapper = new ObjectMapper();
 
+    /**
+     * Shares identical searches that run at the same time.
+     */
+    RequestCoalescer coalescer = new RequestCoalescer();
+
     /**
      * Creates an object to fetch data from the given ApiConnection. The site
      * URI is necessary since it is not contained in the data retrieved from the
@@ -77,6 +84,28 @@ public class WbSearchEntitiesAction {
         this.siteIri = siteUri;
     }
 
+    /**
+     * Returns the {@link RequestCoalescer} that shares identical searches
+     * that run at the same time.
+     *
+     * @return the coalescer
+     */
+    public RequestCoalescer getCoalescer() {
+        return this.coalescer;
+    }
+
+    /**
+     * Sets the {@link RequestCoalescer} that shares identical searches that
+     * run at the same time. A coalescer can be shared with other actions.
+     *
+     * @param coalescer
+     *            the coalescer to use
+     */
+    public void setCoalescer(RequestCoalescer coalescer) {
+        Validate.notNull(coalescer, "Coalescer must not be null");
+        this.coalescer = coalescer;
+    }
+
     public List<WbSearchEntitiesResult> wbSearchEntities(WbGetEntitiesSearchData properties)
             throws MediaWikiApiErrorException, IOException {
         return wbSearchEntities(properties.search, properties.language,
@@ -157,6 +186,24 @@ public class WbSearchEntitiesAction {
             parameters.put("continue", Long.toString(offset));
         }
 
+        // identical searches that are running already are not sent again
+        return new ArrayList<>(this.coalescer.execute(
+                RequestCoalescer.makeKey("wbsearchentities", new TreeMap<>(parameters)),
+                () -> search(parameters)));
+    }
+
+    /**
+     * Sends a search request and reads its results.
+     *
+     * @param parameters
+     *            the parameters of the request
+     * @return list of matching entities
+     * @throws MediaWikiApiErrorException
+     *             if the API returns an error
+     * @throws IOException
+     */
+    List<WbSearchEntitiesResult> search(Map<String, String> parameters)
+            throws MediaWikiApiErrorException, IOException {
         List<WbSearchEntitiesResult> results = new ArrayList<>();
 
         JsonNode root = this.connection.sendJsonRequest("POST", parameters);
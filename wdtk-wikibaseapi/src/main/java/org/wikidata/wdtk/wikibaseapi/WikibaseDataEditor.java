@@ -107,6 +107,29 @@ public class WikibaseDataEditor {
 		this.guidGenerator = generator;
 	}
 
+	/**
+	 * Sets a cache in which the documents of entities are invalidated after
+	 * they have been edited with this object. This should be the cache of the
+	 * {@link WikibaseDataFetcher} objects that read the same site, so that
+	 * they do not return outdated documents after own edits.
+	 *
+	 * @param cache
+	 *            the cache, or null if there is none
+	 */
+	public void setCache(EntityDocumentCache cache) {
+		this.wbEditingAction.setCache(cache);
+	}
+
+	/**
+	 * Returns the cache in which the documents of edited entities are
+	 * invalidated.
+	 *
+	 * @return the cache, or null if there is none
+	 */
+	public EntityDocumentCache getCache() {
+		return this.wbEditingAction.getCache();
+	}
+
 	/**
 	 * Returns true if edits should be flagged as bot edits. See
 	 * {@link #setEditAsBot(boolean)} for details.
@@ -226,6 +249,31 @@ public class WikibaseDataEditor {
 		this.wbEditingAction.setAverageTimePerEdit(milliseconds);
 	}
 
+	/**
+	 * Returns the controller for the rate of edits. See
+	 * {@link WbEditingAction#setRateController(EditRateController)} for
+	 * details.
+	 *
+	 * @return the controller, or null if none is used
+	 */
+	public EditRateController getRateController() {
+		return this.wbEditingAction.getRateController();
+	}
+
+	/**
+	 * Sets a controller for the rate of edits, which replaces the average
+	 * time per edit and the maxlag wait times. The same controller can be
+	 * set for several editors to control their combined rate. See
+	 * {@link WbEditingAction#setRateController(EditRateController)} for
+	 * details.
+	 *
+	 * @param rateController
+	 *            the controller, or null to use the other settings
+	 */
+	public void setRateController(EditRateController rateController) {
+		this.wbEditingAction.setRateController(rateController);
+	}
+
 	/**
 	 * Returns the number of edits that will be performed before entering
 	 * simulation mode, or -1 if there is no limit on the number of edits
@@ -22,7 +22,10 @@ package org.wikidata.wdtk.wikibaseapi;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
 
+import org.apache.commons.lang3.Validate;
 import org.wikidata.wdtk.datamodel.helpers.Datamodel;
 import org.wikidata.wdtk.datamodel.interfaces.DocumentDataFilter;
 import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
@@ -62,6 +65,28 @@ public class WikibaseDataFetcher {
 	 */
 	int maxListSize = 50;
 
+	/**
+	 * Cache for entity documents, or null if documents are not cached.
+	 */
+	EntityDocumentCache cache = null;
+
+	/**
+	 * Executor for the asynchronous variants of the fetching methods.
+	 */
+	AsyncApiExecutor asyncExecutor = new AsyncApiExecutor();
+
+	/**
+	 * Shares identical requests that run at the same time and collects
+	 * single lookups into batches.
+	 */
+	RequestCoalescer coalescer = new RequestCoalescer();
+
+	/**
+	 * Time in milliseconds that single entity lookups wait for further
+	 * lookups to be sent in one batch, or 0 if they are not batched.
+	 */
+	long batchWindowMillis = 0;
+
 	/**
 	 * Creates an object to fetch data from wikidata.org. This convenience
 	 * method creates a default {@link ApiConnection} that is not logged in. To
@@ -105,6 +130,7 @@ public class WikibaseDataFetcher {
 		this.wbGetEntitiesAction = new WbGetEntitiesAction(connection, siteUri);
 		this.wbSearchEntitiesAction = new WbSearchEntitiesAction(connection, siteUri);
 		this.mediaInfoIdQueryAction = new MediaInfoIdQueryAction(connection, siteUri);
+		this.wbSearchEntitiesAction.setCoalescer(this.coalescer);
 		this.siteIri = siteUri;
 	}
 
@@ -123,9 +149,112 @@ public class WikibaseDataFetcher {
 		return this.filter;
 	}
 
+	/**
+	 * Returns the cache that is used for entity documents.
+	 *
+	 * @return the cache, or null if documents are not cached
+	 */
+	public EntityDocumentCache getCache() {
+		return this.cache;
+	}
+
+	/**
+	 * Sets the cache to use for entity documents. The cache is used when
+	 * documents are fetched by their IDs with
+	 * {@link #getEntityDocuments(List)} and the related methods; documents
+	 * fetched by titles and search results are not cached. A cache can be
+	 * shared by several fetchers, also if they use different filters.
+	 *
+	 * @param cache
+	 *            the cache, or null to not cache documents
+	 */
+	public void setCache(EntityDocumentCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Returns the executor that runs the requests of the asynchronous methods,
+	 * such as {@link #getEntityDocumentsAsync(List)}.
+	 *
+	 * @return the executor for asynchronous requests
+	 */
+	public AsyncApiExecutor getAsyncExecutor() {
+		return this.asyncExecutor;
+	}
+
+	/**
+	 * Sets the executor that runs the requests of the asynchronous methods.
+	 * The executor defines the threads that are used, the number of requests
+	 * that can run at the same time, and the timeout of each request. Sharing
+	 * one executor between several fetchers makes this limit global.
+	 *
+	 * @param asyncExecutor
+	 *            the executor for asynchronous requests
+	 */
+	public void setAsyncExecutor(AsyncApiExecutor asyncExecutor) {
+		Validate.notNull(asyncExecutor, "Executor must not be null");
+		this.asyncExecutor = asyncExecutor;
+	}
+
+	/**
+	 * Returns the {@link RequestCoalescer} of this fetcher. Its counters show
+	 * how many requests were saved by sharing identical requests that ran at
+	 * the same time and by batching single lookups.
+	 *
+	 * @return the coalescer
+	 */
+	public RequestCoalescer getCoalescer() {
+		return this.coalescer;
+	}
+
+	/**
+	 * Sets the {@link RequestCoalescer} of this fetcher, which is also used
+	 * for searches. Sharing one coalescer between fetchers for the same site
+	 * and with the same connection lets them share their requests.
+	 *
+	 * @param coalescer
+	 *            the coalescer to use
+	 */
+	public void setCoalescer(RequestCoalescer coalescer) {
+		Validate.notNull(coalescer, "Coalescer must not be null");
+		this.coalescer = coalescer;
+		this.wbSearchEntitiesAction.setCoalescer(coalescer);
+	}
+
+	/**
+	 * Returns the time that single entity lookups wait for further lookups
+	 * to be sent in one batch.
+	 *
+	 * @return the batch window in milliseconds, 0 if lookups are not
+	 *         batched
+	 */
+	public long getBatchWindowMillis() {
+		return this.batchWindowMillis;
+	}
+
+	/**
+	 * Sets the time that single entity lookups with
+	 * {@link #getEntityDocument(String)} wait for further lookups from other
+	 * threads, so that they can be fetched in one request of up to 50 IDs.
+	 * This adds up to the given time to the latency of a lookup, but can
+	 * save many requests if many threads look up entities at the same time.
+	 * By default, lookups are not batched.
+	 *
+	 * @param batchWindowMillis
+	 *            the batch window in milliseconds, or 0 to not batch
+	 *            lookups
+	 */
+	public void setBatchWindowMillis(long batchWindowMillis) {
+		Validate.isTrue(batchWindowMillis >= 0,
+				"The batch window must not be negative");
+		this.batchWindowMillis = batchWindowMillis;
+	}
+
 	/**
 	 * Fetches the documents for the entity of the given string IDs. The result
 	 * is an {@link EntityDocument} or null if the data could not be fetched.
+	 * If a batch window is set, the lookup is sent together with the lookups
+	 * of other threads in the same window.
 	 *
 	 * @param entityId
 	 *            string IDs (e.g., "P31" or "Q42") of requested entity
@@ -135,6 +264,12 @@ public class WikibaseDataFetcher {
 	 */
 	public EntityDocument getEntityDocument(String entityId)
 			throws MediaWikiApiErrorException, IOException {
+		if (this.batchWindowMillis > 0) {
+			return this.coalescer.executeBatched(
+					RequestCoalescer.makeKey("wbgetentities", getFilterKey()),
+					entityId, this.batchWindowMillis, this.maxListSize,
+					entityIds -> getEntityDocuments(new ArrayList<>(entityIds)));
+		}
 		return getEntityDocuments(entityId).get(entityId);
 	}
 
@@ -171,6 +306,69 @@ public class WikibaseDataFetcher {
 	 */
 	public Map<String, EntityDocument> getEntityDocuments(List<String> entityIds)
 			throws MediaWikiApiErrorException, IOException {
+		if (this.cache == null) {
+			return fetchEntityDocuments(entityIds);
+		}
+
+		String filterKey = getFilterKey();
+		Map<String, EntityDocument> result = new HashMap<>();
+		Map<String, EntityDocumentCache.Entry> stale = new HashMap<>();
+		List<String> missing = new ArrayList<>();
+		for (String entityId : new LinkedHashSet<>(entityIds)) {
+			EntityDocumentCache.Entry entry = this.cache.lookup(filterKey,
+					entityId);
+			if (entry == null) {
+				missing.add(entityId);
+			} else if (this.cache.isFresh(entry)) {
+				result.put(entityId, entry.document);
+			} else {
+				stale.put(entityId, entry);
+			}
+		}
+
+		if (!stale.isEmpty()) {
+			Map<String, Long> revisions = fetchRevisionIds(new ArrayList<>(
+					stale.keySet()));
+			for (Map.Entry<String, EntityDocumentCache.Entry> entry : stale
+					.entrySet()) {
+				long revisionId = entry.getValue().document.getRevisionId();
+				Long currentRevisionId = revisions.get(entry.getKey());
+				if (revisionId != 0 && currentRevisionId != null
+						&& currentRevisionId == revisionId) {
+					this.cache.revalidated(entry.getValue());
+					result.put(entry.getKey(), entry.getValue().document);
+				} else {
+					missing.add(entry.getKey());
+				}
+			}
+		}
+
+		Map<String, EntityDocument> fetched = fetchEntityDocuments(missing);
+		for (String entityId : missing) {
+			EntityDocument document = fetched.get(entityId);
+			if (document == null) {
+				this.cache.remove(filterKey, entityId);
+			} else {
+				this.cache.put(filterKey, entityId, document);
+				result.put(entityId, document);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Fetches the documents for the entities of the given string IDs from the
+	 * API, without using the cache.
+	 *
+	 * @param entityIds
+	 *            list of string IDs (e.g., "P31", "Q42") of requested entities
+	 * @return map from IDs for which data could be found to the documents that
+	 *         were retrieved
+	 * @throws MediaWikiApiErrorException
+	 * @throws IOException
+	 */
+	Map<String, EntityDocument> fetchEntityDocuments(List<String> entityIds)
+			throws MediaWikiApiErrorException, IOException {
 		Map<String, EntityDocument> result = new HashMap<>();
 		List<String> newEntityIds = new ArrayList<>(entityIds);
 		boolean moreItems = !newEntityIds.isEmpty();
@@ -374,12 +572,52 @@ public class WikibaseDataFetcher {
 			} else {
 				subListOfFileNames = newFileNames.subList(0, maxListSize);
 			}
-			result.putAll(mediaInfoIdQueryAction.getMediaInfoIds(subListOfFileNames));
+			result.putAll(getMediaInfoIds(subListOfFileNames));
 			subListOfFileNames.clear();
 		}
 		return result;
 	}
 
+	/**
+	 * Fetches the current revision IDs of the given entities, using the
+	 * "info" props of wbgetentities only.
+	 *
+	 * @param entityIds
+	 *            list of string IDs of entities
+	 * @return map from IDs of entities that were found to their revision IDs
+	 * @throws MediaWikiApiErrorException
+	 * @throws IOException
+	 */
+	Map<String, Long> fetchRevisionIds(List<String> entityIds)
+			throws MediaWikiApiErrorException, IOException {
+		Map<String, Long> result = new HashMap<>();
+		for (int i = 0; i < entityIds.size(); i += maxListSize) {
+			WbGetEntitiesActionData properties = new WbGetEntitiesActionData();
+			properties.ids = ApiConnection.implodeObjects(entityIds.subList(i,
+					Math.min(entityIds.size(), i + maxListSize)));
+			properties.props = "info";
+			for (Map.Entry<String, EntityDocument> entry : wbGetEntities(
+					properties).entrySet()) {
+				result.put(entry.getKey(), entry.getValue().getRevisionId());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a string that identifies the current settings of the filter,
+	 * as used in API requests. Documents fetched with the same key contain
+	 * the same data.
+	 *
+	 * @return key for the filter settings
+	 */
+	String getFilterKey() {
+		WbGetEntitiesActionData properties = new WbGetEntitiesActionData();
+		configureProperties(properties);
+		return properties.props + "/" + properties.languages + "/"
+				+ properties.sitefilter;
+	}
+
 	/**
 	 * Creates a map of identifiers or page titles to documents retrieved via
 	 * the APIs.
@@ -401,7 +639,46 @@ public class WikibaseDataFetcher {
 			return Collections.emptyMap();
 		}
 		configureProperties(properties);
-		return this.wbGetEntitiesAction.wbGetEntities(properties);
+		return wbGetEntities(properties);
+	}
+
+	/**
+	 * Executes the wbgetentities action with the given parameters, sharing
+	 * the request with identical requests that are running already.
+	 *
+	 * @param properties
+	 *            the parameters of the request
+	 * @return map of document identifiers or titles to documents
+	 * @throws MediaWikiApiErrorException
+	 * @throws IOException
+	 */
+	Map<String, EntityDocument> wbGetEntities(
+			WbGetEntitiesActionData properties)
+			throws MediaWikiApiErrorException, IOException {
+		String key = RequestCoalescer.makeKey("wbgetentities",
+				properties.ids, properties.sites, properties.titles,
+				properties.props, properties.languages,
+				properties.sitefilter, properties.maxlag);
+		return new HashMap<>(this.coalescer.execute(key,
+				() -> this.wbGetEntitiesAction.wbGetEntities(properties)));
+	}
+
+	/**
+	 * Fetches the MediaInfoIds of at most 50 files, sharing the request with
+	 * identical requests that are running already.
+	 *
+	 * @param fileNames
+	 *            list of file names
+	 * @return map from file names to MediaInfoIds
+	 * @throws MediaWikiApiErrorException
+	 * @throws IOException
+	 */
+	Map<String, MediaInfoIdValue> getMediaInfoIds(List<String> fileNames)
+			throws MediaWikiApiErrorException, IOException {
+		String key = RequestCoalescer.makeKey("mediainfo",
+				ApiConnection.implodeObjects(fileNames));
+		return new HashMap<>(this.coalescer.execute(key,
+				() -> this.mediaInfoIdQueryAction.getMediaInfoIds(fileNames)));
 	}
 
 	public List<WbSearchEntitiesResult> searchEntities(String search)
@@ -443,6 +720,204 @@ public class WikibaseDataFetcher {
 		return this.wbSearchEntitiesAction.wbSearchEntities(properties);
 	}
 
+	/**
+	 * Asynchronous variant of {@link #getEntityDocument(String)}.
+	 *
+	 * @param entityId
+	 *            string ID (e.g., "P31" or "Q42") of the requested entity
+	 * @return future for the retrieved entity document or null
+	 * @see #getEntityDocumentsAsync(List)
+	 */
+	public CompletableFuture<EntityDocument> getEntityDocumentAsync(
+			String entityId) {
+		return getEntityDocumentsAsync(Collections.singletonList(entityId))
+				.thenApply(documents -> documents.get(entityId));
+	}
+
+	/**
+	 * Asynchronous variant of {@link #getEntityDocuments(List)}. The IDs are
+	 * fetched in batches of at most 50, which are sent as separate requests
+	 * through the {@link AsyncApiExecutor} of this fetcher, so that they can
+	 * run in parallel. The timeout of the executor applies to each of these
+	 * requests.
+	 * <p>
+	 * If a request fails, the returned future completes exceptionally with a
+	 * {@link java.util.concurrent.CompletionException} whose cause is the
+	 * {@link MediaWikiApiErrorException}, {@link IOException} or
+	 * {@link TimeoutException} of the request. The filter of this fetcher is
+	 * read when the method is called.
+	 * <p>
+	 * If a cache is set, fresh cached documents are used. Stale documents
+	 * are fetched again without checking their revision first, to avoid an
+	 * additional round trip.
+	 *
+	 * @param entityIds
+	 *            list of string IDs (e.g., "P31", "Q42") of requested entities
+	 * @return future for the map from IDs for which data could be found to
+	 *         the documents that were retrieved
+	 */
+	public CompletableFuture<Map<String, EntityDocument>> getEntityDocumentsAsync(
+			List<String> entityIds) {
+		EntityDocumentCache cache = this.cache;
+		String filterKey = cache == null ? null : getFilterKey();
+		Map<String, EntityDocument> cached = new HashMap<>();
+		List<String> remaining = new ArrayList<>();
+		if (cache == null) {
+			remaining.addAll(entityIds);
+		} else {
+			for (String entityId : new LinkedHashSet<>(entityIds)) {
+				EntityDocumentCache.Entry entry = cache.lookup(filterKey,
+						entityId);
+				if (entry != null && cache.isFresh(entry)) {
+					cached.put(entityId, entry.document);
+				} else {
+					remaining.add(entityId);
+				}
+			}
+		}
+
+		List<WbGetEntitiesActionData> requests = new ArrayList<>();
+		for (int i = 0; i < remaining.size(); i += maxListSize) {
+			WbGetEntitiesActionData properties = new WbGetEntitiesActionData();
+			properties.ids = ApiConnection.implodeObjects(remaining.subList(i,
+					Math.min(remaining.size(), i + maxListSize)));
+			requests.add(properties);
+		}
+		CompletableFuture<Map<String, EntityDocument>> result = getEntityDocumentMapsAsync(requests);
+		if (cache == null) {
+			return result;
+		}
+		return result.thenApply(documents -> {
+			for (String entityId : remaining) {
+				EntityDocument document = documents.get(entityId);
+				if (document == null) {
+					cache.remove(filterKey, entityId);
+				} else {
+					cache.put(filterKey, entityId, document);
+				}
+			}
+			documents.putAll(cached);
+			return documents;
+		});
+	}
+
+	/**
+	 * Asynchronous variant of {@link #getEntityDocumentsByTitle(String, List)}
+	 * . Batches are sent and failures are reported as described for
+	 * {@link #getEntityDocumentsAsync(List)}.
+	 *
+	 * @param siteKey
+	 *            wiki site id, e.g. "enwiki"
+	 * @param titles
+	 *            list of string titles (e.g. "Douglas Adams") of requested
+	 *            entities
+	 * @return future for the map from titles for which data could be found
+	 *         to the documents that were retrieved
+	 */
+	public CompletableFuture<Map<String, EntityDocument>> getEntityDocumentsByTitleAsync(
+			String siteKey, List<String> titles) {
+		List<WbGetEntitiesActionData> requests = new ArrayList<>();
+		for (int i = 0; i < titles.size(); i += maxListSize) {
+			WbGetEntitiesActionData properties = new WbGetEntitiesActionData();
+			properties.titles = ApiConnection.implodeObjects(titles.subList(i,
+					Math.min(titles.size(), i + maxListSize)));
+			properties.sites = siteKey;
+			requests.add(properties);
+		}
+		return getEntityDocumentMapsAsync(requests);
+	}
+
+	/**
+	 * Asynchronous variant of {@link #getMediaInfoIdsByFileName(List)}.
+	 * Batches are sent and failures are reported as described for
+	 * {@link #getEntityDocumentsAsync(List)}.
+	 *
+	 * @param fileNames
+	 *            list of file names of the requested MediaInfoIds
+	 * @return future for the map from file names for which data could be
+	 *         found to the MediaInfoIds that were retrieved
+	 */
+	public CompletableFuture<Map<String, MediaInfoIdValue>> getMediaInfoIdsByFileNameAsync(
+			List<String> fileNames) {
+		List<CompletableFuture<Map<String, MediaInfoIdValue>>> futures = new ArrayList<>();
+		for (int i = 0; i < fileNames.size(); i += maxListSize) {
+			List<String> batch = new ArrayList<>(fileNames.subList(i,
+					Math.min(fileNames.size(), i + maxListSize)));
+			futures.add(this.asyncExecutor.submit(
+					() -> getMediaInfoIds(batch)));
+		}
+		return mergeMaps(futures);
+	}
+
+	/**
+	 * Asynchronous variant of {@link #searchEntities(String, String)}.
+	 *
+	 * @param search
+	 *            the search string
+	 * @param language
+	 *            the language of the search
+	 * @return future for the list of search results
+	 */
+	public CompletableFuture<List<WbSearchEntitiesResult>> searchEntitiesAsync(
+			String search, String language) {
+		WbGetEntitiesSearchData properties = new WbGetEntitiesSearchData();
+		properties.search = search;
+		properties.language = language;
+		return searchEntitiesAsync(properties);
+	}
+
+	/**
+	 * Asynchronous variant of
+	 * {@link #searchEntities(WbGetEntitiesSearchData)}. Failures are reported
+	 * as described for {@link #getEntityDocumentsAsync(List)}.
+	 *
+	 * @param properties
+	 *            the parameters of the search
+	 * @return future for the list of search results
+	 */
+	public CompletableFuture<List<WbSearchEntitiesResult>> searchEntitiesAsync(
+			WbGetEntitiesSearchData properties) {
+		return this.asyncExecutor.submit(
+				() -> this.wbSearchEntitiesAction.wbSearchEntities(properties));
+	}
+
+	/**
+	 * Sends the given wbgetentities requests through the executor for
+	 * asynchronous requests and merges their results.
+	 *
+	 * @param requests
+	 *            parameters of the requests, without the parameters set by
+	 *            the filter
+	 * @return future for the merged map of retrieved documents
+	 */
+	CompletableFuture<Map<String, EntityDocument>> getEntityDocumentMapsAsync(
+			List<WbGetEntitiesActionData> requests) {
+		List<CompletableFuture<Map<String, EntityDocument>>> futures = new ArrayList<>();
+		for (WbGetEntitiesActionData properties : requests) {
+			configureProperties(properties);
+			futures.add(this.asyncExecutor.submit(
+					() -> wbGetEntities(properties)));
+		}
+		return mergeMaps(futures);
+	}
+
+	/**
+	 * Combines futures for maps into a future for a map with all their
+	 * entries. The result fails if one of the futures fails.
+	 */
+	static <V> CompletableFuture<Map<String, V>> mergeMaps(
+			List<CompletableFuture<Map<String, V>>> futures) {
+		return CompletableFuture.allOf(
+				futures.toArray(new CompletableFuture<?>[0])).thenApply(
+				ignored -> {
+					Map<String, V> result = new HashMap<>();
+					for (CompletableFuture<Map<String, V>> future : futures) {
+						result.putAll(future.join());
+					}
+					return result;
+				});
+	}
+
 	/**
 	 * Configures props, languages and sitefilter properties.
 	 *
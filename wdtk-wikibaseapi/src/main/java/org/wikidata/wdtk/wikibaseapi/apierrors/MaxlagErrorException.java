@@ -33,6 +33,8 @@ public class MaxlagErrorException extends MediaWikiApiErrorException {
 
 	private static final long serialVersionUID = -4013361654647685959L;
 
+	final double lag;
+
 	/**
 	 * Creates a new exception.
 	 *
@@ -41,7 +43,30 @@ public class MaxlagErrorException extends MediaWikiApiErrorException {
 	 *            meaningful message for the user
 	 */
 	public MaxlagErrorException(String errorMessage) {
+		this(errorMessage, -1);
+	}
+
+	/**
+	 * Creates a new exception.
+	 *
+	 * @param errorMessage
+	 *            the error message reported by MediaWiki, or any other
+	 *            meaningful message for the user
+	 * @param lag
+	 *            the lag in seconds reported by MediaWiki, or -1 if unknown
+	 */
+	public MaxlagErrorException(String errorMessage, double lag) {
 		super(MediaWikiApiErrorHandler.ERROR_MAXLAG, errorMessage);
+		this.lag = lag;
+	}
+
+	/**
+	 * Returns the replication lag in seconds that the server reported.
+	 *
+	 * @return the lag in seconds, or -1 if unknown
+	 */
+	public double getLag() {
+		return this.lag;
 	}
 
 }
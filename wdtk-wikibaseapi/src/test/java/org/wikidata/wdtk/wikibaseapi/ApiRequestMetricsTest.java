@@ -0,0 +1,265 @@
+package org.wikidata.wdtk.wikibaseapi;
+
+/*
+ * #%L
+ * Wikidata Toolkit Wikibase API
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.junit.After;
+import org.junit.Test;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.testing.MockStringContentFactory;
+import org.wikidata.wdtk.wikibaseapi.ApiRequestListener.WaitReason;
+import org.wikidata.wdtk.wikibaseapi.ApiRequestMetrics.ActionStatistics;
+import org.wikidata.wdtk.wikibaseapi.MockApiServer.MockResponse;
+import org.wikidata.wdtk.wikibaseapi.apierrors.MaxlagErrorException;
+import org.wikidata.wdtk.wikibaseapi.apierrors.MediaWikiApiErrorException;
+
+/**
+ * Test class for {@link ApiRequestMetrics}.
+ */
+public class ApiRequestMetricsTest {
+
+	final static String TOKEN_RESPONSE = "{\"query\":{\"tokens\":{\"csrftoken\":\"42+\\\\\"}}}";
+	final static String MAXLAG_RESPONSE = "{\"error\":{\"code\":\"maxlag\",\"info\":\"Waiting for a database server: 3 seconds lagged.\",\"lag\":3}}";
+
+	MockApiServer server;
+
+	@After
+	public void stopServer() {
+		if (this.server != null) {
+			this.server.close();
+		}
+	}
+
+	@Test
+	public void testRequestsAndErrors() throws IOException,
+			MediaWikiApiErrorException {
+		String json = MockStringContentFactory.getStringFromUrl(getClass()
+				.getResource("/wbgetentities-Q6-Q42-P31.json"));
+		this.server = new MockApiServer(parameters -> {
+			switch (parameters.get("action")) {
+			case "wbgetentities":
+				return new MockResponse(200, json);
+			case "limited":
+				return new MockResponse(429, "");
+			default:
+				return new MockResponse(200,
+						"{\"error\":{\"code\":\"unknown_action\",\"info\":\"Unrecognized value\"}}");
+			}
+		});
+		BasicApiConnection connection = new BasicApiConnection(
+				this.server.getUrl());
+		ApiRequestMetrics metrics = new ApiRequestMetrics();
+		connection.setRequestListener(metrics);
+		WikibaseDataFetcher fetcher = new WikibaseDataFetcher(connection,
+				Datamodel.SITE_WIKIDATA);
+
+		fetcher.getEntityDocuments("Q6", "Q42", "P31");
+		fetcher.getEntityDocuments("Q6", "Q42", "P31");
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put("action", "unknown");
+		try {
+			connection.sendJsonRequest("POST", parameters);
+			fail("API error expected");
+		} catch (MediaWikiApiErrorException e) {
+			// expected
+		}
+		parameters.put("action", "limited");
+		try {
+			connection.sendJsonRequest("POST", parameters);
+			fail("HTTP error expected");
+		} catch (TooManyRequestsException e) {
+			// expected
+		}
+
+		ActionStatistics statistics = metrics
+				.getActionStatistics("wbgetentities");
+		assertEquals(2, statistics.getRequestCount());
+		assertEquals(0, statistics.getErrorCount());
+		assertEquals(2 * json.getBytes(StandardCharsets.UTF_8).length,
+				statistics.getResponseBytes());
+		long histogramCount = 0;
+		for (long count : statistics.getLatencyHistogram()) {
+			histogramCount += count;
+		}
+		assertEquals(2, histogramCount);
+		assertTrue(statistics.getMeanLatencyMillis() > 0);
+		assertTrue(statistics.getMeanLatencyMillis() <= statistics
+				.getMaxLatencyMillis());
+
+		assertEquals(Collections.singletonMap("unknown_action", 1L), metrics
+				.getActionStatistics("unknown").getErrorCodes());
+		assertEquals(Collections.singletonMap("TooManyRequestsException", 1L),
+				metrics.getActionStatistics("limited").getErrorCodes());
+		assertEquals(4, metrics.getRequestCount());
+		assertEquals(2, metrics.getErrorCount());
+		assertEquals(3, metrics.getActions().size());
+
+		metrics.reset();
+		assertEquals(0, metrics.getRequestCount());
+		assertNull(metrics.getActionStatistics("wbgetentities"));
+	}
+
+	@Test
+	public void testMaxlagRetries() throws IOException,
+			MediaWikiApiErrorException {
+		AtomicInteger edits = new AtomicInteger();
+		this.server = new MockApiServer(parameters -> {
+			if ("query".equals(parameters.get("action"))) {
+				return new MockResponse(200, TOKEN_RESPONSE);
+			}
+			if (edits.incrementAndGet() <= 2) {
+				return new MockResponse(200, MAXLAG_RESPONSE);
+			}
+			return new MockResponse(200, "{\"success\":1}");
+		});
+		BasicApiConnection connection = new BasicApiConnection(
+				this.server.getUrl());
+		ApiRequestMetrics metrics = new ApiRequestMetrics();
+		connection.setRequestListener(metrics);
+		WbEditingAction action = new WbEditingAction(connection,
+				Datamodel.SITE_WIKIDATA);
+		action.setMaxLagFirstWaitTime(20);
+		action.setMaxLagBackOffFactor(1);
+
+		action.wbSetLabel("Q1", null, null, null, "en", "label", false, 0,
+				null, null);
+
+		ActionStatistics statistics = metrics.getActionStatistics("wbsetlabel");
+		assertEquals(3, statistics.getRequestCount());
+		assertEquals(Collections.singletonMap("maxlag", 2L),
+				statistics.getErrorCodes());
+		assertEquals(2, statistics.getRetryCount());
+		assertTrue(statistics.getMaxlagWaitMillis() >= 38);
+		assertEquals(0, statistics.getThrottleWaitMillis());
+		assertEquals(1, metrics.getActionStatistics("query").getRequestCount());
+
+		// the last error is not retried
+		action.setMaxLagMaxRetries(1);
+		edits.set(0);
+		try {
+			action.wbSetLabel("Q1", null, null, null, "en", "label", false, 0,
+					null, null);
+			fail("Maxlag error expected");
+		} catch (MaxlagErrorException e) {
+			// expected
+		}
+		assertEquals(2, metrics.getRetryCount());
+	}
+
+	@Test
+	public void testThrottleWaits() throws IOException,
+			MediaWikiApiErrorException {
+		this.server = new MockApiServer(parameters -> new MockResponse(200,
+				"query".equals(parameters.get("action")) ? TOKEN_RESPONSE
+						: "{\"success\":1}"));
+		BasicApiConnection connection = new BasicApiConnection(
+				this.server.getUrl());
+		ApiRequestMetrics metrics = new ApiRequestMetrics();
+		connection.setRequestListener(metrics);
+		WbEditingAction action = new WbEditingAction(connection,
+				Datamodel.SITE_WIKIDATA);
+		action.setRateController(new TokenBucketRateController(20, 20, 20, 1));
+
+		for (int i = 0; i < 3; i++) {
+			action.wbSetLabel("Q1", null, null, null, "en", "label", false,
+					0, null, null);
+		}
+
+		ActionStatistics statistics = metrics.getActionStatistics("wbsetlabel");
+		assertEquals(3, statistics.getRequestCount());
+		assertEquals(0, statistics.getRetryCount());
+		// at least two waits of up to 50 milliseconds
+		assertTrue(statistics.getThrottleWaitMillis() >= 40);
+		assertEquals(0, metrics.getMaxlagWaitMillis());
+	}
+
+	@Test
+	public void testLatencyPercentiles() {
+		ApiRequestMetrics metrics = new ApiRequestMetrics();
+		for (int i = 1; i <= 100; i++) {
+			metrics.onRequest("wbgetentities", TimeUnit.MILLISECONDS
+					.toNanos(i == 100 ? 60000 : i), 10, null);
+		}
+		metrics.onWait("wbgetentities", WaitReason.THROTTLE, 7);
+
+		ActionStatistics statistics = metrics
+				.getActionStatistics("wbgetentities");
+		assertEquals(50, statistics.getMedianLatencyMillis(), 0);
+		assertEquals(100, statistics.getLatency95thPercentileMillis(), 0);
+		assertEquals(100, statistics.getLatency99thPercentileMillis(), 0);
+		assertEquals(60000, statistics.getLatencyPercentileMillis(100), 0);
+		assertEquals(1, statistics.getLatencyPercentileMillis(1), 0);
+		assertEquals(60000, statistics.getMaxLatencyMillis(), 0);
+		assertEquals(1000, statistics.getResponseBytes());
+		assertEquals(7, metrics.getThrottleWaitMillis());
+		assertArrayEquals(new long[] { 1, 1, 3, 5, 10, 30, 49, 0, 0, 0, 0, 0,
+				0, 0, 0, 1, 0 }, statistics.getLatencyHistogram());
+	}
+
+	@Test
+	public void testJmx() throws JMException {
+		ApiRequestMetrics metrics = new ApiRequestMetrics();
+		metrics.onRequest("wbeditentity", 1000000, 100, "maxlag");
+		metrics.onRetry("wbeditentity", "maxlag");
+
+		ObjectName name = metrics.registerMBean("test wiki");
+		try {
+			MBeanServer mbeanServer = ManagementFactory
+					.getPlatformMBeanServer();
+			assertEquals(1L, mbeanServer.getAttribute(name, "RequestCount"));
+			assertEquals(1L, mbeanServer.getAttribute(name, "RetryCount"));
+			TabularData actions = (TabularData) mbeanServer.getAttribute(
+					name, "ActionStatistics");
+			CompositeData statistics = (CompositeData) actions.get(
+					new Object[] { "wbeditentity" }).get("value");
+			assertEquals(1L, statistics.get("errorCount"));
+			assertEquals(100L, statistics.get("responseBytes"));
+
+			mbeanServer.invoke(name, "reset", null, null);
+			assertEquals(0L, mbeanServer.getAttribute(name, "RequestCount"));
+		} finally {
+			metrics.unregisterMBean("test wiki");
+		}
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(
+				name));
+	}
+}
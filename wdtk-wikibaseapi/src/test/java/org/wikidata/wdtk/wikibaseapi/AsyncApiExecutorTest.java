@@ -0,0 +1,177 @@
+package org.wikidata.wdtk.wikibaseapi;
+
+/*
+ * #%L
+ * Wikidata Toolkit Wikibase API
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wikidata.wdtk.wikibaseapi.apierrors.MaxlagErrorException;
+
+/**
+ * Test class for {@link AsyncApiExecutor}.
+ */
+public class AsyncApiExecutorTest {
+
+	ExecutorService threads;
+
+	@Before
+	public void setUp() {
+		threads = Executors.newFixedThreadPool(8);
+	}
+
+	@After
+	public void tearDown() {
+		threads.shutdownNow();
+	}
+
+	@Test
+	public void testConcurrencyLimit() throws Exception {
+		AsyncApiExecutor executor = new AsyncApiExecutor(threads, 2, 0);
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		for (int i = 0; i < 6; i++) {
+			int value = i;
+			futures.add(executor.submit(() -> {
+				maxRunning.accumulateAndGet(running.incrementAndGet(),
+						Math::max);
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				running.decrementAndGet();
+				return value;
+			}));
+		}
+		while (running.get() < 2) {
+			Thread.sleep(1);
+		}
+		assertEquals(2, executor.getRunningCount());
+		assertEquals(4, executor.getQueuedCount());
+		release.countDown();
+
+		for (int i = 0; i < 6; i++) {
+			assertEquals(i, futures.get(i).get(5, TimeUnit.SECONDS).intValue());
+		}
+		assertEquals(2, maxRunning.get());
+		// slots are released right after the futures complete
+		for (int i = 0; i < 5000 && executor.getRunningCount() > 0; i++) {
+			Thread.sleep(1);
+		}
+		assertEquals(0, executor.getRunningCount());
+		assertEquals(0, executor.getQueuedCount());
+	}
+
+	@Test
+	public void testErrors() throws Exception {
+		AsyncApiExecutor executor = new AsyncApiExecutor(threads, 1, 0);
+		CompletableFuture<Object> future = executor.submit(() -> {
+			throw new MaxlagErrorException("too much lag");
+		});
+		try {
+			future.get();
+			fail("Expected an exception");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof MaxlagErrorException);
+		}
+		// the slot has been released
+		assertEquals("ok", executor.submit(() -> "ok").get());
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		AsyncApiExecutor executor = new AsyncApiExecutor(threads, 1, 50);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger calls = new AtomicInteger();
+		CompletableFuture<String> slow = executor.submit(() -> {
+			calls.incrementAndGet();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			return "slow";
+		});
+		CompletableFuture<String> queued = executor.submit(() -> {
+			calls.incrementAndGet();
+			return "queued";
+		});
+
+		for (CompletableFuture<String> future : Arrays.asList(slow, queued)) {
+			try {
+				future.get(5, TimeUnit.SECONDS);
+				fail("Expected a timeout");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof TimeoutException);
+			}
+		}
+		release.countDown();
+		assertEquals("fast", executor.submit(() -> "fast", 0).get(5,
+				TimeUnit.SECONDS));
+		// the queued call timed out before it could start
+		assertEquals(1, calls.get());
+		assertFalse(executor.getRunningCount() > 1);
+	}
+
+	@Test
+	public void testRejectedExecution() throws Exception {
+		ExecutorService closed = Executors.newSingleThreadExecutor();
+		closed.shutdown();
+		AsyncApiExecutor executor = new AsyncApiExecutor(closed, 1, 0);
+		try {
+			executor.submit(() -> "never").get();
+			fail("Expected an exception");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+		for (int i = 0; i < 5000 && executor.getRunningCount() > 0; i++) {
+			Thread.sleep(1);
+		}
+		assertEquals(0, executor.getRunningCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidLimit() {
+		new AsyncApiExecutor(threads, 0, 0);
+	}
+}
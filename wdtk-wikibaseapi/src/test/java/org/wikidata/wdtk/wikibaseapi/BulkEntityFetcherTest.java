@@ -0,0 +1,225 @@
+package org.wikidata.wdtk.wikibaseapi;
+
+/*
+ * #%L
+ * Wikidata Toolkit Wikibase API
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Test;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+import org.wikidata.wdtk.wikibaseapi.MockApiServer.MockResponse;
+import org.wikidata.wdtk.wikibaseapi.apierrors.NoSuchEntityErrorException;
+
+/**
+ * Test class for {@link BulkEntityFetcher}, using a local mock API server.
+ */
+public class BulkEntityFetcherTest {
+
+	MockApiServer server;
+
+	@After
+	public void stopServer() {
+		if (this.server != null) {
+			this.server.close();
+		}
+	}
+
+	BulkEntityFetcher connect(
+			Function<Map<String, String>, MockResponse> handler)
+			throws IOException {
+		this.server = new MockApiServer(handler);
+		BasicApiConnection connection = new BasicApiConnection(
+				this.server.getUrl());
+		connection.setHttpTransport(new KeepAliveHttpTransport());
+		BulkEntityFetcher fetcher = new BulkEntityFetcher(
+				new WikibaseDataFetcher(connection, Datamodel.SITE_WIKIDATA));
+		fetcher.setRetryDelayMillis(1);
+		return fetcher;
+	}
+
+	/**
+	 * Returns a wbgetentities result for the requested ids, where items
+	 * with a number divisible by 7 are missing.
+	 */
+	static MockResponse entities(Map<String, String> parameters) {
+		StringBuilder json = new StringBuilder("{\"entities\":{");
+		boolean first = true;
+		for (String id : parameters.get("ids").split("\\|")) {
+			if (!first) {
+				json.append(",");
+			}
+			first = false;
+			if (Integer.parseInt(id.substring(1)) % 7 == 0) {
+				json.append("\"").append(id).append("\":{\"id\":\"")
+						.append(id).append("\",\"missing\":\"\"}");
+			} else {
+				json.append("\"").append(id).append("\":{\"type\":\"item\",\"id\":\"")
+						.append(id).append("\"}");
+			}
+		}
+		return new MockResponse(200, json.append("}}").toString());
+	}
+
+	static List<String> itemIds(int count) {
+		List<String> ids = new ArrayList<>();
+		for (int i = 1; i <= count; i++) {
+			ids.add("Q" + i);
+		}
+		return ids;
+	}
+
+	@Test
+	public void testFetchInParallel() throws Exception {
+		AtomicInteger inFlight = new AtomicInteger();
+		AtomicInteger maxInFlight = new AtomicInteger();
+		BulkEntityFetcher fetcher = connect(parameters -> {
+			maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			inFlight.decrementAndGet();
+			assertEquals("5", parameters.get("maxlag"));
+			return entities(parameters);
+		});
+		fetcher.setMaxConcurrency(3);
+
+		Map<String, EntityDocument> results = new HashMap<>();
+		Thread caller = Thread.currentThread();
+		fetcher.fetchEntityDocuments(itemIds(520), (id, document) -> {
+			assertEquals(caller, Thread.currentThread());
+			results.put(id, document);
+		});
+
+		assertEquals(520 - 520 / 7, results.size());
+		assertEquals("Q1", results.get("Q1").getEntityId().getId());
+		assertEquals(11, this.server.getRequestCount());
+		assertTrue(maxInFlight.get() <= 3);
+		assertTrue(maxInFlight.get() > 1);
+		assertEquals(0, fetcher.getRetryCount());
+		assertEquals(3, fetcher.getConcurrency());
+	}
+
+	@Test
+	public void testBackOffOnMaxlagAndRateLimit() throws Exception {
+		AtomicInteger requests = new AtomicInteger();
+		BulkEntityFetcher fetcher = connect(parameters -> {
+			switch (requests.incrementAndGet()) {
+			case 1:
+				return new MockResponse(200,
+						"{\"error\":{\"code\":\"maxlag\",\"info\":\"Waiting for a database server: 0.01 seconds lagged.\",\"lag\":0.01}}");
+			case 2:
+				return new MockResponse(429, "Too many requests")
+						.withHeader("Retry-After", "0");
+			default:
+				return entities(parameters);
+			}
+		});
+		fetcher.setMaxConcurrency(1);
+
+		List<String> ids = new ArrayList<>();
+		fetcher.fetchEntityDocuments(itemIds(120),
+				(id, document) -> ids.add(id));
+
+		assertEquals(120 - 120 / 7, ids.size());
+		assertEquals(2, fetcher.getRetryCount());
+		assertEquals(5, this.server.getRequestCount());
+		assertEquals(1, fetcher.getConcurrency());
+	}
+
+	@Test
+	public void testConcurrencyIsReducedAndRestored() throws Exception {
+		AtomicInteger requests = new AtomicInteger();
+		BulkEntityFetcher fetcher = connect(parameters -> {
+			if (requests.incrementAndGet() == 1) {
+				return new MockResponse(429, "Too many requests");
+			}
+			return entities(parameters);
+		});
+		fetcher.setMaxConcurrency(4);
+		List<Integer> concurrency = new ArrayList<>();
+		fetcher.fetchEntityDocuments(itemIds(50), (id, document) -> {
+			concurrency.add(fetcher.concurrency);
+		});
+		assertEquals(1, fetcher.getRetryCount());
+		assertEquals(2, concurrency.get(0).intValue());
+		assertEquals(2, fetcher.getConcurrency());
+
+		// enough successful requests to grow back to the maximum
+		requests.set(0);
+		fetcher.fetchEntityDocuments(itemIds(1000), (id, document) -> {
+		});
+		assertEquals(1, fetcher.getRetryCount());
+		assertEquals(4, fetcher.getConcurrency());
+	}
+
+	@Test
+	public void testRetriesExhausted() throws Exception {
+		BulkEntityFetcher fetcher = connect(parameters -> new MockResponse(
+				500, "Internal server error"));
+		fetcher.setMaxRetries(2);
+		try {
+			fetcher.fetchEntityDocuments(itemIds(10), (id, document) -> {
+			});
+			fail("Expected an exception");
+		} catch (IOException e) {
+			assertEquals(3, this.server.getRequestCount());
+			assertEquals(2, fetcher.getRetryCount());
+		}
+	}
+
+	@Test(expected = NoSuchEntityErrorException.class)
+	public void testErrorsAreNotRetried() throws Exception {
+		BulkEntityFetcher fetcher = connect(parameters -> new MockResponse(
+				200,
+				"{\"error\":{\"code\":\"no-such-entity\",\"info\":\"Could not find an entity with the ID \\\"bogus\\\".\"}}"));
+		try {
+			fetcher.fetchEntityDocuments(itemIds(10), (id, document) -> {
+			});
+		} finally {
+			assertEquals(1, this.server.getRequestCount());
+		}
+	}
+
+	@Test
+	public void testFetchByTitle() throws Exception {
+		BulkEntityFetcher fetcher = connect(parameters -> new MockResponse(
+				200,
+				"{\"entities\":{\"Q42\":{\"type\":\"item\",\"id\":\"Q42\",\"sitelinks\":{\"enwiki\":{\"site\":\"enwiki\",\"title\":\"Douglas Adams\",\"badges\":[]}}}}}"));
+		Map<String, EntityDocument> results = new HashMap<>();
+		List<String> titles = new ArrayList<>();
+		titles.add("Douglas Adams");
+		fetcher.fetchEntityDocumentsByTitle("enwiki", titles, results::put);
+		assertEquals("Q42", results.get("Douglas Adams").getEntityId().getId());
+	}
+}
@@ -0,0 +1,305 @@
+package org.wikidata.wdtk.wikibaseapi;
+
+/*
+ * #%L
+ * Wikidata Toolkit Wikibase API
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.ItemIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.MonolingualTextValue;
+import org.wikidata.wdtk.wikibaseapi.MockApiServer.MockResponse;
+import org.wikidata.wdtk.wikibaseapi.apierrors.EditConflictErrorException;
+import org.wikidata.wdtk.wikibaseapi.apierrors.NoSuchEntityErrorException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Test class for {@link EditQueue}, using a local mock API server that keeps
+ * the labels of a few items.
+ */
+public class EditQueueTest {
+
+	final ObjectMapper mapper = new ObjectMapper();
+
+	/**
+	 * Labels of the items on the mock site, by item id and language.
+	 */
+	final Map<String, Map<String, String>> labels = new HashMap<>();
+
+	final Map<String, Integer> revisions = new HashMap<>();
+
+	/**
+	 * Edit requests by item id.
+	 */
+	final Map<String, List<String>> edits = new HashMap<>();
+
+	/**
+	 * Number of edits that are answered with a conflict, by item id.
+	 */
+	final Map<String, Integer> conflicts = new HashMap<>();
+
+	final AtomicInteger runningEdits = new AtomicInteger();
+
+	final AtomicInteger maxRunningEdits = new AtomicInteger();
+
+	CountDownLatch editLatch = new CountDownLatch(0);
+
+	long editMillis = 0;
+
+	MockApiServer server;
+
+	@After
+	public void stopServer() {
+		if (this.server != null) {
+			this.server.close();
+		}
+	}
+
+	EditQueue makeQueue(int maxConcurrentEdits, String... itemIds)
+			throws IOException {
+		for (String id : itemIds) {
+			this.labels.put(id, new HashMap<>());
+			this.revisions.put(id, 1);
+			this.edits.put(id, new ArrayList<>());
+		}
+		this.server = new MockApiServer(this::handle);
+		BasicApiConnection connection = new BasicApiConnection(
+				this.server.getUrl());
+		connection.setHttpTransport(new KeepAliveHttpTransport());
+		WikibaseDataEditor editor = new WikibaseDataEditor(connection,
+				Datamodel.SITE_WIKIDATA);
+		editor.setAverageTimePerEdit(0);
+		return new EditQueue(editor, maxConcurrentEdits);
+	}
+
+	MockResponse handle(Map<String, String> parameters) {
+		String action = parameters.get("action");
+		if ("query".equals(action)) {
+			return new MockResponse(200,
+					"{\"query\":{\"tokens\":{\"csrftoken\":\"42+\\\\\"}}}");
+		} else if ("wbgetentities".equals(action)) {
+			ObjectNode entities = this.mapper.createObjectNode();
+			for (String id : parameters.get("ids").split("\\|")) {
+				synchronized (this) {
+					if (this.labels.containsKey(id)) {
+						entities.set(id, getEntity(id));
+					} else {
+						entities.putObject(id).put("id", id).put("missing", "");
+					}
+				}
+			}
+			return respond(this.mapper.createObjectNode().set("entities",
+					entities));
+		}
+
+		int running = this.runningEdits.incrementAndGet();
+		this.maxRunningEdits.accumulateAndGet(running, Math::max);
+		try {
+			this.editLatch.await(10, TimeUnit.SECONDS);
+			Thread.sleep(this.editMillis);
+			return edit(action, parameters);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			this.runningEdits.decrementAndGet();
+		}
+	}
+
+	synchronized MockResponse edit(String action,
+			Map<String, String> parameters) throws IOException {
+		String id = parameters.get("id");
+		this.edits.get(id).add(action);
+		int conflicts = this.conflicts.getOrDefault(id, 0);
+		if (conflicts > 0) {
+			// someone else edited the item
+			this.conflicts.put(id, conflicts - 1);
+			this.revisions.merge(id, 1, Integer::sum);
+		}
+		if (Integer.parseInt(parameters.get("baserevid")) != this.revisions
+				.get(id)) {
+			return new MockResponse(200,
+					"{\"error\":{\"code\":\"editconflict\",\"info\":\"Edit conflict.\"}}");
+		}
+
+		if ("wbsetlabel".equals(action)) {
+			this.labels.get(id).put(parameters.get("language"),
+					parameters.get("value"));
+		} else {
+			JsonNode data = this.mapper.readTree(parameters.get("data"));
+			data.path("labels").forEach(
+					label -> this.labels.get(id).put(
+							label.path("language").asText(),
+							label.path("value").asText()));
+		}
+		this.revisions.merge(id, 1, Integer::sum);
+		ObjectNode response = this.mapper.createObjectNode();
+		response.set("entity", getEntity(id));
+		response.put("success", 1);
+		return respond(response);
+	}
+
+	ObjectNode getEntity(String id) {
+		ObjectNode entity = this.mapper.createObjectNode();
+		entity.put("type", "item").put("id", id)
+				.put("lastrevid", this.revisions.get(id));
+		ObjectNode labelsNode = entity.putObject("labels");
+		this.labels.get(id).forEach(
+				(language, value) -> labelsNode.putObject(language)
+						.put("language", language).put("value", value));
+		return entity;
+	}
+
+	MockResponse respond(JsonNode json) {
+		try {
+			return new MockResponse(200, this.mapper.writeValueAsString(json));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static ItemIdValue item(String id) {
+		return Datamodel.makeWikidataItemIdValue(id);
+	}
+
+	static List<MonolingualTextValue> label(String text, String language) {
+		return Collections.singletonList(Datamodel.makeMonolingualTextValue(
+				text, language));
+	}
+
+	CompletableFuture<EntityDocument> setLabel(EditQueue queue, String id,
+			String text, String language) {
+		return queue.submitTermStatementUpdate(item(id), label(text, language),
+				null, null, null, null, null, "set " + language, null);
+	}
+
+	@Test
+	public void testMergesUpdatesOfSameEntity() throws Exception {
+		EditQueue queue = makeQueue(4, "Q1");
+		this.editLatch = new CountDownLatch(1);
+
+		CompletableFuture<EntityDocument> first = setLabel(queue, "Q1",
+				"one", "en");
+		while (this.runningEdits.get() == 0) {
+			Thread.sleep(5);
+		}
+		// these wait until the first edit of Q1 is done
+		List<CompletableFuture<EntityDocument>> merged = Arrays.asList(
+				setLabel(queue, "Q1", "eins", "de"),
+				setLabel(queue, "Q1", "un", "fr"),
+				setLabel(queue, "Q1", "uno", "es"));
+		assertEquals(1, queue.getPendingCount());
+		this.editLatch.countDown();
+		queue.awaitCompletion();
+
+		assertEquals("one", ((ItemDocument) first.get()).findLabel("en"));
+		ItemDocument result = (ItemDocument) merged.get(0).get();
+		for (CompletableFuture<EntityDocument> future : merged) {
+			assertSame(result, future.get());
+		}
+		assertEquals("uno", result.findLabel("es"));
+		assertEquals(4, result.getLabels().size());
+		assertEquals(3, result.getRevisionId());
+		assertEquals(Arrays.asList("wbsetlabel", "wbeditentity"),
+				this.edits.get("Q1"));
+		assertEquals(4, queue.getSubmittedCount());
+		assertEquals(2, queue.getEditCount());
+	}
+
+	@Test
+	public void testEditsEntitiesConcurrently() throws Exception {
+		EditQueue queue = makeQueue(3, "Q1", "Q2", "Q3", "Q4", "Q5", "Q6");
+		this.editMillis = 200;
+		List<CompletableFuture<EntityDocument>> futures = new ArrayList<>();
+		for (int i = 1; i <= 6; i++) {
+			futures.add(setLabel(queue, "Q" + i, "label " + i, "en"));
+		}
+		queue.awaitCompletion();
+
+		for (int i = 1; i <= 6; i++) {
+			assertEquals("label " + i, ((ItemDocument) futures.get(i - 1)
+					.get()).findLabel("en"));
+		}
+		assertTrue(this.maxRunningEdits.get() > 1);
+		assertTrue(this.maxRunningEdits.get() <= 3);
+		assertEquals(6, queue.getEditCount());
+	}
+
+	@Test
+	public void testRetriesConflicts() throws Exception {
+		EditQueue queue = makeQueue(1, "Q1");
+		this.conflicts.put("Q1", 1);
+		EntityDocument result = setLabel(queue, "Q1", "one", "en").get(10,
+				TimeUnit.SECONDS);
+		assertEquals(3, result.getRevisionId());
+		assertEquals(1, queue.getConflictCount());
+		assertEquals(2, this.edits.get("Q1").size());
+
+		queue.setMaxConflictRetries(0);
+		this.conflicts.put("Q1", 1);
+		try {
+			setLabel(queue, "Q1", "two", "en").get(10, TimeUnit.SECONDS);
+			fail("Expected an edit conflict");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof EditConflictErrorException);
+		}
+		queue.awaitCompletion();
+		assertEquals(1, queue.getFailureCount());
+	}
+
+	@Test
+	public void testMissingEntity() throws Exception {
+		EditQueue queue = makeQueue(1, "Q1");
+		try {
+			setLabel(queue, "Q2", "two", "en").get(10, TimeUnit.SECONDS);
+			fail("Expected an exception");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof NoSuchEntityErrorException);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidConcurrency() throws IOException {
+		new EditQueue(new WikibaseDataEditor(new MockBasicApiConnection(),
+				Datamodel.SITE_WIKIDATA), 0);
+	}
+}
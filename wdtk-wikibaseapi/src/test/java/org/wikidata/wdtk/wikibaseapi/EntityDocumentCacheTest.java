@@ -0,0 +1,287 @@
+package org.wikidata.wdtk.wikibaseapi;
+
+/*
+ * #%L
+ * Wikidata Toolkit Wikibase API
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Test;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+import org.wikidata.wdtk.wikibaseapi.EntityDocumentCache.EvictionPolicy;
+import org.wikidata.wdtk.wikibaseapi.MockApiServer.MockResponse;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Test class for {@link EntityDocumentCache}, including its use in
+ * {@link WikibaseDataFetcher}.
+ */
+public class EntityDocumentCacheTest {
+
+	final AtomicLong time = new AtomicLong(1000);
+
+	MockApiServer server;
+
+	@After
+	public void stopServer() {
+		if (this.server != null) {
+			this.server.close();
+		}
+	}
+
+	static EntityDocument item(String id) {
+		return Datamodel.makeItemDocument(Datamodel.makeWikidataItemIdValue(id),
+				Collections.emptyList(), Collections.emptyList(),
+				Collections.emptyList(), Collections.emptyList(),
+				Collections.emptyMap(), 1);
+	}
+
+	@Test
+	public void testLruEviction() {
+		EntityDocumentCache cache = new EntityDocumentCache(2, 100,
+				EvictionPolicy.LRU, this.time::get);
+		cache.put("f", "Q1", item("Q1"));
+		cache.put("f", "Q2", item("Q2"));
+		assertNotNull(cache.lookup("f", "Q1"));
+		cache.put("f", "Q3", item("Q3"));
+
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+		assertNotNull(cache.lookup("f", "Q1"));
+		assertNull(cache.lookup("f", "Q2"));
+		assertNotNull(cache.lookup("f", "Q3"));
+	}
+
+	@Test
+	public void testLfuEviction() {
+		EntityDocumentCache cache = new EntityDocumentCache(3, 100,
+				EvictionPolicy.LFU, this.time::get);
+		cache.put("f", "Q1", item("Q1"));
+		cache.put("f", "Q2", item("Q2"));
+		cache.put("f", "Q3", item("Q3"));
+		cache.lookup("f", "Q1");
+		cache.lookup("f", "Q1");
+		cache.lookup("f", "Q3");
+		cache.lookup("f", "Q2");
+		// Q2 and Q3 were used equally often, Q3 less recently
+		cache.put("f", "Q4", item("Q4"));
+		assertNull(cache.lookup("f", "Q3"));
+		// the new entry is used least
+		cache.put("f", "Q5", item("Q5"));
+		assertNull(cache.lookup("f", "Q4"));
+		assertNotNull(cache.lookup("f", "Q1"));
+		assertNotNull(cache.lookup("f", "Q2"));
+		assertNotNull(cache.lookup("f", "Q5"));
+		assertEquals(2, cache.getEvictionCount());
+
+		cache.invalidate("Q1");
+		cache.invalidate("Q2");
+		cache.put("f", "Q6", item("Q6"));
+		cache.put("f", "Q7", item("Q7"));
+		cache.put("f", "Q8", item("Q8"));
+		assertEquals(3, cache.size());
+		assertNull(cache.lookup("f", "Q6"));
+	}
+
+	@Test
+	public void testInvalidateAllFilters() {
+		EntityDocumentCache cache = new EntityDocumentCache(3, 100,
+				EvictionPolicy.LRU, this.time::get);
+		cache.put("f", "Q1", item("Q1"));
+		cache.put("g", "Q1", item("Q1"));
+		cache.put("f", "Q2", item("Q2"));
+		// evicts the document of Q1 for filter "f"
+		cache.put("g", "Q3", item("Q3"));
+		assertEquals(Collections.singleton("g\nQ1"),
+				cache.keysByEntityId.get("Q1"));
+
+		cache.invalidate("Q1");
+		assertEquals(2, cache.size());
+		assertNull(cache.lookup("g", "Q1"));
+		assertNotNull(cache.lookup("f", "Q2"));
+		assertNull(cache.keysByEntityId.get("Q1"));
+
+		cache.remove("f", "Q2");
+		cache.invalidate("Q3");
+		assertEquals(0, cache.size());
+		assertTrue(cache.keysByEntityId.isEmpty());
+	}
+
+	@Test
+	public void testTimeToLiveAndStatistics() {
+		EntityDocumentCache cache = new EntityDocumentCache(10, 100,
+				EvictionPolicy.LRU, this.time::get);
+		assertNull(cache.lookup("f", "Q1"));
+		cache.put("f", "Q1", item("Q1"));
+		cache.put("g", "Q1", item("Q1"));
+		EntityDocumentCache.Entry entry = cache.lookup("f", "Q1");
+		assertTrue(cache.isFresh(entry));
+
+		this.time.addAndGet(100);
+		entry = cache.lookup("f", "Q1");
+		assertTrue(!cache.isFresh(entry));
+		cache.revalidated(entry);
+		assertTrue(cache.isFresh(cache.lookup("f", "Q1")));
+
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getStaleCount());
+		assertEquals(1, cache.getRevalidationCount());
+		assertEquals(0.75, cache.getHitRate(), 1e-9);
+
+		cache.invalidate("Q1");
+		assertEquals(0, cache.size());
+	}
+
+	/**
+	 * Starts a server that returns items whose revision is given by the map,
+	 * counting requests with and without full data.
+	 */
+	WikibaseDataFetcher connect(Map<String, Integer> revisions,
+			AtomicInteger fullRequests, AtomicInteger infoRequests)
+			throws IOException {
+		this.server = new MockApiServer(parameters -> {
+			if ("info".equals(parameters.get("props"))) {
+				infoRequests.incrementAndGet();
+			} else {
+				fullRequests.incrementAndGet();
+			}
+			StringBuilder json = new StringBuilder("{\"entities\":{");
+			boolean first = true;
+			for (String id : parameters.get("ids").split("\\|")) {
+				json.append(first ? "" : ",").append("\"").append(id)
+						.append("\":");
+				first = false;
+				Integer revision = revisions.get(id);
+				if (revision == null) {
+					json.append("{\"id\":\"").append(id)
+							.append("\",\"missing\":\"\"}");
+				} else {
+					json.append("{\"type\":\"item\",\"id\":\"").append(id)
+							.append("\",\"lastrevid\":").append(revision)
+							.append("}");
+				}
+			}
+			return new MockResponse(200, json.append("}}").toString());
+		});
+		BasicApiConnection connection = new BasicApiConnection(
+				this.server.getUrl());
+		connection.setHttpTransport(new KeepAliveHttpTransport());
+		return new WikibaseDataFetcher(connection, Datamodel.SITE_WIKIDATA);
+	}
+
+	@Test
+	public void testFetcherRevalidation() throws Exception {
+		Map<String, Integer> revisions = new ConcurrentHashMap<>();
+		revisions.put("Q1", 10);
+		revisions.put("Q2", 20);
+		AtomicInteger fullRequests = new AtomicInteger();
+		AtomicInteger infoRequests = new AtomicInteger();
+		WikibaseDataFetcher fetcher = connect(revisions, fullRequests,
+				infoRequests);
+		EntityDocumentCache cache = new EntityDocumentCache(100, 1000,
+				EvictionPolicy.LRU, this.time::get);
+		fetcher.setCache(cache);
+		List<String> ids = Arrays.asList("Q1", "Q2", "Q3");
+
+		Map<String, EntityDocument> first = fetcher.getEntityDocuments(ids);
+		assertEquals(2, first.size());
+		Map<String, EntityDocument> second = fetcher.getEntityDocuments(ids);
+		assertSame(first.get("Q1"), second.get("Q1"));
+		// Q3 is missing and therefore requested again
+		assertEquals(2, fullRequests.get());
+		assertEquals(0, infoRequests.get());
+
+		// stale: Q1 is unchanged, Q2 has a new revision
+		this.time.addAndGet(1000);
+		revisions.put("Q2", 21);
+		Map<String, EntityDocument> third = fetcher.getEntityDocuments(ids);
+		assertEquals(1, infoRequests.get());
+		assertEquals(3, fullRequests.get());
+		assertSame(first.get("Q1"), third.get("Q1"));
+		assertEquals(21, third.get("Q2").getRevisionId());
+		assertEquals(1, cache.getRevalidationCount());
+		assertEquals(2, cache.getStaleCount());
+
+		// a different filter does not use the same documents
+		fetcher.getFilter().setLanguageFilter(Collections.singleton("en"));
+		fetcher.getEntityDocument("Q1");
+		assertEquals(4, fullRequests.get());
+		assertEquals(3, cache.size());
+	}
+
+	@Test
+	public void testAsyncUsesCache() throws Exception {
+		Map<String, Integer> revisions = new ConcurrentHashMap<>();
+		revisions.put("Q1", 10);
+		AtomicInteger fullRequests = new AtomicInteger();
+		WikibaseDataFetcher fetcher = connect(revisions, fullRequests,
+				new AtomicInteger());
+		fetcher.setCache(new EntityDocumentCache(100, 1000,
+				EvictionPolicy.LRU, this.time::get));
+
+		EntityDocument document = fetcher.getEntityDocumentAsync("Q1").get();
+		assertSame(document, fetcher.getEntityDocumentAsync("Q1").get());
+		assertSame(document, fetcher.getEntityDocument("Q1"));
+		assertEquals(1, fullRequests.get());
+	}
+
+	@Test
+	public void testEditsInvalidateEntries() throws Exception {
+		EntityDocumentCache cache = new EntityDocumentCache(10, 1000,
+				EvictionPolicy.LRU, this.time::get);
+		WikibaseDataEditor editor = new WikibaseDataEditor(
+				new MockBasicApiConnection(), Datamodel.SITE_WIKIDATA);
+		editor.setCache(cache);
+		assertSame(cache, editor.getCache());
+		for (String id : Arrays.asList("Q1", "Q2", "Q3", "Q4")) {
+			cache.put("f", id, item(id));
+		}
+
+		ObjectMapper mapper = new ObjectMapper();
+		WbEditingAction action = editor.wbEditingAction;
+		action.invalidateCache("Q1", mapper.readTree("{\"success\":1}"));
+		action.invalidateCache(null,
+				mapper.readTree("{\"entity\":{\"id\":\"Q2\"},\"success\":1}"));
+		JsonNode claim = mapper.readTree(
+				"{\"claim\":{\"id\":\"q3$5627445f-43cb-ed6d-3adb-760e85bd17ee\"}}");
+		action.invalidateCache(null, claim);
+		assertEquals(1, cache.size());
+		action.invalidateCache(null, mapper.readTree(
+				"{\"claims\":[\"Q4$5627445f-43cb-ed6d-3adb-760e85bd17ee\"]}"));
+		assertEquals(0, cache.size());
+	}
+}
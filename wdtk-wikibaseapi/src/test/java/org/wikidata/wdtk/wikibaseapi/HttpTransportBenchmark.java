@@ -0,0 +1,93 @@
+package org.wikidata.wdtk.wikibaseapi;
+
+/*
+ * #%L
+ * Wikidata Toolkit Wikibase API
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.testing.MockStringContentFactory;
+import org.wikidata.wdtk.wikibaseapi.MockApiServer.MockResponse;
+
+/**
+ * Simple load test that compares the default HTTP handling of
+ * {@link ApiConnection} with {@link KeepAliveHttpTransport}, by fetching
+ * entities with {@link WikibaseDataFetcher} from a local mock API server.
+ * This is not run as part of the tests. The number of threads, the number
+ * of requests per thread and the simulated bandwidth in bytes per second
+ * (default: 10MB/s, 0 for unlimited) can be given as arguments. Note that
+ * the local server does not use TLS, so the savings of reusing connections
+ * to real (HTTPS) servers are not included.
+ */
+public class HttpTransportBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int requests = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+		long bandwidth = args.length > 2 ? Long.parseLong(args[2]) : 10000000;
+
+		String json = MockStringContentFactory
+				.getStringFromUrl(HttpTransportBenchmark.class
+						.getResource("/wbgetentities-Q6-Q42-P31.json"));
+		try (MockApiServer server = new MockApiServer(
+				parameters -> new MockResponse(200, json))) {
+			server.setBandwidth(bandwidth);
+			for (int round = 0; round < 2; round++) {
+				run("HttpURLConnection per request", server, null, threads,
+						requests);
+				run("KeepAliveHttpTransport", server,
+						new KeepAliveHttpTransport(), threads, requests);
+			}
+		}
+	}
+
+	static void run(String name, MockApiServer server,
+			HttpTransport transport, int threads, int requests)
+			throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			futures.add(executor.submit(() -> {
+				BasicApiConnection connection = new BasicApiConnection(server
+						.getUrl());
+				connection.setHttpTransport(transport);
+				WikibaseDataFetcher fetcher = new WikibaseDataFetcher(
+						connection, Datamodel.SITE_WIKIDATA);
+				for (int i = 0; i < requests; i++) {
+					fetcher.getEntityDocuments("Q6", "Q42", "P31");
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%-32s %8.0f requests/s%n", name, threads
+				* requests / seconds);
+	}
+
+}
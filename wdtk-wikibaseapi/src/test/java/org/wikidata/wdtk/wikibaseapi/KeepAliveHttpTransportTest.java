@@ -0,0 +1,165 @@
+package org.wikidata.wdtk.wikibaseapi;
+
+/*
+ * #%L
+ * Wikidata Toolkit Wikibase API
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Test;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+import org.wikidata.wdtk.testing.MockStringContentFactory;
+import org.wikidata.wdtk.wikibaseapi.MockApiServer.MockResponse;
+import org.wikidata.wdtk.wikibaseapi.apierrors.MaxlagErrorException;
+import org.wikidata.wdtk.wikibaseapi.apierrors.MediaWikiApiErrorException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Test class for {@link KeepAliveHttpTransport}, using a local mock API
+ * server.
+ */
+public class KeepAliveHttpTransportTest {
+
+	MockApiServer server;
+
+	@After
+	public void stopServer() {
+		if (this.server != null) {
+			this.server.close();
+		}
+	}
+
+	BasicApiConnection connect(
+			Function<Map<String, String>, MockResponse> handler)
+			throws IOException {
+		this.server = new MockApiServer(handler);
+		BasicApiConnection connection = new BasicApiConnection(
+				this.server.getUrl());
+		connection.setHttpTransport(new KeepAliveHttpTransport());
+		return connection;
+	}
+
+	@Test
+	public void testPostWithCookiesAndCompression() throws IOException,
+			MediaWikiApiErrorException {
+		BasicApiConnection connection = connect(parameters -> new MockResponse(
+				200, "{\"query\":{\"value\":\"" + parameters.get("titles")
+						+ "\"}}").withHeader("Set-Cookie",
+				"session=abc; Path=/; HttpOnly"));
+		connection.cookies.put("existing", "1");
+
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put("action", "query");
+		parameters.put("titles", "Ünïcode & more");
+		JsonNode result = connection.sendJsonRequest("POST", parameters);
+
+		assertEquals("Ünïcode & more", result.path("query").path("value")
+				.asText());
+		assertEquals("POST", this.server.lastRequestMethod);
+		assertTrue(this.server.lastRequestHeaders.getFirst("Cookie").contains(
+				"existing=1"));
+		assertEquals("gzip",
+				this.server.lastRequestHeaders.getFirst("Accept-Encoding"));
+		assertEquals("abc", connection.getCookies().get("session"));
+	}
+
+	@Test
+	public void testGetRequest() throws IOException,
+			MediaWikiApiErrorException {
+		BasicApiConnection connection = connect(parameters -> new MockResponse(
+				200, "{\"action\":\"" + parameters.get("action") + "\"}"));
+
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put("action", "wbgetentities");
+		JsonNode result = connection.sendJsonRequest("GET", parameters);
+
+		assertEquals("GET", this.server.lastRequestMethod);
+		assertEquals("wbgetentities", result.path("action").asText());
+	}
+
+	@Test(expected = MaxlagErrorException.class)
+	public void testErrorStatus() throws IOException,
+			MediaWikiApiErrorException {
+		BasicApiConnection connection = connect(parameters -> new MockResponse(
+				503,
+				"{\"error\":{\"code\":\"maxlag\",\"info\":\"Waiting for a database server: 6 seconds lagged.\"}}"));
+
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put("action", "wbeditentity");
+		connection.sendJsonRequest("POST", parameters);
+	}
+
+	@Test
+	public void testConnectionReuse() throws IOException,
+			MediaWikiApiErrorException {
+		BasicApiConnection connection = connect(parameters -> new MockResponse(
+				200, "{\"n\":" + parameters.get("n") + "}"));
+		for (int i = 0; i < 50; i++) {
+			Map<String, String> parameters = new HashMap<>();
+			parameters.put("n", Integer.toString(i));
+			assertEquals(i, connection.sendJsonRequest("POST", parameters)
+					.path("n").asInt());
+		}
+		assertEquals(50, this.server.getRequestCount());
+		assertEquals(1, this.server.getConnectionCount());
+	}
+
+	@Test
+	public void testWikibaseDataFetcher() throws IOException,
+			MediaWikiApiErrorException {
+		String json = MockStringContentFactory.getStringFromUrl(getClass()
+				.getResource("/wbgetentities-Q6-Q42-P31.json"));
+		BasicApiConnection connection = connect(parameters -> {
+			assertEquals("wbgetentities", parameters.get("action"));
+			assertEquals("Q6|Q42|P31", parameters.get("ids"));
+			return new MockResponse(200, json);
+		});
+		WikibaseDataFetcher fetcher = new WikibaseDataFetcher(connection,
+				Datamodel.SITE_WIKIDATA);
+
+		Map<String, EntityDocument> results = fetcher.getEntityDocuments(
+				"Q6", "Q42", "P31");
+
+		assertEquals(2, results.size());
+		assertFalse(results.containsKey("Q6"));
+		assertTrue(results.containsKey("Q42"));
+	}
+
+	@Test
+	public void testTransportNotSerialized() throws IOException {
+		BasicApiConnection connection = new BasicApiConnection(
+				"http://example.org/w/api.php");
+		connection.setHttpTransport(new KeepAliveHttpTransport());
+		String json = connection.mapper.writeValueAsString(connection);
+		assertFalse(json.contains("ransport"));
+		assertNull(connection.mapper.readValue(json,
+				BasicApiConnection.class).getHttpTransport());
+	}
+}
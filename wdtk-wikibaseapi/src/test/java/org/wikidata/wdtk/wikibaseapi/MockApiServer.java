@@ -0,0 +1,252 @@
+package org.wikidata.wdtk.wikibaseapi;
+
+/*
+ * #%L
+ * Wikidata Toolkit Wikibase API
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP server that mocks a MediaWiki API for tests and benchmarks of
+ * the HTTP layer. Responses are computed from the request parameters, which
+ * are taken from both the query string and the form-encoded body. Responses
+ * are compressed if the client accepts gzip, and the time needed to transfer
+ * them over a network with limited bandwidth can be simulated.
+ */
+public class MockApiServer implements AutoCloseable {
+
+	/**
+	 * Response of the mock server.
+	 */
+	public static class MockResponse {
+
+		final int statusCode;
+		final String body;
+		final Map<String, String> headers = new HashMap<>();
+
+		public MockResponse(int statusCode, String body) {
+			this.statusCode = statusCode;
+			this.body = body;
+		}
+
+		public MockResponse withHeader(String name, String value) {
+			this.headers.put(name, value);
+			return this;
+		}
+	}
+
+	final HttpServer server;
+
+	final ExecutorService executor;
+
+	final AtomicInteger requestCount = new AtomicInteger();
+
+	/**
+	 * Client ports of all connections, used to count connections.
+	 */
+	final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+	volatile Headers lastRequestHeaders;
+
+	volatile String lastRequestMethod;
+
+	/**
+	 * Simulated bandwidth in bytes per second, or 0 to send responses as
+	 * fast as possible.
+	 */
+	volatile long bandwidth = 0;
+
+	/**
+	 * Compressed versions of response bodies, since real servers usually do
+	 * not compress the same content again for each request.
+	 */
+	final Map<String, byte[]> compressedBodies = new ConcurrentHashMap<>();
+
+	/**
+	 * Starts a server on a free local port.
+	 *
+	 * @param handler
+	 *            function that computes the response for the parameters of
+	 *            a request
+	 * @throws IOException
+	 *             if the server could not be started
+	 */
+	public MockApiServer(Function<Map<String, String>, MockResponse> handler)
+			throws IOException {
+		// avoid delays of small responses by Nagle's algorithm
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0),
+				0);
+		this.executor = Executors.newFixedThreadPool(16);
+		this.server.setExecutor(this.executor);
+		this.server.createContext("/w/api.php", exchange -> {
+			try {
+				handle(exchange, handler);
+			} finally {
+				exchange.close();
+			}
+		});
+		this.server.start();
+	}
+
+	/**
+	 * Returns the URL of the mocked API.
+	 *
+	 * @return the URL
+	 */
+	public String getUrl() {
+		return "http://127.0.0.1:" + this.server.getAddress().getPort()
+				+ "/w/api.php";
+	}
+
+	/**
+	 * Sets the bandwidth that is simulated by delaying each response
+	 * according to its (possibly compressed) size.
+	 *
+	 * @param bytesPerSecond
+	 *            the bandwidth, or 0 to not delay responses
+	 */
+	public void setBandwidth(long bytesPerSecond) {
+		this.bandwidth = bytesPerSecond;
+	}
+
+	/**
+	 * Returns the number of requests that have been received.
+	 *
+	 * @return number of requests
+	 */
+	public int getRequestCount() {
+		return this.requestCount.get();
+	}
+
+	/**
+	 * Returns the number of TCP connections that requests have been received
+	 * on.
+	 *
+	 * @return number of connections
+	 */
+	public int getConnectionCount() {
+		return this.clientPorts.size();
+	}
+
+	void handle(HttpExchange exchange,
+			Function<Map<String, String>, MockResponse> handler)
+			throws IOException {
+		this.requestCount.incrementAndGet();
+		this.clientPorts.add(exchange.getRemoteAddress().getPort());
+		this.lastRequestHeaders = exchange.getRequestHeaders();
+		this.lastRequestMethod = exchange.getRequestMethod();
+		Map<String, String> parameters = new HashMap<>();
+		parseParameters(exchange.getRequestURI().getRawQuery(), parameters);
+		parseParameters(readAll(exchange.getRequestBody()), parameters);
+
+		MockResponse response = handler.apply(parameters);
+		byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+		List<String> encodings = exchange.getRequestHeaders().get(
+				"Accept-Encoding");
+		if (encodings != null && encodings.toString().contains("gzip")) {
+			body = this.compressedBodies.computeIfAbsent(response.body,
+					MockApiServer::compress);
+			exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+		}
+		if (this.bandwidth > 0) {
+			try {
+				Thread.sleep(1000L * body.length / this.bandwidth);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		exchange.getResponseHeaders().set("Content-Type",
+				"application/json; charset=utf-8");
+		for (Map.Entry<String, String> header : response.headers.entrySet()) {
+			exchange.getResponseHeaders().add(header.getKey(),
+					header.getValue());
+		}
+		exchange.sendResponseHeaders(response.statusCode, body.length);
+		try (OutputStream output = exchange.getResponseBody()) {
+			output.write(body);
+		}
+	}
+
+	static byte[] compress(String string) {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (GZIPOutputStream output = new GZIPOutputStream(compressed)) {
+			output.write(string.getBytes(StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return compressed.toByteArray();
+	}
+
+	static String readAll(InputStream input) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = input.read(buffer)) >= 0) {
+			result.write(buffer, 0, read);
+		}
+		return new String(result.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	static void parseParameters(String string, Map<String, String> parameters)
+			throws UnsupportedEncodingException {
+		if (string == null || string.isEmpty()) {
+			return;
+		}
+		for (String parameter : string.split("&")) {
+			int equals = parameter.indexOf('=');
+			if (equals < 0) {
+				parameters.put(URLDecoder.decode(parameter, "UTF-8"), "");
+			} else {
+				parameters.put(
+						URLDecoder.decode(parameter.substring(0, equals),
+								"UTF-8"),
+						URLDecoder.decode(parameter.substring(equals + 1),
+								"UTF-8"));
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		this.server.stop(0);
+		this.executor.shutdownNow();
+	}
+}
@@ -0,0 +1,252 @@
+package org.wikidata.wdtk.wikibaseapi;
+
+/*
+ * #%L
+ * Wikidata Toolkit Wikibase API
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+import org.wikidata.wdtk.wikibaseapi.MockApiServer.MockResponse;
+
+/**
+ * Test class for {@link RequestCoalescer}.
+ */
+public class RequestCoalescerTest {
+
+	final ExecutorService executor = Executors.newCachedThreadPool();
+
+	MockApiServer server;
+
+	@After
+	public void shutdown() {
+		this.executor.shutdownNow();
+		if (this.server != null) {
+			this.server.close();
+		}
+	}
+
+	static void waitFor(RequestCoalescer coalescer, long requests)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (coalescer.getRequestCount() < requests) {
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(5);
+		}
+	}
+
+	static void block(CountDownLatch latch) throws IOException {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+	}
+
+	@Test
+	public void testSingleFlight() throws Exception {
+		RequestCoalescer coalescer = new RequestCoalescer();
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger calls = new AtomicInteger();
+		Object value = new Object();
+		List<Future<Object>> results = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			results.add(this.executor.submit(() -> coalescer.execute("key",
+					() -> {
+						calls.incrementAndGet();
+						block(release);
+						return value;
+					})));
+		}
+		waitFor(coalescer, 8);
+		assertEquals(1, coalescer.getInFlightCount());
+		release.countDown();
+		for (Future<Object> result : results) {
+			assertSame(value, result.get(10, TimeUnit.SECONDS));
+		}
+
+		assertEquals(1, calls.get());
+		assertEquals(8, coalescer.getRequestCount());
+		assertEquals(1, coalescer.getCallCount());
+		assertEquals(7, coalescer.getCoalescedCount());
+		assertEquals(7 / 8.0, coalescer.getCoalescingRatio(), 1e-9);
+		assertEquals(0, coalescer.getInFlightCount());
+
+		// finished calls are not reused
+		assertEquals("new", coalescer.execute("key", () -> "new"));
+		assertEquals(2, coalescer.getCallCount());
+	}
+
+	@Test
+	public void testErrorsAreShared() throws Exception {
+		RequestCoalescer coalescer = new RequestCoalescer();
+		CountDownLatch release = new CountDownLatch(1);
+		List<Future<Object>> results = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			results.add(this.executor.submit(() -> coalescer.execute("key",
+					() -> {
+						block(release);
+						throw new IOException("failed");
+					})));
+		}
+		waitFor(coalescer, 3);
+		release.countDown();
+		for (Future<Object> result : results) {
+			try {
+				result.get(10, TimeUnit.SECONDS);
+				fail("Expected an exception");
+			} catch (java.util.concurrent.ExecutionException e) {
+				assertTrue(e.getCause() instanceof IOException);
+				assertEquals("failed", e.getCause().getMessage());
+			}
+		}
+		assertEquals(1, coalescer.getCallCount());
+	}
+
+	@Test
+	public void testFullBatchIsSentImmediately() throws Exception {
+		RequestCoalescer coalescer = new RequestCoalescer();
+		List<Set<String>> batches = Collections
+				.synchronizedList(new ArrayList<>());
+		List<Future<String>> results = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			String key = "Q" + i;
+			results.add(this.executor.submit(() -> coalescer.executeBatched(
+					"group", key, 60000, 10, keys -> {
+						batches.add(keys);
+						Map<String, String> values = new HashMap<>();
+						for (String k : keys) {
+							values.put(k, k.toLowerCase());
+						}
+						return values;
+					})));
+		}
+		for (int i = 0; i < 10; i++) {
+			assertEquals("q" + i, results.get(i).get(10, TimeUnit.SECONDS));
+		}
+		assertEquals(1, batches.size());
+		assertEquals(10, batches.get(0).size());
+		assertEquals(10, coalescer.getRequestCount());
+		assertEquals(1, coalescer.getCallCount());
+		assertEquals(9, coalescer.getCoalescedCount());
+	}
+
+	@Test
+	public void testBatchWindowEnds() throws Exception {
+		RequestCoalescer coalescer = new RequestCoalescer();
+		assertNull(coalescer.executeBatched("group", "Q1", 10, 50,
+				keys -> Collections.emptyMap()));
+		assertEquals("v", coalescer.executeBatched("group", "Q1", 10, 50,
+				keys -> Collections.singletonMap("Q1", "v")));
+		assertEquals(2, coalescer.getRequestCount());
+		assertEquals(2, coalescer.getCallCount());
+		assertEquals(0, coalescer.getCoalescedCount());
+	}
+
+	@Test
+	public void testFetcherBatchesSingleLookups() throws Exception {
+		this.server = new MockApiServer(parameters -> {
+			StringBuilder json = new StringBuilder("{\"entities\":{");
+			boolean first = true;
+			for (String id : parameters.get("ids").split("\\|")) {
+				json.append(first ? "" : ",").append("\"").append(id)
+						.append("\":{\"type\":\"item\",\"id\":\"").append(id)
+						.append("\"}");
+				first = false;
+			}
+			return new MockResponse(200, json.append("}}").toString());
+		});
+		BasicApiConnection connection = new BasicApiConnection(
+				this.server.getUrl());
+		connection.setHttpTransport(new KeepAliveHttpTransport());
+		WikibaseDataFetcher fetcher = new WikibaseDataFetcher(connection,
+				Datamodel.SITE_WIKIDATA);
+		fetcher.setBatchWindowMillis(60000);
+
+		List<Future<EntityDocument>> results = new ArrayList<>();
+		for (int i = 1; i <= 50; i++) {
+			String id = "Q" + i;
+			results.add(this.executor.submit(() -> fetcher
+					.getEntityDocument(id)));
+		}
+		for (int i = 1; i <= 50; i++) {
+			assertEquals("Q" + i, results.get(i - 1).get(10, TimeUnit.SECONDS)
+					.getEntityId().getId());
+		}
+		assertEquals(1, this.server.getRequestCount());
+		// the batch call fetches through wbGetEntities, which is coalesced
+		// as well, so it counts as one more request and call
+		assertEquals(51, fetcher.getCoalescer().getRequestCount());
+		assertEquals(49, fetcher.getCoalescer().getCoalescedCount());
+		assertEquals(2, fetcher.getCoalescer().getCallCount());
+	}
+
+	@Test
+	public void testSearchesAreShared() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		this.server = new MockApiServer(parameters -> {
+			try {
+				block(release);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			return new MockResponse(200,
+					"{\"search\":[{\"id\":\"Q42\",\"title\":\"Q42\",\"label\":\"Douglas Adams\"}]}");
+		});
+		BasicApiConnection connection = new BasicApiConnection(
+				this.server.getUrl());
+		WikibaseDataFetcher fetcher = new WikibaseDataFetcher(connection,
+				Datamodel.SITE_WIKIDATA);
+
+		List<Future<List<WbSearchEntitiesResult>>> results = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			results.add(this.executor.submit(() -> fetcher.searchEntities(
+					"Douglas Adams", "en")));
+		}
+		waitFor(fetcher.getCoalescer(), 5);
+		release.countDown();
+		for (Future<List<WbSearchEntitiesResult>> result : results) {
+			assertEquals("Q42", result.get(10, TimeUnit.SECONDS).get(0)
+					.getEntityId());
+		}
+		assertEquals(1, this.server.getRequestCount());
+		assertEquals(0.8, fetcher.getCoalescer().getCoalescingRatio(), 1e-9);
+	}
+}
@@ -0,0 +1,121 @@
+package org.wikidata.wdtk.wikibaseapi;
+
+/*
+ * #%L
+ * Wikidata Toolkit Wikibase API
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.helpers.ItemDocumentBuilder;
+import org.wikidata.wdtk.datamodel.helpers.ReferenceBuilder;
+import org.wikidata.wdtk.datamodel.helpers.StatementBuilder;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.ItemIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.MonolingualTextValue;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.Reference;
+import org.wikidata.wdtk.datamodel.interfaces.Statement;
+
+/**
+ * Simple benchmark for computing a {@link StatementUpdate} and a
+ * {@link TermStatementUpdate} on a large synthetic item. This is not run as
+ * part of the tests. The number of statements of the item (default: 20000),
+ * half of which use the same property, and the number of statements to add
+ * and to delete (default: 2000 each) can be given as arguments. Half of the
+ * added statements have the same claims as existing statements, so that they
+ * are merged with them.
+ */
+public class StatementUpdateBenchmark {
+
+	final static ItemIdValue Q1 = Datamodel.makeWikidataItemIdValue("Q1");
+
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int changes = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+		ItemDocumentBuilder builder = ItemDocumentBuilder.forItemId(Q1);
+		List<Statement> statements = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			// half of the statements for P1, the others for P2 to P101
+			PropertyIdValue property = Datamodel
+					.makeWikidataPropertyIdValue("P"
+							+ (i < size / 2 ? 1 : 2 + i % 100));
+			Statement statement = StatementBuilder
+					.forSubjectAndProperty(Q1, property).withValue(value(i))
+					.withId("Q1$" + i).build();
+			statements.add(statement);
+			builder.withStatement(statement);
+		}
+		ItemDocument document = builder.withLabel("label", "en").build();
+
+		Reference reference = ReferenceBuilder.newInstance()
+				.withPropertyValue(
+						Datamodel.makeWikidataPropertyIdValue("P3"),
+						value(0)).build();
+		List<Statement> addStatements = new ArrayList<>(changes);
+		List<Statement> deleteStatements = new ArrayList<>(changes);
+		for (int i = 0; i < changes; i++) {
+			Statement existing = statements.get((int) ((long) i * size / changes));
+			if (i % 2 == 0) {
+				addStatements.add(StatementBuilder
+						.forSubjectAndProperty(Q1,
+								existing.getMainSnak().getPropertyId())
+						.withValue(existing.getValue())
+						.withReference(reference).build());
+			} else {
+				addStatements.add(StatementBuilder
+						.forSubjectAndProperty(Q1,
+								existing.getMainSnak().getPropertyId())
+						.withValue(value(size + i)).build());
+			}
+			deleteStatements.add(statements.get((int) ((long) i * size
+					/ changes + 1)));
+		}
+		List<MonolingualTextValue> labels = Collections.singletonList(Datamodel
+				.makeMonolingualTextValue("new label", "en"));
+
+		for (int round = 0; round < 5; round++) {
+			long start = System.nanoTime();
+			StatementUpdate statementUpdate = new StatementUpdate(document,
+					addStatements, deleteStatements);
+			long statementTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			TermStatementUpdate termStatementUpdate = new TermStatementUpdate(
+					document, addStatements, deleteStatements, labels,
+					Collections.emptyList(), Collections.emptyList(),
+					Collections.emptyList());
+			long termStatementTime = System.nanoTime() - start;
+
+			System.out.printf(
+					"StatementUpdate %8.1f ms, TermStatementUpdate %8.1f ms (%d statements to delete, %d changed)%n",
+					statementTime / 1e6, termStatementTime / 1e6,
+					statementUpdate.toDelete.size(), termStatementUpdate
+							.getUpdatedStatements().size());
+		}
+	}
+
+	static ItemIdValue value(int i) {
+		return Datamodel.makeWikidataItemIdValue("Q" + (i + 100));
+	}
+
+}
@@ -25,6 +25,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -35,11 +36,13 @@ import org.wikidata.wdtk.datamodel.helpers.ItemDocumentBuilder;
 import org.wikidata.wdtk.datamodel.helpers.ReferenceBuilder;
 import org.wikidata.wdtk.datamodel.helpers.StatementBuilder;
 import org.wikidata.wdtk.datamodel.helpers.JsonSerializer;
+import org.wikidata.wdtk.datamodel.interfaces.Claim;
 import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
 import org.wikidata.wdtk.datamodel.interfaces.ItemIdValue;
 import org.wikidata.wdtk.datamodel.interfaces.PropertyIdValue;
 import org.wikidata.wdtk.datamodel.interfaces.Reference;
 import org.wikidata.wdtk.datamodel.interfaces.Statement;
+import org.wikidata.wdtk.datamodel.interfaces.StatementDocument;
 import org.wikidata.wdtk.datamodel.interfaces.StatementRank;
 
 import com.fasterxml.jackson.databind.JsonNode;
@@ -381,4 +384,120 @@ public class StatementUpdateTest {
 		assertFalse(su.isEmptyEdit());
 	}
 
+	@Test
+	public void testCustomClaimEquivalence() {
+		// Subclasses may ignore qualifiers when merging
+		Statement s1 = StatementBuilder.forSubjectAndProperty(Q1, P1)
+				.withValue(Q1).withQualifierValue(P3, Q2).withId("ID-s1")
+				.build();
+		Statement s2 = StatementBuilder.forSubjectAndProperty(Q1, P1)
+				.withValue(Q1).withQualifierValue(P3, Q3).build();
+
+		ItemDocument currentDocument = ItemDocumentBuilder.forItemId(Q1)
+				.withStatement(s1).build();
+
+		StatementUpdate su = new StatementUpdate(currentDocument,
+				Collections.singletonList(s2), Collections.emptyList()) {
+			@Override
+			protected boolean equivalentClaims(Claim claim1, Claim claim2) {
+				return claim1.getMainSnak().equals(claim2.getMainSnak());
+			}
+
+			@Override
+			protected boolean useClaimIndex() {
+				return false;
+			}
+		};
+
+		assertFalse(su.indexClaims);
+		assertEquals(0, su.toDelete.size());
+		assertEquals(1, su.toKeep.get(P1).size());
+		assertEquals(s1, su.toKeep.get(P1).get(0).statement);
+		assertFalse(su.toKeep.get(P1).get(0).write);
+		assertTrue(su.isEmptyEdit());
+	}
+
+	@Test
+	public void testCustomDeletion() {
+		// Subclasses may mark statements for deletion without checking them
+		Statement s1 = StatementBuilder.forSubjectAndProperty(Q1, P1)
+				.withValue(Q1).withId("ID-s1").build();
+		Statement s1changed = StatementBuilder.forSubjectAndProperty(Q1, P1)
+				.withValue(Q2).withId("ID-s1").build();
+		Statement s2 = StatementBuilder.forSubjectAndProperty(Q1, P1)
+				.withValue(Q3).build();
+
+		ItemDocument currentDocument = ItemDocumentBuilder.forItemId(Q1)
+				.withStatement(s1).build();
+
+		StatementUpdate su = new StatementUpdate(currentDocument,
+				Collections.singletonList(s2),
+				Collections.singletonList(s1changed)) {
+			@Override
+			protected void markStatementsForDeletion(
+					StatementDocument currentDocument,
+					List<Statement> deleteStatements) {
+				for (Statement statement : deleteStatements) {
+					this.toDelete.add(statement.getStatementId());
+				}
+			}
+		};
+
+		assertTrue(su.indexClaims);
+		assertEquals(Collections.singletonList("ID-s1"), su.toDelete);
+		assertEquals(1, su.toKeep.get(P1).size());
+		assertEquals(s2, su.toKeep.get(P1).get(0).statement);
+	}
+
+	@Test
+	public void testLargeStatementGroup() {
+		Reference r1 = ReferenceBuilder.newInstance().withPropertyValue(P1, Q1)
+				.build();
+		ItemDocumentBuilder builder = ItemDocumentBuilder.forItemId(Q1);
+		List<Statement> addStatements = new ArrayList<>();
+		List<Statement> deleteStatements = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			ItemIdValue value = Datamodel.makeWikidataItemIdValue("Q" + (i + 10));
+			Statement statement = StatementBuilder
+					.forSubjectAndProperty(Q1, P1).withValue(value)
+					.withQualifierValue(P2, Q2).withQualifierValue(P3, Q3)
+					.withId("ID-" + i).build();
+			builder.withStatement(statement);
+			if (i < 100) {
+				// same claim with qualifiers in a different order
+				addStatements.add(StatementBuilder
+						.forSubjectAndProperty(Q1, P1).withValue(value)
+						.withQualifierValue(P3, Q3).withQualifierValue(P2, Q2)
+						.withReference(r1).build());
+			} else if (i < 200) {
+				addStatements.add(StatementBuilder
+						.forSubjectAndProperty(Q1, P1).withValue(value)
+						.build());
+			} else if (i < 300) {
+				deleteStatements.add(statement);
+			}
+		}
+
+		StatementUpdate su = new StatementUpdate(builder.build(),
+				addStatements, deleteStatements);
+
+		assertEquals(100, su.toDelete.size());
+		assertEquals("ID-200", su.toDelete.get(0));
+		assertEquals(2000, su.toKeep.get(P1).size());
+		assertEquals(200, su.getUpdatedStatements().size() - su.toDelete.size());
+		for (int i = 0; i < 100; i++) {
+			StatementUpdate.StatementWithUpdate merged = su.toKeep.get(P1).get(i);
+			assertTrue(merged.write);
+			assertEquals("ID-" + i, merged.statement.getStatementId());
+			assertEquals(Collections.singletonList(r1),
+					merged.statement.getReferences());
+		}
+		for (int i = 100; i < 200; i++) {
+			assertTrue(su.toKeep.get(P1).get(i).write);
+			assertEquals("", su.toKeep.get(P1).get(i).statement
+					.getStatementId());
+		}
+		assertFalse(su.toKeep.get(P1).get(200).write);
+	}
+
 }
@@ -0,0 +1,323 @@
+package org.wikidata.wdtk.wikibaseapi;
+
+/*
+ * #%L
+ * Wikidata Toolkit Wikibase API
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Test;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.wikibaseapi.MockApiServer.MockResponse;
+import org.wikidata.wdtk.wikibaseapi.apierrors.MaxlagErrorException;
+import org.wikidata.wdtk.wikibaseapi.apierrors.MediaWikiApiErrorException;
+
+/**
+ * Test class for {@link TokenBucketRateController}. Most tests use a
+ * simulated clock, which is advanced by the waiting times of the
+ * controller.
+ */
+public class TokenBucketRateControllerTest {
+
+	final AtomicLong time = new AtomicLong(0);
+
+	MockApiServer server;
+
+	@After
+	public void stopServer() {
+		if (this.server != null) {
+			this.server.close();
+		}
+	}
+
+	TokenBucketRateController makeController(double initialRate,
+			double minRate, double maxRate, int burst) {
+		return new TokenBucketRateController(initialRate, minRate, maxRate,
+				burst, this.time::get, this.time::addAndGet);
+	}
+
+	@Test
+	public void testTokenBucket() throws InterruptedException {
+		TokenBucketRateController controller = makeController(1, 1, 1, 3);
+		for (int i = 0; i < 3; i++) {
+			controller.acquire();
+		}
+		assertEquals(0, this.time.get());
+		for (int i = 0; i < 10; i++) {
+			controller.acquire();
+		}
+		assertEquals(10000, this.time.get());
+		assertEquals(13, controller.getAcquireCount());
+		assertEquals(10000, controller.getWaitTimeMillis());
+
+		// unused tokens are limited by the burst size
+		this.time.addAndGet(60000);
+		for (int i = 0; i < 4; i++) {
+			controller.acquire();
+		}
+		assertEquals(71000, this.time.get());
+	}
+
+	@Test
+	public void testAdditiveIncrease() {
+		TokenBucketRateController controller = makeController(1, 0.1, 2, 1);
+		controller.setAdditiveIncrease(0.1);
+		// ten edits take less than ten seconds, since the rate grows
+		for (int i = 0; i < 10; i++) {
+			controller.onSuccess();
+		}
+		assertEquals(1.75, controller.getRate(), 0.01);
+		for (int i = 0; i < 100; i++) {
+			controller.onSuccess();
+		}
+		assertEquals(2, controller.getRate(), 0);
+	}
+
+	@Test
+	public void testMaxlagPausesAndDecreasesRate()
+			throws InterruptedException {
+		TokenBucketRateController controller = makeController(2, 0.5, 2, 5);
+		controller.setBackOff(1000, 2, 60000);
+		controller.onMaxlag(6.5);
+		assertEquals(1, controller.getRate(), 0);
+		// edits that were sent before the pause do not count again
+		controller.onMaxlag(6.5);
+		controller.onTooManyRequests(-1);
+		assertEquals(1, controller.getRate(), 0);
+		assertEquals(1, controller.getRejectionCount());
+
+		// one edit when the pause ends, then at the new rate
+		controller.acquire();
+		assertEquals(6500, this.time.get());
+		controller.acquire();
+		assertEquals(7500, this.time.get());
+
+		// consecutive rejections use exponential back-off
+		controller.onMaxlag(-1);
+		controller.acquire();
+		assertEquals(7500 + 2000, this.time.get());
+		controller.onMaxlag(-1);
+		controller.acquire();
+		assertEquals(9500 + 4000, this.time.get());
+		assertEquals(0.5, controller.getRate(), 0);
+		controller.acquire();
+		assertEquals(13500 + 2000, this.time.get());
+
+		// success resets the back-off
+		controller.onSuccess();
+		controller.onMaxlag(-1);
+		controller.acquire();
+		assertEquals(15500 + 1000, this.time.get());
+		assertEquals(4, controller.getRejectionCount());
+	}
+
+	@Test
+	public void testRetryAfter() throws InterruptedException {
+		TokenBucketRateController controller = makeController(1, 1, 1, 1);
+		controller.onTooManyRequests(30);
+		controller.acquire();
+		assertEquals(30000, this.time.get());
+		controller.onSuccess();
+		// pauses are limited
+		controller.onTooManyRequests(1000);
+		controller.acquire();
+		assertEquals(30000 + 300000, this.time.get());
+	}
+
+	@Test
+	public void testPauseDuringReservation() throws InterruptedException {
+		List<Long> sleeps = new ArrayList<>();
+		AtomicInteger calls = new AtomicInteger();
+		TokenBucketRateController[] controller = new TokenBucketRateController[1];
+		controller[0] = new TokenBucketRateController(1, 1, 1, 1,
+				this.time::get, millis -> {
+					sleeps.add(millis);
+					// another thread reports maxlag while we wait
+					if (calls.getAndIncrement() == 0) {
+						controller[0].onMaxlag(10);
+					}
+					this.time.addAndGet(millis);
+				});
+		controller[0].acquire();
+		controller[0].acquire();
+		assertEquals(2, sleeps.size());
+		assertEquals(1000, (long) sleeps.get(0));
+		assertEquals(9000, (long) sleeps.get(1));
+		assertEquals(10000, this.time.get());
+		assertEquals(2, controller[0].getAcquireCount());
+	}
+
+	/**
+	 * Simulates an hour of editing a site that can process one edit per
+	 * second and rejects edits with maxlag when the backlog of edits exceeds
+	 * five seconds. The controller starts too fast, but has to converge to
+	 * the capacity of the site without many rejections.
+	 */
+	@Test
+	public void testSimulatedSite() throws InterruptedException {
+		TokenBucketRateController controller = makeController(5, 0.05, 10,
+				9);
+		double capacity = 1;
+		double backlog = 0;
+		long lastTime = 0;
+		int accepted = 0;
+		int acceptedSecondHalf = 0;
+		int rejected = 0;
+		while (this.time.get() < 3600000) {
+			controller.acquire();
+			long now = this.time.get();
+			backlog = Math.max(0, backlog - (now - lastTime) * capacity
+					/ 1000);
+			lastTime = now;
+			double lag = backlog / capacity;
+			if (lag > 5) {
+				controller.onMaxlag(lag);
+				rejected++;
+			} else {
+				backlog += 1;
+				controller.onSuccess();
+				accepted++;
+				if (now >= 1800000) {
+					acceptedSecondHalf++;
+				}
+			}
+		}
+		double throughput = acceptedSecondHalf / 1800.0;
+		assertTrue("Throughput too low: " + throughput, throughput > 0.7);
+		assertTrue("Throughput too high: " + throughput, throughput <= 1.01);
+		assertTrue("Too many rejections: " + rejected,
+				rejected < accepted / 20);
+	}
+
+	@Test
+	public void testSharedBetweenThreads() throws Exception {
+		TokenBucketRateController controller = new TokenBucketRateController(
+				20, 20, 20, 1);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		long start = System.nanoTime();
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			futures.add(executor.submit(() -> {
+				for (int i = 0; i < 5; i++) {
+					controller.acquire();
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+		long millis = (System.nanoTime() - start) / 1000000;
+		assertTrue("Finished after " + millis + "ms", millis >= 900);
+		assertEquals(20, controller.getAcquireCount());
+	}
+
+	@Test
+	public void testEditingActionReportsRejections() throws IOException,
+			MediaWikiApiErrorException {
+		AtomicInteger edits = new AtomicInteger();
+		this.server = new MockApiServer(parameters -> {
+			if ("query".equals(parameters.get("action"))) {
+				return new MockResponse(200,
+						"{\"query\":{\"tokens\":{\"csrftoken\":\"42+\\\\\"}}}");
+			}
+			switch (edits.incrementAndGet()) {
+			case 1:
+				return new MockResponse(200,
+						"{\"error\":{\"code\":\"maxlag\",\"info\":\"Waiting for a database server: 3 seconds lagged.\",\"lag\":3}}");
+			case 2:
+				return new MockResponse(429, "").withHeader("Retry-After",
+						"20");
+			default:
+				return new MockResponse(200, "{\"success\":1}");
+			}
+		});
+		BasicApiConnection connection = new BasicApiConnection(
+				this.server.getUrl());
+		WbEditingAction action = new WbEditingAction(connection,
+				Datamodel.SITE_WIKIDATA);
+		TokenBucketRateController controller = makeController(1, 0.1, 1, 1);
+		action.setRateController(controller);
+
+		assertEquals(1, action.wbSetLabel("Q1", null, null, null, "en",
+				"label", false, 0, null, null).path("success").asInt());
+		assertEquals(3, edits.get());
+		assertEquals(2, controller.getRejectionCount());
+		// 3s for the lag, then 20s for Retry-After
+		assertEquals(23000, this.time.get());
+	}
+
+	@Test
+	public void testEditingActionWithoutRetries() throws IOException,
+			MediaWikiApiErrorException {
+		AtomicInteger edits = new AtomicInteger();
+		this.server = new MockApiServer(parameters -> {
+			if ("query".equals(parameters.get("action"))) {
+				return new MockResponse(200,
+						"{\"query\":{\"tokens\":{\"csrftoken\":\"42+\\\\\"}}}");
+			}
+			edits.incrementAndGet();
+			return new MockResponse(200, "{\"success\":1}");
+		});
+		BasicApiConnection connection = new BasicApiConnection(
+				this.server.getUrl());
+		WbEditingAction action = new WbEditingAction(connection,
+				Datamodel.SITE_WIKIDATA);
+		action.setRateController(makeController(1, 0.1, 1, 1));
+		action.setMaxLagMaxRetries(0);
+
+		assertEquals(1, action.wbSetLabel("Q1", null, null, null, "en",
+				"label", false, 0, null, null).path("success").asInt());
+		assertEquals(1, edits.get());
+	}
+
+	@Test(expected = MaxlagErrorException.class)
+	public void testEditingActionGivesUpWithoutRetries() throws IOException,
+			MediaWikiApiErrorException {
+		this.server = new MockApiServer(parameters -> {
+			if ("query".equals(parameters.get("action"))) {
+				return new MockResponse(200,
+						"{\"query\":{\"tokens\":{\"csrftoken\":\"42+\\\\\"}}}");
+			}
+			return new MockResponse(200,
+					"{\"error\":{\"code\":\"maxlag\",\"info\":\"Waiting for a database server: 3 seconds lagged.\",\"lag\":3}}");
+		});
+		BasicApiConnection connection = new BasicApiConnection(
+				this.server.getUrl());
+		WbEditingAction action = new WbEditingAction(connection,
+				Datamodel.SITE_WIKIDATA);
+		action.setRateController(makeController(1, 0.1, 1, 1));
+		action.setMaxLagMaxRetries(0);
+
+		action.wbSetLabel("Q1", null, null, null, "en", "label", false, 0,
+				null, null);
+	}
+}
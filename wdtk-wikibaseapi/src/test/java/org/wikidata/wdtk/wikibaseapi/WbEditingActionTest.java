@@ -20,16 +20,19 @@ package org.wikidata.wdtk.wikibaseapi;
  * #L%
  */
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 import org.wikidata.wdtk.datamodel.helpers.Datamodel;
 import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
 import org.wikidata.wdtk.util.CompressionType;
+import org.wikidata.wdtk.wikibaseapi.MockApiServer.MockResponse;
 import org.wikidata.wdtk.wikibaseapi.apierrors.MaxlagErrorException;
 import org.wikidata.wdtk.wikibaseapi.apierrors.MediaWikiApiErrorException;
 import org.wikidata.wdtk.wikibaseapi.apierrors.TokenErrorException;
@@ -135,6 +138,31 @@ public class WbEditingActionTest {
 		weea.wbEditEntity("Q42", null, null, null, "{}", false, false, 0, null, null);
 	}
 
+	@Test
+	public void testMaxLagRetrySucceeds() throws IOException,
+			MediaWikiApiErrorException {
+		AtomicInteger edits = new AtomicInteger();
+		try (MockApiServer server = new MockApiServer(parameters -> {
+			if ("query".equals(parameters.get("action"))) {
+				return new MockResponse(200,
+						"{\"query\":{\"tokens\":{\"csrftoken\":\"42+\\\\\"}}}");
+			}
+			if (edits.incrementAndGet() == 1) {
+				return new MockResponse(200,
+						"{\"error\":{\"code\":\"maxlag\",\"info\":\"Waiting for a database server: 3 seconds lagged.\",\"lag\":3}}");
+			}
+			return new MockResponse(200, "{\"success\":1}");
+		})) {
+			WbEditingAction weea = new WbEditingAction(
+					new BasicApiConnection(server.getUrl()),
+					Datamodel.SITE_WIKIDATA);
+			weea.setMaxLagFirstWaitTime(0); // speed up the test ...
+			assertEquals(1, weea.wbSetLabel("Q42", null, null, null, "en",
+					"label", false, 0, null, null).path("success").asInt());
+			assertEquals(2, edits.get());
+		}
+	}
+
 	@Test(expected = IllegalArgumentException.class)
 	public void testIdAndSite() throws IOException, MediaWikiApiErrorException {
 		WbEditingAction weea = new WbEditingAction(
@@ -31,8 +31,10 @@ import org.junit.Before;
 import org.junit.Test;
 import org.wikidata.wdtk.datamodel.helpers.Datamodel;
 import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
 import org.wikidata.wdtk.util.CompressionType;
 import org.wikidata.wdtk.wikibaseapi.apierrors.MediaWikiApiErrorException;
+import org.wikidata.wdtk.wikibaseapi.apierrors.NoSuchEntityErrorException;
 
 public class WbGetEntitiesActionTest {
 
@@ -142,4 +144,59 @@ public class WbGetEntitiesActionTest {
 		action.wbGetEntities(null, "enwiki", null, null, null, null);
 	}
 
+	@Test
+	public void testStreamingWithWarningsAndInvalidEntity()
+			throws MediaWikiApiErrorException, IOException {
+		Map<String, String> params = new HashMap<>();
+		params.put("action", "wbgetentities");
+		params.put("format", "json");
+		params.put("ids", "Q1|Q2|Q3|Q4");
+		this.con.setWebResource(params, "{\"warnings\":{\"main\":{\"*\":\"Unrecognized parameter\"}},"
+				+ "\"entities\":{"
+				+ "\"Q1\":{\"type\":\"item\",\"id\":\"Q1\"},"
+				+ "\"Q2\":{\"type\":\"item\",\"id\":\"Q2\",\"labels\":{\"en\":{\"language\":\"en\",\"value\":42}},"
+				+ "\"claims\":{\"P1\":[{\"bogus\":[1,{\"x\":2}]}]}},"
+				+ "\"Q3\":{\"id\":\"Q3\",\"missing\":\"\"},"
+				+ "\"Q4\":{\"id\":\"Q4\",\"labels\":{\"en\":{\"language\":\"en\",\"value\":\"four\"}},\"type\":\"item\"}"
+				+ "},\"success\":1}");
+
+		Map<String, EntityDocument> result = action.wbGetEntities("Q1|Q2|Q3|Q4",
+				null, null, null, null, null);
+
+		// Q2 cannot be read and Q3 is missing
+		assertEquals(2, result.size());
+		assertEquals("Q1", result.get("Q1").getEntityId().getId());
+		assertEquals("four", ((ItemDocument) result.get("Q4")).findLabel("en"));
+	}
+
+	@Test
+	public void testStreamingTitleAfterNestedFields()
+			throws MediaWikiApiErrorException, IOException {
+		Map<String, String> params = new HashMap<>();
+		params.put("action", "wbgetentities");
+		params.put("format", "json");
+		params.put("titles", "File:Test.jpg");
+		params.put("sites", "commonswiki");
+		this.con.setWebResource(params, "{\"entities\":{\"M5\":{\"type\":\"mediainfo\",\"id\":\"M5\","
+				+ "\"labels\":{\"en\":{\"language\":\"en\",\"value\":\"test\"}},"
+				+ "\"statements\":[],\"title\":\"File:Test.jpg\"}}}");
+
+		Map<String, EntityDocument> result = action.wbGetEntities(null,
+				"commonswiki", "File:Test.jpg", null, null, null);
+
+		assertEquals("M5", result.get("File:Test.jpg").getEntityId().getId());
+	}
+
+	@Test(expected = NoSuchEntityErrorException.class)
+	public void testStreamingError() throws MediaWikiApiErrorException,
+			IOException {
+		Map<String, String> params = new HashMap<>();
+		params.put("action", "wbgetentities");
+		params.put("format", "json");
+		params.put("ids", "bogus");
+		this.con.setWebResource(params, "{\"error\":{\"code\":\"no-such-entity\",\"info\":\"Could not find an entity\"},\"servedby\":\"mw1\"}");
+
+		action.wbGetEntities("bogus", null, null, null, null, null);
+	}
+
 }
@@ -0,0 +1,119 @@
+package org.wikidata.wdtk.wikibaseapi;
+
+/*
+ * #%L
+ * Wikidata Toolkit Wikibase API
+ * %%
+ * Copyright (C) 2014 - 2020 Wikidata Toolkit Developers
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.implementation.EntityDocumentImpl;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+import org.wikidata.wdtk.testing.MockStringContentFactory;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Simple benchmark that compares reading a wbgetentities response through a
+ * JSON tree, as {@link WbGetEntitiesAction} did before, with the single-pass
+ * reading that it uses now. The response contains 50 copies of the item Q42.
+ * This is not run as part of the tests. The number of rounds can be given
+ * as an argument. Allocated bytes are measured with the HotSpot thread MXBean
+ * and are an upper bound for the additional heap that the parsing needs.
+ */
+public class WbGetEntitiesParseBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+
+		MockBasicApiConnection connection = new MockBasicApiConnection();
+		WbGetEntitiesAction action = new WbGetEntitiesAction(connection,
+				Datamodel.SITE_WIKIDATA);
+		JsonNode item = action.mapper.readTree(
+				MockStringContentFactory.getStringFromUrl(
+						WbGetEntitiesParseBenchmark.class
+								.getResource("/wbgetentities-Q6-Q42-P31.json")))
+				.path("entities").path("Q42");
+		ObjectNode entities = action.mapper.createObjectNode();
+		for (int i = 0; i < 50; i++) {
+			entities.set("Q42-" + i, item);
+		}
+		ObjectNode root = action.mapper.createObjectNode();
+		root.set("entities", entities);
+		root.put("success", 1);
+		String json = action.mapper.writeValueAsString(root);
+		System.out.println("Response size: " + json.length() + " bytes");
+
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put("action", "wbgetentities");
+		parameters.put("format", "json");
+		parameters.put("ids", "Q42");
+		connection.setWebResource(parameters, json);
+		ObjectReader reader = action.mapper.readerFor(EntityDocumentImpl.class)
+				.with(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT);
+
+		for (int round = 0; round < 3; round++) {
+			measure("JSON tree", rounds, () -> {
+				Map<String, String> request = new HashMap<>();
+				request.put("action", "wbgetentities");
+				request.put("ids", "Q42");
+				JsonNode response = connection.sendJsonRequest("POST", request);
+				Map<String, EntityDocument> result = new HashMap<>();
+				Iterator<Map.Entry<String, JsonNode>> fields = response.path(
+						"entities").fields();
+				while (fields.hasNext()) {
+					Map.Entry<String, JsonNode> entry = fields.next();
+					result.put(entry.getKey(),
+							reader.treeToValue(entry.getValue(),
+									EntityDocumentImpl.class));
+				}
+				return result.size();
+			});
+			measure("Single pass", rounds, () -> action.wbGetEntities("Q42",
+					null, null, null, null, null).size());
+		}
+	}
+
+	interface Parse {
+		int run() throws Exception;
+	}
+
+	static void measure(String name, int rounds, Parse parse) throws Exception {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long id = Thread.currentThread().getId();
+		long allocated = threads.getThreadAllocatedBytes(id);
+		long cpu = threads.getCurrentThreadCpuTime();
+		int documents = 0;
+		for (int i = 0; i < rounds; i++) {
+			documents += parse.run();
+		}
+		cpu = threads.getCurrentThreadCpuTime() - cpu;
+		allocated = threads.getThreadAllocatedBytes(id) - allocated;
+		System.out.println(name + ": " + (cpu / rounds / 1000) + "us CPU and "
+				+ (allocated / rounds / 1024) + "KB allocated per response ("
+				+ documents + " documents)");
+	}
+}
@@ -22,6 +22,8 @@ package org.wikidata.wdtk.wikibaseapi;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -370,6 +372,93 @@ public class WikibaseDataFetcherTest {
 		assertEquals("M925243", result.get("File:Albert Einstein Head.jpg").getId());
 	}
 
+	@Test
+	public void testWbGetEntitiesAsyncSplitted() throws Exception {
+		Map<String, String> parameters1 = new HashMap<>();
+		setStandardParameters(parameters1);
+		parameters1.put("ids", "Q6|Q42|P31");
+		Map<String, String> parameters2 = new HashMap<>();
+		setStandardParameters(parameters2);
+		parameters2.put("ids", "Q1");
+		con.setWebResourceFromPath(parameters1, this.getClass(),
+				"/wbgetentities-Q6-Q42-P31.json", CompressionType.NONE);
+		con.setWebResourceFromPath(parameters2, this.getClass(),
+				"/wbgetentities-Q1.json", CompressionType.NONE);
+		wdf.maxListSize = 3;
+
+		Map<String, EntityDocument> results = wdf.getEntityDocumentsAsync(
+				Arrays.asList("Q6", "Q42", "P31", "Q1")).get();
+
+		assertEquals(3, results.size());
+		assertFalse(results.containsKey("Q6"));
+		assertTrue(results.containsKey("Q1"));
+		assertTrue(results.containsKey("P31"));
+		assertTrue(results.containsKey("Q42"));
+	}
+
+	@Test
+	public void testWbGetEntitiesAsyncError() throws Exception {
+		Map<String, String> parameters = new HashMap<>();
+		setStandardParameters(parameters);
+		parameters.put("ids", "bogus");
+		con.setWebResourceFromPath(parameters, getClass(),
+				"/wbgetentities-bogus.json", CompressionType.NONE);
+
+		CompletableFuture<Map<String, EntityDocument>> future = wdf
+				.getEntityDocumentsAsync(Collections.singletonList("bogus"));
+		try {
+			future.get();
+			fail("Expected an exception");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof NoSuchEntityErrorException);
+		}
+	}
+
+	@Test
+	public void testAsyncByTitleAndMediaInfoIds() throws Exception {
+		Map<String, String> parameters1 = new HashMap<>();
+		this.setStandardParameters(parameters1);
+		parameters1.put("titles", "Douglas Adams");
+		parameters1.put("sites", "enwiki");
+		con.setWebResourceFromPath(parameters1, getClass(),
+				"/wbgetentities-Douglas-Adams.json", CompressionType.NONE);
+		Map<String, String> parameters2 = new HashMap<>();
+		parameters2.put("action", "query");
+		parameters2.put("format", "json");
+		parameters2.put("titles", "File:Cat.jpg");
+		con.setWebResourceFromPath(parameters2, getClass(),
+				"/query-Cat.jpg.json", CompressionType.NONE);
+
+		CompletableFuture<Map<String, EntityDocument>> documents = wdf
+				.getEntityDocumentsByTitleAsync("enwiki",
+						Collections.singletonList("Douglas Adams"));
+		CompletableFuture<Map<String, MediaInfoIdValue>> ids = wdf
+				.getMediaInfoIdsByFileNameAsync(Collections
+						.singletonList("Cat.jpg"));
+
+		assertEquals("Q42", documents.get().get("Douglas Adams")
+				.getEntityId().getId());
+		assertEquals("M32455073", ids.get().get("Cat.jpg").getId());
+		assertTrue(wdf.getEntityDocumentsAsync(Collections.emptyList())
+				.get().isEmpty());
+	}
+
+	@Test
+	public void testWbSearchEntitiesAsync() throws Exception {
+		Map<String, String> parameters = new HashMap<>();
+		setStandardSearchParameters(parameters);
+		parameters.put("search", "abc");
+		parameters.put("language", "en");
+		con.setWebResourceFromPath(parameters, this.getClass(),
+				"/wbsearchentities-abc.json", CompressionType.NONE);
+
+		List<WbSearchEntitiesResult> results = wdf.searchEntitiesAsync("abc",
+				"en").get();
+
+		assertEquals(7, results.size());
+		assertEquals("Q169889", results.get(0).getEntityId());
+	}
+
 	private void setStandardParameters(Map<String, String> parameters) {
 		parameters.put("action", "wbgetentities");
 		parameters.put("format", "json");